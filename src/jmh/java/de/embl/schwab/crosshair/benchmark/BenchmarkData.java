@@ -0,0 +1,44 @@
+package de.embl.schwab.crosshair.benchmark;
+
+import de.embl.schwab.crosshair.settings.Settings;
+import de.embl.schwab.crosshair.settings.SettingsReader;
+import net.imglib2.RealPoint;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+// Fixtures shared by the benchmarks - the example block from the test resources, and synthetic point clouds
+class BenchmarkData {
+
+    static String getExampleBlockPath() {
+        ClassLoader classLoader = BenchmarkData.class.getClassLoader();
+        return new File(classLoader.getResource("exampleBlock.json").getFile()).getAbsolutePath();
+    }
+
+    static Settings readExampleBlockSettings() {
+        return new SettingsReader().readSettings( getExampleBlockPath() );
+    }
+
+    // Points scattered over a tilted plane through the centre of a 1000 pixel cube, with a little gaussian noise
+    // perpendicular to it, like points clicked on a block face
+    static ArrayList<RealPoint> createNoisyPlanePoints( int nPoints, long seed ) {
+        Random random = new Random( seed );
+        double[] normal = new double[]{ -0.125, 0.174, 0.977 };
+        double[] u = new double[]{ 1, 0, 0.128 };
+        double[] v = new double[]{ 0, 1, -0.178 };
+
+        ArrayList<RealPoint> points = new ArrayList<>( nPoints );
+        for ( int i = 0; i < nPoints; i++ ) {
+            double a = random.nextDouble() * 800 - 400;
+            double b = random.nextDouble() * 800 - 400;
+            double noise = random.nextGaussian();
+            double[] position = new double[3];
+            for ( int d = 0; d < 3; d++ ) {
+                position[d] = 500 + a * u[d] + b * v[d] + noise * normal[d];
+            }
+            points.add( new RealPoint( position ) );
+        }
+        return points;
+    }
+}
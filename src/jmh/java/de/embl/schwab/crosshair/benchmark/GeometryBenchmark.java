@@ -0,0 +1,82 @@
+package de.embl.schwab.crosshair.benchmark;
+
+import de.embl.schwab.crosshair.utils.GeometryUtils;
+import de.embl.schwab.crosshair.utils.PrimitiveGeometryUtils;
+import net.imglib2.RealPoint;
+import org.openjdk.jmh.annotations.*;
+import org.scijava.vecmath.Point3f;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class PointCloud {
+        @Param({"10", "1000", "100000", "1000000"})
+        public int nPoints;
+
+        public ArrayList<RealPoint> points;
+
+        @Setup
+        public void setup() {
+            points = BenchmarkData.createNoisyPlanePoints( nPoints, 42 );
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ImageBounds {
+        public double[] min = new double[]{0, 0, 0};
+        public double[] max = new double[]{1000, 1000, 1000};
+        // oblique plane, cuts the bounding box in a hexagon
+        public Vector3d planeNormal = new Vector3d(1, 1, 1);
+        public Vector3d planePoint = new Vector3d(500, 500, 500);
+        public double[] planeNormalDouble = new double[]{1, 1, 1};
+        public double[] planePointDouble = new double[]{500, 500, 500};
+
+        public double[][] intersectionsDouble = new double[PrimitiveGeometryUtils.MAX_BOX_INTERSECTIONS][3];
+        public double[] angles = new double[PrimitiveGeometryUtils.MAX_BOX_INTERSECTIONS];
+        public ArrayList<Vector3d> intersections;
+
+        @Setup
+        public void setup() {
+            intersections = GeometryUtils.calculateIntersections( min, max, planeNormal, planePoint );
+        }
+    }
+
+    @Benchmark
+    public ArrayList<Vector3d> fitPlaneToPoints( PointCloud cloud ) {
+        return GeometryUtils.fitPlaneToPoints( cloud.points );
+    }
+
+    @Benchmark
+    public ArrayList<Vector3d> calculateIntersections( ImageBounds bounds ) {
+        return GeometryUtils.calculateIntersections( bounds.min, bounds.max, bounds.planeNormal, bounds.planePoint );
+    }
+
+    @Benchmark
+    public int calculateIntersectionsPrimitive( ImageBounds bounds ) {
+        return PrimitiveGeometryUtils.calculateIntersections( bounds.min, bounds.max, bounds.planeNormalDouble,
+                bounds.planePointDouble, bounds.intersectionsDouble );
+    }
+
+    @Benchmark
+    public ArrayList<Point3f> calculateTrianglesFromPoints( ImageBounds bounds ) {
+        return GeometryUtils.calculateTrianglesFromPoints( bounds.intersections, bounds.planeNormal );
+    }
+
+    @Benchmark
+    public double[][] calculateIntersectionsAndSortPrimitive( ImageBounds bounds ) {
+        int nIntersections = PrimitiveGeometryUtils.calculateIntersections( bounds.min, bounds.max,
+                bounds.planeNormalDouble, bounds.planePointDouble, bounds.intersectionsDouble );
+        PrimitiveGeometryUtils.sortPointsByAngle( bounds.intersectionsDouble, nIntersections,
+                bounds.planeNormalDouble, bounds.angles );
+        return bounds.intersectionsDouble;
+    }
+}
@@ -0,0 +1,30 @@
+package de.embl.schwab.crosshair.benchmark;
+
+import de.embl.schwab.crosshair.settings.Settings;
+import de.embl.schwab.crosshair.settings.SettingsReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SettingsBenchmark {
+
+    private String exampleBlockPath;
+    private SettingsReader settingsReader;
+
+    @Setup
+    public void setup() {
+        exampleBlockPath = BenchmarkData.getExampleBlockPath();
+        settingsReader = new SettingsReader();
+    }
+
+    @Benchmark
+    public Settings readSettings() {
+        return settingsReader.readSettings( exampleBlockPath );
+    }
+}
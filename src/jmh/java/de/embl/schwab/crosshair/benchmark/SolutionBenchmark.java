@@ -0,0 +1,87 @@
+package de.embl.schwab.crosshair.benchmark;
+
+import de.embl.schwab.crosshair.Crosshair;
+import de.embl.schwab.crosshair.microtome.Microtome;
+import de.embl.schwab.crosshair.microtome.TargetOffsetAndTilt;
+import de.embl.schwab.crosshair.plane.BlockPlane;
+import de.embl.schwab.crosshair.plane.Plane;
+import de.embl.schwab.crosshair.plane.PlaneManager;
+import de.embl.schwab.crosshair.points.VertexDisplay;
+import de.embl.schwab.crosshair.settings.BlockPlaneSettings;
+import de.embl.schwab.crosshair.settings.PlaneSettings;
+import de.embl.schwab.crosshair.settings.Settings;
+import de.embl.schwab.crosshair.solution.SolutionSweep;
+import de.embl.schwab.crosshair.solution.SolutionSweeper;
+import de.embl.schwab.crosshair.solution.SolutionsCalculator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+// Solution calculations for the example block. The microtome / plane manager are mocked as in SolutionsCalculatorTest,
+// so this measures the calculation (plus a little mock overhead) without needing a 3D viewer or bdv.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SolutionBenchmark {
+
+    private BlockPlaneSettings blockPlaneSettings;
+    private PlaneSettings targetPlaneSettings;
+    private SolutionsCalculator solutionsCalculator;
+    private SolutionSweeper solutionSweeper;
+    private double rotation;
+
+    @Setup
+    public void setup() {
+        Settings settings = BenchmarkData.readExampleBlockSettings();
+        blockPlaneSettings = (BlockPlaneSettings) settings.planeNameToSettings.get( Crosshair.block );
+        targetPlaneSettings = settings.planeNameToSettings.get( Crosshair.target );
+
+        TargetOffsetAndTilt targetOffsetAndTilt = new TargetOffsetAndTilt( blockPlaneSettings.assignedVertices,
+                blockPlaneSettings.normal, targetPlaneSettings.normal );
+
+        VertexDisplay vertexDisplay = mock( VertexDisplay.class );
+        when( vertexDisplay.getAssignedVertices() ).thenReturn( blockPlaneSettings.assignedVertices );
+
+        PlaneManager planeManager = mock( PlaneManager.class );
+        when( planeManager.getPlane( Crosshair.target ) ).thenReturn( new Plane( targetPlaneSettings, null, null, null ) );
+        when( planeManager.getPlane( Crosshair.block ) ).thenReturn(
+                new BlockPlane( blockPlaneSettings, null, null, null, null ) );
+        when( planeManager.getVertexDisplay( Crosshair.block ) ).thenReturn( vertexDisplay );
+
+        Microtome microtome = mock( Microtome.class );
+        when( microtome.getInitialKnifeAngle() ).thenReturn( 10.0 );
+        when( microtome.getInitialTiltAngle() ).thenReturn( 5.0 );
+        when( microtome.getInitialTargetTilt() ).thenReturn( targetOffsetAndTilt.targetTilt );
+        when( microtome.getInitialTargetOffset() ).thenReturn( targetOffsetAndTilt.targetOffset );
+        when( microtome.getPlaneManager() ).thenReturn( planeManager );
+
+        solutionsCalculator = new SolutionsCalculator( microtome );
+        solutionSweeper = new SolutionSweeper( settings, 10.0, 5.0 );
+        rotation = -180;
+    }
+
+    @Benchmark
+    public double setSolutionFromRotation() {
+        // step through rotations like a slider drag, so results can't be cached
+        rotation = rotation >= 180 ? -180 : rotation + 0.01;
+        solutionsCalculator.setSolutionFromRotation( rotation );
+        return solutionsCalculator.getDistanceToCut();
+    }
+
+    @Benchmark
+    public TargetOffsetAndTilt targetOffsetAndTilt() {
+        return new TargetOffsetAndTilt( blockPlaneSettings.assignedVertices, blockPlaneSettings.normal,
+                targetPlaneSettings.normal );
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SolutionSweep fullRotationSweep() {
+        return solutionSweeper.sweep();
+    }
+}
@@ -5,9 +5,15 @@ import de.embl.schwab.crosshair.bdv.BdvBehaviours;
 import de.embl.schwab.crosshair.microtome.MicrotomeManager;
 import de.embl.schwab.crosshair.plane.PlaneManager;
 import de.embl.schwab.crosshair.ui.swing.CrosshairFrame;
+import de.embl.schwab.crosshair.volume.VolumeLevelOfDetail;
+import de.embl.schwab.crosshair.volume.VolumeRegionOfInterest;
+import ij.IJ;
 import ij3d.Content;
 import ij3d.Image3DUniverse;
 
+import javax.swing.*;
+import java.util.concurrent.Callable;
+
 import static de.embl.schwab.crosshair.utils.Utils.spaceOutWindows;
 
 // TODO - neaten up code structure, possibly clearer labelling of which coordinate system & units are being used
@@ -20,10 +26,8 @@ import static de.embl.schwab.crosshair.utils.Utils.spaceOutWindows;
 // TODO - Add a check that target plane is behind block face (or intersects it)
 // TODO - make GOTOs match normals properly? Issue is imglib2 uses a coordinate system from top left so normal vector t calculates is into page
 // not out of it, like our target normals are set?
-// TODO - make generic for any bit depth - currently only accepts 8 bit
 // TODO - make it so transparency panel doesn't appear if plane not initialised
 // TODO - do checks for legitimacy of values when load from settings? e.g. that vertices lie on the block plane
-// TODO - make so doesn't show windows until all loaded?
 // TODO - check against original blender solution. Make mock file for case of intersection with block face - check how two solutions compare
 
 
@@ -33,8 +37,60 @@ public class Crosshair {
 	public static final String block = "block";
 	public static final String image = "image";
 
+	private final BdvStackSource bdvStackSource;
+	private final Image3DUniverse universe;
+	private final String unit;
+
+	private final PlaneManager planeManager;
+	private final MicrotomeManager microtomeManager;
+	private final BdvBehaviours bdvBehaviours;
+
 	public Crosshair (BdvStackSource bdvStackSource, Image3DUniverse universe, Content imageContent, String unit) {
+		this.bdvStackSource = bdvStackSource;
+		this.universe = universe;
+		this.unit = unit;
+
+		this.planeManager = new PlaneManager(bdvStackSource, universe);
+		this.microtomeManager = new MicrotomeManager(planeManager, universe, bdvStackSource, unit);
+		this.bdvBehaviours = new BdvBehaviours(bdvStackSource.getBdvHandle(), planeManager, microtomeManager);
+
+		showImageContent( imageContent );
+	}
 
+	// Opens Crosshair without waiting for the image to load into the 3D viewer - bdv is usable straight away (points
+	// and planes added there are shown in 3D once the image is ready), while the given loader runs on a background
+	// thread. The Crosshair panel opens once loading finishes.
+	public Crosshair (BdvStackSource bdvStackSource, Image3DUniverse universe, Callable<Content> imageContentLoader,
+					  String unit) {
+		this.bdvStackSource = bdvStackSource;
+		this.universe = universe;
+		this.unit = unit;
+
+		this.planeManager = new PlaneManager(bdvStackSource, universe);
+		// microtome models are loaded in the background while the image loads
+		this.microtomeManager = new MicrotomeManager(planeManager, universe, bdvStackSource, unit);
+		this.bdvBehaviours = new BdvBehaviours(bdvStackSource.getBdvHandle(), planeManager, microtomeManager);
+
+		IJ.showStatus("Crosshair: loading image into 3D viewer...");
+		new Thread( () -> {
+			try {
+				Content imageContent = imageContentLoader.call();
+				SwingUtilities.invokeLater( () -> showImageContent( imageContent ) );
+			} catch ( Exception e ) {
+				IJ.showStatus("");
+				IJ.log("Crosshair: error loading image into 3D viewer");
+				IJ.handleException( e );
+				// the Crosshair panel never opens, so stop everything it would have stopped when closed
+				SwingUtilities.invokeLater( () -> {
+					planeManager.setImageContentLoadFailed();
+					microtomeManager.shutdown();
+					bdvBehaviours.shutdown();
+				});
+			}
+		}, "Crosshair image loader" ).start();
+	}
+
+	private void showImageContent( Content imageContent ) {
 		BdvHandle bdvHandle = bdvStackSource.getBdvHandle();
 		imageContent.setLocked(true);
 		imageContent.showPointList(true);
@@ -45,13 +101,19 @@ public class Crosshair {
 		// Still places so (0,0) of image == (0,0) in global coordinate system, just bounding box is wrapped tight to
 		// only regions of the image > 0
 
-		PlaneManager planeManager = new PlaneManager(bdvStackSource, universe, imageContent);
-
-		MicrotomeManager microtomeManager = new MicrotomeManager(planeManager, universe, imageContent, bdvStackSource, unit);
-		new BdvBehaviours(bdvHandle, planeManager, microtomeManager);
+		planeManager.setImageContent(imageContent);
+		VolumeLevelOfDetail volumeLevelOfDetail = new VolumeLevelOfDetail(universe);
+		volumeLevelOfDetail.addContent(imageContent);
+		planeManager.setVolumeLevelOfDetail(volumeLevelOfDetail);
+		VolumeRegionOfInterest<?> volumeRegionOfInterest =
+				VolumeRegionOfInterest.createFromSource(universe, planeManager.getImageSource(), imageContent);
+		volumeRegionOfInterest.setVolumeLevelOfDetail(volumeLevelOfDetail);
+		planeManager.setVolumeRegionOfInterest(volumeRegionOfInterest);
 
-		CrosshairFrame crosshairFrame = new CrosshairFrame(universe, imageContent, planeManager, microtomeManager, bdvHandle, unit);
+		CrosshairFrame crosshairFrame = new CrosshairFrame(universe, imageContent, planeManager, microtomeManager,
+				bdvBehaviours, bdvHandle, unit);
 
 		spaceOutWindows( bdvHandle, crosshairFrame, universe );
+		IJ.showStatus("Crosshair ready");
 	}
 }
@@ -0,0 +1,54 @@
+package de.embl.schwab.crosshair.bdv;
+
+import bdv.util.Bdv;
+
+// Repaints the bdv viewer - or, while a batch is in progress, once at the end of it. Shared by everything that draws
+// planes and points in the same viewer, so bulk changes (e.g. loading settings) only repaint once.
+// Repaints are requested from any thread (e.g. plane updates from the 3D viewer), so the batch state is only read and
+// written while synchronized on this.
+public class BatchedRepaint {
+
+    private final Runnable repaintAction;
+    private int batchDepth; // guarded by this
+    private boolean isRepaintPending; // guarded by this
+
+    public BatchedRepaint( Bdv bdv ) {
+        this( () -> bdv.getBdvHandle().getViewerPanel().requestRepaint() );
+    }
+
+    public BatchedRepaint( Runnable repaintAction ) {
+        this.repaintAction = repaintAction;
+        this.batchDepth = 0;
+        this.isRepaintPending = false;
+    }
+
+    public void requestRepaint() {
+        synchronized ( this ) {
+            if ( batchDepth > 0 ) {
+                isRepaintPending = true;
+                return;
+            }
+        }
+        repaintAction.run();
+    }
+
+    // Batches can be nested - the repaint happens when the outermost one ends
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    public void endBatch() {
+        synchronized ( this ) {
+            if ( batchDepth == 0 ) {
+                throw new UnsupportedOperationException( "endBatch called without beginBatch" );
+            }
+            batchDepth--;
+            if ( batchDepth > 0 || !isRepaintPending ) {
+                return;
+            }
+            isRepaintPending = false;
+        }
+        // outside the lock, so a slow repaint doesn't hold up threads requesting more
+        repaintAction.run();
+    }
+}
@@ -3,17 +3,27 @@ package de.embl.schwab.crosshair.bdv;
 import bdv.util.BdvHandle;
 import de.embl.cba.bdv.utils.popup.BdvPopupMenus;
 import de.embl.schwab.crosshair.Crosshair;
+import de.embl.schwab.crosshair.detection.BlockFaceDetector;
+import de.embl.schwab.crosshair.detection.BlockVertexDetector;
 import de.embl.schwab.crosshair.microtome.MicrotomeManager;
 import de.embl.schwab.crosshair.plane.BlockPlane;
 import de.embl.schwab.crosshair.plane.Plane;
 import de.embl.schwab.crosshair.plane.PlaneManager;
+import de.embl.schwab.crosshair.points.VertexDisplay;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.utils.CoalescingUpdateScheduler;
+import de.embl.schwab.crosshair.utils.PlaneFit;
+import de.embl.schwab.crosshair.volume.VolumeRegionOfInterest;
 import ij.IJ;
+import net.imglib2.RealPoint;
 import net.imglib2.realtransform.AffineTransform3D;
 import org.scijava.ui.behaviour.ClickBehaviour;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
 import org.scijava.ui.behaviour.util.Behaviours;
 
 import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Map;
 
 public class BdvBehaviours {
 
@@ -21,10 +31,14 @@ public class BdvBehaviours {
     private PlaneManager planeManager;
     private MicrotomeManager microtomeManager;
 
+    private double robustFitInlierThreshold = 1; // last threshold used for robust fitting, in image units
+    private final CoalescingUpdateScheduler trackingUpdates;
+
     public BdvBehaviours (BdvHandle bdvHandle, PlaneManager planeManager, MicrotomeManager microtomeManager) {
         this.bdvHandle = bdvHandle;
         this.planeManager = planeManager;
         this.microtomeManager = microtomeManager;
+        this.trackingUpdates = new CoalescingUpdateScheduler();
 
         installBehaviours();
     }
@@ -55,7 +69,32 @@ public class BdvBehaviours {
         }
     }
 
-    private void addFitToPointsBehaviour() {
+    private void addRobustFitToPointsBehaviour() {
+        double threshold = IJ.getNumber( "Max distance of points from plane (image units)", robustFitInlierThreshold );
+        if ( threshold == IJ.CANCELED ) {
+            return;
+        } else if ( !( threshold > 0 ) ) {
+            IJ.log("Max distance must be greater than 0");
+            return;
+        }
+        robustFitInlierThreshold = threshold;
+        addFitToPointsBehaviour( true );
+    }
+
+    private void fitToPoints( boolean robust ) {
+        if ( robust ) {
+            try {
+                planeManager.fitToPointsRobust( Crosshair.block, robustFitInlierThreshold );
+            } catch ( UnsupportedOperationException e ) {
+                // e.g. all points are collinear, so no plane can be fit
+                IJ.log( e.getMessage() );
+            }
+        } else {
+            planeManager.fitToPoints( Crosshair.block );
+        }
+    }
+
+    private void addFitToPointsBehaviour( boolean robust ) {
         if ( microtomeManager.isMicrotomeModeActive() ) {
             IJ.log("Can't fit to points when in microtome mode");
         } else if ( planeManager.isTrackingPlane() && planeManager.getTrackedPlaneName().equals( Crosshair.block ) ) {
@@ -64,20 +103,158 @@ public class BdvBehaviours {
             IJ.log("Block plane doesn't exist" );
         } else {
             BlockPlane plane = planeManager.getBlockPlane( Crosshair.block );
-            if ( plane.getVertexDisplay().getVertices().size() > 0 ) {
+            if ( plane.getVertexDisplay().getNumberOfVertices() > 0 ) {
                 int result = JOptionPane.showConfirmDialog(null, "If you fit the block plane to points, you will lose all current vertex points. Continue?", "Are you sure?",
                         JOptionPane.YES_NO_OPTION,
                         JOptionPane.QUESTION_MESSAGE);
                 if (result == JOptionPane.YES_OPTION) {
                     plane.getVertexDisplay().removeAllVertices();
-                    planeManager.fitToPoints( Crosshair.block );
+                    fitToPoints( robust );
                 }
             } else {
-                planeManager.fitToPoints( Crosshair.block );
+                fitToPoints( robust );
+            }
+        }
+    }
+
+    private void detectBlockFaceBehaviour() {
+        if ( microtomeManager.isMicrotomeModeActive() ) {
+            IJ.log("Can't detect block face when in microtome mode");
+        } else if ( planeManager.isTrackingPlane() && planeManager.getTrackedPlaneName().equals( Crosshair.block ) ) {
+            IJ.log("Can't detect block face when tracking block plane");
+        } else {
+            if ( planeManager.checkNamedPlaneExists( Crosshair.block ) &&
+                    planeManager.getVertexDisplay( Crosshair.block ).getNumberOfVertices() > 0 ) {
+                int result = JOptionPane.showConfirmDialog(null, "If you detect the block face, you will lose all current vertex points. Continue?", "Are you sure?",
+                        JOptionPane.YES_NO_OPTION,
+                        JOptionPane.QUESTION_MESSAGE);
+                if (result != JOptionPane.YES_OPTION) {
+                    return;
+                }
+            }
+
+            BlockFaceDetector<?> detector;
+            try {
+                detector = BlockFaceDetector.createFromSource( planeManager.getImageSource() );
+            } catch ( UnsupportedOperationException e ) {
+                IJ.log( e.getMessage() );
+                return;
+            }
+            // cast rays in the direction the user is currently looking
+            detector.setRayDirection( planeManager.getGlobalViewDirection() );
+
+            // reading the volume can take a while, so keep it off the event dispatch thread
+            IJ.log("Detecting block face...");
+            new Thread( () -> {
+                try {
+                    PlaneFit planeFit = detector.detect();
+                    SwingUtilities.invokeLater( () -> {
+                        // only lose the current vertices once there's a new block face to replace them
+                        if ( planeManager.checkNamedPlaneExists( Crosshair.block ) ) {
+                            planeManager.getVertexDisplay( Crosshair.block ).removeAllVertices();
+                        }
+                        planeManager.addOrUpdateBlockPlane( Crosshair.block, planeFit.getNormal(), planeFit.getPoint() );
+                        IJ.log( "Detected block face from " + planeFit.getNumberOfInliers() + " of " +
+                                detector.getNumberOfBoundaryPoints() + " boundary points. Residual RMS: " +
+                                planeFit.getResidualRMS() );
+                    });
+                } catch ( UnsupportedOperationException e ) {
+                    IJ.log( e.getMessage() );
+                } catch ( RuntimeException e ) {
+                    IJ.handleException( e );
+                }
+            }, "Crosshair block face detection" ).start();
+        }
+    }
+
+    private void toggleVolumeRegionOfInterestBehaviour() {
+        VolumeRegionOfInterest<?> volumeRegionOfInterest = planeManager.getVolumeRegionOfInterest();
+        if ( volumeRegionOfInterest == null ) {
+            IJ.log("3D view is still loading");
+        } else if ( volumeRegionOfInterest.isShown() ) {
+            volumeRegionOfInterest.hide();
+        } else if ( !planeManager.checkNamedPlaneExistsAndOrientationIsSet( Crosshair.block ) ||
+                !planeManager.checkNamedPlaneExistsAndOrientationIsSet( Crosshair.target ) ) {
+            IJ.log("Block and target planes must exist to show a region of interest");
+        } else {
+            Plane targetPlane = planeManager.getPlane( Crosshair.target );
+            try {
+                // only a handful of vertices, so copying them is cheap
+                ArrayList<RealPoint> blockVertices =
+                        planeManager.getVertexDisplay( Crosshair.block ).getVerticesSnapshot().toRealPoints();
+                volumeRegionOfInterest.show( blockVertices, targetPlane.getNormal(), targetPlane.getPoint() );
+            } catch ( UnsupportedOperationException e ) {
+                IJ.log( e.getMessage() );
+            }
+        }
+    }
+
+    private void detectBlockVerticesBehaviour() {
+        if ( microtomeManager.isMicrotomeModeActive() ) {
+            IJ.log("Can't change vertices when in microtome mode");
+        } else if ( planeManager.isTrackingPlane() ) {
+            IJ.log("Can't change vertices when tracking a plane");
+        } else if ( !planeManager.checkNamedPlaneExistsAndOrientationIsSet( Crosshair.block ) ) {
+            IJ.log("Block plane doesn't exist - vertices must lie on this plane!");
+        } else {
+            VertexDisplay vertexDisplay = planeManager.getVertexDisplay( Crosshair.block );
+            if ( vertexDisplay.getNumberOfVertices() > 0 ) {
+                int result = JOptionPane.showConfirmDialog(null, "Detecting vertices will replace all current vertex points. Continue?", "Are you sure?",
+                        JOptionPane.YES_NO_OPTION,
+                        JOptionPane.QUESTION_MESSAGE);
+                if (result != JOptionPane.YES_OPTION) {
+                    return;
+                }
+            }
+
+            BlockVertexDetector<?> detector;
+            try {
+                detector = BlockVertexDetector.createFromSource( planeManager.getImageSource() );
+            } catch ( UnsupportedOperationException e ) {
+                IJ.log( e.getMessage() );
+                return;
             }
+
+            Plane blockPlane = planeManager.getPlane( Crosshair.block );
+            double[] normal = new double[3];
+            double[] point = new double[3];
+            blockPlane.getNormal().get( normal );
+            blockPlane.getPoint().get( point );
+            // assume the user is looking at the block face from outside the block, and assign top / bottom
+            // relative to up on the screen
+            double[] outwardDirection = planeManager.getGlobalViewDirection();
+            for ( int i = 0; i < 3; i++ ) {
+                outwardDirection[i] = -outwardDirection[i];
+            }
+            double[] upDirection = planeManager.getGlobalViewUpDirection();
+
+            IJ.log("Detecting block vertices...");
+            new Thread( () -> {
+                try {
+                    Map<VertexPoint, double[]> vertices = detector.detect( normal, point, outwardDirection, upDirection );
+                    SwingUtilities.invokeLater( () -> {
+                        vertexDisplay.removeAllVertices();
+                        for ( Map.Entry<VertexPoint, double[]> entry: vertices.entrySet() ) {
+                            RealPoint vertex = new RealPoint( entry.getValue() );
+                            vertexDisplay.addVertex( vertex );
+                            vertexDisplay.assignVertex( entry.getKey(), vertex );
+                        }
+                        IJ.log("Detected and assigned " + vertices.size() + " block vertices");
+                    });
+                } catch ( UnsupportedOperationException e ) {
+                    IJ.log( e.getMessage() );
+                } catch ( RuntimeException e ) {
+                    IJ.handleException( e );
+                }
+            }, "Crosshair block vertex detection" ).start();
         }
     }
 
+    // Call when Crosshair closes - stops drawing tracked planes that haven't been drawn yet
+    public void shutdown() {
+        trackingUpdates.shutdown();
+    }
+
     private void installBehaviours() {
         final Behaviours behaviours = new Behaviours(new InputTriggerConfig());
         behaviours.install( bdvHandle.getTriggerbindings(), Crosshair.target );
@@ -86,7 +263,19 @@ public class BdvBehaviours {
             @Override
             public void transformChanged(AffineTransform3D affineTransform3D) {
                 if ( planeManager.isTrackingPlane() ) {
-                    planeManager.updatePlaneOnTransformChange( affineTransform3D, planeManager.getTrackedPlaneName() );
+                    // redrawing the plane in the 3D viewer can be slow, so do it on the scheduler (only the latest
+                    // transform of a burst is drawn, once per frame) to keep bdv responsive. The plane's mesh is
+                    // calculated on its worker, from a copy of the transform - the EDT only writes it to the plane.
+                    final AffineTransform3D transform = affineTransform3D.copy();
+                    final String trackedPlaneName = planeManager.getTrackedPlaneName();
+                    trackingUpdates.schedule(
+                            () -> planeManager.calculatePlaneGeometryFromViewTransform( transform ),
+                            planeGeometry -> {
+                                if ( planeManager.isTrackingPlane() ) {
+                                    planeManager.updatePlane( planeGeometry, trackedPlaneName );
+                                    planeManager.notifyVolumeInteraction();
+                                }
+                            });
                 }
             }
         });
@@ -137,7 +326,27 @@ public class BdvBehaviours {
 
         BdvPopupMenus.addAction(bdvHandle, "Fit To Points", ( x, y ) ->
         {
-                addFitToPointsBehaviour();
+                addFitToPointsBehaviour( false );
+        });
+
+        BdvPopupMenus.addAction(bdvHandle, "Robust Fit To Points", ( x, y ) ->
+        {
+                addRobustFitToPointsBehaviour();
+        });
+
+        BdvPopupMenus.addAction(bdvHandle, "Detect Block Face", ( x, y ) ->
+        {
+                detectBlockFaceBehaviour();
+        });
+
+        BdvPopupMenus.addAction(bdvHandle, "Detect Block Vertices", ( x, y ) ->
+        {
+                detectBlockVerticesBehaviour();
+        });
+
+        BdvPopupMenus.addAction(bdvHandle, "Toggle 3D Region Of Interest", ( x, y ) ->
+        {
+                toggleVolumeRegionOfInterestBehaviour();
         });
 
     }
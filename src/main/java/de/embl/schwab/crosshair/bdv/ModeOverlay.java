@@ -19,6 +19,12 @@ public class ModeOverlay extends BdvOverlay  {
         // add text for any active modes
         graphics.setColor(colModeText);
 
+        if ( planeManager.isImageContentLoadFailed() ) {
+            drawLoadingText(graphics, "3D view failed to load - see the log");
+        } else if ( !planeManager.isImageContentLoaded() ) {
+            drawLoadingText(graphics, "Loading 3D view...");
+        }
+
         if ( planeManager.isInPointMode() ) {
             String text = "Point Mode";
             drawModeText(graphics, text);
@@ -34,4 +40,9 @@ public class ModeOverlay extends BdvOverlay  {
         graphics.drawString( text, (int) graphics.getClipBounds().getWidth() - text_width - 10,
                 (int)graphics.getClipBounds().getHeight() - 16 );
     }
+
+    private void drawLoadingText (Graphics2D graphics, String text) {
+        graphics.setFont( new Font( "Monospaced", Font.PLAIN, 16 ) );
+        graphics.drawString( text, 10, (int)graphics.getClipBounds().getHeight() - 16 );
+    }
 }
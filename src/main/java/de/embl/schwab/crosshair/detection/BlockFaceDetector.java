@@ -0,0 +1,409 @@
+package de.embl.schwab.crosshair.detection;
+
+import bdv.viewer.Source;
+import de.embl.schwab.crosshair.utils.PlaneFit;
+import de.embl.schwab.crosshair.utils.RobustPlaneFitter;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.Math.*;
+
+// Automatically finds the block face (the resin / air boundary) in an image volume, rather than the user clicking
+// points on it.
+// Rays are cast through the volume along one image axis, from the side facing the viewer. The first position on each
+// ray where intensity crosses the resin threshold (by default from Otsu's method) is a boundary point, and the block
+// plane is robustly fit to these points - so rays that hit the sides of the block, or dust, are rejected as outliers.
+// Rays are processed in tiles on a fixed thread pool, and only one voxel per ray step is read, so memory use is
+// bounded by the number of boundary points (not the size of the volume).
+public class BlockFaceDetector<T extends RealType<T>> {
+
+    public static final int DEFAULT_RAY_SPACING = 4; // voxels between neighbouring rays
+    public static final int DEFAULT_MIN_RUN_LENGTH = 3; // consecutive voxels above threshold to count as resin
+
+    private static final int TILE_SIZE = 64; // rays per tile along each axis
+    private static final long MAX_HISTOGRAM_SAMPLES = 1L << 24;
+    private static final int HISTOGRAM_BINS = 256;
+
+    private final RandomAccessibleInterval<T> image;
+    private final AffineTransform3D sourceTransform; // voxel -> global coordinates
+
+    private int rayAxis;
+    private boolean rayPositiveDirection;
+    private int raySpacing;
+    private int minRunLength;
+    private double threshold; // NaN for automatic
+    private double inlierThreshold; // in global units, NaN for automatic
+    private int numberOfThreads;
+
+    private double[] boundaryPoints; // interleaved x, y, z in global coordinates, from last detection
+    private int numberOfBoundaryPoints;
+    private double usedThreshold;
+
+    public BlockFaceDetector( RandomAccessibleInterval<T> image, AffineTransform3D sourceTransform ) {
+        if ( image.numDimensions() != 3 ) {
+            throw new UnsupportedOperationException( "Block face detection needs a 3D image" );
+        }
+        this.image = image;
+        this.sourceTransform = sourceTransform.copy();
+        this.rayAxis = 2;
+        this.rayPositiveDirection = true;
+        this.raySpacing = DEFAULT_RAY_SPACING;
+        this.minRunLength = DEFAULT_MIN_RUN_LENGTH;
+        this.threshold = Double.NaN;
+        this.inlierThreshold = Double.NaN;
+        this.numberOfThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    // Detector for the full resolution image of a bdv source, at the first timepoint
+    public static BlockFaceDetector<?> createFromSource( Source<?> source ) {
+        if ( !( source.getType() instanceof RealType ) ) {
+            throw new UnsupportedOperationException( "Block face detection needs a greyscale image" );
+        }
+        return createFromRealSource( (Source) source );
+    }
+
+    private static <T extends RealType<T>> BlockFaceDetector<T> createFromRealSource( Source<T> source ) {
+        AffineTransform3D sourceTransform = new AffineTransform3D();
+        source.getSourceTransform( 0, 0, sourceTransform );
+        return new BlockFaceDetector<>( source.getSource( 0, 0 ), sourceTransform );
+    }
+
+    public void setRayAxis( int axis, boolean positiveDirection ) {
+        this.rayAxis = axis;
+        this.rayPositiveDirection = positiveDirection;
+    }
+
+    // Cast rays along the image axis closest to the given direction (in global coordinates), e.g. the current
+    // viewing direction in bdv
+    public void setRayDirection( double[] globalDirection ) {
+        // direction in voxel space - translation cancels out between the two points
+        double[] origin = new double[3];
+        double[] voxelOrigin = new double[3];
+        double[] voxelEnd = new double[3];
+        AffineTransform3D inverse = sourceTransform.inverse();
+        inverse.apply( origin, voxelOrigin );
+        inverse.apply( globalDirection, voxelEnd );
+
+        int axis = 0;
+        double maxComponent = 0;
+        for ( int d = 0; d < 3; d++ ) {
+            double component = voxelEnd[d] - voxelOrigin[d];
+            if ( abs( component ) > abs( maxComponent ) ) {
+                maxComponent = component;
+                axis = d;
+            }
+        }
+        setRayAxis( axis, maxComponent >= 0 );
+    }
+
+    public void setRaySpacing( int raySpacing ) {
+        this.raySpacing = max( 1, raySpacing );
+    }
+
+    public void setMinRunLength( int minRunLength ) {
+        this.minRunLength = max( 1, minRunLength );
+    }
+
+    // Intensity separating air from resin, NaN to calculate automatically with Otsu's method
+    public void setThreshold( double threshold ) {
+        this.threshold = threshold;
+    }
+
+    // Max distance of boundary points from the plane (global units), NaN to use 2 voxels
+    public void setInlierThreshold( double inlierThreshold ) {
+        this.inlierThreshold = inlierThreshold;
+    }
+
+    public void setNumberOfThreads( int numberOfThreads ) {
+        this.numberOfThreads = max( 1, numberOfThreads );
+    }
+
+    public double getUsedThreshold() {
+        return usedThreshold;
+    }
+
+    public int getNumberOfBoundaryPoints() {
+        return numberOfBoundaryPoints;
+    }
+
+    // boundary points found by last detection, as interleaved x, y, z global coordinates
+    public double[] getBoundaryPoints() {
+        double[] points = new double[3 * numberOfBoundaryPoints];
+        System.arraycopy( boundaryPoints, 0, points, 0, points.length );
+        return points;
+    }
+
+    // Returns plane fit to the block face in global coordinates
+    public PlaneFit detect() {
+        ExecutorService executorService = Executors.newFixedThreadPool( numberOfThreads );
+        try {
+            usedThreshold = Double.isNaN( threshold ) ? calculateOtsuThreshold( executorService ) : threshold;
+            findBoundaryPoints( executorService );
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        if ( numberOfBoundaryPoints < 3 ) {
+            throw new UnsupportedOperationException( "Couldn't find the block face - too few boundary points" );
+        }
+
+        double[] points = getBoundaryPoints();
+        return new RobustPlaneFitter( getInlierThreshold() ).fit( points );
+    }
+
+    private double getInlierThreshold() {
+        if ( !Double.isNaN( inlierThreshold ) ) {
+            return inlierThreshold;
+        }
+
+        // 2 voxels, using the smallest voxel size
+        double minVoxelSize = Double.POSITIVE_INFINITY;
+        for ( int d = 0; d < 3; d++ ) {
+            double voxelSize = sqrt( pow( sourceTransform.get(0, d), 2 ) + pow( sourceTransform.get(1, d), 2 ) +
+                    pow( sourceTransform.get(2, d), 2 ) );
+            minVoxelSize = min( minVoxelSize, voxelSize );
+        }
+        return 2 * minVoxelSize;
+    }
+
+    private <R> List<R> runAll( ExecutorService executorService, List<Callable<R>> tasks ) {
+        List<R> results = new ArrayList<>();
+        try {
+            for ( Future<R> future: executorService.invokeAll( tasks ) ) {
+                results.add( future.get() );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new UnsupportedOperationException( "Block face detection was interrupted" );
+        } catch ( ExecutionException e ) {
+            throw new RuntimeException( e.getCause() );
+        }
+        return results;
+    }
+
+    // Otsu's threshold from a subsampled histogram of the whole volume
+    private double calculateOtsuThreshold( ExecutorService executorService ) {
+        long nVoxels = 1;
+        for ( int d = 0; d < 3; d++ ) {
+            nVoxels *= image.dimension(d);
+        }
+        // sample every step voxels along each axis, so memory and time don't grow with the volume
+        int step = (int) max( 1, ceil( cbrt( (double) nVoxels / MAX_HISTOGRAM_SAMPLES ) ) );
+
+        // first pass for the intensity range, second to fill the histogram
+        List<Callable<double[]>> rangeTasks = new ArrayList<>();
+        for ( long z = image.min(2); z <= image.max(2); z += (long) step * TILE_SIZE ) {
+            final long zStart = z;
+            rangeTasks.add( () -> sampleRange( zStart, step ) );
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for ( double[] range: runAll( executorService, rangeTasks ) ) {
+            min = min( min, range[0] );
+            max = max( max, range[1] );
+        }
+        if ( !( max > min ) ) {
+            return min;
+        }
+
+        final double histogramMin = min;
+        final double binWidth = ( max - min ) / HISTOGRAM_BINS;
+        List<Callable<long[]>> histogramTasks = new ArrayList<>();
+        for ( long z = image.min(2); z <= image.max(2); z += (long) step * TILE_SIZE ) {
+            final long zStart = z;
+            histogramTasks.add( () -> sampleHistogram( zStart, step, histogramMin, binWidth ) );
+        }
+        long[] histogram = new long[HISTOGRAM_BINS];
+        for ( long[] tileHistogram: runAll( executorService, histogramTasks ) ) {
+            for ( int i = 0; i < HISTOGRAM_BINS; i++ ) {
+                histogram[i] += tileHistogram[i];
+            }
+        }
+
+        return histogramMin + ( calculateOtsuBin( histogram ) + 1 ) * binWidth;
+    }
+
+    private double[] sampleRange( long zStart, int step ) {
+        RandomAccess<T> access = image.randomAccess();
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        long zEnd = min( image.max(2), zStart + (long) step * TILE_SIZE - 1 );
+        for ( long z = zStart; z <= zEnd; z += step ) {
+            access.setPosition( z, 2 );
+            for ( long y = image.min(1); y <= image.max(1); y += step ) {
+                access.setPosition( y, 1 );
+                for ( long x = image.min(0); x <= image.max(0); x += step ) {
+                    access.setPosition( x, 0 );
+                    double value = access.get().getRealDouble();
+                    min = min( min, value );
+                    max = max( max, value );
+                }
+            }
+        }
+        return new double[]{ min, max };
+    }
+
+    private long[] sampleHistogram( long zStart, int step, double histogramMin, double binWidth ) {
+        RandomAccess<T> access = image.randomAccess();
+        long[] histogram = new long[HISTOGRAM_BINS];
+        long zEnd = min( image.max(2), zStart + (long) step * TILE_SIZE - 1 );
+        for ( long z = zStart; z <= zEnd; z += step ) {
+            access.setPosition( z, 2 );
+            for ( long y = image.min(1); y <= image.max(1); y += step ) {
+                access.setPosition( y, 1 );
+                for ( long x = image.min(0); x <= image.max(0); x += step ) {
+                    access.setPosition( x, 0 );
+                    int bin = (int) ( ( access.get().getRealDouble() - histogramMin ) / binWidth );
+                    histogram[ min( max( bin, 0 ), HISTOGRAM_BINS - 1 ) ]++;
+                }
+            }
+        }
+        return histogram;
+    }
+
+    // Index of the last bin below the threshold, maximising between class variance
+    static int calculateOtsuBin( long[] histogram ) {
+        long total = 0;
+        double sum = 0;
+        for ( int i = 0; i < histogram.length; i++ ) {
+            total += histogram[i];
+            sum += (double) i * histogram[i];
+        }
+
+        long weightBackground = 0;
+        double sumBackground = 0;
+        double maxVariance = -1;
+        int thresholdBin = 0;
+        for ( int i = 0; i < histogram.length - 1; i++ ) {
+            weightBackground += histogram[i];
+            if ( weightBackground == 0 ) {
+                continue;
+            }
+            long weightForeground = total - weightBackground;
+            if ( weightForeground == 0 ) {
+                break;
+            }
+            sumBackground += (double) i * histogram[i];
+            double meanBackground = sumBackground / weightBackground;
+            double meanForeground = ( sum - sumBackground ) / weightForeground;
+            double variance = (double) weightBackground * weightForeground *
+                    ( meanBackground - meanForeground ) * ( meanBackground - meanForeground );
+            if ( variance > maxVariance ) {
+                maxVariance = variance;
+                thresholdBin = i;
+            }
+        }
+        return thresholdBin;
+    }
+
+    private void findBoundaryPoints( ExecutorService executorService ) {
+        int uAxis = ( rayAxis + 1 ) % 3;
+        int vAxis = ( rayAxis + 2 ) % 3;
+        long nRaysU = ( image.dimension( uAxis ) + raySpacing - 1 ) / raySpacing;
+        long nRaysV = ( image.dimension( vAxis ) + raySpacing - 1 ) / raySpacing;
+
+        List<Callable<double[]>> tasks = new ArrayList<>();
+        for ( long tileU = 0; tileU < nRaysU; tileU += TILE_SIZE ) {
+            for ( long tileV = 0; tileV < nRaysV; tileV += TILE_SIZE ) {
+                final long startU = tileU;
+                final long startV = tileV;
+                final long endU = min( nRaysU, tileU + TILE_SIZE );
+                final long endV = min( nRaysV, tileV + TILE_SIZE );
+                tasks.add( () -> castRays( uAxis, vAxis, startU, endU, startV, endV ) );
+            }
+        }
+
+        List<double[]> tilePoints = runAll( executorService, tasks );
+        numberOfBoundaryPoints = 0;
+        for ( double[] points: tilePoints ) {
+            numberOfBoundaryPoints += (int) points[0];
+        }
+        boundaryPoints = new double[3 * numberOfBoundaryPoints];
+        int offset = 0;
+        for ( double[] points: tilePoints ) {
+            int length = 3 * (int) points[0];
+            System.arraycopy( points, 1, boundaryPoints, offset, length );
+            offset += length;
+        }
+    }
+
+    // Casts one tile of rays. Returns the number of boundary points found, followed by their interleaved global
+    // coordinates.
+    private double[] castRays( int uAxis, int vAxis, long startU, long endU, long startV, long endV ) {
+        RandomAccess<T> access = image.randomAccess();
+        double[] points = new double[1 + 3 * (int) ( ( endU - startU ) * ( endV - startV ) )];
+        double[] voxelPosition = new double[3];
+        double[] globalPosition = new double[3];
+        int nPoints = 0;
+
+        long rayStart = rayPositiveDirection ? image.min( rayAxis ) : image.max( rayAxis );
+        long rayEnd = rayPositiveDirection ? image.max( rayAxis ) : image.min( rayAxis );
+        int rayStep = rayPositiveDirection ? 1 : -1;
+
+        for ( long u = startU; u < endU; u++ ) {
+            long uPosition = image.min( uAxis ) + u * raySpacing;
+            for ( long v = startV; v < endV; v++ ) {
+                long vPosition = image.min( vAxis ) + v * raySpacing;
+                access.setPosition( uPosition, uAxis );
+                access.setPosition( vPosition, vAxis );
+
+                double hit = findFirstCrossing( access, rayStart, rayEnd, rayStep );
+                if ( !Double.isNaN( hit ) ) {
+                    voxelPosition[ uAxis ] = uPosition;
+                    voxelPosition[ vAxis ] = vPosition;
+                    voxelPosition[ rayAxis ] = hit;
+                    sourceTransform.apply( voxelPosition, globalPosition );
+                    System.arraycopy( globalPosition, 0, points, 1 + 3 * nPoints, 3 );
+                    nPoints++;
+                }
+            }
+        }
+
+        points[0] = nPoints;
+        return points;
+    }
+
+    // Sub-voxel position along the ray where intensity first rises above the threshold and stays there for
+    // minRunLength voxels. NaN if the ray never enters resin, or starts inside it (i.e. the block is cut off by the
+    // edge of the image, so the boundary isn't the block face).
+    private double findFirstCrossing( RandomAccess<T> access, long rayStart, long rayEnd, int rayStep ) {
+        double previousValue = Double.NaN;
+        double runStartPosition = Double.NaN;
+        int runLength = 0;
+
+        for ( long position = rayStart; position != rayEnd + rayStep; position += rayStep ) {
+            access.setPosition( position, rayAxis );
+            double value = access.get().getRealDouble();
+
+            if ( value >= usedThreshold ) {
+                if ( Double.isNaN( previousValue ) ) {
+                    return Double.NaN;
+                }
+                if ( runLength == 0 ) {
+                    // interpolate between the last air voxel and first resin voxel
+                    double fraction = ( usedThreshold - previousValue ) / ( value - previousValue );
+                    runStartPosition = position - rayStep + rayStep * fraction;
+                }
+                runLength++;
+                if ( runLength >= minRunLength ) {
+                    return runStartPosition;
+                }
+            } else {
+                runLength = 0;
+            }
+            previousValue = value;
+        }
+
+        return Double.NaN;
+    }
+}
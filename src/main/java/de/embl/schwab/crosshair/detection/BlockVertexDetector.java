@@ -0,0 +1,430 @@
+package de.embl.schwab.crosshair.detection;
+
+import bdv.viewer.Source;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.utils.PrimitiveGeometryUtils;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.Math.*;
+
+// Automatically finds the four corners of the block face, given the fitted block plane.
+// The volume is resliced just inside the block face, and thresholded to give the block face polygon (the largest
+// connected region of resin). The convex hull of this region is simplified to a quadrilateral, and its corners assigned
+// to top left / top right / bottom left / bottom right, relative to a given 'up' direction.
+// As for TargetOffsetAndTilt, bottom right - bottom left runs along the bottom edge, and top left - bottom left points
+// up. Looking at the block face from outside the block, left and right are as the viewer sees them.
+public class BlockVertexDetector<T extends RealType<T>> {
+
+    public static final int MAX_SLICE_SIZE = 1024; // max samples along each axis of the reslice
+    public static final int MAX_THREADS = 8;
+
+    private static final int ROWS_PER_TASK = 32;
+    private static final int HISTOGRAM_BINS = 256;
+
+    private final RandomAccessibleInterval<T> image;
+    private final AffineTransform3D sourceTransform; // voxel -> global coordinates
+    private final AffineTransform3D inverseSourceTransform;
+
+    private double threshold; // NaN for automatic
+    private double depth; // distance inside the block face to reslice (global units), NaN for automatic
+    private int numberOfThreads;
+
+    private double usedThreshold;
+
+    public BlockVertexDetector( RandomAccessibleInterval<T> image, AffineTransform3D sourceTransform ) {
+        if ( image.numDimensions() != 3 ) {
+            throw new UnsupportedOperationException( "Block vertex detection needs a 3D image" );
+        }
+        this.image = image;
+        this.sourceTransform = sourceTransform.copy();
+        this.inverseSourceTransform = sourceTransform.inverse();
+        this.threshold = Double.NaN;
+        this.depth = Double.NaN;
+        this.numberOfThreads = min( MAX_THREADS, Runtime.getRuntime().availableProcessors() );
+    }
+
+    // Detector for the full resolution image of a bdv source, at the first timepoint
+    public static BlockVertexDetector<?> createFromSource( Source<?> source ) {
+        if ( !( source.getType() instanceof RealType ) ) {
+            throw new UnsupportedOperationException( "Block vertex detection needs a greyscale image" );
+        }
+        return createFromRealSource( (Source) source );
+    }
+
+    private static <T extends RealType<T>> BlockVertexDetector<T> createFromRealSource( Source<T> source ) {
+        AffineTransform3D sourceTransform = new AffineTransform3D();
+        source.getSourceTransform( 0, 0, sourceTransform );
+        return new BlockVertexDetector<>( source.getSource( 0, 0 ), sourceTransform );
+    }
+
+    // Intensity separating air from resin, NaN to calculate automatically with Otsu's method
+    public void setThreshold( double threshold ) {
+        this.threshold = threshold;
+    }
+
+    public void setDepth( double depth ) {
+        this.depth = depth;
+    }
+
+    public void setNumberOfThreads( int numberOfThreads ) {
+        this.numberOfThreads = max( 1, min( MAX_THREADS, numberOfThreads ) );
+    }
+
+    public double getUsedThreshold() {
+        return usedThreshold;
+    }
+
+    // Returns the assigned block face corners in global coordinates. outwardDirection points out of the block (i.e. from
+    // resin into air), and upDirection is the 'up' direction for the vertex assignment, e.g. up on the screen in bdv.
+    // Neither need to be exactly in the plane.
+    public Map<VertexPoint, double[]> detect( double[] planeNormal, double[] planePoint,
+                                            double[] outwardDirection, double[] upDirection ) {
+        // in-plane basis: normal points out of the block, right x up = normal
+        double[] normal = planeNormal.clone();
+        PrimitiveGeometryUtils.normalize( normal );
+        if ( PrimitiveGeometryUtils.dot( normal, outwardDirection ) < 0 ) {
+            for ( int i = 0; i < 3; i++ ) {
+                normal[i] = -normal[i];
+            }
+        }
+        double[] up = new double[3];
+        double upDotNormal = PrimitiveGeometryUtils.dot( upDirection, normal );
+        for ( int i = 0; i < 3; i++ ) {
+            up[i] = upDirection[i] - upDotNormal * normal[i];
+        }
+        if ( PrimitiveGeometryUtils.length( up ) < 1E-10 ) {
+            throw new UnsupportedOperationException( "Up direction can't be parallel to the block normal" );
+        }
+        PrimitiveGeometryUtils.normalize( up );
+        double[] right = new double[3];
+        PrimitiveGeometryUtils.cross( up, normal, right );
+
+        Slice slice = createSlice( normal, planePoint, right, up );
+        ExecutorService executorService = Executors.newFixedThreadPool( numberOfThreads );
+        try {
+            sampleSlice( slice, executorService );
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        usedThreshold = Double.isNaN( threshold ) ? calculateOtsuThreshold( slice.values ) : threshold;
+        boolean[] mask = findLargestRegion( slice.values, slice.width, slice.height, usedThreshold );
+
+        List<double[]> hull = calculateConvexHull( mask, slice.width, slice.height );
+        if ( hull.size() < 4 ) {
+            throw new UnsupportedOperationException( "Couldn't find the block face polygon" );
+        }
+        simplifyToQuadrilateral( hull );
+
+        // back to global coordinates, on the block plane itself
+        double[][] corners = new double[4][2];
+        for ( int i = 0; i < 4; i++ ) {
+            corners[i][0] = slice.minRight + hull.get(i)[0] * slice.spacing;
+            corners[i][1] = slice.minUp + hull.get(i)[1] * slice.spacing;
+        }
+        VertexPoint[] assignment = assignVertices( corners );
+
+        Map<VertexPoint, double[]> vertices = new EnumMap<>( VertexPoint.class );
+        for ( int i = 0; i < 4; i++ ) {
+            double[] vertex = new double[3];
+            for ( int d = 0; d < 3; d++ ) {
+                vertex[d] = planePoint[d] + corners[i][0] * right[d] + corners[i][1] * up[d];
+            }
+            vertices.put( assignment[i], vertex );
+        }
+        return vertices;
+    }
+
+    // Grid of samples on a plane parallel to the block face, just inside the block
+    private static class Slice {
+        double[] origin; // global position of sample (0, 0)
+        double[] right;
+        double[] up;
+        double minRight; // in-plane coordinates of sample (0, 0), relative to the plane point
+        double minUp;
+        double spacing;
+        int width;
+        int height;
+        float[] values;
+    }
+
+    private Slice createSlice( double[] normal, double[] planePoint, double[] right, double[] up ) {
+        // extent of the image bounding box, projected onto the plane
+        double minRight = Double.POSITIVE_INFINITY;
+        double maxRight = Double.NEGATIVE_INFINITY;
+        double minUp = Double.POSITIVE_INFINITY;
+        double maxUp = Double.NEGATIVE_INFINITY;
+        double[] corner = new double[3];
+        double[] globalCorner = new double[3];
+        double[] offset = new double[3];
+        for ( int i = 0; i < 8; i++ ) {
+            for ( int d = 0; d < 3; d++ ) {
+                corner[d] = ( ( i >> d ) & 1 ) == 0 ? image.min(d) : image.max(d);
+            }
+            sourceTransform.apply( corner, globalCorner );
+            PrimitiveGeometryUtils.subtract( globalCorner, planePoint, offset );
+            minRight = min( minRight, PrimitiveGeometryUtils.dot( offset, right ) );
+            maxRight = max( maxRight, PrimitiveGeometryUtils.dot( offset, right ) );
+            minUp = min( minUp, PrimitiveGeometryUtils.dot( offset, up ) );
+            maxUp = max( maxUp, PrimitiveGeometryUtils.dot( offset, up ) );
+        }
+
+        double voxelSize = getMinVoxelSize();
+        double spacing = max( voxelSize, max( maxRight - minRight, maxUp - minUp ) / MAX_SLICE_SIZE );
+        double sliceDepth = Double.isNaN( depth ) ? 2 * voxelSize : depth;
+
+        Slice slice = new Slice();
+        slice.right = right;
+        slice.up = up;
+        slice.minRight = minRight;
+        slice.minUp = minUp;
+        slice.spacing = spacing;
+        slice.width = (int) ceil( ( maxRight - minRight ) / spacing ) + 1;
+        slice.height = (int) ceil( ( maxUp - minUp ) / spacing ) + 1;
+        slice.origin = new double[3];
+        for ( int d = 0; d < 3; d++ ) {
+            slice.origin[d] = planePoint[d] + minRight * right[d] + minUp * up[d] - sliceDepth * normal[d];
+        }
+        slice.values = new float[ slice.width * slice.height ];
+        return slice;
+    }
+
+    private double getMinVoxelSize() {
+        double minVoxelSize = Double.POSITIVE_INFINITY;
+        for ( int d = 0; d < 3; d++ ) {
+            double voxelSize = sqrt( pow( sourceTransform.get(0, d), 2 ) + pow( sourceTransform.get(1, d), 2 ) +
+                    pow( sourceTransform.get(2, d), 2 ) );
+            minVoxelSize = min( minVoxelSize, voxelSize );
+        }
+        return minVoxelSize;
+    }
+
+    private void sampleSlice( Slice slice, ExecutorService executorService ) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for ( int row = 0; row < slice.height; row += ROWS_PER_TASK ) {
+            final int startRow = row;
+            final int endRow = min( slice.height, row + ROWS_PER_TASK );
+            tasks.add( () -> {
+                sampleRows( slice, startRow, endRow );
+                return null;
+            });
+        }
+
+        try {
+            for ( Future<Void> future: executorService.invokeAll( tasks ) ) {
+                future.get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new UnsupportedOperationException( "Block vertex detection was interrupted" );
+        } catch ( ExecutionException e ) {
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    // nearest neighbour sampling, positions outside the image are NaN
+    private void sampleRows( Slice slice, int startRow, int endRow ) {
+        RandomAccess<T> access = image.randomAccess();
+        double[] globalPosition = new double[3];
+        double[] voxelPosition = new double[3];
+
+        for ( int row = startRow; row < endRow; row++ ) {
+            for ( int column = 0; column < slice.width; column++ ) {
+                for ( int d = 0; d < 3; d++ ) {
+                    globalPosition[d] = slice.origin[d] + column * slice.spacing * slice.right[d] +
+                            row * slice.spacing * slice.up[d];
+                }
+                inverseSourceTransform.apply( globalPosition, voxelPosition );
+
+                float value = Float.NaN;
+                boolean inImage = true;
+                for ( int d = 0; d < 3; d++ ) {
+                    long position = round( voxelPosition[d] );
+                    if ( position < image.min(d) || position > image.max(d) ) {
+                        inImage = false;
+                        break;
+                    }
+                    access.setPosition( position, d );
+                }
+                if ( inImage ) {
+                    value = (float) access.get().getRealDouble();
+                }
+                slice.values[ row * slice.width + column ] = value;
+            }
+        }
+    }
+
+    private double calculateOtsuThreshold( float[] values ) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for ( float value: values ) {
+            if ( !Float.isNaN( value ) ) {
+                min = min( min, value );
+                max = max( max, value );
+            }
+        }
+        if ( !( max > min ) ) {
+            throw new UnsupportedOperationException( "Couldn't find the block face polygon - slice is empty" );
+        }
+
+        double binWidth = ( max - min ) / HISTOGRAM_BINS;
+        long[] histogram = new long[HISTOGRAM_BINS];
+        for ( float value: values ) {
+            if ( !Float.isNaN( value ) ) {
+                histogram[ min( (int) ( ( value - min ) / binWidth ), HISTOGRAM_BINS - 1 ) ]++;
+            }
+        }
+        return min + ( BlockFaceDetector.calculateOtsuBin( histogram ) + 1 ) * binWidth;
+    }
+
+    // Largest 4-connected region above the threshold, so specks of dust etc. are ignored
+    static boolean[] findLargestRegion( float[] values, int width, int height, double threshold ) {
+        int[] labels = new int[ values.length ];
+        int[] queue = new int[ values.length ];
+        int largestLabel = 0;
+        int largestSize = 0;
+        int nextLabel = 1;
+
+        for ( int start = 0; start < values.length; start++ ) {
+            if ( labels[start] != 0 || !( values[start] >= threshold ) ) {
+                continue;
+            }
+
+            // flood fill from this pixel
+            int label = nextLabel++;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            labels[start] = label;
+            while ( head < tail ) {
+                int index = queue[head++];
+                int x = index % width;
+                int y = index / width;
+                if ( x > 0 ) tail = visit( index - 1, label, values, labels, queue, tail, threshold );
+                if ( x < width - 1 ) tail = visit( index + 1, label, values, labels, queue, tail, threshold );
+                if ( y > 0 ) tail = visit( index - width, label, values, labels, queue, tail, threshold );
+                if ( y < height - 1 ) tail = visit( index + width, label, values, labels, queue, tail, threshold );
+            }
+
+            if ( tail > largestSize ) {
+                largestSize = tail;
+                largestLabel = label;
+            }
+        }
+
+        boolean[] mask = new boolean[ values.length ];
+        for ( int i = 0; i < values.length; i++ ) {
+            mask[i] = largestLabel != 0 && labels[i] == largestLabel;
+        }
+        return mask;
+    }
+
+    private static int visit( int index, int label, float[] values, int[] labels, int[] queue, int tail,
+                              double threshold ) {
+        if ( labels[index] == 0 && values[index] >= threshold ) {
+            labels[index] = label;
+            queue[tail++] = index;
+        }
+        return tail;
+    }
+
+    // Convex hull (monotone chain) of the region, as anticlockwise {column, row} points
+    static List<double[]> calculateConvexHull( boolean[] mask, int width, int height ) {
+        // only the leftmost and rightmost pixel of each row can be on the hull
+        List<double[]> points = new ArrayList<>();
+        for ( int y = 0; y < height; y++ ) {
+            int first = -1;
+            int last = -1;
+            for ( int x = 0; x < width; x++ ) {
+                if ( mask[ y * width + x ] ) {
+                    if ( first == -1 ) {
+                        first = x;
+                    }
+                    last = x;
+                }
+            }
+            if ( first != -1 ) {
+                points.add( new double[]{ first, y } );
+                if ( last != first ) {
+                    points.add( new double[]{ last, y } );
+                }
+            }
+        }
+        points.sort( ( a, b ) -> a[0] != b[0] ? Double.compare( a[0], b[0] ) : Double.compare( a[1], b[1] ) );
+
+        if ( points.size() < 3 ) {
+            return points;
+        }
+
+        List<double[]> hull = new ArrayList<>();
+        // lower hull
+        for ( double[] point: points ) {
+            while ( hull.size() >= 2 && cross( hull.get( hull.size() - 2 ), hull.get( hull.size() - 1 ), point ) <= 0 ) {
+                hull.remove( hull.size() - 1 );
+            }
+            hull.add( point );
+        }
+        // upper hull
+        int lowerSize = hull.size();
+        for ( int i = points.size() - 2; i >= 0; i-- ) {
+            double[] point = points.get(i);
+            while ( hull.size() > lowerSize && cross( hull.get( hull.size() - 2 ), hull.get( hull.size() - 1 ), point ) <= 0 ) {
+                hull.remove( hull.size() - 1 );
+            }
+            hull.add( point );
+        }
+        hull.remove( hull.size() - 1 );
+        return hull;
+    }
+
+    private static double cross( double[] o, double[] a, double[] b ) {
+        return ( a[0] - o[0] ) * ( b[1] - o[1] ) - ( a[1] - o[1] ) * ( b[0] - o[0] );
+    }
+
+    // Repeatedly removes the hull vertex whose removal loses the least area, until four remain
+    static void simplifyToQuadrilateral( List<double[]> polygon ) {
+        while ( polygon.size() > 4 ) {
+            int n = polygon.size();
+            int minIndex = 0;
+            double minArea = Double.POSITIVE_INFINITY;
+            for ( int i = 0; i < n; i++ ) {
+                double area = abs( cross( polygon.get( ( i + n - 1 ) % n ), polygon.get(i), polygon.get( ( i + 1 ) % n ) ) );
+                if ( area < minArea ) {
+                    minArea = area;
+                    minIndex = i;
+                }
+            }
+            polygon.remove( minIndex );
+        }
+    }
+
+    // Assigns each of four {right, up} corners to a vertex point - the two highest are top, then left / right
+    // within each pair
+    static VertexPoint[] assignVertices( double[][] corners ) {
+        Integer[] order = new Integer[]{ 0, 1, 2, 3 };
+        Arrays.sort( order, ( a, b ) -> Double.compare( corners[b][1], corners[a][1] ) );
+
+        VertexPoint[] assignment = new VertexPoint[4];
+        boolean firstTopIsLeft = corners[ order[0] ][0] < corners[ order[1] ][0];
+        assignment[ order[0] ] = firstTopIsLeft ? VertexPoint.TopLeft : VertexPoint.TopRight;
+        assignment[ order[1] ] = firstTopIsLeft ? VertexPoint.TopRight : VertexPoint.TopLeft;
+        boolean firstBottomIsLeft = corners[ order[2] ][0] < corners[ order[3] ][0];
+        assignment[ order[2] ] = firstBottomIsLeft ? VertexPoint.BottomLeft : VertexPoint.BottomRight;
+        assignment[ order[3] ] = firstBottomIsLeft ? VertexPoint.BottomRight : VertexPoint.BottomLeft;
+        return assignment;
+    }
+}
@@ -0,0 +1,40 @@
+package de.embl.schwab.crosshair.io;
+
+import javax.swing.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+// Runs saving and loading on a background thread, so the UI stays responsive while large sessions are read or
+// written. Tasks run one at a time in the order they're submitted - so e.g. a load started straight after a save
+// reads the saved file. Completion callbacks run on the EDT.
+public class BackgroundIo {
+
+    public interface IoTask<T> {
+        T run() throws Exception;
+    }
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "Crosshair file io" );
+        // don't stop the JVM exiting when Fiji closes - files are written atomically, so are never left half written
+        thread.setDaemon( true );
+        return thread;
+    });
+
+    // Runs the task in the background, then calls onComplete on the EDT with its result, or the exception it threw
+    // (one of them is always null)
+    public static <T> CompletableFuture<T> submit( IoTask<T> task, BiConsumer<T, Throwable> onComplete ) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute( () -> {
+            try {
+                future.complete( task.run() );
+            } catch ( Throwable e ) {
+                future.completeExceptionally( e );
+            }
+        });
+
+        future.whenComplete( ( result, error ) -> SwingUtilities.invokeLater( () -> onComplete.accept( result, error ) ) );
+        return future;
+    }
+}
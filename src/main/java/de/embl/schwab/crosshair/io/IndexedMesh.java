@@ -0,0 +1,56 @@
+package de.embl.schwab.crosshair.io;
+
+import customnode.CustomTriangleMesh;
+import org.scijava.vecmath.Point3f;
+
+import java.util.ArrayList;
+
+// Triangle mesh where each distinct vertex is stored once, and triangles refer to vertices by index
+public class IndexedMesh {
+
+    private final float[] vertices; // x, y, z of each vertex
+    private final int[] triangles; // 3 vertex indices per triangle
+
+    public IndexedMesh( float[] vertices, int[] triangles ) {
+        if ( vertices.length % 3 != 0 || triangles.length % 3 != 0 ) {
+            throw new UnsupportedOperationException( "Vertex and triangle arrays must have 3 values per entry" );
+        }
+        this.vertices = vertices;
+        this.triangles = triangles;
+    }
+
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public int[] getTriangles() {
+        return triangles;
+    }
+
+    public int getNumberOfVertices() {
+        return vertices.length / 3;
+    }
+
+    public int getNumberOfTriangles() {
+        return triangles.length / 3;
+    }
+
+    // The 3D viewer takes a triangle list - vertices shared between triangles use the same Point3f,
+    // so only one is allocated per distinct vertex
+    public ArrayList<Point3f> toTriangleList() {
+        Point3f[] points = new Point3f[ getNumberOfVertices() ];
+        for ( int i = 0; i < points.length; i++ ) {
+            points[i] = new Point3f( vertices[ 3 * i ], vertices[ 3 * i + 1 ], vertices[ 3 * i + 2 ] );
+        }
+
+        ArrayList<Point3f> triangleList = new ArrayList<>( triangles.length );
+        for ( int index: triangles ) {
+            triangleList.add( points[index] );
+        }
+        return triangleList;
+    }
+
+    public CustomTriangleMesh toCustomMesh() {
+        return new CustomTriangleMesh( toTriangleList() );
+    }
+}
@@ -0,0 +1,287 @@
+package de.embl.schwab.crosshair.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Loads binary or ASCII STL files into an indexed mesh, merging duplicate vertices.
+// The whole file is read in one go (memory-mapped for files on disk), and decoded straight from the buffer into
+// primitive arrays - no per-triangle objects are created.
+public class IndexedSTLLoader {
+
+    private static final int HEADER_BYTES = 80;
+    private static final int BINARY_START_BYTES = HEADER_BYTES + 4; // header + number of triangles
+    private static final int TRIANGLE_BYTES = 50; // normal, 3 vertices (3 floats each) + 2 byte attribute count
+    private static final int VERTICES_OFFSET = 12; // bytes to skip for the triangle normal
+
+    public static IndexedMesh loadResource( String resourceName ) throws IOException {
+        try ( InputStream inputStream = IndexedSTLLoader.class.getResourceAsStream( resourceName ) ) {
+            if ( inputStream == null ) {
+                throw new FileNotFoundException( "No STL resource named " + resourceName );
+            }
+            return parse( ByteBuffer.wrap( readFully( inputStream ) ) );
+        }
+    }
+
+    public static IndexedMesh loadFile( String filePath ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ ) ) {
+            if ( channel.size() > Integer.MAX_VALUE ) {
+                throw new IOException( "STL file too large: " + filePath );
+            }
+            return parse( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ) );
+        }
+    }
+
+    static IndexedMesh parse( ByteBuffer buffer ) throws IOException {
+        buffer = buffer.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+        int size = buffer.remaining();
+
+        boolean startsWithSolid = startsWithSolid( buffer );
+        if ( size >= BINARY_START_BYTES ) {
+            long numberOfTriangles = buffer.getInt( buffer.position() + HEADER_BYTES ) & 0xFFFFFFFFL;
+            long expectedSize = BINARY_START_BYTES + numberOfTriangles * TRIANGLE_BYTES;
+            boolean fitsBinary = expectedSize <= size;
+
+            if ( fitsBinary && startsWithSolid ) {
+                // Some binary files also start with 'solid' - only binary if there's no ASCII geometry
+                IndexedMesh asciiMesh = expectedSize == size ? null : tryParseAscii( buffer );
+                return asciiMesh != null && asciiMesh.getNumberOfTriangles() > 0 ?
+                        asciiMesh : parseBinary( buffer, (int) numberOfTriangles );
+            } else if ( fitsBinary ) {
+                return parseBinary( buffer, (int) numberOfTriangles );
+            } else if ( !startsWithSolid ) {
+                throw new IOException( "Truncated binary STL: expected " + expectedSize + " bytes, but only " +
+                        size + " available" );
+            }
+        }
+
+        if ( startsWithSolid ) {
+            return parseAscii( buffer );
+        } else {
+            throw new IOException( "Not a valid STL file: only " + size + " bytes" );
+        }
+    }
+
+    private static IndexedMesh parseBinary( ByteBuffer buffer, int numberOfTriangles ) {
+        // a closed mesh has about half as many distinct vertices as triangles
+        VertexWelder welder = new VertexWelder( numberOfTriangles / 2, numberOfTriangles );
+        int[] triangle = new int[3];
+
+        int trianglePosition = buffer.position() + BINARY_START_BYTES;
+        for ( int t = 0; t < numberOfTriangles; t++ ) {
+            for ( int i = 0; i < 3; i++ ) {
+                int vertexPosition = trianglePosition + VERTICES_OFFSET + i * 12;
+                triangle[i] = welder.add( buffer.getFloat( vertexPosition ), buffer.getFloat( vertexPosition + 4 ),
+                        buffer.getFloat( vertexPosition + 8 ) );
+            }
+            welder.addTriangle( triangle );
+            trianglePosition += TRIANGLE_BYTES;
+        }
+
+        return welder.toMesh();
+    }
+
+    private static IndexedMesh parseAscii( ByteBuffer buffer ) throws IOException {
+        CharBuffer text = StandardCharsets.US_ASCII.decode( buffer.duplicate() );
+        VertexWelder welder = new VertexWelder( 1024, 2048 );
+        int[] triangle = new int[3];
+        float[] coordinates = new float[3];
+        int vertexInTriangle = 0;
+
+        AsciiTokenizer tokenizer = new AsciiTokenizer( text );
+        String token;
+        while ( ( token = tokenizer.next() ) != null ) {
+            if ( token.equals( "vertex" ) ) {
+                for ( int i = 0; i < 3; i++ ) {
+                    String value = tokenizer.next();
+                    if ( value == null ) {
+                        throw new IOException( "Truncated ASCII STL: vertex with fewer than 3 coordinates" );
+                    }
+                    try {
+                        coordinates[i] = Float.parseFloat( value );
+                    } catch ( NumberFormatException e ) {
+                        throw new IOException( "Invalid vertex coordinate in ASCII STL: " + value );
+                    }
+                }
+                triangle[ vertexInTriangle ] = welder.add( coordinates[0], coordinates[1], coordinates[2] );
+                vertexInTriangle++;
+                if ( vertexInTriangle == 3 ) {
+                    welder.addTriangle( triangle );
+                    vertexInTriangle = 0;
+                }
+            }
+        }
+
+        if ( vertexInTriangle != 0 ) {
+            throw new IOException( "Truncated ASCII STL: last facet has fewer than 3 vertices" );
+        }
+        return welder.toMesh();
+    }
+
+    private static IndexedMesh tryParseAscii( ByteBuffer buffer ) {
+        try {
+            return parseAscii( buffer );
+        } catch ( IOException e ) {
+            return null;
+        }
+    }
+
+    private static boolean startsWithSolid( ByteBuffer buffer ) {
+        byte[] solid = "solid".getBytes( StandardCharsets.US_ASCII );
+        int start = buffer.position();
+        // skip any leading whitespace
+        while ( start < buffer.limit() && Character.isWhitespace( buffer.get( start ) ) ) {
+            start++;
+        }
+        if ( buffer.limit() - start < solid.length ) {
+            return false;
+        }
+        for ( int i = 0; i < solid.length; i++ ) {
+            if ( buffer.get( start + i ) != solid[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readFully( InputStream inputStream ) throws IOException {
+        byte[] bytes = new byte[ Math.max( 8192, inputStream.available() ) ];
+        int length = 0;
+        int read;
+        while ( ( read = inputStream.read( bytes, length, bytes.length - length ) ) != -1 ) {
+            length += read;
+            if ( length == bytes.length ) {
+                bytes = Arrays.copyOf( bytes, bytes.length * 2 );
+            }
+        }
+        return length == bytes.length ? bytes : Arrays.copyOf( bytes, length );
+    }
+
+    // Splits on whitespace, without creating a String for every character
+    private static class AsciiTokenizer {
+        private final CharBuffer text;
+        private int position;
+
+        AsciiTokenizer( CharBuffer text ) {
+            this.text = text;
+            this.position = 0;
+        }
+
+        String next() {
+            int length = text.length();
+            while ( position < length && Character.isWhitespace( text.charAt( position ) ) ) {
+                position++;
+            }
+            if ( position == length ) {
+                return null;
+            }
+            int start = position;
+            while ( position < length && !Character.isWhitespace( text.charAt( position ) ) ) {
+                position++;
+            }
+            return text.subSequence( start, position ).toString();
+        }
+    }
+
+    // Merges vertices with identical coordinates, using an open-addressing hash table of vertex indices
+    private static class VertexWelder {
+        private float[] vertices;
+        private int numberOfVertices;
+        private int[] triangles;
+        private int numberOfTriangleIndices;
+        private int[] table; // vertex index + 1, or 0 for an empty slot
+
+        VertexWelder( int expectedVertices, int expectedTriangles ) {
+            vertices = new float[ 3 * Math.max( 1, expectedVertices ) ];
+            triangles = new int[ 3 * Math.max( 1, expectedTriangles ) ];
+            table = new int[ tableSizeFor( 2 * expectedVertices ) ];
+        }
+
+        int add( float x, float y, float z ) {
+            // so -0 and 0 are merged
+            x += 0.0f;
+            y += 0.0f;
+            z += 0.0f;
+
+            int mask = table.length - 1;
+            int slot = hash( x, y, z ) & mask;
+            while ( table[slot] != 0 ) {
+                int index = table[slot] - 1;
+                if ( vertices[ 3 * index ] == x && vertices[ 3 * index + 1 ] == y && vertices[ 3 * index + 2 ] == z ) {
+                    return index;
+                }
+                slot = ( slot + 1 ) & mask;
+            }
+
+            if ( 3 * ( numberOfVertices + 1 ) > vertices.length ) {
+                vertices = Arrays.copyOf( vertices, vertices.length * 2 );
+            }
+            int index = numberOfVertices;
+            vertices[ 3 * index ] = x;
+            vertices[ 3 * index + 1 ] = y;
+            vertices[ 3 * index + 2 ] = z;
+            numberOfVertices++;
+            table[slot] = index + 1;
+
+            // keep the table at most half full
+            if ( 2 * numberOfVertices > table.length ) {
+                rehash();
+            }
+            return index;
+        }
+
+        void addTriangle( int[] triangle ) {
+            // triangles collapsed to a line or point draw nothing
+            if ( triangle[0] == triangle[1] || triangle[1] == triangle[2] || triangle[0] == triangle[2] ) {
+                return;
+            }
+            if ( numberOfTriangleIndices + 3 > triangles.length ) {
+                triangles = Arrays.copyOf( triangles, triangles.length * 2 );
+            }
+            triangles[ numberOfTriangleIndices++ ] = triangle[0];
+            triangles[ numberOfTriangleIndices++ ] = triangle[1];
+            triangles[ numberOfTriangleIndices++ ] = triangle[2];
+        }
+
+        IndexedMesh toMesh() {
+            return new IndexedMesh( Arrays.copyOf( vertices, 3 * numberOfVertices ),
+                    Arrays.copyOf( triangles, numberOfTriangleIndices ) );
+        }
+
+        private void rehash() {
+            table = new int[ table.length * 2 ];
+            int mask = table.length - 1;
+            for ( int index = 0; index < numberOfVertices; index++ ) {
+                int slot = hash( vertices[ 3 * index ], vertices[ 3 * index + 1 ], vertices[ 3 * index + 2 ] ) & mask;
+                while ( table[slot] != 0 ) {
+                    slot = ( slot + 1 ) & mask;
+                }
+                table[slot] = index + 1;
+            }
+        }
+
+        private static int hash( float x, float y, float z ) {
+            int hash = Float.floatToIntBits( x );
+            hash = 31 * hash + Float.floatToIntBits( y );
+            hash = 31 * hash + Float.floatToIntBits( z );
+            // spread the bits, as nearby coordinates differ mostly in the low mantissa bits
+            return hash ^ ( hash >>> 16 ) ^ ( hash >>> 7 );
+        }
+
+        private static int tableSizeFor( int minimumSize ) {
+            int size = 16;
+            while ( size < minimumSize && size < ( 1 << 30 ) ) {
+                size <<= 1;
+            }
+            return size;
+        }
+    }
+}
@@ -2,9 +2,18 @@ package de.embl.schwab.crosshair.io;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class IoHelper {
 
+    public interface FileWriteTask {
+        void write( File file ) throws IOException;
+    }
+
     public static String chooseOpenFilePath() {
         String filePath = null;
         JFileChooser chooser = new JFileChooser();
@@ -29,4 +38,21 @@ public class IoHelper {
         return filePath;
     }
 
+    // Writes to a temporary file next to the given one, then renames it into place - so the file is either completely
+    // written, or left as it was (e.g. if Fiji crashes or the disk is full part way through)
+    public static void writeAtomically( File file, FileWriteTask writeTask ) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile( file.getName(), ".tmp", directory );
+        try {
+            writeTask.write( tempFile );
+            try {
+                Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+            } catch ( AtomicMoveNotSupportedException e ) {
+                Files.move( tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+        } finally {
+            Files.deleteIfExists( tempFile.toPath() );
+        }
+    }
 }
@@ -0,0 +1,48 @@
+package de.embl.schwab.crosshair.io.serialise;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.scijava.vecmath.Color3f;
+
+import java.io.IOException;
+
+// Same format Gson gives Color3f by reflection i.e. {"x": red, "y": green, "z": blue}, without the reflection
+public class Color3fTypeAdapter extends TypeAdapter<Color3f>
+{
+
+    @Override
+    public void write( JsonWriter out, Color3f color ) throws IOException
+    {
+        // written as Floats, so they print the same as by reflection e.g. 0.7 rather than 0.699999988079071
+        out.beginObject();
+        out.name( "x" ).value( (Number) color.x );
+        out.name( "y" ).value( (Number) color.y );
+        out.name( "z" ).value( (Number) color.z );
+        out.endObject();
+    }
+
+    @Override
+    public Color3f read( JsonReader in ) throws IOException
+    {
+        Color3f color = new Color3f();
+        in.beginObject();
+        while ( in.hasNext() ) {
+            switch ( in.nextName() ) {
+                case "x":
+                    color.x = (float) in.nextDouble();
+                    break;
+                case "y":
+                    color.y = (float) in.nextDouble();
+                    break;
+                case "z":
+                    color.z = (float) in.nextDouble();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return color;
+    }
+}
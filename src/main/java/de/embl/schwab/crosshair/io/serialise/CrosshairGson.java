@@ -0,0 +1,43 @@
+package de.embl.schwab.crosshair.io.serialise;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.settings.ImageContentSettings;
+import de.embl.schwab.crosshair.settings.PlaneSettings;
+import net.imglib2.RealPoint;
+import org.scijava.vecmath.Color3f;
+import org.scijava.vecmath.Vector3d;
+
+// Shared Gson instances for reading and writing settings. Gson is thread safe, so there's no need to configure a new
+// one for each file. Settings types are read and written by hand-written type adapters, rather than by reflection.
+public class CrosshairGson
+{
+
+    private static final Gson GSON = createGsonBuilder( false ).create();
+    private static final Gson COMPACT_GSON = createGsonBuilder( true ).create();
+
+    // Both instances read both the standard and compact formats
+    public static Gson getGson()
+    {
+        return GSON;
+    }
+
+    // LUTs are written in compact form (see ImageContentSettingsTypeAdapter)
+    public static Gson getCompactGson()
+    {
+        return COMPACT_GSON;
+    }
+
+    private static GsonBuilder createGsonBuilder( boolean isUsingCompactLuts )
+    {
+        return new GsonBuilder().setPrettyPrinting().
+                registerTypeHierarchyAdapter( RealPoint.class, new RealPointTypeAdapter().nullSafe() ).
+                registerTypeAdapter( Vector3d.class, new Vector3dTypeAdapter().nullSafe() ).
+                registerTypeAdapter( Color3f.class, new Color3fTypeAdapter().nullSafe() ).
+                registerTypeAdapter( VertexPoint.class, new VertexPointDeserializer() ).
+                registerTypeHierarchyAdapter( PlaneSettings.class, new PlaneSettingsTypeAdapter().nullSafe() ).
+                registerTypeAdapter( ImageContentSettings.class,
+                        new ImageContentSettingsTypeAdapter( isUsingCompactLuts ).nullSafe() );
+    }
+}
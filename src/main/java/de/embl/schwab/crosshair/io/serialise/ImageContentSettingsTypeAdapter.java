@@ -0,0 +1,149 @@
+package de.embl.schwab.crosshair.io.serialise;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import de.embl.schwab.crosshair.settings.ImageContentSettings;
+import org.scijava.vecmath.Color3f;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+
+// Image content settings, in the same format Gson gives them by reflection.
+// With compact LUTs, each 256 entry LUT is written as a base64 string of one byte per entry, rather than 256 lines of
+// pretty-printed json. Both forms are always read.
+public class ImageContentSettingsTypeAdapter extends TypeAdapter<ImageContentSettings>
+{
+
+    private final boolean isUsingCompactLuts;
+    private final Color3fTypeAdapter colorAdapter = new Color3fTypeAdapter();
+
+    public ImageContentSettingsTypeAdapter( boolean isUsingCompactLuts )
+    {
+        this.isUsingCompactLuts = isUsingCompactLuts;
+    }
+
+    @Override
+    public void write( JsonWriter out, ImageContentSettings settings ) throws IOException
+    {
+        out.beginObject();
+        if ( settings.name != null ) {
+            out.name( "name" ).value( settings.name );
+        }
+        out.name( "imageTransparency" ).value( (Number) settings.imageTransparency );
+        if ( settings.imageColour != null ) {
+            out.name( "imageColour" );
+            colorAdapter.write( out, settings.imageColour );
+        }
+        writeLut( out, "redLut", settings.redLut );
+        writeLut( out, "greenLut", settings.greenLut );
+        writeLut( out, "blueLut", settings.blueLut );
+        writeLut( out, "alphaLut", settings.alphaLut );
+        out.endObject();
+    }
+
+    private void writeLut( JsonWriter out, String name, int[] lut ) throws IOException
+    {
+        if ( lut == null ) {
+            return;
+        }
+
+        out.name( name );
+        if ( isUsingCompactLuts && isByteRange( lut ) ) {
+            byte[] bytes = new byte[ lut.length ];
+            for ( int i = 0; i < lut.length; i++ ) {
+                bytes[i] = (byte) lut[i];
+            }
+            out.value( Base64.getEncoder().encodeToString( bytes ) );
+        } else {
+            out.beginArray();
+            for ( int value: lut ) {
+                out.value( value );
+            }
+            out.endArray();
+        }
+    }
+
+    private static boolean isByteRange( int[] lut )
+    {
+        for ( int value: lut ) {
+            if ( value < 0 || value > 255 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ImageContentSettings read( JsonReader in ) throws IOException
+    {
+        String name = null;
+        float imageTransparency = 0;
+        Color3f imageColour = null;
+        int[][] luts = new int[4][];
+
+        in.beginObject();
+        while ( in.hasNext() ) {
+            String fieldName = in.nextName();
+            if ( in.peek() == JsonToken.NULL ) {
+                in.nextNull();
+                continue;
+            }
+
+            switch ( fieldName ) {
+                case "name":
+                    name = in.nextString();
+                    break;
+                case "imageTransparency":
+                    imageTransparency = (float) in.nextDouble();
+                    break;
+                case "imageColour":
+                    imageColour = colorAdapter.read( in );
+                    break;
+                case "redLut":
+                    luts[0] = readLut( in );
+                    break;
+                case "greenLut":
+                    luts[1] = readLut( in );
+                    break;
+                case "blueLut":
+                    luts[2] = readLut( in );
+                    break;
+                case "alphaLut":
+                    luts[3] = readLut( in );
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return new ImageContentSettings( name, imageTransparency, imageColour, luts[0], luts[1], luts[2], luts[3] );
+    }
+
+    private static int[] readLut( JsonReader in ) throws IOException
+    {
+        if ( in.peek() == JsonToken.STRING ) {
+            byte[] bytes = Base64.getDecoder().decode( in.nextString() );
+            int[] lut = new int[ bytes.length ];
+            for ( int i = 0; i < bytes.length; i++ ) {
+                lut[i] = bytes[i] & 0xff;
+            }
+            return lut;
+        }
+
+        int[] lut = new int[256];
+        int size = 0;
+        in.beginArray();
+        while ( in.hasNext() ) {
+            if ( size == lut.length ) {
+                lut = Arrays.copyOf( lut, 2 * size );
+            }
+            lut[size++] = in.nextInt();
+        }
+        in.endArray();
+        return Arrays.copyOf( lut, size );
+    }
+}
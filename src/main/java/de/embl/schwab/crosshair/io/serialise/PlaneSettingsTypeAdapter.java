@@ -0,0 +1,181 @@
+package de.embl.schwab.crosshair.io.serialise;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.settings.BlockPlaneSettings;
+import de.embl.schwab.crosshair.settings.PlaneSettings;
+import net.imglib2.RealPoint;
+import org.scijava.vecmath.Color3f;
+import org.scijava.vecmath.Vector3d;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// Plane settings and block plane settings, in the same format Gson gives them by reflection.
+// Settings with "vertices" are read as block plane settings. Fields that are missing keep their default values.
+public class PlaneSettingsTypeAdapter extends TypeAdapter<PlaneSettings>
+{
+
+    private final Vector3dTypeAdapter vectorAdapter = new Vector3dTypeAdapter();
+    private final Color3fTypeAdapter colorAdapter = new Color3fTypeAdapter();
+    private final RealPointTypeAdapter pointAdapter = new RealPointTypeAdapter();
+    private final PointListTypeAdapter pointListAdapter = new PointListTypeAdapter();
+
+    @Override
+    public void write( JsonWriter out, PlaneSettings settings ) throws IOException
+    {
+        out.beginObject();
+        if ( settings instanceof BlockPlaneSettings ) {
+            BlockPlaneSettings blockSettings = (BlockPlaneSettings) settings;
+            if ( blockSettings.vertices != null ) {
+                out.name( "vertices" );
+                pointListAdapter.write( out, blockSettings.vertices );
+            }
+            if ( blockSettings.assignedVertices != null ) {
+                out.name( "assignedVertices" );
+                out.beginObject();
+                for ( Map.Entry<VertexPoint, RealPoint> entry: blockSettings.assignedVertices.entrySet() ) {
+                    out.name( entry.getKey().toString() );
+                    pointAdapter.write( out, entry.getValue() );
+                }
+                out.endObject();
+            }
+        }
+
+        if ( settings.name != null ) {
+            out.name( "name" ).value( settings.name );
+        }
+        if ( settings.normal != null ) {
+            out.name( "normal" );
+            vectorAdapter.write( out, settings.normal );
+        }
+        if ( settings.point != null ) {
+            out.name( "point" );
+            vectorAdapter.write( out, settings.point );
+        }
+        if ( settings.color != null ) {
+            out.name( "color" );
+            colorAdapter.write( out, settings.color );
+        }
+        out.name( "transparency" ).value( (Number) settings.transparency );
+        out.name( "isVisible" ).value( settings.isVisible );
+        if ( settings.pointsToFitPlane != null ) {
+            out.name( "pointsToFitPlane" );
+            pointListAdapter.write( out, settings.pointsToFitPlane );
+        }
+        out.name( "distanceBetweenPlanesThreshold" ).value( settings.distanceBetweenPlanesThreshold );
+        out.endObject();
+    }
+
+    @Override
+    public PlaneSettings read( JsonReader in ) throws IOException
+    {
+        // the type of settings isn't known until all fields are read, so hold them until the end
+        Map<String, Object> values = new HashMap<>();
+        boolean isBlockPlane = false;
+
+        in.beginObject();
+        while ( in.hasNext() ) {
+            String name = in.nextName();
+            if ( name.equals( "vertices" ) ) {
+                isBlockPlane = true;
+            }
+            if ( in.peek() == JsonToken.NULL ) {
+                in.nextNull();
+                continue;
+            }
+
+            switch ( name ) {
+                case "name":
+                    values.put( name, in.nextString() );
+                    break;
+                case "normal":
+                case "point":
+                    values.put( name, vectorAdapter.read( in ) );
+                    break;
+                case "color":
+                    values.put( name, colorAdapter.read( in ) );
+                    break;
+                case "transparency":
+                    values.put( name, (float) in.nextDouble() );
+                    break;
+                case "isVisible":
+                    values.put( name, in.nextBoolean() );
+                    break;
+                case "distanceBetweenPlanesThreshold":
+                    values.put( name, in.nextDouble() );
+                    break;
+                case "pointsToFitPlane":
+                case "vertices":
+                    values.put( name, pointListAdapter.read( in ) );
+                    break;
+                case "assignedVertices":
+                    values.put( name, readAssignedVertices( in ) );
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        PlaneSettings settings = isBlockPlane ? new BlockPlaneSettings() : new PlaneSettings();
+        setValues( settings, values );
+        return settings;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private void setValues( PlaneSettings settings, Map<String, Object> values )
+    {
+        if ( values.containsKey( "name" ) ) {
+            settings.name = (String) values.get( "name" );
+        }
+        if ( values.containsKey( "normal" ) ) {
+            settings.normal = (Vector3d) values.get( "normal" );
+        }
+        if ( values.containsKey( "point" ) ) {
+            settings.point = (Vector3d) values.get( "point" );
+        }
+        if ( values.containsKey( "color" ) ) {
+            settings.color = (Color3f) values.get( "color" );
+        }
+        if ( values.containsKey( "transparency" ) ) {
+            settings.transparency = (Float) values.get( "transparency" );
+        }
+        if ( values.containsKey( "isVisible" ) ) {
+            settings.isVisible = (Boolean) values.get( "isVisible" );
+        }
+        if ( values.containsKey( "pointsToFitPlane" ) ) {
+            settings.pointsToFitPlane = (ArrayList<RealPoint>) values.get( "pointsToFitPlane" );
+        }
+        if ( values.containsKey( "distanceBetweenPlanesThreshold" ) ) {
+            settings.distanceBetweenPlanesThreshold = (Double) values.get( "distanceBetweenPlanesThreshold" );
+        }
+
+        if ( settings instanceof BlockPlaneSettings ) {
+            BlockPlaneSettings blockSettings = (BlockPlaneSettings) settings;
+            if ( values.containsKey( "vertices" ) ) {
+                blockSettings.vertices = (ArrayList<RealPoint>) values.get( "vertices" );
+            }
+            if ( values.containsKey( "assignedVertices" ) ) {
+                blockSettings.assignedVertices = (Map<VertexPoint, RealPoint>) values.get( "assignedVertices" );
+            }
+        }
+    }
+
+    private Map<VertexPoint, RealPoint> readAssignedVertices( JsonReader in ) throws IOException
+    {
+        Map<VertexPoint, RealPoint> assignedVertices = new HashMap<>();
+        in.beginObject();
+        while ( in.hasNext() ) {
+            VertexPoint vertexPoint = VertexPoint.fromString( in.nextName() );
+            assignedVertices.put( vertexPoint, pointAdapter.read( in ) );
+        }
+        in.endObject();
+        return assignedVertices;
+    }
+}
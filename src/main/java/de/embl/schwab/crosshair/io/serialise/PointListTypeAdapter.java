@@ -0,0 +1,74 @@
+package de.embl.schwab.crosshair.io.serialise;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import net.imglib2.RealPoint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+// Point lists are written as an array of points, or if they're stored in a points sidecar, as a reference to them
+// i.e. {"sidecarOffset": offset, "count": count}
+public class PointListTypeAdapter extends TypeAdapter<ArrayList<RealPoint>>
+{
+
+    private final RealPointTypeAdapter pointAdapter = new RealPointTypeAdapter();
+
+    @Override
+    public void write( JsonWriter out, ArrayList<RealPoint> points ) throws IOException
+    {
+        if ( points instanceof PointsSidecar.Reference ) {
+            PointsSidecar.Reference reference = (PointsSidecar.Reference) points;
+            out.beginObject();
+            out.name( "sidecarOffset" ).value( reference.getOffset() );
+            out.name( "count" ).value( reference.getCount() );
+            out.endObject();
+        } else {
+            out.beginArray();
+            for ( RealPoint point: points ) {
+                pointAdapter.write( out, point );
+            }
+            out.endArray();
+        }
+    }
+
+    @Override
+    public ArrayList<RealPoint> read( JsonReader in ) throws IOException
+    {
+        if ( in.peek() == JsonToken.BEGIN_OBJECT ) {
+            String path = in.getPath();
+            long offset = -1;
+            int count = -1;
+            in.beginObject();
+            while ( in.hasNext() ) {
+                switch ( in.nextName() ) {
+                    case "sidecarOffset":
+                        offset = in.nextLong();
+                        break;
+                    case "count":
+                        count = in.nextInt();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            // a reference missing either would silently read as no points
+            if ( offset < 0 || count < 0 ) {
+                throw new JsonParseException( "Points sidecar reference needs a sidecarOffset and count at " + path );
+            }
+            return new PointsSidecar.Reference( offset, count );
+        }
+
+        ArrayList<RealPoint> points = new ArrayList<>();
+        in.beginArray();
+        while ( in.hasNext() ) {
+            points.add( pointAdapter.read( in ) );
+        }
+        in.endArray();
+        return points;
+    }
+}
@@ -0,0 +1,168 @@
+package de.embl.schwab.crosshair.io.serialise;
+
+import net.imglib2.RealPoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// Binary file, next to a settings json, holding its large point lists as packed x, y, z doubles.
+// In the json, each of these lists is replaced by a Reference to where its points start in the sidecar, and how many
+// there are, so the json stays a small, human-readable index of the settings.
+public class PointsSidecar
+{
+
+    private static final long MAGIC_NUMBER = 0x4352535348505453L; // "CRSSHPTS"
+    private static final int HEADER_BYTES = 2 * Long.BYTES; // magic number and number of points
+    private static final String EXTENSION = ".points";
+
+    // Stands in for a point list stored in the sidecar - empty until its points are read with readPoints
+    public static class Reference extends ArrayList<RealPoint>
+    {
+        private final long offset; // in points, from the start of the sidecar's points
+        private final int count;
+
+        public Reference( long offset, int count )
+        {
+            this.offset = offset;
+            this.count = count;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+    }
+
+    private final List<List<RealPoint>> pointLists;
+    private long numberOfPoints;
+
+    public PointsSidecar()
+    {
+        this.pointLists = new ArrayList<>();
+        this.numberOfPoints = 0;
+    }
+
+    // A sidecar file for a new save of the json, that doesn't exist yet. Sidecars are named after the json and the
+    // time of the save, so a save never overwrites the sidecar that the previous json refers to.
+    public static File getNewSidecarFile( File jsonFile )
+    {
+        File directory = jsonFile.getAbsoluteFile().getParentFile();
+        long generation = System.currentTimeMillis();
+        File sidecarFile;
+        do {
+            sidecarFile = new File( directory, jsonFile.getName() + "." + Long.toHexString( generation ) + EXTENSION );
+            generation++;
+        } while ( sidecarFile.exists() );
+        return sidecarFile;
+    }
+
+    // All sidecar files named after the json - from any save, including ones without a generation from older versions
+    public static List<File> findSidecarFiles( File jsonFile )
+    {
+        Pattern sidecarName = Pattern.compile( Pattern.quote( jsonFile.getName() ) + "(\\.[0-9a-f]+)?" +
+                Pattern.quote( EXTENSION ) );
+        File[] files = jsonFile.getAbsoluteFile().getParentFile().listFiles(
+                ( directory, name ) -> sidecarName.matcher( name ).matches() );
+        return files != null ? Arrays.asList( files ) : new ArrayList<>();
+    }
+
+    public boolean isEmpty()
+    {
+        return pointLists.isEmpty();
+    }
+
+    // Adds the points to be written to the sidecar, returning the reference to write in their place
+    public Reference addPoints( List<RealPoint> points )
+    {
+        Reference reference = new Reference( numberOfPoints, points.size() );
+        pointLists.add( points );
+        numberOfPoints += points.size();
+        return reference;
+    }
+
+    public void write( File file ) throws IOException
+    {
+        if ( numberOfPoints > ( Integer.MAX_VALUE - HEADER_BYTES ) / ( 3 * Double.BYTES ) ) {
+            throw new IOException( "Too many points for one sidecar: " + numberOfPoints );
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_BYTES + (int) numberOfPoints * 3 * Double.BYTES );
+        buffer.putLong( MAGIC_NUMBER );
+        buffer.putLong( numberOfPoints );
+        DoubleBuffer coordinates = buffer.asDoubleBuffer();
+        for ( List<RealPoint> points: pointLists ) {
+            for ( RealPoint point: points ) {
+                coordinates.put( point.getDoublePosition(0) );
+                coordinates.put( point.getDoublePosition(1) );
+                coordinates.put( point.getDoublePosition(2) );
+            }
+        }
+
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            buffer.rewind();
+            while ( buffer.hasRemaining() ) {
+                channel.write( buffer );
+            }
+        }
+    }
+
+    // Coordinates of all points in the sidecar, to read references from. Read onto the heap rather than mapped - the
+    // points are copied out straight away, and a mapping would keep the file open (and on Windows, impossible to
+    // replace on the next save) until it's garbage collected.
+    public static DoubleBuffer readCoordinates( File file ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+            long size = channel.size();
+            if ( size > Integer.MAX_VALUE ) {
+                throw new IOException( file + " is too large for a points sidecar" );
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate( (int) size );
+            while ( buffer.hasRemaining() ) {
+                if ( channel.read( buffer ) < 0 ) {
+                    throw new IOException( file + " is truncated" );
+                }
+            }
+            buffer.flip();
+
+            if ( size < HEADER_BYTES || buffer.getLong() != MAGIC_NUMBER ) {
+                throw new IOException( file + " is not a points sidecar" );
+            }
+            long numberOfPoints = buffer.getLong();
+            if ( size != HEADER_BYTES + numberOfPoints * 3 * Double.BYTES ) {
+                throw new IOException( file + " is truncated" );
+            }
+            return buffer.asDoubleBuffer();
+        }
+    }
+
+    public static ArrayList<RealPoint> readPoints( DoubleBuffer coordinates, Reference reference ) throws IOException
+    {
+        if ( ( reference.getOffset() + reference.getCount() ) * 3 > coordinates.limit() ) {
+            throw new IOException( "Points sidecar is missing points" );
+        }
+
+        ArrayList<RealPoint> points = new ArrayList<>( reference.getCount() );
+        int index = (int) reference.getOffset() * 3;
+        for ( int i = 0; i < reference.getCount(); i++ ) {
+            points.add( new RealPoint( coordinates.get( index ), coordinates.get( index + 1 ),
+                    coordinates.get( index + 2 ) ) );
+            index += 3;
+        }
+        return points;
+    }
+}
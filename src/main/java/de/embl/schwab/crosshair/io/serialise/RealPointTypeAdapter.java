@@ -0,0 +1,64 @@
+package de.embl.schwab.crosshair.io.serialise;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import net.imglib2.RealPoint;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Same format Gson gives RealPoint by reflection i.e. {"position": [x, y, z], "n": 3}, without the reflection
+public class RealPointTypeAdapter extends TypeAdapter<RealPoint>
+{
+
+    @Override
+    public void write( JsonWriter out, RealPoint point ) throws IOException
+    {
+        out.beginObject();
+        out.name( "position" );
+        out.beginArray();
+        for ( int d = 0; d < point.numDimensions(); d++ ) {
+            out.value( point.getDoublePosition( d ) );
+        }
+        out.endArray();
+        out.name( "n" ).value( point.numDimensions() );
+        out.endObject();
+    }
+
+    @Override
+    public RealPoint read( JsonReader in ) throws IOException
+    {
+        double[] position = null;
+        in.beginObject();
+        while ( in.hasNext() ) {
+            if ( in.nextName().equals( "position" ) ) {
+                position = readDoubles( in );
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if ( position == null ) {
+            throw new JsonParseException( "Point has no position at " + in.getPath() );
+        }
+        return new RealPoint( position );
+    }
+
+    private static double[] readDoubles( JsonReader in ) throws IOException
+    {
+        double[] values = new double[3];
+        int size = 0;
+        in.beginArray();
+        while ( in.hasNext() ) {
+            if ( size == values.length ) {
+                values = Arrays.copyOf( values, 2 * size );
+            }
+            values[size++] = in.nextDouble();
+        }
+        in.endArray();
+        return Arrays.copyOf( values, size );
+    }
+}
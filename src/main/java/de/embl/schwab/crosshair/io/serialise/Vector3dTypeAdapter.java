@@ -0,0 +1,47 @@
+package de.embl.schwab.crosshair.io.serialise;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.scijava.vecmath.Vector3d;
+
+import java.io.IOException;
+
+// Same format Gson gives Vector3d by reflection i.e. {"x": x, "y": y, "z": z}, without the reflection
+public class Vector3dTypeAdapter extends TypeAdapter<Vector3d>
+{
+
+    @Override
+    public void write( JsonWriter out, Vector3d vector ) throws IOException
+    {
+        out.beginObject();
+        out.name( "x" ).value( vector.x );
+        out.name( "y" ).value( vector.y );
+        out.name( "z" ).value( vector.z );
+        out.endObject();
+    }
+
+    @Override
+    public Vector3d read( JsonReader in ) throws IOException
+    {
+        Vector3d vector = new Vector3d();
+        in.beginObject();
+        while ( in.hasNext() ) {
+            switch ( in.nextName() ) {
+                case "x":
+                    vector.x = in.nextDouble();
+                    break;
+                case "y":
+                    vector.y = in.nextDouble();
+                    break;
+                case "z":
+                    vector.z = in.nextDouble();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return vector;
+    }
+}
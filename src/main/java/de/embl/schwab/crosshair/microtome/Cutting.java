@@ -5,6 +5,7 @@ import de.embl.schwab.crosshair.Crosshair;
 import de.embl.schwab.crosshair.plane.PlaneManager;
 import de.embl.schwab.crosshair.points.VertexPoint;
 import de.embl.schwab.crosshair.utils.GeometryUtils;
+import de.embl.schwab.crosshair.utils.PrimitiveGeometryUtils;
 import ij3d.Content;
 import ij3d.Image3DUniverse;
 import net.imglib2.RealPoint;
@@ -13,15 +14,14 @@ import org.scijava.vecmath.*;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import static de.embl.cba.bdv.utils.BdvUtils.moveToPosition;
-import static de.embl.schwab.crosshair.utils.GeometryUtils.findClosestPointOnPlane;
 import static java.lang.Math.*;
 
 class Cutting {
 
     private Microtome microtome;
-    private Content imageContent;
     private PlaneManager planeManager;
     private Image3DUniverse universe;
 
@@ -30,11 +30,33 @@ class Cutting {
     private Vector3d firstTouchPointCutting;
     private Vector3d NSZero;
 
+    // re-used on every call to applyCut (always on the EDT)
+    private final double[] currentPlaneNormalDouble;
+    private final double[] currentPlanePointDouble;
+
+    // Where the cutting plane and knife are at one cutting depth - the knife in image coordinates
+    static class CutGeometry {
+        private final Transform3D cuttingPlaneTransform;
+        private final double[] knifePoint;
+        private final double[] knifeNormal;
+        private final double[] edgeVector;
+
+        private CutGeometry( Transform3D cuttingPlaneTransform, double[] knifePoint, double[] knifeNormal,
+                             double[] edgeVector ) {
+            this.cuttingPlaneTransform = cuttingPlaneTransform;
+            this.knifePoint = knifePoint;
+            this.knifeNormal = knifeNormal;
+            this.edgeVector = edgeVector;
+        }
+    }
+
     Cutting (Microtome microtome) {
         this.microtome = microtome;
-        this.imageContent = microtome.getImageContent();
         this.planeManager = microtome.getPlaneManager();
         this.universe = microtome.getUniverse();
+
+        currentPlaneNormalDouble = new double[3];
+        currentPlanePointDouble = new double[3];
     }
 
     double getCuttingDepthMin() {
@@ -51,6 +73,7 @@ class Cutting {
         // Get maximum distance in image
         Point3d min = new Point3d();
         Point3d max = new Point3d();
+        Content imageContent = microtome.getImageContent();
         imageContent.getMax(max);
         imageContent.getMin(min);
         double maxDist = min.distance(max);
@@ -146,52 +169,69 @@ class Cutting {
         universe.removeContent("CuttingPlane");
     }
 
-    void updateCut(double currentDepth) {
-
-        // Update position of cutting plane
-        double depthMicrotomeCoords = currentDepth + NSZero.getY();
-        double yDistFromKnife = depthMicrotomeCoords - microtome.getCurrentKnifeCentre().getY();
-
-        Matrix4d translateCuttingPlane = new Matrix4d(1, 0, 0, 0,
-                0, 1, 0, yDistFromKnife,
-                0, 0, 1, 0,
-                0, 0, 0, 1);
-
-        universe.getContent("CuttingPlane").setTransform(new Transform3D(translateCuttingPlane));
-
-        // Convert to microtome space coordinates - not adjusted for intial point == 0
-        Point3d knifePoint = new Point3d(0, depthMicrotomeCoords, 0);
+    // Copies the microtome state a cut depends on, and returns what calculates the cut from that copy - so it can run
+    // on any thread. The microtome doesn't move while cutting, so the copy stays current.
+    Supplier<CutGeometry> prepareCut(double currentDepth) {
+        double NSZeroY = NSZero.getY();
+        double knifeCentreY = microtome.getCurrentKnifeCentre().getY();
+        Matrix4d blockTransform = new Matrix4d( microtome.getCurrentBlockTransform() );
+        Vector3d knifeNormal = new Vector3d( microtome.getCurrentKnifeNormal() );
+        Vector3d edgeVector = new Vector3d( microtome.getCurrentEdgeVector() );
+
+        return () -> {
+            // Update position of cutting plane
+            double depthMicrotomeCoords = currentDepth + NSZeroY;
+            double yDistFromKnife = depthMicrotomeCoords - knifeCentreY;
+
+            Matrix4d translateCuttingPlane = new Matrix4d();
+            translateCuttingPlane.setIdentity();
+            translateCuttingPlane.setElement(1, 3, yDistFromKnife);
+            Transform3D cuttingPlaneTransform = new Transform3D(translateCuttingPlane);
+
+            // Convert to microtome space coordinates - not adjusted for intial point == 0
+            Point3d knifePoint = new Point3d(0, depthMicrotomeCoords, 0);
+
+            // Convert knife plane to image coordinates
+            Transform3D inverseBlockTransform = new Transform3D( blockTransform );
+            inverseBlockTransform.invert();
+            Vector3d knifeNormalImage = new Vector3d();
+            Vector3d edgeVectorImage = new Vector3d();
+            inverseBlockTransform.transform(knifePoint);
+            inverseBlockTransform.transform(knifeNormal, knifeNormalImage);
+            inverseBlockTransform.transform(edgeVector, edgeVectorImage);
+
+            double[] knifePointDouble = new double[3];
+            double[] knifeNormalDouble = new double[3];
+            double[] edgeVectorDouble = new double[3];
+            knifePoint.get(knifePointDouble);
+            knifeNormalImage.get(knifeNormalDouble);
+            edgeVectorImage.get(edgeVectorDouble);
+
+            return new CutGeometry( cuttingPlaneTransform, knifePointDouble, knifeNormalDouble, edgeVectorDouble );
+        };
+    }
 
-        // Convert knife plane to image coordinates
-        Transform3D inverseBlockTransform = new Transform3D();
-        inverseBlockTransform.invert(new Transform3D( microtome.getCurrentBlockTransform() ));
-        inverseBlockTransform.transform(knifePoint);
-        Vector3d knifeNormal = new Vector3d();
-        inverseBlockTransform.transform(microtome.getCurrentKnifeNormal(), knifeNormal);
-        Vector3d edgeVector = new Vector3d();
-        inverseBlockTransform.transform(microtome.getCurrentEdgeVector(), edgeVector);
+    // Moves the cutting plane, and the bdv view to the knife
+    void applyCut(CutGeometry cut) {
+        universe.getContent("CuttingPlane").setTransform(cut.cuttingPlaneTransform);
 
-        double[] knifePointDouble = {knifePoint.getX(), knifePoint.getY(), knifePoint.getZ()};
-        double[] knifeNormalDouble = {knifeNormal.getX(), knifeNormal.getY(), knifeNormal.getZ()};
-        double[] edgeVectorDouble = {edgeVector.getX(), edgeVector.getY(), edgeVector.getZ()};
+        double[] knifePointDouble = cut.knifePoint;
+        double[] knifeNormalDouble = cut.knifeNormal;
+        double[] edgeVectorDouble = cut.edgeVector;
 
         ArrayList<Vector3d> planeDefinition = planeManager.getPlaneDefinitionOfCurrentView();
-        Vector3d currentPlaneNormal = planeDefinition.get(0);
-        Vector3d currentPlanePoint = planeDefinition.get(1);
+        planeDefinition.get(0).get(currentPlaneNormalDouble);
+        planeDefinition.get(1).get(currentPlanePointDouble);
 
         // Check if already at that plane
-        boolean normalsParallel = GeometryUtils.checkVectorsParallel(knifeNormal, currentPlaneNormal);
+        boolean normalsParallel = PrimitiveGeometryUtils.checkVectorsParallel(knifeNormalDouble, currentPlaneNormalDouble);
         boolean orientationCorrect = GeometryUtils.checkVectorHorizontalInCurrentView (microtome.getBdvStackSource(), edgeVectorDouble);
-        double distanceToPlane = GeometryUtils.distanceFromPointToPlane(currentPlanePoint, knifeNormal, new Vector3d(knifePoint.getX(), knifePoint.getY(), knifePoint.getZ()));
+        double distanceToPlane = PrimitiveGeometryUtils.distanceFromPointToPlane(currentPlanePointDouble, knifeNormalDouble, knifePointDouble);
 
         if (distanceToPlane > 1E-10) {
             // Use point that is shortest parallel distance to current point, lets position be user defined and will just show progression of cut from there
-            Vector3d currentViewCentreGlobal = new Vector3d(planeManager.getGlobalViewCentre());
-            Vector3d knifePointV = new Vector3d(knifePoint.getX(), knifePoint.getY(), knifePoint.getZ());
-
-            Vector3d pointToMoveTo = findClosestPointOnPlane(new Vector3d(knifeNormal), knifePointV, currentViewCentreGlobal);
-
-            double[] pointToMoveToDouble = {pointToMoveTo.getX(), pointToMoveTo.getY(), pointToMoveTo.getZ()};
+            double[] pointToMoveToDouble = planeManager.getGlobalViewCentre();
+            PrimitiveGeometryUtils.findClosestPointOnPlane(knifeNormalDouble, knifePointDouble, pointToMoveToDouble, pointToMoveToDouble);
             moveToPosition(microtome.getBdvStackSource(), pointToMoveToDouble, 0,  0);
         }
 
@@ -4,6 +4,7 @@ import bdv.util.BdvStackSource;
 import de.embl.schwab.crosshair.Crosshair;
 import de.embl.schwab.crosshair.plane.PlaneManager;
 import de.embl.schwab.crosshair.utils.GeometryUtils;
+import de.embl.schwab.crosshair.volume.VolumeRegionOfInterest;
 import ij3d.Content;
 import ij3d.Image3DUniverse;
 import org.scijava.java3d.Transform3D;
@@ -14,7 +15,6 @@ public class Microtome {
     private final Image3DUniverse universe;
     private final PlaneManager planeManager;
     private final BdvStackSource bdvStackSource;
-    private final Content imageContent;
 
     // current angles in degrees for knife, tilt and rotation
     private double knife;
@@ -70,11 +70,10 @@ public class Microtome {
 
     private double knifeTargetAngleThreshold;
 
-    public Microtome (Image3DUniverse universe, PlaneManager planeManager, BdvStackSource bdvStackSource, Content imageContent) {
+    public Microtome (Image3DUniverse universe, PlaneManager planeManager, BdvStackSource bdvStackSource) {
         this.universe = universe;
         this.planeManager = planeManager;
         this.bdvStackSource = bdvStackSource;
-        this.imageContent = imageContent;
 
         rotationAxis = new Vector3d(0, 1, 0);
         tiltAxis = new Vector3d(1, 0, 0);
@@ -132,8 +131,19 @@ public class Microtome {
         return currentHolderFront;
     }
 
+    // image content is loaded in the background, so always take the current one from the plane manager
     public Content getImageContent() {
-        return imageContent;
+        return planeManager.getImageContent();
+    }
+
+    // any region of interest shown in place of the full image must move with it
+    void setImageContentTransform(Transform3D transform) {
+        getImageContent().setTransform(transform);
+        planeManager.getPoint3dOverlay().setTransform(transform);
+        VolumeRegionOfInterest<?> volumeRegionOfInterest = planeManager.getVolumeRegionOfInterest();
+        if (volumeRegionOfInterest != null) {
+            volumeRegionOfInterest.updateTransform();
+        }
     }
 
     public double getInitialTargetOffset() {
@@ -283,7 +293,7 @@ public class Microtome {
         finalTransform.transform(initialTargetNormal, currentTargetNormal);
         updateAngleKnifeTarget();
 
-        imageContent.setTransform(finalTransform);
+        setImageContentTransform(finalTransform);
         for (String planeName : new String[] { Crosshair.target, Crosshair.block }) {
             universe.getContent(planeName).setTransform(finalTransform);
         }
@@ -315,7 +325,7 @@ public class Microtome {
             }
         }
 
-        imageContent.setTransform(new Transform3D());
+        setImageContentTransform(new Transform3D());
         universe.resetView();
         universe.getContent("rotationAxis").setVisible(false);
         planeManager.redrawCurrentPlanes();
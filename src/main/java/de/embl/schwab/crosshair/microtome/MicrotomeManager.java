@@ -1,14 +1,24 @@
 package de.embl.schwab.crosshair.microtome;
 
 import bdv.util.BdvStackSource;
+import de.embl.schwab.crosshair.Crosshair;
+import de.embl.schwab.crosshair.plane.Plane;
 import de.embl.schwab.crosshair.plane.PlaneManager;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.solution.OptimalRotationSolver;
 import de.embl.schwab.crosshair.solution.Solution;
+import de.embl.schwab.crosshair.solution.SolutionObjective;
+import de.embl.schwab.crosshair.solution.SolutionSweeper;
 import de.embl.schwab.crosshair.solution.SolutionsCalculator;
 import de.embl.schwab.crosshair.ui.swing.MicrotomePanel;
 import de.embl.schwab.crosshair.ui.swing.VertexAssignmentPanel;
+import de.embl.schwab.crosshair.utils.CoalescingUpdateScheduler;
 import ij.IJ;
-import ij3d.Content;
 import ij3d.Image3DUniverse;
+import net.imglib2.RealPoint;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
 
 public class MicrotomeManager {
 
@@ -24,23 +34,28 @@ public class MicrotomeManager {
     private SolutionsCalculator solutions;
     private Cutting cutting;
 
+    // moving the microtome redraws several meshes in the 3D viewer, so slider updates are coalesced to once per frame
+    private final CoalescingUpdateScheduler microtomeUpdates;
+
     private String unit;
 
-    public MicrotomeManager(PlaneManager planeManager, Image3DUniverse universe, Content imageContent, BdvStackSource bdvStackSource, String unit) {
+    public MicrotomeManager(PlaneManager planeManager, Image3DUniverse universe, BdvStackSource bdvStackSource, String unit) {
 
         this.planeManager = planeManager;
         microtomeModeActive = false;
         cuttingModeActive = false;
 
-        this.microtome = new Microtome(universe, planeManager, bdvStackSource, imageContent);
+        this.microtome = new Microtome(universe, planeManager, bdvStackSource);
         this.microtomeSetup = new MicrotomeSetup(microtome);
         this.solutions = new SolutionsCalculator(microtome);
         this.cutting = new Cutting(microtome);
         this.unit = unit;
+        this.microtomeUpdates = new CoalescingUpdateScheduler();
 
     }
 
     public Solution getCurrentSolution() {
+        microtomeUpdates.flush();
         return solutions.getSolution( unit );
     }
 
@@ -62,20 +77,32 @@ public class MicrotomeManager {
         return solutions.isValidSolution();
     }
 
-    public void enterMicrotomeMode (double initialKnifeAngle, double initialTiltAngle) {
+    // Returns false if microtome mode couldn't be entered
+    public boolean enterMicrotomeMode (double initialKnifeAngle, double initialTiltAngle) {
         if (!microtomeModeActive) {
-            microtomeModeActive = true;
+            microtomeUpdates.flush();
             microtome.setInitialKnifeAngle(initialKnifeAngle);
             microtome.setInitialTiltAngle(initialTiltAngle);
 
-            microtomeSetup.initialiseMicrotome();
+            try {
+                microtomeSetup.initialiseMicrotome();
+            } catch ( UncheckedIOException e ) {
+                // the microtome models are loaded on first use
+                IJ.log("Crosshair: couldn't load the microtome models");
+                IJ.handleException( e );
+                return false;
+            }
+            microtomeModeActive = true;
+            return true;
         } else {
             IJ.log("Microtome mode already active");
+            return false;
         }
     }
 
     public void exitMicrotomeMode (){
         if (microtomeModeActive) {
+            microtomeUpdates.flush();
             microtomeModeActive = false;
             microtome.resetMicrotome();
         } else {
@@ -85,9 +112,12 @@ public class MicrotomeManager {
 
     public void setKnife (double angleDegrees) {
         if (microtomeModeActive) {
-            microtome.setKnife(angleDegrees);
             microtomePanel.setKnifeLabel( angleDegrees );
-            microtomePanel.setKnifeTargetAngleLabel( microtome.getAngleKnifeTarget() );
+            microtomeUpdates.schedule( "knife", () -> {
+                microtome.setKnife(angleDegrees);
+                planeManager.notifyVolumeInteraction();
+                microtomePanel.setKnifeTargetAngleLabel( microtome.getAngleKnifeTarget() );
+            });
         } else {
             IJ.log("Microtome mode inactive");
         }
@@ -95,10 +125,13 @@ public class MicrotomeManager {
 
     public void setTilt (double angleDegrees) {
         if (microtomeModeActive) {
-            microtome.setTilt(angleDegrees);
             microtomePanel.setTiltLabel( angleDegrees );
-            microtomePanel.setRotationLabel( microtome.getRotation() );
-            microtomePanel.setKnifeTargetAngleLabel( microtome.getAngleKnifeTarget() );
+            microtomeUpdates.schedule( "tilt", () -> {
+                microtome.setTilt(angleDegrees);
+                planeManager.notifyVolumeInteraction();
+                microtomePanel.setRotationLabel( microtome.getRotation() );
+                microtomePanel.setKnifeTargetAngleLabel( microtome.getAngleKnifeTarget() );
+            });
         } else {
             IJ.log("Microtome mode inactive");
         }
@@ -106,10 +139,13 @@ public class MicrotomeManager {
 
     public void setRotation (double angleDegrees) {
         if (microtomeModeActive) {
-            microtome.setRotation(angleDegrees);
             microtomePanel.setRotationLabel(angleDegrees);
-            microtomePanel.setTiltLabel( microtome.getTilt() );
-            microtomePanel.setKnifeTargetAngleLabel( microtome.getAngleKnifeTarget() );
+            microtomeUpdates.schedule( "rotation", () -> {
+                microtome.setRotation(angleDegrees);
+                planeManager.notifyVolumeInteraction();
+                microtomePanel.setTiltLabel( microtome.getTilt() );
+                microtomePanel.setKnifeTargetAngleLabel( microtome.getAngleKnifeTarget() );
+            });
         } else {
             IJ.log("Microtome mode inactive");
         }
@@ -139,8 +175,37 @@ public class MicrotomeManager {
         }
     }
 
+    // Finds the best valid solution rotation for the given objective, and moves the solution slider there
+    public void setOptimalSolution (SolutionObjective objective) {
+        if (microtomeModeActive) {
+            Map<VertexPoint, RealPoint> assignedVertices =
+                    planeManager.getVertexDisplay( Crosshair.block ).getAssignedVertices();
+            if ( assignedVertices.size() != 4 ) {
+                IJ.log("All block vertices must be assigned to find the optimal rotation");
+                return;
+            }
+
+            Plane blockPlane = planeManager.getPlane( Crosshair.block );
+            Plane targetPlane = planeManager.getPlane( Crosshair.target );
+            SolutionSweeper sweeper = new SolutionSweeper( assignedVertices,
+                    blockPlane.getNormal(), targetPlane.getNormal(), targetPlane.getPoint(),
+                    microtome.getInitialKnifeAngle(), microtome.getInitialTiltAngle() );
+            double optimalRotation = new OptimalRotationSolver( sweeper ).findOptimalRotation( objective );
+
+            if ( Double.isNaN( optimalRotation ) ) {
+                IJ.log("No valid solution exists for these initial knife and tilt angles");
+            } else {
+                // setting the slider value calls setSolution via its listener
+                microtomePanel.getRotationSolutionAngle().setCurrentValue( optimalRotation );
+            }
+        } else {
+            IJ.log("Microtome mode inactive");
+        }
+    }
+
     public void enterCuttingMode () {
         if (microtomeModeActive & !cuttingModeActive) {
+            microtomeUpdates.flush();
             cutting.initialiseCuttingPlane();
             cuttingModeActive = true;
             microtomePanel.setCuttingRange( cutting.getCuttingDepthMin(), cutting.getCuttingDepthMax() );
@@ -151,7 +216,11 @@ public class MicrotomeManager {
 
     public void setCuttingDepth (double cuttingDepth) {
         if (cuttingModeActive) {
-            cutting.updateCut(cuttingDepth);
+            // the cut is calculated off the EDT, only moving the cutting plane and bdv view happens on it
+            microtomeUpdates.schedule( "cut", cutting.prepareCut(cuttingDepth), cut -> {
+                cutting.applyCut(cut);
+                planeManager.notifyVolumeInteraction();
+            });
         } else {
             IJ.log("Cutting mode inactive");
         }
@@ -159,6 +228,7 @@ public class MicrotomeManager {
 
     public void exitCuttingMode() {
         if (cuttingModeActive) {
+            microtomeUpdates.flush();
             cuttingModeActive = false;
             cutting.removeCuttingPlane();
         } else {
@@ -166,5 +236,9 @@ public class MicrotomeManager {
         }
     }
 
+    // Call when Crosshair closes - any microtome movements that haven't been drawn yet are dropped
+    public void shutdown() {
+        microtomeUpdates.shutdown();
+    }
 
 }
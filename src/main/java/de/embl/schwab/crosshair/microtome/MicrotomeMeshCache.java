@@ -0,0 +1,95 @@
+package de.embl.schwab.crosshair.microtome;
+
+import customnode.CustomMesh;
+import de.embl.schwab.crosshair.io.IndexedMesh;
+import de.embl.schwab.crosshair.io.IndexedSTLLoader;
+import ij.Prefs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Process-wide cache of the microtome STL models, shared between all Crosshair windows.
+// Models are only parsed once, the first time they're needed - each 3D viewer gets its own mesh created from the
+// cached (read-only) vertex arrays, as scene graph nodes can't be shared between universes.
+public class MicrotomeMeshCache {
+
+    public static final String PRELOAD_PREFERENCE = "crosshair.microtome.preloadModels";
+
+    // NOTE: Orientation of axes matches those in original blender file, object positions also match
+    private static final String[] STL_FILES = {"/arc.stl", "/holder_back.stl", "/holder_front.stl", "/knife.stl"};
+
+    private static volatile Map<String, IndexedMesh> meshes;
+
+    private MicrotomeMeshCache() {
+    }
+
+    public static boolean isPreloadingModels() {
+        return Prefs.get( PRELOAD_PREFERENCE, false );
+    }
+
+    // Only affects Crosshair windows opened afterwards
+    public static void setPreloadingModels( boolean preloadModels ) {
+        Prefs.set( PRELOAD_PREFERENCE, preloadModels );
+    }
+
+    // Names of the microtome models, which are also their content names in the 3D viewer
+    static String[] getModelNames() {
+        return STL_FILES.clone();
+    }
+
+    static Map<String, IndexedMesh> getMeshes() {
+        Map<String, IndexedMesh> loadedMeshes = meshes;
+        if ( loadedMeshes == null ) {
+            synchronized ( MicrotomeMeshCache.class ) {
+                if ( meshes == null ) {
+                    meshes = loadMeshes();
+                }
+                loadedMeshes = meshes;
+            }
+        }
+        return loadedMeshes;
+    }
+
+    // A new 3D viewer mesh for the named model, for adding to a single universe
+    static CustomMesh createCustomMesh( String name ) {
+        IndexedMesh mesh = getMeshes().get( name );
+        if ( mesh == null ) {
+            throw new UnsupportedOperationException( "No microtome model named " + name );
+        }
+        return mesh.toCustomMesh();
+    }
+
+    // If preloading is turned on, loads the models on a low priority thread so they're usually ready by the time
+    // microtome mode is entered
+    static void preloadInBackground() {
+        if ( meshes != null || !isPreloadingModels() ) {
+            return;
+        }
+
+        Thread preloadThread = new Thread( () -> {
+            try {
+                getMeshes();
+            } catch ( RuntimeException e ) {
+                // not fatal here - loading is retried (and the error reported) on entering microtome mode
+            }
+        }, "Crosshair microtome model preload" );
+        preloadThread.setPriority( Thread.MIN_PRIORITY );
+        preloadThread.setDaemon( true );
+        preloadThread.start();
+    }
+
+    private static Map<String, IndexedMesh> loadMeshes() {
+        Map<String, IndexedMesh> loadedMeshes = new LinkedHashMap<>();
+        for ( String file: STL_FILES ) {
+            try {
+                loadedMeshes.put( file, IndexedSTLLoader.loadResource( file ) );
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( "Error reading microtome model " + file, e );
+            }
+        }
+        return Collections.unmodifiableMap( loadedMeshes );
+    }
+}
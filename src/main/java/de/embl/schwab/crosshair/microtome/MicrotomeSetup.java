@@ -1,10 +1,8 @@
 package de.embl.schwab.crosshair.microtome;
 
-import customnode.CustomMesh;
 import customnode.Tube;
 import de.embl.schwab.crosshair.Crosshair;
 import de.embl.schwab.crosshair.plane.PlaneManager;
-import de.embl.schwab.crosshair.io.STLResourceLoader;
 import de.embl.schwab.crosshair.points.VertexPoint;
 import de.embl.schwab.crosshair.utils.GeometryUtils;
 import ij3d.*;
@@ -16,7 +14,6 @@ import org.scijava.vecmath.*;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import static java.lang.Math.abs;
@@ -25,7 +22,6 @@ class MicrotomeSetup {
 
     private Microtome microtome;
     private final Image3DUniverse universe;
-    private Content imageContent;
     private PlaneManager planeManager;
 
     private Vector3d initialArcCentre;
@@ -35,41 +31,26 @@ class MicrotomeSetup {
     // scale factor of initial scaling of all microtome components
     private double microtomeComponentsScaleFactor;
 
-    private Map<String, CustomMesh> microtomeSTLs;
-
     public MicrotomeSetup (Microtome microtome) {
         this.microtome = microtome;
         this.universe = microtome.getUniverse();
         this.planeManager = microtome.getPlaneManager();
-        this.imageContent = microtome.getImageContent();
 
         // Values from stl files from blender
         initialArcCentre = new Vector3d(0,1,0);
         initialKnifeCentre = new Vector3d(0,-2,0);
 
-        loadMicrotomeMeshes();
-    }
-
-    private void loadMicrotomeMeshes() {
-        // NOTE: Orientation of axes matches those in original blender file, object positions also match
-        microtomeSTLs = new HashMap<>();
-        String[] stlFiles = {"/arc.stl", "/holder_back.stl", "/holder_front.stl", "/knife.stl"};
-        for (String file: stlFiles) {
-            Map<String, CustomMesh> currentStl = STLResourceLoader.loadSTL(file);
-            // in case there are multiple objects in single stl file
-            for (String key : currentStl.keySet()) {
-                microtomeSTLs.put(key, currentStl.get(key));
-            }
-        }
-        microtome.setMicrotomeObjectNames(stlFiles);
+        // meshes are only needed once microtome mode is entered, and are shared between all Crosshair windows
+        microtome.setMicrotomeObjectNames(MicrotomeMeshCache.getModelNames());
+        MicrotomeMeshCache.preloadInBackground();
     }
 
     public void initialiseMicrotome () {
         int microtomePiecesAdded = 0;
 
-        for (String key : microtomeSTLs.keySet()) {
+        for (String key : MicrotomeMeshCache.getModelNames()) {
             if (!universe.contains(key)) {
-                universe.addCustomMesh(microtomeSTLs.get(key), key);
+                universe.addCustomMesh(MicrotomeMeshCache.createCustomMesh(key), key);
                 universe.getContent(key).setLocked(true);
                 microtomePiecesAdded += 1;
             } else {
@@ -143,6 +124,7 @@ class MicrotomeSetup {
 
         Point3d minImage = new Point3d();
         Point3d maxImage = new Point3d();
+        Content imageContent = microtome.getImageContent();
         imageContent.getMax(maxImage);
         imageContent.getMin(minImage);
         ArrayList<Double> dims = new ArrayList<>();
@@ -232,7 +214,7 @@ class MicrotomeSetup {
     private Matrix4d setupBlockOrientation(double initialKnifeAngle) {
         String[] planeNames = { Crosshair.target, Crosshair.block };
         //reset translation / rotation in case it has been modified
-        imageContent.setTransform(new Transform3D());
+        microtome.setImageContentTransform(new Transform3D());
         for (String name : planeNames) {
             universe.getContent(name).setTransform(new Transform3D());
         }
@@ -304,7 +286,7 @@ class MicrotomeSetup {
         GeometryUtils.compose(scijavaFormMatrix, new Vector3d(bottomEdgeCentre.getX(), bottomEdgeCentre.getY(), bottomEdgeCentre.getZ()), new Vector3d(endBottomEdgeCentre.getX(), endBottomEdgeCentre.getY(), endBottomEdgeCentre.getZ()), finalSetupTransform);
 
         Transform3D finalTransform = new Transform3D(finalSetupTransform);
-        imageContent.setTransform(finalTransform);
+        microtome.setImageContentTransform(finalTransform);
         for (String name : planeNames) {
             universe.getContent(name).setTransform(finalTransform);
         }
@@ -2,6 +2,7 @@ package de.embl.schwab.crosshair.plane;
 
 import de.embl.schwab.crosshair.points.PointsToFitPlaneDisplay;
 import de.embl.schwab.crosshair.settings.PlaneSettings;
+import de.embl.schwab.crosshair.settings.SessionJournal;
 import de.embl.schwab.crosshair.utils.GeometryUtils;
 import ij3d.Content;
 import net.imglib2.RealPoint;
@@ -26,6 +27,7 @@ public class Plane {
     // visualisation
     private transient Content mesh; // the 3d custom triangle mesh representing the plane
     private transient PointsToFitPlaneDisplay pointsToFitPlaneDisplay;
+    private transient SessionJournal sessionJournal; // null if edits aren't journalled
 
     private double distanceBetweenPlanesThreshold = 1E-10; // distance used to be 'on' plane
 
@@ -50,6 +52,10 @@ public class Plane {
         this.mesh = mesh;
     }
 
+    public void setSessionJournal( SessionJournal sessionJournal ) {
+        this.sessionJournal = sessionJournal;
+    }
+
     public String getName() {
         return name;
     }
@@ -61,6 +67,9 @@ public class Plane {
         if ( mesh != null ) {
             mesh.setVisible(visible);
         }
+        if ( sessionJournal != null ) {
+            sessionJournal.recordPlaneVisible( name, visible );
+        }
     }
 
     public void toggleVisible() {
@@ -77,6 +86,9 @@ public class Plane {
             // make copy of colour to assign (using original interferes with changing colour later)
             mesh.setColor( this.color );
         }
+        if ( sessionJournal != null ) {
+            sessionJournal.recordPlaneColor( name, this.color );
+        }
     }
 
     public Float getTransparency() {
@@ -88,6 +100,9 @@ public class Plane {
         if ( mesh != null ) {
             mesh.setTransparency(transparency);
         }
+        if ( sessionJournal != null ) {
+            sessionJournal.recordPlaneTransparency( name, transparency );
+        }
     }
 
     public Vector3d getCentroid() {
@@ -102,6 +117,10 @@ public class Plane {
         return point;
     }
 
+    public Content getMesh() {
+        return mesh;
+    }
+
     public PointsToFitPlaneDisplay getPointsToFitPlaneDisplay() {
         return pointsToFitPlaneDisplay;
     }
@@ -1,15 +1,19 @@
 package de.embl.schwab.crosshair.plane;
 
 import bdv.util.Bdv;
+import customnode.CustomMesh;
+import customnode.CustomMeshNode;
 import customnode.CustomTriangleMesh;
+import de.embl.schwab.crosshair.bdv.BatchedRepaint;
 import de.embl.schwab.crosshair.points.PointsToFitPlaneDisplay;
 import de.embl.schwab.crosshair.points.VertexDisplay;
 import de.embl.schwab.crosshair.points.overlays.Point3dOverlay;
 import de.embl.schwab.crosshair.settings.BlockPlaneSettings;
 import de.embl.schwab.crosshair.settings.PlaneSettings;
-import de.embl.schwab.crosshair.utils.GeometryUtils;
+import de.embl.schwab.crosshair.utils.PrimitiveGeometryUtils;
 import ij3d.Content;
 import ij3d.Image3DUniverse;
+import org.scijava.java3d.GeometryArray;
 import org.scijava.java3d.Transform3D;
 import org.scijava.vecmath.Color3f;
 import org.scijava.vecmath.Point3d;
@@ -17,19 +21,67 @@ import org.scijava.vecmath.Point3f;
 import org.scijava.vecmath.Vector3d;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class PlaneCreator {
 
+    // Plane meshes are a fan of triangles over the intersection points with the image bounds. The mesh always has
+    // room for the maximum number of triangles (unused ones are collapsed to a point), so the same mesh can be
+    // updated in place whatever the plane orientation.
+    private static final int MAX_MESH_TRIANGLES = PrimitiveGeometryUtils.MAX_BOX_INTERSECTIONS - 2;
+    private static final int MESH_VERTICES = 3 * MAX_MESH_TRIANGLES;
+
     private final Image3DUniverse universe; // universe to add all planes to
-    private final Content imageContent; // 3d image content used to define bounds of plane
+    private Content imageContent; // 3d image content used to define bounds of plane - null until it's loaded
     private final Bdv bdv; // bdv instance to assign to plane, needed to keep 2d point overlays up to date
     private final Point3dOverlay point3dOverlay; // 3d point overlay to assign to plane
-
-    public PlaneCreator(Image3DUniverse universe, Content imageContent, Bdv bdv, Point3dOverlay point3dOverlay ) {
+    private final BatchedRepaint repaint; // bdv repaint shared by all point displays
+    private boolean isDeferringMeshes; // if true, planes only store their orientation, as when there's no image content
+
+    // scratch space re-used on every plane update. Methods using it are synchronized, so planes can be safely
+    // created and updated from any thread
+    private final double[][] intersections;
+    private final double[] angles;
+    private final double[] centroid;
+    private final double[] minCoord;
+    private final double[] maxCoord;
+    private final double[] planeNormalDouble;
+    private final double[] planePointDouble;
+    private final double[] transformedNormalDouble;
+    private final float[] meshCoordinates;
+    private final float[] meshNormals;
+    private final Point3d min;
+    private final Point3d max;
+    private final Point3d intersect;
+    private final Vector3d transformedNormal;
+    private final Transform3D translate;
+    private final Transform3D rotate;
+
+    public PlaneCreator( Image3DUniverse universe, Content imageContent, Bdv bdv, Point3dOverlay point3dOverlay,
+                         BatchedRepaint repaint ) {
         this.universe = universe;
         this.imageContent = imageContent;
         this.bdv = bdv;
         this.point3dOverlay = point3dOverlay;
+        this.repaint = repaint;
+        this.isDeferringMeshes = false;
+
+        intersections = new double[PrimitiveGeometryUtils.MAX_BOX_INTERSECTIONS][3];
+        angles = new double[PrimitiveGeometryUtils.MAX_BOX_INTERSECTIONS];
+        centroid = new double[3];
+        minCoord = new double[3];
+        maxCoord = new double[3];
+        planeNormalDouble = new double[3];
+        planePointDouble = new double[3];
+        transformedNormalDouble = new double[3];
+        meshCoordinates = new float[3 * MESH_VERTICES];
+        meshNormals = new float[3 * MESH_VERTICES];
+        min = new Point3d();
+        max = new Point3d();
+        intersect = new Point3d();
+        transformedNormal = new Vector3d();
+        translate = new Transform3D();
+        rotate = new Transform3D();
     }
 
     private class CentroidAndMesh {
@@ -37,30 +89,80 @@ public class PlaneCreator {
         public Content mesh;
     }
 
-    public Plane createPlane( PlaneSettings planeSettings ) {
+    // A plane's orientation, and the vertices of its mesh. Calculating these is the slow part of updating a plane, and
+    // can happen on any thread - the result is then applied with updatePlaneOrientation.
+    public static class PlaneGeometry {
+        private final Vector3d normal;
+        private final Vector3d point;
+        private final Vector3d centroid;
+        private final boolean isMeshCalculated; // false if there was no image content to calculate the mesh from
+        private final float[] meshCoordinates; // null if the plane doesn't intersect the image
+        private final float[] meshNormals;
+
+        private PlaneGeometry( Vector3d normal, Vector3d point, Vector3d centroid, boolean isMeshCalculated,
+                               float[] meshCoordinates, float[] meshNormals ) {
+            this.normal = normal;
+            this.point = point;
+            this.centroid = centroid;
+            this.isMeshCalculated = isMeshCalculated;
+            this.meshCoordinates = meshCoordinates;
+            this.meshNormals = meshNormals;
+        }
+
+        public Vector3d getNormal() {
+            return new Vector3d( normal );
+        }
+
+        public Vector3d getPoint() {
+            return new Vector3d( point );
+        }
+    }
+
+    // Until the image content is set, planes only store their orientation - meshes are created on the next
+    // updatePlaneOrientation once the content is available
+    public synchronized void setImageContent( Content imageContent ) {
+        this.imageContent = imageContent;
+    }
+
+    // While deferring, planes are created and updated without meshes - call createDeferredMesh afterwards to add them
+    public synchronized void setDeferringMeshes( boolean isDeferringMeshes ) {
+        this.isDeferringMeshes = isDeferringMeshes;
+    }
+
+    private boolean isCreatingMeshes() {
+        return imageContent != null && !isDeferringMeshes;
+    }
+
+    public synchronized Plane createPlane( PlaneSettings planeSettings ) {
 
         PointsToFitPlaneDisplay pointsToFitPlaneDisplay = new PointsToFitPlaneDisplay(
-                planeSettings.pointsToFitPlane, planeSettings.name, bdv, point3dOverlay );
+                planeSettings.pointsToFitPlane, planeSettings.name, bdv, point3dOverlay, repaint );
 
-        if ( isOrientationSet( planeSettings ) ) {
+        if ( isOrientationSet( planeSettings ) && isCreatingMeshes() ) {
             CentroidAndMesh centroidAndMesh = createCentroidAndMesh(planeSettings);
             return new Plane( planeSettings, centroidAndMesh.centroid, centroidAndMesh.mesh, pointsToFitPlaneDisplay );
+        } else if ( isOrientationSet( planeSettings ) ) {
+            return new Plane( planeSettings, calculateCentroid( 0 ), null, pointsToFitPlaneDisplay );
         } else {
             return new Plane( planeSettings, null, null, pointsToFitPlaneDisplay );
         }
     }
 
-    public BlockPlane createBlockPlane( BlockPlaneSettings blockPlaneSettings ) {
+    public synchronized BlockPlane createBlockPlane( BlockPlaneSettings blockPlaneSettings ) {
 
         PointsToFitPlaneDisplay pointsToFitPlaneDisplay = new PointsToFitPlaneDisplay(
-                blockPlaneSettings.pointsToFitPlane, blockPlaneSettings.name, bdv, point3dOverlay );
+                blockPlaneSettings.pointsToFitPlane, blockPlaneSettings.name, bdv, point3dOverlay, repaint );
         VertexDisplay vertexDisplay = new VertexDisplay(
-                blockPlaneSettings.vertices, blockPlaneSettings.assignedVertices, blockPlaneSettings.name, bdv, point3dOverlay );
+                blockPlaneSettings.vertices, blockPlaneSettings.assignedVertices, blockPlaneSettings.name, bdv,
+                point3dOverlay, repaint );
 
-        if ( isOrientationSet( blockPlaneSettings ) ) {
+        if ( isOrientationSet( blockPlaneSettings ) && isCreatingMeshes() ) {
             CentroidAndMesh centroidAndMesh = createCentroidAndMesh( blockPlaneSettings );
             return new BlockPlane(blockPlaneSettings, centroidAndMesh.centroid, centroidAndMesh.mesh,
                     pointsToFitPlaneDisplay, vertexDisplay);
+        } else if ( isOrientationSet( blockPlaneSettings ) ) {
+            return new BlockPlane( blockPlaneSettings, calculateCentroid( 0 ), null, pointsToFitPlaneDisplay,
+                    vertexDisplay );
         } else {
             return new BlockPlane( blockPlaneSettings, null, null, pointsToFitPlaneDisplay, vertexDisplay );
         }
@@ -70,30 +172,93 @@ public class PlaneCreator {
         return settings.normal != null && settings.point != null;
     }
 
-    public void updatePlaneOrientation( Plane plane, Vector3d newNormal, Vector3d newPoint ) {
-        if ( universe.contains( plane.getName() ) ) {
-            universe.removeContent( plane.getName() );
+    public synchronized void updatePlaneOrientation( Plane plane, Vector3d newNormal, Vector3d newPoint ) {
+        updatePlaneOrientation( plane, calculatePlaneGeometry( newNormal, newPoint ) );
+    }
+
+    // Calculates a plane's geometry without changing the plane or universe, so it's safe to call from any thread.
+    // The image content's bounds and transform are read through Java3D, which synchronizes them internally.
+    public synchronized PlaneGeometry calculatePlaneGeometry( Vector3d normal, Vector3d point ) {
+        Vector3d normalCopy = new Vector3d( normal );
+        Vector3d pointCopy = new Vector3d( point );
+        if ( imageContent == null ) {
+            return new PlaneGeometry( normalCopy, pointCopy, calculateCentroid( 0 ), false, null, null );
         }
 
         // intersection points with image bounds, these will form the vertices of the plane mesh
-        ArrayList<Vector3d> intersectionPoints = calculateIntersectionPoints( newNormal, newPoint );
-        Vector3d newCentroid = GeometryUtils.getCentroid(intersectionPoints);
+        int nIntersections = calculateIntersectionPoints( normal, point );
+        Vector3d centroid = calculateCentroid( nIntersections );
+
+        // need at least 3 points to make a triangle
+        if ( nIntersections < 3 ) {
+            return new PlaneGeometry( normalCopy, pointCopy, centroid, true, null, null );
+        }
+        fillMeshBuffers( nIntersections, normal );
+        return new PlaneGeometry( normalCopy, pointCopy, centroid, true, meshCoordinates.clone(),
+                meshNormals.clone() );
+    }
+
+    // Applies geometry from calculatePlaneGeometry to a plane, and its mesh in the universe
+    public synchronized void updatePlaneOrientation( Plane plane, PlaneGeometry geometry ) {
+        if ( !isCreatingMeshes() ) {
+            plane.updatePlaneOrientation( geometry.getNormal(), geometry.getPoint(), calculateCentroid( 0 ), null );
+            return;
+        }
+        if ( !geometry.isMeshCalculated ) {
+            // calculated before the image content was set
+            geometry = calculatePlaneGeometry( geometry.normal, geometry.point );
+        }
+
+        // if the plane already has a mesh, re-use it - removing and adding content to the universe is slow, and happens
+        // on every bdv transform event while tracking a plane
+        Content currentMesh = plane.getMesh();
+        if ( geometry.meshCoordinates != null && currentMesh != null && universe.contains( plane.getName() ) &&
+                updateMeshInPlace( currentMesh, geometry ) ) {
+            plane.updatePlaneOrientation( geometry.getNormal(), geometry.getPoint(),
+                    new Vector3d( geometry.centroid ), currentMesh );
+            return;
+        }
+
+        if ( universe.contains( plane.getName() ) ) {
+            universe.removeContent( plane.getName() );
+        }
 
-        Content meshContent = createMeshContent( intersectionPoints, newNormal, plane.getColor(), plane.getTransparency(),
+        Content meshContent = createMeshContent( geometry, plane.getColor(), plane.getTransparency(),
                 plane.isVisible(), plane.getName() );
 
-        plane.updatePlaneOrientation( newNormal, newPoint, newCentroid, meshContent );
+        plane.updatePlaneOrientation( geometry.getNormal(), geometry.getPoint(), new Vector3d( geometry.centroid ),
+                meshContent );
+    }
+
+    // Creates the mesh of a plane created or updated while meshes were deferred. If the universe still has a mesh of
+    // the same name (e.g. from a plane removed while deferring), it's re-used rather than removed and added again.
+    public synchronized void createDeferredMesh( Plane plane ) {
+        if ( !isCreatingMeshes() ) {
+            return;
+        }
+
+        Content oldMesh = universe.contains( plane.getName() ) ? universe.getContent( plane.getName() ) : null;
+        if ( oldMesh != null ) {
+            plane.updatePlaneOrientation( plane.getNormal(), plane.getPoint(), plane.getCentroid(), oldMesh );
+        }
+        updatePlaneOrientation( plane, plane.getNormal(), plane.getPoint() );
+
+        // an updated old mesh still has the old plane's display settings
+        Content mesh = plane.getMesh();
+        if ( mesh != null && mesh == oldMesh ) {
+            mesh.setColor( new Color3f( plane.getColor() ) );
+            mesh.setTransparency( plane.getTransparency() );
+            mesh.setVisible( plane.isVisible() );
+        }
     }
 
     private CentroidAndMesh createCentroidAndMesh( PlaneSettings settings ) {
         CentroidAndMesh centroidAndMesh = new CentroidAndMesh();
 
-        // intersection points with image bounds, these will form the vertices of the plane mesh
-        ArrayList<Vector3d> intersectionPoints = calculateIntersectionPoints( settings.normal,
-                settings.point) ;
-        centroidAndMesh.centroid = GeometryUtils.getCentroid(intersectionPoints);
+        PlaneGeometry geometry = calculatePlaneGeometry( settings.normal, settings.point );
+        centroidAndMesh.centroid = geometry.centroid;
 
-        Content meshContent = createMeshContent( intersectionPoints, settings.normal,
+        Content meshContent = createMeshContent( geometry,
                 settings.color, settings.transparency, settings.isVisible,
                 settings.name );
         centroidAndMesh.mesh = meshContent;
@@ -101,12 +266,20 @@ public class PlaneCreator {
         return centroidAndMesh;
     }
 
-    private Content createMeshContent( ArrayList<Vector3d> intersectionPoints, Vector3d planeNormal,
+    private Vector3d calculateCentroid( int nIntersections ) {
+        if ( nIntersections == 0 ) {
+            // no intersections with the image, matches GeometryUtils.getCentroid of an empty list
+            return new Vector3d( Double.NaN, Double.NaN, Double.NaN );
+        }
+        PrimitiveGeometryUtils.calculateCentroid( intersections, nIntersections, centroid );
+        return new Vector3d( centroid );
+    }
+
+    private Content createMeshContent( PlaneGeometry geometry,
                                         Color3f color, float transparency, boolean isVisible, String planeName ) {
         Content meshContent;
-        if (intersectionPoints.size() > 0) {
-            CustomTriangleMesh mesh = createPlaneMesh( intersectionPoints, planeNormal,
-                    color, transparency );
+        if ( geometry.meshCoordinates != null ) {
+            CustomTriangleMesh mesh = createPlaneMesh( geometry, color, transparency );
             meshContent = universe.addCustomMesh( mesh, planeName );
             meshContent.setLocked( true );
             meshContent.setVisible( isVisible );
@@ -117,62 +290,117 @@ public class PlaneCreator {
         return meshContent;
     }
 
-    private CustomTriangleMesh createPlaneMesh(ArrayList<Vector3d> intersectionPoints, Vector3d planeNormal,
-                                               Color3f color, float transparency ) {
+    private CustomTriangleMesh createPlaneMesh( PlaneGeometry planeGeometry, Color3f color, float transparency ) {
+        float[] coordinates = planeGeometry.meshCoordinates;
+        ArrayList<Point3f> triangles = new ArrayList<>();
+        for ( int i = 0; i < MESH_VERTICES; i++ ) {
+            triangles.add( new Point3f( coordinates[3*i], coordinates[3*i + 1], coordinates[3*i + 2] ) );
+        }
+        CustomTriangleMesh newMesh = new CustomTriangleMesh( triangles, color, transparency );
+        // bounds follow the coordinates as they're updated in place. The content's centre isn't updated, but plane
+        // contents are locked, so it's never used as the pivot of a transform.
+        newMesh.setBoundsAutoCompute( true );
+        // normals calculated from collapsed triangles are undefined, so set them all to the plane normal
+        GeometryArray geometry = (GeometryArray) newMesh.getGeometry();
+        if ( geometry.getCapability( GeometryArray.ALLOW_NORMAL_WRITE ) ) {
+            geometry.setNormals( 0, planeGeometry.meshNormals );
+        }
+
+        return newMesh;
+    }
+
+    // Writes new vertex positions straight into the existing mesh's geometry - rebuilding it would allocate new
+    // geometry, and recalculate normals, on every bdv transform event while tracking. Returns false if this mesh
+    // can't be updated in place.
+    private boolean updateMeshInPlace( Content meshContent, PlaneGeometry planeGeometry ) {
+        if ( !( meshContent.getContent() instanceof CustomMeshNode ) ) {
+            return false;
+        }
+        CustomMesh mesh = ( (CustomMeshNode) meshContent.getContent() ).getMesh();
+        List<Point3f> vertices = mesh.getMesh();
+        if ( vertices.size() != MESH_VERTICES || !( mesh.getGeometry() instanceof GeometryArray ) ) {
+            return false;
+        }
+        GeometryArray geometry = (GeometryArray) mesh.getGeometry();
+        if ( !geometry.getCapability( GeometryArray.ALLOW_COORDINATE_WRITE ) ) {
+            return false;
+        }
+
+        float[] coordinates = planeGeometry.meshCoordinates;
+        // the shape's bounds, used for picking, are recomputed from the new coordinates (see createPlaneMesh)
+        geometry.setCoordinates( 0, coordinates );
+        if ( geometry.getCapability( GeometryArray.ALLOW_NORMAL_WRITE ) ) {
+            geometry.setNormals( 0, planeGeometry.meshNormals );
+        }
 
-        ArrayList<Point3f> vectorPoints = new ArrayList<>();
-        for (Vector3d d : intersectionPoints) {
-            vectorPoints.add(new Point3f((float) d.getX(), (float) d.getY(), (float) d.getZ()));
+        // keep the mesh's own copy of the vertices in sync too
+        for ( int i = 0; i < MESH_VERTICES; i++ ) {
+            vertices.get(i).set( coordinates[3*i], coordinates[3*i + 1], coordinates[3*i + 2] );
         }
 
+        return true;
+    }
+
+    // Fills meshCoordinates with a triangle fan over the intersection points, and meshNormals with the plane normal
+    private void fillMeshBuffers( int nIntersections, Vector3d planeNormal ) {
         // must account for any transformation of the image
-        Transform3D rotate = new Transform3D();
         imageContent.getLocalRotate(rotate);
-        Vector3d transformedNormal = new Vector3d(planeNormal.getX(), planeNormal.getY(), planeNormal.getZ());
+        transformedNormal.set(planeNormal);
         rotate.transform(transformedNormal);
-
-        CustomTriangleMesh newMesh = null;
-        if (intersectionPoints.size() == 3) {
-            newMesh = new CustomTriangleMesh( vectorPoints, color, transparency );
-        } else if (intersectionPoints.size() > 3) {
-            ArrayList<Point3f> triangles = GeometryUtils.calculateTrianglesFromPoints(intersectionPoints, transformedNormal);
-            newMesh = new CustomTriangleMesh( triangles, color, transparency );
+        transformedNormal.get(transformedNormalDouble);
+        PrimitiveGeometryUtils.normalize( transformedNormalDouble );
+
+        // order points around the centroid, then make a triangle fan from the first point
+        PrimitiveGeometryUtils.sortPointsByAngle( intersections, nIntersections, transformedNormalDouble, angles );
+        for ( int t = 0; t < MAX_MESH_TRIANGLES; t++ ) {
+            if ( t < nIntersections - 2 ) {
+                setMeshVertex( 3*t, intersections[0] );
+                setMeshVertex( 3*t + 1, intersections[t + 1] );
+                setMeshVertex( 3*t + 2, intersections[t + 2] );
+            } else {
+                // unused triangle, collapsed to a point
+                setMeshVertex( 3*t, intersections[0] );
+                setMeshVertex( 3*t + 1, intersections[0] );
+                setMeshVertex( 3*t + 2, intersections[0] );
+            }
         }
+    }
 
-        return newMesh;
+    private void setMeshVertex( int vertexIndex, double[] point ) {
+        for ( int d = 0; d < 3; d++ ) {
+            meshCoordinates[3*vertexIndex + d] = (float) point[d];
+            meshNormals[3*vertexIndex + d] = (float) transformedNormalDouble[d];
+        }
     }
 
-    private ArrayList<Vector3d> calculateIntersectionPoints(Vector3d planeNormal, Vector3d planePoint ) {
-        Point3d min = new Point3d();
-        Point3d max = new Point3d();
+    // Calculates intersection points of the plane with the image bounds (in global coordinates) and writes
+    // them into the intersections array. Returns the number of intersections.
+    private int calculateIntersectionPoints(Vector3d planeNormal, Vector3d planePoint ) {
         imageContent.getMax(max);
         imageContent.getMin(min);
-        double[] minCoord = new double[3];
-        double[] maxCoord = new double[3];
         min.get(minCoord);
         max.get(maxCoord);
+        planeNormal.get(planeNormalDouble);
+        planePoint.get(planePointDouble);
 
-        ArrayList<Vector3d> intersectionPoints = GeometryUtils.calculateIntersections(minCoord, maxCoord, planeNormal, planePoint);
+        int nIntersections = PrimitiveGeometryUtils.calculateIntersections( minCoord, maxCoord, planeNormalDouble,
+                planePointDouble, intersections );
 
-        if (intersectionPoints.size() > 0) {
+        if (nIntersections > 0) {
             // intersections were in local space, we want to display in the global so must account for any transformations
             // of the image
-            Transform3D translate = new Transform3D();
-            Transform3D rotate = new Transform3D();
             imageContent.getLocalTranslate(translate);
             imageContent.getLocalRotate(rotate);
 
-            for (Vector3d point : intersectionPoints) {
+            for ( int i = 0; i < nIntersections; i++ ) {
                 // convert to point > transform affects vectors differently
-                Point3d intersect = new Point3d(point.getX(), point.getY(), point.getZ());
+                intersect.set(intersections[i]);
                 rotate.transform(intersect);
                 translate.transform(intersect);
-                point.setX(intersect.getX());
-                point.setY(intersect.getY());
-                point.setZ(intersect.getZ());
+                intersect.get(intersections[i]);
             }
         }
 
-        return intersectionPoints;
+        return nIntersections;
     }
 }
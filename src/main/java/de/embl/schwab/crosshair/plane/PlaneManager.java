@@ -4,20 +4,27 @@ import bdv.util.Bdv;
 import bdv.util.BdvFunctions;
 import bdv.util.BdvHandle;
 import bdv.util.BdvStackSource;
+import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
+import de.embl.schwab.crosshair.bdv.BatchedRepaint;
 import de.embl.schwab.crosshair.bdv.ModeOverlay;
+import de.embl.schwab.crosshair.points.PointStore;
 import de.embl.schwab.crosshair.points.PointsToFitPlaneDisplay;
 import de.embl.schwab.crosshair.points.VertexDisplay;
 import de.embl.schwab.crosshair.points.overlays.Point3dOverlay;
 import de.embl.schwab.crosshair.points.overlays.PointOverlay2d;
 import de.embl.schwab.crosshair.settings.BlockPlaneSettings;
 import de.embl.schwab.crosshair.settings.PlaneSettings;
+import de.embl.schwab.crosshair.settings.SessionJournal;
 import de.embl.schwab.crosshair.utils.BdvUtils;
 import de.embl.schwab.crosshair.utils.GeometryUtils;
+import de.embl.schwab.crosshair.utils.PlaneFit;
+import de.embl.schwab.crosshair.utils.RobustPlaneFitter;
+import de.embl.schwab.crosshair.volume.VolumeLevelOfDetail;
+import de.embl.schwab.crosshair.volume.VolumeRegionOfInterest;
 import ij.IJ;
 import ij3d.Content;
 import ij3d.Image3DUniverse;
-import net.imglib2.RealPoint;
 import net.imglib2.realtransform.AffineTransform3D;
 import org.scijava.vecmath.Color3f;
 import org.scijava.vecmath.Vector3d;
@@ -42,6 +49,15 @@ public class PlaneManager {
     private final BdvStackSource bdvStackSource;
     private final Image3DUniverse universe;
     private final Point3dOverlay point3dOverlay;
+    private final BatchedRepaint repaint;
+    private volatile Content imageContent;
+    private volatile boolean isImageContentLoadFailed;
+    private volatile VolumeLevelOfDetail volumeLevelOfDetail; // null to always show full detail
+    private volatile VolumeRegionOfInterest<?> volumeRegionOfInterest; // null until the image content is loaded
+    private SessionJournal sessionJournal; // null if edits aren't journalled
+
+    private int batchDepth;
+    private final Set<String> meshesToRemove; // names of planes removed during a batch, whose meshes are still shown
 
     private final Color3f alignedPlaneColour = new Color3f(1, 0, 0);
     // TODO - make this threshold user definable - makes sense for microns, but possibly not for other units
@@ -50,6 +66,13 @@ public class PlaneManager {
     // Given image content is used to define the extent of planes (only shown within bounds of that image)
     // and where points are shown (again attached to that image)
     public PlaneManager( BdvStackSource bdvStackSource, Image3DUniverse universe, Content imageContent ) {
+        this( bdvStackSource, universe );
+        setImageContent( imageContent );
+    }
+
+    // Image content can be set later with setImageContent, e.g. while it is still loading into the 3D viewer.
+    // Until then, planes and points are only shown in bdv, and added to the 3D viewer once the content is set.
+    public PlaneManager( BdvStackSource bdvStackSource, Image3DUniverse universe ) {
         planeNameToPlane = new HashMap<>();
 
         this.bdvStackSource = bdvStackSource;
@@ -57,9 +80,141 @@ public class PlaneManager {
                 Bdv.options().addTo( bdvStackSource ) );
         this.bdvHandle = bdvStackSource.getBdvHandle();
         this.universe = universe;
-        this.point3dOverlay = new Point3dOverlay( imageContent );
+        this.point3dOverlay = new Point3dOverlay( universe, null );
+        this.repaint = new BatchedRepaint( bdvStackSource );
+        this.batchDepth = 0;
+        this.meshesToRemove = new HashSet<>();
+
+        this.planeCreator = new PlaneCreator( universe, null, bdvStackSource, point3dOverlay, repaint );
+    }
+
+    public void setImageContent( Content imageContent ) {
+        if ( this.imageContent != null ) {
+            throw new UnsupportedOperationException( "Image content is already set" );
+        }
+
+        point3dOverlay.setImageContent( imageContent );
+        planeCreator.setImageContent( imageContent );
+        this.imageContent = imageContent;
+
+        // create meshes for any planes added while the content was loading
+        for ( Plane plane: planeNameToPlane.values() ) {
+            if ( plane.isOrientationSet() ) {
+                planeCreator.updatePlaneOrientation( plane, plane.getNormal(), plane.getPoint() );
+            }
+        }
+        repaint.requestRepaint();
+    }
+
+    public Content getImageContent() {
+        return imageContent;
+    }
+
+    public Point3dOverlay getPoint3dOverlay() {
+        return point3dOverlay;
+    }
+
+    public boolean isImageContentLoaded() {
+        return imageContent != null;
+    }
+
+    // Call if the image content couldn't be loaded into the 3D viewer, so bdv stops showing it as loading
+    public void setImageContentLoadFailed() {
+        isImageContentLoadFailed = true;
+        repaint.requestRepaint();
+    }
+
+    public boolean isImageContentLoadFailed() {
+        return isImageContentLoadFailed;
+    }
+
+    public void setVolumeLevelOfDetail( VolumeLevelOfDetail volumeLevelOfDetail ) {
+        this.volumeLevelOfDetail = volumeLevelOfDetail;
+    }
 
-        this.planeCreator = new PlaneCreator( universe, imageContent, bdvStackSource, point3dOverlay );
+    public VolumeLevelOfDetail getVolumeLevelOfDetail() {
+        return volumeLevelOfDetail;
+    }
+
+    public void setVolumeRegionOfInterest( VolumeRegionOfInterest<?> volumeRegionOfInterest ) {
+        this.volumeRegionOfInterest = volumeRegionOfInterest;
+    }
+
+    public VolumeRegionOfInterest<?> getVolumeRegionOfInterest() {
+        return volumeRegionOfInterest;
+    }
+
+    // Defer bdv repaints, plane meshes and updates to 3D points until the matching endBatch, e.g. while loading
+    // settings with many planes and points. Batches can be nested - everything is updated when the outermost one ends.
+    public void beginBatch() {
+        if ( batchDepth == 0 ) {
+            planeCreator.setDeferringMeshes( true );
+        }
+        batchDepth++;
+        repaint.beginBatch();
+        point3dOverlay.beginBatch();
+    }
+
+    public void endBatch() {
+        if ( batchDepth == 0 ) {
+            throw new UnsupportedOperationException( "endBatch called without beginBatch" );
+        }
+
+        batchDepth--;
+        if ( batchDepth == 0 ) {
+            planeCreator.setDeferringMeshes( false );
+            createDeferredMeshes();
+        }
+        point3dOverlay.endBatch();
+        repaint.endBatch();
+    }
+
+    private void createDeferredMeshes() {
+        for ( Plane plane: planeNameToPlane.values() ) {
+            if ( plane.isOrientationSet() && plane.getMesh() == null ) {
+                planeCreator.createDeferredMesh( plane );
+            }
+        }
+
+        // meshes of removed planes that weren't re-used by a new plane of the same name
+        for ( String name: meshesToRemove ) {
+            Plane plane = planeNameToPlane.get( name );
+            if ( ( plane == null || plane.getMesh() == null ) && universe.contains( name ) ) {
+                universe.removeContent( name );
+            }
+        }
+        meshesToRemove.clear();
+    }
+
+    // Edits to planes and their points from now on are recorded in the given journal (null to stop journalling)
+    public void setSessionJournal( SessionJournal sessionJournal ) {
+        this.sessionJournal = sessionJournal;
+        for ( Plane plane: planeNameToPlane.values() ) {
+            attachSessionJournal( plane );
+        }
+    }
+
+    // Writes a new autosave snapshot of the whole session, e.g. after loading settings - so their points are in the
+    // snapshot, rather than journalled one by one
+    public void compactSessionJournal() {
+        if ( sessionJournal != null ) {
+            sessionJournal.compact();
+        }
+    }
+
+    private void attachSessionJournal( Plane plane ) {
+        plane.setSessionJournal( sessionJournal );
+        plane.getPointsToFitPlaneDisplay().setSessionJournal( sessionJournal, plane.getName() );
+        if ( plane instanceof BlockPlane ) {
+            ( (BlockPlane) plane ).getVertexDisplay().setSessionJournal( sessionJournal, plane.getName() );
+        }
+    }
+
+    // Call on each update of a continuous interaction (e.g. tracking a plane), to show coarse volumes until it stops
+    public void notifyVolumeInteraction() {
+        if ( volumeLevelOfDetail != null ) {
+            volumeLevelOfDetail.interactionUpdated();
+        }
     }
 
     public Plane getPlane( String planeName ) {
@@ -99,7 +254,7 @@ public class PlaneManager {
 
     public void setPointMode( boolean isInPointMode ) {
         this.isInPointMode = isInPointMode;
-        bdvHandle.getViewerPanel().requestRepaint();
+        repaint.requestRepaint();
     }
 
     public boolean isInVertexMode() {
@@ -108,7 +263,7 @@ public class PlaneManager {
 
     public void setVertexMode( boolean isInVertexMode ) {
         this.isInVertexMode = isInVertexMode;
-        bdvHandle.getViewerPanel().requestRepaint();
+        repaint.requestRepaint();
     }
 
     public boolean checkNamedPlaneExists(String name) {
@@ -126,6 +281,10 @@ public class PlaneManager {
     public void addPlane( PlaneSettings planeSettings ){
         Plane plane = planeCreator.createPlane( planeSettings );
         planeNameToPlane.put( planeSettings.name, plane);
+        if ( sessionJournal != null ) {
+            attachSessionJournal( plane );
+            sessionJournal.recordAddPlane( planeSettings );
+        }
     }
 
     public void addPlane( String planeName, Vector3d planeNormal, Vector3d planePoint ) {
@@ -153,6 +312,10 @@ public class PlaneManager {
     public void addBlockPlane( BlockPlaneSettings blockPlaneSettings ) {
         BlockPlane plane = planeCreator.createBlockPlane( blockPlaneSettings );
         planeNameToPlane.put( blockPlaneSettings.name, plane );
+        if ( sessionJournal != null ) {
+            attachSessionJournal( plane );
+            sessionJournal.recordAddPlane( blockPlaneSettings );
+        }
     }
 
     public void addBlockPlane( String planeName, Vector3d planeNormal, Vector3d planePoint ) {
@@ -177,6 +340,17 @@ public class PlaneManager {
         addBlockPlane( planeName, planeDefinition.get(0), planeDefinition.get(1) );
     }
 
+    // Sets orientation of an existing block plane, or adds a new one e.g. after automatic block face detection
+    public void addOrUpdateBlockPlane( String planeName, Vector3d planeNormal, Vector3d planePoint ) {
+        if ( checkNamedPlaneExists( planeName ) ) {
+            getPointsToFitPlaneDisplay( planeName ).clearOutlierPoints();
+            updatePlane( planeNormal, planePoint, planeName );
+            getPlane( planeName ).setVisible( true );
+        } else {
+            addBlockPlane( planeName, planeNormal, planePoint );
+        }
+    }
+
     public PointsToFitPlaneDisplay getPointsToFitPlaneDisplay( String planeName ) {
         return getPlane(planeName).getPointsToFitPlaneDisplay();
     }
@@ -187,7 +361,18 @@ public class PlaneManager {
 
     public void updatePlane( Vector3d planeNormal, Vector3d planePoint, String planeName ) {
         if ( checkNamedPlaneExists( planeName ) ) {
-            planeCreator.updatePlaneOrientation( getPlane( planeName ), planeNormal, planePoint );
+            updatePlane( planeCreator.calculatePlaneGeometry( planeNormal, planePoint ), planeName );
+        }
+    }
+
+    // Applies geometry from calculatePlaneGeometryFromViewTransform
+    public void updatePlane( PlaneCreator.PlaneGeometry planeGeometry, String planeName ) {
+        if ( checkNamedPlaneExists( planeName ) ) {
+            planeCreator.updatePlaneOrientation( getPlane( planeName ), planeGeometry );
+            if ( sessionJournal != null ) {
+                sessionJournal.recordPlaneOrientation( planeName, planeGeometry.getNormal(),
+                        planeGeometry.getPoint() );
+            }
         }
     }
 
@@ -207,9 +392,17 @@ public class PlaneManager {
         }
     }
 
+    // Calculates the geometry of the plane shown by a bdv view transform, without changing any planes - so it can run
+    // off the EDT. Apply it with updatePlane.
+    public PlaneCreator.PlaneGeometry calculatePlaneGeometryFromViewTransform( AffineTransform3D affineTransform3D ) {
+        ArrayList<Vector3d> planeDefinition = getPlaneDefinitionFromViewTransform( affineTransform3D );
+        return planeCreator.calculatePlaneGeometry( planeDefinition.get(0), planeDefinition.get(1) );
+    }
+
     public void updatePlaneOnTransformChange(AffineTransform3D affineTransform3D, String planeName) {
         ArrayList<Vector3d> planeDefinition = getPlaneDefinitionFromViewTransform(affineTransform3D);
         updatePlane(planeDefinition.get(0), planeDefinition.get(1), planeName);
+        notifyVolumeInteraction();
     }
 
     public void updatePlaneCurrentView (String planeName) {
@@ -224,22 +417,52 @@ public class PlaneManager {
         }
     }
 
-    private void fitToPoints( String planeName, ArrayList<RealPoint> points ) {
-        ArrayList<Vector3d> planeDefinition = GeometryUtils.fitPlaneToPoints( points );
+    // coordinates are interleaved x, y, z
+    private void fitToPoints( String planeName, double[] coordinates ) {
+        ArrayList<Vector3d> planeDefinition = GeometryUtils.fitPlaneToPointsStreaming( coordinates );
+        getPointsToFitPlaneDisplay( planeName ).clearOutlierPoints();
         updatePlane( planeDefinition.get(0), planeDefinition.get(1), planeName );
         getPlane( planeName ).setVisible( true );
     }
 
     public void fitToPoints( String planeName ) {
-        ArrayList<RealPoint> points = getPointsToFitPlaneDisplay( planeName ).getPointsToFitPlane();
+        PointStore.Snapshot<Void> points = getPointsToFitPlaneDisplay( planeName ).getPointsToFitPlaneSnapshot();
 
         if ( points.size() >= 3 ) {
-            fitToPoints( planeName, points );
+            fitToPoints( planeName, points.copyCoordinates() );
         } else {
             IJ.log ("Need at least 3 points to fit plane");
         }
     }
 
+    // Fit ignoring outliers, i.e. points further than inlierThreshold (in image units) from the plane.
+    // Outliers are highlighted in the 2d point overlay.
+    public PlaneFit fitToPointsRobust( String planeName, double inlierThreshold ) {
+        PointsToFitPlaneDisplay pointsToFitPlaneDisplay = getPointsToFitPlaneDisplay( planeName );
+        PointStore.Snapshot<Void> points = pointsToFitPlaneDisplay.getPointsToFitPlaneSnapshot();
+
+        if ( points.size() < 3 ) {
+            IJ.log ("Need at least 3 points to fit plane");
+            return null;
+        }
+
+        PlaneFit planeFit = new RobustPlaneFitter( inlierThreshold ).fit( points.copyCoordinates() );
+        BitSet outlierIds = new BitSet();
+        for ( int i = 0; i < points.size(); i++ ) {
+            if ( !planeFit.isInlier( i ) ) {
+                outlierIds.set( points.getId(i) );
+            }
+        }
+        pointsToFitPlaneDisplay.setOutlierIds( outlierIds );
+
+        updatePlane( planeFit.getNormal(), planeFit.getPoint(), planeName );
+        getPlane( planeName ).setVisible( true );
+        IJ.log( "Fit plane " + planeName + " to " + planeFit.getNumberOfInliers() + " points, ignoring " +
+                planeFit.getNumberOfOutliers() + " outliers. Residual RMS: " + planeFit.getResidualRMS() );
+
+        return planeFit;
+    }
+
     public ArrayList<PointOverlay2d> getAll2dPointOverlays() {
         ArrayList<PointOverlay2d> pointOverlays = new ArrayList<>();
         for ( Plane plane: planeNameToPlane.values() ) {
@@ -297,6 +520,33 @@ public class PlaneManager {
         return centrePointGlobal;
     }
 
+    // Direction into the screen for the current bdv view, in global coordinates
+    public double[] getGlobalViewDirection() {
+        return getGlobalDirectionOfScreenVector( new double[]{0, 0, 1} );
+    }
+
+    // Direction of 'up' on the screen for the current bdv view, in global coordinates
+    public double[] getGlobalViewUpDirection() {
+        return getGlobalDirectionOfScreenVector( new double[]{0, -1, 0} );
+    }
+
+    private double[] getGlobalDirectionOfScreenVector( double[] screenVector ) {
+        final AffineTransform3D transform = new AffineTransform3D();
+        bdvHandle.getViewerPanel().state().getViewerTransform( transform );
+        double[] globalOrigin = new double[3];
+        double[] globalEnd = new double[3];
+        transform.inverse().apply( new double[3], globalOrigin );
+        transform.inverse().apply( screenVector, globalEnd );
+
+        return new double[]{ globalEnd[0] - globalOrigin[0], globalEnd[1] - globalOrigin[1],
+                globalEnd[2] - globalOrigin[2] };
+    }
+
+    // Image shown in bdv, that planes are defined relative to
+    public Source<?> getImageSource() {
+        return bdvStackSource.getSources().get(0).getSpimSource();
+    }
+
     public void moveViewToNamedPlane (String name) {
         // check if you're already at the plane
         ArrayList<Vector3d> planeDefinition = getPlaneDefinitionOfCurrentView();
@@ -344,6 +594,7 @@ public class PlaneManager {
             bdvHandle.getViewerPanel().getDisplay().overlays().remove( pointsToFitPlaneDisplay.getPoint2dOverlay() );
             SourceAndConverter pointSource = getMatchingBdvSource( pointsToFitPlaneDisplay.getSourceName() );
             bdvHandle.getViewerPanel().state().removeSource( pointSource );
+            point3dOverlay.removePointSet( pointsToFitPlaneDisplay.getSourceName() );
 
             if ( getPlane( name ) instanceof BlockPlane ) {
                 VertexDisplay vertexDisplay = getVertexDisplay( name );
@@ -351,10 +602,19 @@ public class PlaneManager {
                 bdvHandle.getViewerPanel().getDisplay().overlays().remove( vertexDisplay.get2dOverlay() );
                 SourceAndConverter vertexSource = getMatchingBdvSource( vertexDisplay.getSourceName() );
                 bdvHandle.getViewerPanel().state().removeSource( vertexSource );
+                point3dOverlay.removePointSet( vertexDisplay.getSourceName() );
             }
 
             planeNameToPlane.remove( name );
-            universe.removeContent( name );
+            if ( batchDepth > 0 ) {
+                // removing content from the universe is slow - the mesh may be re-used by a plane added in the batch
+                meshesToRemove.add( name );
+            } else {
+                universe.removeContent( name );
+            }
+            if ( sessionJournal != null ) {
+                sessionJournal.recordRemovePlane( name );
+            }
         }
 
     }
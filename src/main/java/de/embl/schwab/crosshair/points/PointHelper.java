@@ -9,6 +9,9 @@ import java.util.ArrayList;
 
 public class PointHelper {
 
+    // distance in viewer coordinates, within which clicks select an existing point
+    public static final double MATCHING_DISTANCE = 5;
+
     public static RealPoint getCurrentMousePosition ( BdvHandle bdvHandle ) {
         RealPoint point = new RealPoint(3);
         bdvHandle.getViewerPanel().getGlobalMouseCoordinates(point);
@@ -31,20 +34,9 @@ public class PointHelper {
         return false;
     }
 
-    public static RealPoint getMatchingPointWithinDistance( ArrayList<RealPoint> points, RealPoint point, BdvHandle bdvHandle ) {
-        double[] pointViewerCoords = convertToViewerCoordinates( point, bdvHandle );
-
-        for ( int i = 0; i < points.size(); i++ )
-        {
-            RealPoint currentPoint = points.get(i);
-            double[] currentPointViewerCoords = convertToViewerCoordinates( currentPoint, bdvHandle );
-            double distance = GeometryUtils.distanceBetweenPoints(pointViewerCoords, currentPointViewerCoords);
-            if (distance < 5) {
-                return currentPoint;
-            }
-        }
-
-        return null;
+    // Id of the closest indexed point within MATCHING_DISTANCE of the given point in the viewer, or -1 if there is none
+    public static int getMatchingIdWithinDistance( PointIndex pointIndex, RealPoint point, BdvHandle bdvHandle ) {
+        return pointIndex.getNearestIdInViewer( point, getViewerTransform( bdvHandle ), MATCHING_DISTANCE );
     }
 
     public static double[] getCurrentPositionViewerCoordinates ( BdvHandle bdvHandle ) {
@@ -53,9 +45,14 @@ public class PointHelper {
     }
 
 
-    public static double[] convertToViewerCoordinates ( RealPoint point, BdvHandle bdvHandle ) {
+    public static AffineTransform3D getViewerTransform( BdvHandle bdvHandle ) {
         final AffineTransform3D transform = new AffineTransform3D();
         bdvHandle.getViewerPanel().state().getViewerTransform( transform );
+        return transform;
+    }
+
+    public static double[] convertToViewerCoordinates ( RealPoint point, BdvHandle bdvHandle ) {
+        final AffineTransform3D transform = getViewerTransform( bdvHandle );
 
         final double[] lPos = new double[ 3 ];
         final double[] gPos = new double[ 3 ];
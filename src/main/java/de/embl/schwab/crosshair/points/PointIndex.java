@@ -0,0 +1,370 @@
+package de.embl.schwab.crosshair.points;
+
+import de.embl.schwab.crosshair.utils.PrimitiveSorting;
+import net.imglib2.RealLocalizable;
+import net.imglib2.realtransform.AffineTransform3D;
+
+import java.util.Arrays;
+
+import static java.lang.Math.*;
+
+// Spatial index over points in global (image) coordinates, so clicks can be matched to nearby points without
+// converting every point to viewer coordinates. Points are identified by an id chosen by the caller (e.g. their id in
+// a PointStore).
+// This is a 3D k-d tree, kept up to date as points are added and removed. Removed points are only marked as removed,
+// and the whole tree is rebuilt (balanced) once half its nodes are removed. Insertions keep it balanced like a
+// scapegoat tree: when a new node is too deep, only the smallest unbalanced subtree above it is rebuilt - so
+// e.g. points added in sorted order cost O(log^2 n) amortised each, rather than a rebuild of the whole tree.
+// Nodes are stored in parallel primitive arrays (indexed by node number) rather than as one object per node.
+public class PointIndex {
+
+    // a child subtree may hold at most this fraction of its parent subtree's nodes, once a new node is too deep
+    private static final double BALANCE = 0.7;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_NODE = -1;
+
+    private double[] positions; // x, y, z of each node
+    private int[] ids;
+    private int[] left;
+    private int[] right;
+    private byte[] axes;
+    private int[] subtreeSizes; // nodes in the subtree rooted at each node, including removed ones
+    private boolean[] isRemoved;
+    // nodes used so far, including ones dropped from the tree by a subtree rebuild - these are only reclaimed by a
+    // full rebuild
+    private int numberOfAllocatedNodes;
+
+    private int root;
+    private int size; // points in the index, not counting removed ones
+    private int numberOfNodes; // nodes in the tree, including removed ones
+    private int[] path; // ancestors of the last added node, from the root down
+
+    public PointIndex() {
+        clear();
+    }
+
+    // Index of all the points in the snapshot, by their ids in the store it was taken from
+    public PointIndex( PointStore.Snapshot<?> points ) {
+        clear();
+        double[] position = new double[3];
+        for ( int index = 0; index < points.size(); index++ ) {
+            points.localize( index, position );
+            allocateNode( points.getId( index ), position[0], position[1], position[2] );
+        }
+        rebuild();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        positions = new double[ 3 * INITIAL_CAPACITY ];
+        ids = new int[ INITIAL_CAPACITY ];
+        left = new int[ INITIAL_CAPACITY ];
+        right = new int[ INITIAL_CAPACITY ];
+        axes = new byte[ INITIAL_CAPACITY ];
+        subtreeSizes = new int[ INITIAL_CAPACITY ];
+        isRemoved = new boolean[ INITIAL_CAPACITY ];
+        numberOfAllocatedNodes = 0;
+        path = new int[ INITIAL_CAPACITY ];
+
+        root = NO_NODE;
+        size = 0;
+        numberOfNodes = 0;
+    }
+
+    public void add( int id, RealLocalizable point ) {
+        add( id, point.getDoublePosition(0), point.getDoublePosition(1), point.getDoublePosition(2) );
+    }
+
+    public void add( int id, double x, double y, double z ) {
+        int newNode = allocateNode( id, x, y, z );
+        size++;
+        numberOfNodes++;
+        if ( root == NO_NODE ) {
+            root = newNode;
+            return;
+        }
+
+        int depth = 0;
+        int node = root;
+        while ( true ) {
+            if ( depth == path.length ) {
+                path = Arrays.copyOf( path, 2 * depth );
+            }
+            path[ depth++ ] = node;
+            subtreeSizes[node]++;
+
+            int axis = axes[node];
+            boolean isLeft = positions[ 3 * newNode + axis ] < positions[ 3 * node + axis ];
+            int child = isLeft ? left[node] : right[node];
+            if ( child == NO_NODE ) {
+                axes[newNode] = (byte) ( ( axis + 1 ) % 3 );
+                if ( isLeft ) {
+                    left[node] = newNode;
+                } else {
+                    right[node] = newNode;
+                }
+                break;
+            }
+            node = child;
+        }
+
+        if ( depth > log( numberOfNodes ) / log( 1 / BALANCE ) ) {
+            rebuildScapegoat( depth, newNode );
+        }
+    }
+
+    // Removes the point with the given id, which must be at the given position. Returns false if there is no such
+    // point.
+    public boolean remove( int id, RealLocalizable point ) {
+        int node = findNode( id, point );
+        if ( node == NO_NODE ) {
+            return false;
+        }
+
+        isRemoved[node] = true;
+        size--;
+        if ( size < numberOfAllocatedNodes / 2 ) {
+            rebuild();
+        }
+        return true;
+    }
+
+    // Id of a point at exactly the same position as the given point, or -1 if there is none
+    public int findId( RealLocalizable point ) {
+        int node = findNode( -1, point );
+        return node != NO_NODE ? ids[node] : -1;
+    }
+
+    // Number of nodes on the longest path from the root, including removed ones
+    int getDepth() {
+        return getDepth( root );
+    }
+
+    private int getDepth( int node ) {
+        return node == NO_NODE ? 0 : 1 + max( getDepth( left[node] ), getDepth( right[node] ) );
+    }
+
+    // Id of the closest point to the given point in viewer coordinates (i.e. in screen pixels, with the distance from
+    // the current view plane as the third dimension) under viewerTransform, that is less than maxViewerDistance away.
+    // -1 if there is none.
+    public int getNearestIdInViewer( RealLocalizable point, AffineTransform3D viewerTransform,
+                                     double maxViewerDistance ) {
+        double[] position = new double[3];
+        point.localize( position );
+
+        NearestSearch search = new NearestSearch( position, viewerTransform, maxViewerDistance );
+        search.visit( root );
+        return search.nearestNode != NO_NODE ? ids[ search.nearestNode ] : -1;
+    }
+
+    // Searches the nodes within a radius in global coordinates, keeping the one nearest in viewer coordinates
+    private class NearestSearch {
+        private final double[] position;
+        private final double[] viewerPosition;
+        private final AffineTransform3D viewerTransform;
+        private final double globalRadius;
+        private final double[] nodePosition;
+        private final double[] nodeViewerPosition;
+        private int nearestNode;
+        private double nearestDistance;
+
+        NearestSearch( double[] position, AffineTransform3D viewerTransform, double maxViewerDistance ) {
+            this.position = position;
+            this.viewerTransform = viewerTransform;
+            this.viewerPosition = new double[3];
+            viewerTransform.apply( position, viewerPosition );
+            // any point within maxViewerDistance in the viewer is at most this far away in global coordinates
+            this.globalRadius = maxViewerDistance * calculateInverseScaleBound( viewerTransform );
+            this.nodePosition = new double[3];
+            this.nodeViewerPosition = new double[3];
+            this.nearestNode = NO_NODE;
+            this.nearestDistance = maxViewerDistance;
+        }
+
+        void visit( int node ) {
+            if ( node == NO_NODE ) {
+                return;
+            }
+
+            if ( !isRemoved[node] && distance( position, positions, 3 * node ) <= globalRadius ) {
+                System.arraycopy( positions, 3 * node, nodePosition, 0, 3 );
+                viewerTransform.apply( nodePosition, nodeViewerPosition );
+                double distance = distance( viewerPosition, nodeViewerPosition, 0 );
+                if ( distance < nearestDistance ) {
+                    nearestDistance = distance;
+                    nearestNode = node;
+                }
+            }
+
+            double difference = position[ axes[node] ] - positions[ 3 * node + axes[node] ];
+            if ( difference - globalRadius < 0 ) {
+                visit( left[node] );
+            }
+            if ( difference + globalRadius >= 0 ) {
+                visit( right[node] );
+            }
+        }
+    }
+
+    // Upper bound on how much the inverse of the transform can stretch a distance: the Frobenius norm of the
+    // inverse of its linear part
+    private static double calculateInverseScaleBound( AffineTransform3D transform ) {
+        AffineTransform3D inverse = transform.inverse();
+        double sumOfSquares = 0;
+        for ( int row = 0; row < 3; row++ ) {
+            for ( int column = 0; column < 3; column++ ) {
+                sumOfSquares += pow( inverse.get( row, column ), 2 );
+            }
+        }
+        return sqrt( sumOfSquares );
+    }
+
+    // Node holding the point with this id at this position, or if id is -1, any node at this position
+    private int findNode( int id, RealLocalizable point ) {
+        double x = point.getDoublePosition(0);
+        double y = point.getDoublePosition(1);
+        double z = point.getDoublePosition(2);
+        int node = root;
+        while ( node != NO_NODE ) {
+            boolean isMatch = ( id == -1 || ids[node] == id ) && positions[ 3 * node ] == x &&
+                    positions[ 3 * node + 1 ] == y && positions[ 3 * node + 2 ] == z;
+            if ( isMatch && !isRemoved[node] ) {
+                return node;
+            }
+            // equal coordinates are always inserted to the right
+            int axis = axes[node];
+            double coordinate = axis == 0 ? x : axis == 1 ? y : z;
+            node = coordinate < positions[ 3 * node + axis ] ? left[node] : right[node];
+        }
+        return NO_NODE;
+    }
+
+    // New node, not linked into the tree
+    private int allocateNode( int id, double x, double y, double z ) {
+        if ( numberOfAllocatedNodes == ids.length ) {
+            int capacity = 2 * ids.length;
+            positions = Arrays.copyOf( positions, 3 * capacity );
+            ids = Arrays.copyOf( ids, capacity );
+            left = Arrays.copyOf( left, capacity );
+            right = Arrays.copyOf( right, capacity );
+            axes = Arrays.copyOf( axes, capacity );
+            subtreeSizes = Arrays.copyOf( subtreeSizes, capacity );
+            isRemoved = Arrays.copyOf( isRemoved, capacity );
+        }
+
+        int node = numberOfAllocatedNodes++;
+        positions[ 3 * node ] = x;
+        positions[ 3 * node + 1 ] = y;
+        positions[ 3 * node + 2 ] = z;
+        ids[node] = id;
+        left[node] = NO_NODE;
+        right[node] = NO_NODE;
+        axes[node] = 0;
+        subtreeSizes[node] = 1;
+        isRemoved[node] = false;
+        return node;
+    }
+
+    // Rebuilds the lowest ancestor of the new node (in path[0, depth)) whose larger child holds too much of its
+    // subtree. One always exists when the new node is too deep.
+    private void rebuildScapegoat( int depth, int newNode ) {
+        int scapegoatIndex = 0;
+        int childSize = subtreeSizes[newNode];
+        for ( int i = depth - 1; i >= 0; i-- ) {
+            if ( childSize > BALANCE * subtreeSizes[ path[i] ] ) {
+                scapegoatIndex = i;
+                break;
+            }
+            childSize = subtreeSizes[ path[i] ];
+        }
+
+        int scapegoat = path[ scapegoatIndex ];
+        int[] nodes = new int[ subtreeSizes[scapegoat] ];
+        int nNodes = collectNodes( scapegoat, nodes, 0 );
+        // removed nodes are dropped from the rebuilt subtree
+        int nRemoved = subtreeSizes[scapegoat] - nNodes;
+        int parent = scapegoatIndex > 0 ? path[ scapegoatIndex - 1 ] : NO_NODE;
+        boolean isLeftChild = parent != NO_NODE && left[parent] == scapegoat;
+        int rebuilt = build( nodes, 0, nNodes, axes[scapegoat] );
+
+        numberOfNodes -= nRemoved;
+        for ( int i = 0; i < scapegoatIndex; i++ ) {
+            subtreeSizes[ path[i] ] -= nRemoved;
+        }
+
+        if ( parent == NO_NODE ) {
+            root = rebuilt;
+        } else if ( isLeftChild ) {
+            left[parent] = rebuilt;
+        } else {
+            right[parent] = rebuilt;
+        }
+    }
+
+    // Writes the nodes that aren't removed in the subtree into nodes, from offset. Returns the offset after them.
+    private int collectNodes( int node, int[] nodes, int offset ) {
+        if ( node == NO_NODE ) {
+            return offset;
+        }
+        offset = collectNodes( left[node], nodes, offset );
+        if ( !isRemoved[node] ) {
+            nodes[ offset++ ] = node;
+        }
+        return collectNodes( right[node], nodes, offset );
+    }
+
+    // Rebuilds the whole tree from the nodes that aren't removed, packing them into new arrays
+    private void rebuild() {
+        double[] oldPositions = positions;
+        int[] oldIds = ids;
+        boolean[] oldIsRemoved = isRemoved;
+        int nOldNodes = numberOfAllocatedNodes;
+
+        clear();
+        for ( int node = 0; node < nOldNodes; node++ ) {
+            if ( !oldIsRemoved[node] ) {
+                allocateNode( oldIds[node], oldPositions[ 3 * node ], oldPositions[ 3 * node + 1 ],
+                        oldPositions[ 3 * node + 2 ] );
+            }
+        }
+
+        int[] nodes = new int[ numberOfAllocatedNodes ];
+        for ( int node = 0; node < nodes.length; node++ ) {
+            nodes[node] = node;
+        }
+        root = build( nodes, 0, nodes.length, 0 );
+        size = nodes.length;
+        numberOfNodes = nodes.length;
+    }
+
+    // Links the nodes in nodes[from, to) into a balanced subtree, splitting at the median along each axis in turn.
+    // Returns its root.
+    private int build( int[] nodes, int from, int to, int axis ) {
+        if ( from >= to ) {
+            return NO_NODE;
+        }
+
+        PrimitiveSorting.sortByKey( nodes, from, to, positions, 3, axis );
+        int median = from + ( to - from ) / 2;
+        // equal coordinates must go to the right, to match add and findNode
+        while ( median > from &&
+                positions[ 3 * nodes[ median - 1 ] + axis ] == positions[ 3 * nodes[median] + axis ] ) {
+            median--;
+        }
+
+        int node = nodes[median];
+        axes[node] = (byte) axis;
+        subtreeSizes[node] = to - from;
+        left[node] = build( nodes, from, median, ( axis + 1 ) % 3 );
+        right[node] = build( nodes, median + 1, to, ( axis + 1 ) % 3 );
+        return node;
+    }
+
+    // Distance between a and the point at offset in b
+    private static double distance( double[] a, double[] b, int offset ) {
+        return sqrt( pow( a[0] - b[offset], 2 ) + pow( a[1] - b[offset + 1], 2 ) + pow( a[2] - b[offset + 2], 2 ) );
+    }
+}
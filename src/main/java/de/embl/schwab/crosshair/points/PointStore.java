@@ -0,0 +1,340 @@
+package de.embl.schwab.crosshair.points;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// 3D points stored as packed coordinates, rather than one object per point.
+// Each point gets a stable id when added. Points are packed in no particular order, and removed by moving the last
+// point into their place, so adding and removing by id are O(1).
+// Each point can have a label (e.g. the vertex point it's assigned to). Labels are unique - setting a label on one
+// point removes it from any other - and can be looked up in either direction in O(1).
+// Points are passed around by id, rather than as one object per point. To read all of them, take a snapshot.
+// Points are stored in fixed-size chunks, which are shared with snapshots, and only copied when the store next changes
+// a point in them (copy-on-write). So snapshots are cheap to take, and a change after a snapshot (e.g. removing a
+// point, then redrawing) copies one or two chunks, rather than every point.
+public class PointStore<L> {
+
+    private static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // points per chunk
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Immutable copy of the points and their labels, at the time it was taken. Safe to read from any thread.
+    // Points are read by index, from 0 to size() - 1.
+    public static class Snapshot<L> {
+        private final double[][] coordinates;
+        private final Object[][] labels;
+        private final int[][] indexToId;
+        private final int size;
+
+        private Snapshot( double[][] coordinates, Object[][] labels, int[][] indexToId, int size ) {
+            this.coordinates = coordinates;
+            this.labels = labels;
+            this.indexToId = indexToId;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        // Id of the point in the store the snapshot was taken from
+        public int getId( int index ) {
+            checkIndex( index );
+            return indexToId[ index >> CHUNK_SHIFT ][ index & CHUNK_MASK ];
+        }
+
+        public double getDoublePosition( int index, int d ) {
+            checkIndex( index );
+            return coordinates[ index >> CHUNK_SHIFT ][ 3 * ( index & CHUNK_MASK ) + d ];
+        }
+
+        public void localize( int index, double[] position ) {
+            checkIndex( index );
+            System.arraycopy( coordinates[ index >> CHUNK_SHIFT ], 3 * ( index & CHUNK_MASK ), position, 0, 3 );
+        }
+
+        @SuppressWarnings( "unchecked" )
+        public L getLabel( int index ) {
+            checkIndex( index );
+            return (L) labels[ index >> CHUNK_SHIFT ][ index & CHUNK_MASK ];
+        }
+
+        // Interleaved x, y, z coordinates of all the points, e.g. for plane fitting
+        public double[] copyCoordinates() {
+            double[] copy = new double[ 3 * size ];
+            for ( int start = 0; start < size; start += CHUNK_SIZE ) {
+                System.arraycopy( coordinates[ start >> CHUNK_SHIFT ], 0, copy, 3 * start,
+                        3 * Math.min( CHUNK_SIZE, size - start ) );
+            }
+            return copy;
+        }
+
+        // Chunk holding the coordinates of the point at index - for checking which chunks are shared
+        double[] getCoordinateChunk( int index ) {
+            checkIndex( index );
+            return coordinates[ index >> CHUNK_SHIFT ];
+        }
+
+        private void checkIndex( int index ) {
+            if ( index < 0 || index >= size ) {
+                throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+            }
+        }
+
+        private RealPoint getPointAtIndex( int index ) {
+            double[] chunk = coordinates[ index >> CHUNK_SHIFT ];
+            int offset = 3 * ( index & CHUNK_MASK );
+            return new RealPoint( chunk[ offset ], chunk[ offset + 1 ], chunk[ offset + 2 ] );
+        }
+
+        public ArrayList<RealPoint> toRealPoints() {
+            ArrayList<RealPoint> points = new ArrayList<>( size );
+            for ( int index = 0; index < size; index++ ) {
+                points.add( getPointAtIndex( index ) );
+            }
+            return points;
+        }
+
+        // Each label and the point it's on
+        @SuppressWarnings( "unchecked" )
+        public Map<L, RealPoint> getLabelledPoints() {
+            Map<L, RealPoint> labelledPoints = new HashMap<>();
+            for ( int index = 0; index < size; index++ ) {
+                Object label = labels[ index >> CHUNK_SHIFT ][ index & CHUNK_MASK ];
+                if ( label != null ) {
+                    labelledPoints.put( (L) label, getPointAtIndex( index ) );
+                }
+            }
+            return labelledPoints;
+        }
+    }
+
+    // x, y, z, label and id of each point, in index order, split into chunks of CHUNK_SIZE points. Only the outer
+    // arrays belong to the store alone - chunks may be shared with snapshots.
+    private double[][] coordinates;
+    private Object[][] labels;
+    private int[][] indexToId;
+    private boolean[] isChunkShared; // whether the chunk is shared with a snapshot, so must be copied to change
+    private int numberOfChunks;
+    private int[] idToIndex; // -1 for removed ids
+    private int size;
+    private int nextId;
+    private final Map<L, Integer> labelToId;
+
+    public PointStore() {
+        this.idToIndex = new int[ INITIAL_CAPACITY ];
+        Arrays.fill( idToIndex, -1 );
+        this.nextId = 0;
+        this.labelToId = new HashMap<>();
+        clearChunks();
+    }
+
+    private void clearChunks() {
+        coordinates = new double[ INITIAL_CAPACITY ][];
+        labels = new Object[ INITIAL_CAPACITY ][];
+        indexToId = new int[ INITIAL_CAPACITY ][];
+        isChunkShared = new boolean[ INITIAL_CAPACITY ];
+        numberOfChunks = 0;
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int add( double x, double y, double z ) {
+        if ( size == numberOfChunks * CHUNK_SIZE ) {
+            addChunk();
+        }
+        if ( nextId == idToIndex.length ) {
+            int oldLength = idToIndex.length;
+            idToIndex = Arrays.copyOf( idToIndex, 2 * oldLength );
+            Arrays.fill( idToIndex, oldLength, idToIndex.length, -1 );
+        }
+
+        int id = nextId++;
+        int index = size++;
+        int chunk = getWritableChunk( index );
+        int offset = index & CHUNK_MASK;
+        coordinates[chunk][ 3 * offset ] = x;
+        coordinates[chunk][ 3 * offset + 1 ] = y;
+        coordinates[chunk][ 3 * offset + 2 ] = z;
+        labels[chunk][offset] = null;
+        indexToId[chunk][offset] = id;
+        idToIndex[id] = index;
+        return id;
+    }
+
+    private void addChunk() {
+        if ( numberOfChunks == coordinates.length ) {
+            int capacity = 2 * coordinates.length;
+            coordinates = Arrays.copyOf( coordinates, capacity );
+            labels = Arrays.copyOf( labels, capacity );
+            indexToId = Arrays.copyOf( indexToId, capacity );
+            isChunkShared = Arrays.copyOf( isChunkShared, capacity );
+        }
+        coordinates[ numberOfChunks ] = new double[ 3 * CHUNK_SIZE ];
+        labels[ numberOfChunks ] = new Object[ CHUNK_SIZE ];
+        indexToId[ numberOfChunks ] = new int[ CHUNK_SIZE ];
+        isChunkShared[ numberOfChunks ] = false;
+        numberOfChunks++;
+    }
+
+    // Chunk of the point at index, copied first if it's shared with a snapshot
+    private int getWritableChunk( int index ) {
+        int chunk = index >> CHUNK_SHIFT;
+        if ( isChunkShared[chunk] ) {
+            coordinates[chunk] = coordinates[chunk].clone();
+            labels[chunk] = labels[chunk].clone();
+            indexToId[chunk] = indexToId[chunk].clone();
+            isChunkShared[chunk] = false;
+        }
+        return chunk;
+    }
+
+    public int add( RealLocalizable point ) {
+        return add( point.getDoublePosition(0), point.getDoublePosition(1), point.getDoublePosition(2) );
+    }
+
+    // Returns false if there is no point with that id
+    public synchronized boolean remove( int id ) {
+        if ( !contains( id ) ) {
+            return false;
+        }
+
+        L label = getLabel( id );
+        if ( label != null ) {
+            labelToId.remove( label );
+        }
+
+        // move the last point into the removed point's place
+        int index = idToIndex[id];
+        int lastIndex = size - 1;
+        int chunk = getWritableChunk( index );
+        int lastChunk = getWritableChunk( lastIndex );
+        int offset = index & CHUNK_MASK;
+        int lastOffset = lastIndex & CHUNK_MASK;
+        int lastId = indexToId[ lastChunk ][ lastOffset ];
+        System.arraycopy( coordinates[ lastChunk ], 3 * lastOffset, coordinates[chunk], 3 * offset, 3 );
+        labels[chunk][offset] = labels[ lastChunk ][ lastOffset ];
+        indexToId[chunk][offset] = lastId;
+        idToIndex[lastId] = index;
+
+        labels[ lastChunk ][ lastOffset ] = null;
+        idToIndex[id] = -1;
+        size--;
+        return true;
+    }
+
+    public synchronized void clear() {
+        // snapshots keep the old chunks
+        clearChunks();
+        Arrays.fill( idToIndex, 0, nextId, -1 );
+        labelToId.clear();
+    }
+
+    public synchronized boolean contains( int id ) {
+        return id >= 0 && id < nextId && idToIndex[id] != -1;
+    }
+
+    // Id of a point at exactly the same position as the given point, or -1 if there is none. This checks every point -
+    // use a PointIndex to find points quickly.
+    public synchronized int findId( RealLocalizable point ) {
+        for ( int index = 0; index < size; index++ ) {
+            if ( isAtPosition( index, point ) ) {
+                return indexToId[ index >> CHUNK_SHIFT ][ index & CHUNK_MASK ];
+            }
+        }
+        return -1;
+    }
+
+    private boolean isAtPosition( int index, RealLocalizable point ) {
+        double[] chunk = coordinates[ index >> CHUNK_SHIFT ];
+        int offset = 3 * ( index & CHUNK_MASK );
+        return chunk[ offset ] == point.getDoublePosition(0) &&
+                chunk[ offset + 1 ] == point.getDoublePosition(1) &&
+                chunk[ offset + 2 ] == point.getDoublePosition(2);
+    }
+
+    // Copy of the point with the given id
+    public synchronized RealPoint getPoint( int id ) {
+        if ( !contains( id ) ) {
+            throw new UnsupportedOperationException( "No point with id " + id );
+        }
+        int index = idToIndex[id];
+        double[] chunk = coordinates[ index >> CHUNK_SHIFT ];
+        int offset = 3 * ( index & CHUNK_MASK );
+        return new RealPoint( chunk[ offset ], chunk[ offset + 1 ], chunk[ offset + 2 ] );
+    }
+
+    // Sets the label of the point with the given id, removing it from any other point. A null label removes the
+    // point's current label.
+    public synchronized void setLabel( int id, L label ) {
+        if ( !contains( id ) ) {
+            throw new UnsupportedOperationException( "No point with id " + id );
+        }
+
+        L currentLabel = getLabel( id );
+        if ( currentLabel != null ) {
+            labelToId.remove( currentLabel );
+        }
+
+        if ( label != null ) {
+            Integer labelledId = labelToId.get( label );
+            if ( labelledId != null ) {
+                setLabelAtIndex( idToIndex[ labelledId ], null );
+            }
+            labelToId.put( label, id );
+        }
+        setLabelAtIndex( idToIndex[id], label );
+    }
+
+    private void setLabelAtIndex( int index, L label ) {
+        labels[ getWritableChunk( index ) ][ index & CHUNK_MASK ] = label;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public synchronized L getLabel( int id ) {
+        if ( !contains( id ) ) {
+            throw new UnsupportedOperationException( "No point with id " + id );
+        }
+        int index = idToIndex[id];
+        return (L) labels[ index >> CHUNK_SHIFT ][ index & CHUNK_MASK ];
+    }
+
+    // Id of the point with the given label, or -1 if no point has it
+    public synchronized int getIdWithLabel( L label ) {
+        Integer id = labelToId.get( label );
+        return id != null ? id : -1;
+    }
+
+    // Copy of each label and the point it's on
+    public synchronized Map<L, RealPoint> getLabelledPoints() {
+        Map<L, RealPoint> labelledPoints = new HashMap<>();
+        for ( Map.Entry<L, Integer> entry: labelToId.entrySet() ) {
+            labelledPoints.put( entry.getKey(), getPoint( entry.getValue() ) );
+        }
+        return labelledPoints;
+    }
+
+    // O(number of chunks) - only the outer arrays are copied
+    public synchronized Snapshot<L> snapshot() {
+        Arrays.fill( isChunkShared, 0, numberOfChunks, true );
+        return new Snapshot<>( Arrays.copyOf( coordinates, numberOfChunks ), Arrays.copyOf( labels, numberOfChunks ),
+                Arrays.copyOf( indexToId, numberOfChunks ), size );
+    }
+}
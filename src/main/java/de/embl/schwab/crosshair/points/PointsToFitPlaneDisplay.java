@@ -2,43 +2,118 @@ package de.embl.schwab.crosshair.points;
 
 import bdv.util.Bdv;
 import bdv.util.BdvFunctions;
+import de.embl.schwab.crosshair.bdv.BatchedRepaint;
 import de.embl.schwab.crosshair.points.overlays.Point3dOverlay;
 import de.embl.schwab.crosshair.points.overlays.PointsToFitPlane2dOverlay;
+import de.embl.schwab.crosshair.settings.SessionJournal;
 import net.imglib2.RealPoint;
+import org.scijava.vecmath.Color3f;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 
 import static de.embl.schwab.crosshair.points.PointHelper.getCurrentMousePosition;
-import static de.embl.schwab.crosshair.points.PointHelper.getMatchingPointWithinDistance;
+import static de.embl.schwab.crosshair.points.PointHelper.getMatchingIdWithinDistance;
 
 public class PointsToFitPlaneDisplay {
 
-    private final ArrayList<RealPoint> pointsToFitPlane; // points used to fit this plane
+    // same colour as the points in the 2D overlay
+    private static final Color3f POINT_3D_COLOR = new Color3f( 51 / 255f, 1, 51 / 255f );
+
+    private final PointStore<Void> pointsToFitPlane; // points used to fit this plane
+    private final BitSet outlierIds; // ids of the points rejected by the last robust fit
+    private final PointIndex pointIndex; // index of pointsToFitPlane, for matching clicks to points
+    private volatile long modificationCount; // incremented on every change to the points, so overlays know to redraw
     private Bdv bdv;
+    private BatchedRepaint repaint;
     private Point3dOverlay point3dOverlay;
     private PointsToFitPlane2dOverlay point2dOverlay;
     private String sourceName;
+    private SessionJournal sessionJournal; // null if edits aren't journalled
+    private String planeName;
 
     public PointsToFitPlaneDisplay( String name, Bdv bdv, Point3dOverlay point3dOverlay ) {
         this( new ArrayList<>(), name, bdv, point3dOverlay );
     }
 
     public PointsToFitPlaneDisplay( ArrayList<RealPoint> pointsToFitPlane, String name, Bdv bdv, Point3dOverlay point3dOverlay ) {
-        this.pointsToFitPlane = pointsToFitPlane;
+        this( pointsToFitPlane, name, bdv, point3dOverlay, new BatchedRepaint( bdv ) );
+    }
+
+    // repaint is shared with the other displays in the same bdv, so their repaints can be batched together
+    public PointsToFitPlaneDisplay( ArrayList<RealPoint> pointsToFitPlane, String name, Bdv bdv,
+                                    Point3dOverlay point3dOverlay, BatchedRepaint repaint ) {
+        this.pointsToFitPlane = new PointStore<>();
+        for ( RealPoint point: pointsToFitPlane ) {
+            this.pointsToFitPlane.add( point );
+        }
+        // the index and 3D overlay both refer to points by their id in the store
+        PointStore.Snapshot<Void> storedPoints = this.pointsToFitPlane.snapshot();
+        this.outlierIds = new BitSet();
+        this.pointIndex = new PointIndex( storedPoints );
         this.point2dOverlay = new PointsToFitPlane2dOverlay( this );
         this.point3dOverlay = point3dOverlay;
         this.bdv = bdv;
+        this.repaint = repaint;
         this.sourceName = name + "-points_to_fit_plane";
         BdvFunctions.showOverlay( point2dOverlay, sourceName,
                 Bdv.options().addTo(bdv) );
 
-        for ( RealPoint point: pointsToFitPlane ) {
-            point3dOverlay.addPoint( point );
+        point3dOverlay.addPointSet( sourceName, POINT_3D_COLOR );
+        point3dOverlay.beginBatch();
+        try {
+            for ( int index = 0; index < storedPoints.size(); index++ ) {
+                point3dOverlay.addPoint( sourceName, storedPoints.getId( index ),
+                        storedPoints.getDoublePosition( index, 0 ), storedPoints.getDoublePosition( index, 1 ),
+                        storedPoints.getDoublePosition( index, 2 ) );
+            }
+        } finally {
+            point3dOverlay.endBatch();
+        }
+    }
+
+    public void setSessionJournal( SessionJournal sessionJournal, String planeName ) {
+        this.sessionJournal = sessionJournal;
+        this.planeName = planeName;
+    }
+
+    // Immutable view of the points - O(1) to take, so cheap enough for every fit, repaint or save. Ids read from it
+    // can be passed back to setOutlierIds.
+    public PointStore.Snapshot<Void> getPointsToFitPlaneSnapshot() {
+        return pointsToFitPlane.snapshot();
+    }
+
+    public int getNumberOfPointsToFitPlane() {
+        return pointsToFitPlane.size();
+    }
+
+    // Copy of the ids of the outliers, from the last robust fit
+    public synchronized BitSet getOutlierIds() {
+        return (BitSet) outlierIds.clone();
+    }
+
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    public void setOutlierIds( BitSet ids ) {
+        synchronized ( this ) {
+            outlierIds.clear();
+            outlierIds.or( ids );
         }
+        modificationCount++;
+        repaint.requestRepaint();
     }
 
-    public ArrayList<RealPoint> getPointsToFitPlane() {
-        return pointsToFitPlane;
+    public void clearOutlierPoints() {
+        synchronized ( this ) {
+            if ( outlierIds.isEmpty() ) {
+                return;
+            }
+            outlierIds.clear();
+        }
+        modificationCount++;
+        repaint.requestRepaint();
     }
 
     public PointsToFitPlane2dOverlay getPoint2dOverlay() {
@@ -53,30 +128,60 @@ public class PointsToFitPlaneDisplay {
         RealPoint point = getCurrentMousePosition( bdv.getBdvHandle() );
 
         // remove point if within a certain distance of an existing point, otherwise add point
-        RealPoint matchingPointWithinDistance = getMatchingPointWithinDistance( pointsToFitPlane, point, bdv.getBdvHandle());
+        int matchingId = getMatchingIdWithinDistance( pointIndex, point, bdv.getBdvHandle());
 
-        if ( matchingPointWithinDistance != null ) {
-            removePointToFitPlane( matchingPointWithinDistance );
+        if ( matchingId != -1 ) {
+            removePointToFitPlane( matchingId );
         } else {
             addPointToFitPlane( point );
         }
     }
 
     public void addPointToFitPlane( RealPoint point ) {
-        pointsToFitPlane.add( point );
-        point3dOverlay.addPoint( point );
-        bdv.getBdvHandle().getViewerPanel().requestRepaint();
+        int id = pointsToFitPlane.add( point );
+        pointIndex.add( id, point );
+        modificationCount++;
+        point3dOverlay.addPoint( sourceName, id, point );
+        if ( sessionJournal != null ) {
+            sessionJournal.recordAddPoint( planeName, point );
+        }
+        repaint.requestRepaint();
     }
 
+    // Removes a point at exactly the same position as the given point, if there is one
     public void removePointToFitPlane( RealPoint point ) {
-        point3dOverlay.removePoint( point );
-        pointsToFitPlane.remove( point );
-        bdv.getBdvHandle().getViewerPanel().requestRepaint();
+        int id = pointIndex.findId( point );
+        if ( id != -1 ) {
+            removePointToFitPlane( id );
+        }
+    }
+
+    private void removePointToFitPlane( int id ) {
+        RealPoint point = pointsToFitPlane.getPoint( id );
+        point3dOverlay.removePoint( sourceName, id, point );
+        pointsToFitPlane.remove( id );
+        pointIndex.remove( id, point );
+        synchronized ( this ) {
+            outlierIds.clear( id );
+        }
+        modificationCount++;
+        if ( sessionJournal != null ) {
+            sessionJournal.recordRemovePoint( planeName, point );
+        }
+        repaint.requestRepaint();
     }
 
     public void removeAllPointsToFitPlane() {
-        point3dOverlay.removePoints( pointsToFitPlane );
+        point3dOverlay.removeAllPoints( sourceName, pointsToFitPlane.snapshot() );
         pointsToFitPlane.clear();
-        bdv.getBdvHandle().getViewerPanel().requestRepaint();
+        pointIndex.clear();
+        synchronized ( this ) {
+            outlierIds.clear();
+        }
+        modificationCount++;
+        if ( sessionJournal != null ) {
+            sessionJournal.recordRemoveAllPoints( planeName );
+        }
+        repaint.requestRepaint();
     }
 }
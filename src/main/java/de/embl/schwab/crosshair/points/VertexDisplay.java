@@ -2,32 +2,41 @@ package de.embl.schwab.crosshair.points;
 
 import bdv.util.Bdv;
 import bdv.util.BdvFunctions;
+import de.embl.schwab.crosshair.bdv.BatchedRepaint;
 import de.embl.schwab.crosshair.plane.Plane;
 import de.embl.schwab.crosshair.points.overlays.Point3dOverlay;
 import de.embl.schwab.crosshair.points.overlays.VertexPoints2dOverlay;
-import de.embl.schwab.crosshair.utils.GeometryUtils;
+import de.embl.schwab.crosshair.settings.SessionJournal;
 import ij.IJ;
 import net.imglib2.RealPoint;
+import org.scijava.vecmath.Color3f;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 import static de.embl.schwab.crosshair.points.PointHelper.getCurrentMousePosition;
-import static de.embl.schwab.crosshair.points.PointHelper.getMatchingPointWithinDistance;
+import static de.embl.schwab.crosshair.points.PointHelper.getMatchingIdWithinDistance;
 
 public class VertexDisplay {
 
-    private final ArrayList<RealPoint> vertices; // all vertex points placed on the block plane
-    private final Map<VertexPoint, RealPoint> assignedVertices; // the subset of assigned vertices e.g. top left, top right...
+    // same colour as the vertices in the 2D overlay
+    private static final Color3f VERTEX_3D_COLOR = new Color3f( 0, 1, 1 );
 
-    private transient boolean isVertexSelected;
-    private transient RealPoint selectedVertex;
+    // all vertex points placed on the block plane, labelled with their assignment (if any) e.g. top left, top right...
+    private final PointStore<VertexPoint> vertices;
+    private final PointIndex vertexIndex; // index of vertices, for matching clicks to vertices
+    private volatile long modificationCount; // incremented on every change to the vertices, so overlays know to redraw
+
+    private transient int selectedVertexId; // -1 if no vertex is selected
 
     private VertexPoints2dOverlay vertex2dOverlay;
     private Point3dOverlay vertex3dOverlay;
     private Bdv bdv;
+    private BatchedRepaint repaint;
     private String sourceName;
+    private SessionJournal sessionJournal; // null if edits aren't journalled
+    private String planeName;
 
     public VertexDisplay( String name, Bdv bdv, Point3dOverlay point3dOverlay ) {
         this( new ArrayList<>(), new HashMap<>(), name, bdv, point3dOverlay );
@@ -35,56 +44,90 @@ public class VertexDisplay {
 
     public VertexDisplay( ArrayList<RealPoint> vertices, Map<VertexPoint, RealPoint> assignedVertices,
                                     String name, Bdv bdv, Point3dOverlay vertex3dOverlay ) {
-        this.vertices = vertices;
-        this.assignedVertices = assignedVertices;
-        this.isVertexSelected = false;
+        this( vertices, assignedVertices, name, bdv, vertex3dOverlay, new BatchedRepaint( bdv ) );
+    }
+
+    // repaint is shared with the other displays in the same bdv, so their repaints can be batched together
+    public VertexDisplay( ArrayList<RealPoint> vertices, Map<VertexPoint, RealPoint> assignedVertices,
+                         String name, Bdv bdv, Point3dOverlay vertex3dOverlay, BatchedRepaint repaint ) {
+        this.vertices = new PointStore<>();
+        for ( RealPoint vertex: vertices ) {
+            this.vertices.add( vertex );
+        }
+        for ( RealPoint assignedVertex: assignedVertices.values() ) {
+            if ( this.vertices.findId( assignedVertex ) == -1 ) {
+                this.vertices.add( assignedVertex );
+            }
+        }
+        // the index and 3D overlay both refer to vertices by their id in the store
+        PointStore.Snapshot<VertexPoint> storedVertices = this.vertices.snapshot();
+        this.vertexIndex = new PointIndex( storedVertices );
+        this.selectedVertexId = -1;
 
         this.vertex2dOverlay = new VertexPoints2dOverlay( this );
         this.vertex3dOverlay = vertex3dOverlay;
         this.bdv = bdv;
+        this.repaint = repaint;
         this.sourceName = name + "-vertex_points";
 
         BdvFunctions.showOverlay( vertex2dOverlay, sourceName,
                 Bdv.options().addTo(bdv) );
 
 
-        for ( RealPoint vertex: vertices ) {
-            vertex3dOverlay.addPoint( vertex );
+        vertex3dOverlay.addPointSet( sourceName, VERTEX_3D_COLOR );
+        vertex3dOverlay.beginBatch();
+        try {
+            for ( int index = 0; index < storedVertices.size(); index++ ) {
+                vertex3dOverlay.addPoint( sourceName, storedVertices.getId( index ),
+                        storedVertices.getDoublePosition( index, 0 ), storedVertices.getDoublePosition( index, 1 ),
+                        storedVertices.getDoublePosition( index, 2 ) );
+            }
+        } finally {
+            vertex3dOverlay.endBatch();
         }
 
         for ( Map.Entry<VertexPoint, RealPoint> entry : assignedVertices.entrySet() ) {
-            displayAssignedVertex( entry.getKey(), entry.getValue() );
+            assignVertex( entry.getKey(), entry.getValue() );
         }
     }
 
+    public void setSessionJournal( SessionJournal sessionJournal, String planeName ) {
+        this.sessionJournal = sessionJournal;
+        this.planeName = planeName;
+    }
+
     public boolean isVertexSelected() {
-        return isVertexSelected;
+        return selectedVertexId != -1;
     }
 
+    // Copy of the selected vertex, or null if none is selected
     public RealPoint getSelectedVertex() {
-        return selectedVertex;
+        int id = selectedVertexId;
+        return id != -1 ? vertices.getPoint( id ) : null;
+    }
+
+    // Id of the selected vertex in the stored vertices, or -1 if none is selected
+    public int getSelectedVertexId() {
+        return selectedVertexId;
+    }
+
+    // Immutable view of the vertices, labelled with their assignments - O(1) to take, so cheap enough for every
+    // repaint or save. Positions read from it can be passed back to e.g. removeVertex or assignVertex.
+    public PointStore.Snapshot<VertexPoint> getVerticesSnapshot() {
+        return vertices.snapshot();
     }
 
-    public ArrayList<RealPoint> getVertices() {
-        return vertices;
+    public int getNumberOfVertices() {
+        return vertices.size();
     }
 
+    // Copy of the assigned vertices
     public Map<VertexPoint, RealPoint> getAssignedVertices() {
-        return assignedVertices;
+        return vertices.getLabelledPoints();
     }
 
-    public ArrayList<RealPoint> getVerticesExceptForSelected() {
-        if ( isVertexSelected ) {
-            ArrayList<RealPoint> nonSelectedVertices = new ArrayList<>();
-            for ( RealPoint vertex: vertices ) {
-                if ( vertex != selectedVertex ) {
-                    nonSelectedVertices.add( vertex );
-                }
-            }
-            return nonSelectedVertices;
-        } else {
-            return vertices;
-        }
+    public long getModificationCount() {
+        return modificationCount;
     }
 
     public VertexPoints2dOverlay get2dOverlay() {
@@ -96,17 +139,26 @@ public class VertexDisplay {
     }
 
     public void assignSelectedVertex(VertexPoint vertexPoint ) {
-        if ( !isVertexSelected ) {
+        if ( !isVertexSelected() ) {
             IJ.log("No vertex selected");
         } else {
-            assignVertex( vertexPoint, selectedVertex );
+            assignVertex( vertexPoint, getSelectedVertex() );
         }
     }
 
     public void assignVertex( VertexPoint vertexPoint, RealPoint vertex ) {
-        // enforce unique vertex point assignments i.e. remove any already assigned to that vertex
-        removeAssignedVertex( vertex );
-        assignedVertices.put( vertexPoint, vertex );
+        int id = vertexIndex.findId( vertex );
+        if ( id == -1 ) {
+            throw new UnsupportedOperationException( "Only existing vertices can be assigned" );
+        }
+
+        // enforce unique vertex point assignments - labels are unique, and each vertex has at most one, so this
+        // moves the vertex point from any other vertex, and replaces this vertex's previous assignment
+        vertices.setLabel( id, vertexPoint );
+        modificationCount++;
+        if ( sessionJournal != null ) {
+            sessionJournal.recordAssignVertex( planeName, vertexPoint, vertex );
+        }
 
         displayAssignedVertex( vertexPoint, vertex );
     }
@@ -114,7 +166,7 @@ public class VertexDisplay {
     private void displayAssignedVertex( VertexPoint vertexPoint, RealPoint vertex ) {
         RealPoint vertexCopy = new RealPoint( vertex );
         vertex3dOverlay.renamePoint3D( vertexCopy, vertexPoint.toShortString() );
-        bdv.getBdvHandle().getViewerPanel().requestRepaint();
+        repaint.requestRepaint();
     }
 
     // enforce lies on certain plane
@@ -137,74 +189,80 @@ public class VertexDisplay {
     public void toggleSelectedVertexCurrentPosition () {
 
         RealPoint point = getCurrentMousePosition( bdv.getBdvHandle() );
-        RealPoint matchingPointWithinDistance = getMatchingPointWithinDistance( vertices, point, bdv.getBdvHandle());
+        int matchingId = getMatchingIdWithinDistance( vertexIndex, point, bdv.getBdvHandle());
 
-        if ( matchingPointWithinDistance != null ) {
+        if ( matchingId != -1 ) {
             // if selected, unselect
-            if ( selectedVertex != null && selectedVertex == matchingPointWithinDistance && isVertexSelected ) {
-                selectedVertex = null;
-                isVertexSelected = false;
+            if ( matchingId == selectedVertexId ) {
+                selectedVertexId = -1;
                 // if unselected, select
             } else {
-                selectedVertex = matchingPointWithinDistance;
-                isVertexSelected = true;
+                selectedVertexId = matchingId;
             }
+            modificationCount++;
 
-            bdv.getBdvHandle().getViewerPanel().requestRepaint();
+            repaint.requestRepaint();
         }
     }
 
     private void addOrRemoveVertex( RealPoint point ) {
         // remove point if within a certain distance of an existing point, otherwise add point
-        RealPoint matchingPointWithinDistance = getMatchingPointWithinDistance( vertices, point, bdv.getBdvHandle());
+        int matchingId = getMatchingIdWithinDistance( vertexIndex, point, bdv.getBdvHandle());
 
-        if ( matchingPointWithinDistance != null ) {
-            removeVertex( point );
+        if ( matchingId != -1 ) {
+            removeVertex( matchingId );
         } else {
             addVertex( point );
         }
     }
 
     public void addVertex( RealPoint point ) {
-        vertices.add( point );
-        vertex3dOverlay.addPoint( point );
-        bdv.getBdvHandle().getViewerPanel().requestRepaint();
+        int id = vertices.add( point );
+        vertexIndex.add( id, point );
+        modificationCount++;
+        vertex3dOverlay.addPoint( sourceName, id, point );
+        if ( sessionJournal != null ) {
+            sessionJournal.recordAddVertex( planeName, point );
+        }
+        repaint.requestRepaint();
     }
 
+    // Removes a vertex at exactly the same position as the given point, if there is one
     public void removeVertex( RealPoint point ) {
-        vertices.remove( point );
-        vertex3dOverlay.removePoint( point );
-
-        if ( selectedVertex.equals( point ) ) {
-            selectedVertex = null;
-            isVertexSelected = false;
+        int id = vertexIndex.findId( point );
+        if ( id != -1 ) {
+            removeVertex( id );
         }
-
-        removeAssignedVertex( point );
-
-        bdv.getBdvHandle().getViewerPanel().requestRepaint();
     }
 
-    private void removeAssignedVertex( RealPoint point ) {
-        ArrayList<VertexPoint> keysToRemove = new ArrayList<>();
-        for ( VertexPoint vertexPoint : assignedVertices.keySet() ) {
-            if ( GeometryUtils.checkTwoRealPointsSameLocation( assignedVertices.get( vertexPoint ), point )) {
-                keysToRemove.add( vertexPoint );
-            }
-        }
+    private void removeVertex( int id ) {
+        RealPoint point = vertices.getPoint( id );
+        // also removes any assignment of the vertex
+        vertices.remove( id );
+        vertexIndex.remove( id, point );
+        vertex3dOverlay.removePoint( sourceName, id, point );
 
-        for ( VertexPoint key : keysToRemove) {
-            assignedVertices.remove(key);
+        if ( selectedVertexId == id ) {
+            selectedVertexId = -1;
         }
+        modificationCount++;
+        if ( sessionJournal != null ) {
+            sessionJournal.recordRemoveVertex( planeName, point );
+        }
+
+        repaint.requestRepaint();
     }
 
     public void removeAllVertices() {
-        vertex3dOverlay.removePoints( vertices );
+        vertex3dOverlay.removeAllPoints( sourceName, vertices.snapshot() );
 
-        assignedVertices.clear();
         vertices.clear();
-        isVertexSelected = false;
-        selectedVertex = null;
-        bdv.getBdvHandle().getViewerPanel().requestRepaint();
+        vertexIndex.clear();
+        selectedVertexId = -1;
+        modificationCount++;
+        if ( sessionJournal != null ) {
+            sessionJournal.recordRemoveAllVertices( planeName );
+        }
+        repaint.requestRepaint();
     }
 }
@@ -0,0 +1,104 @@
+package de.embl.schwab.crosshair.points.overlays;
+
+import de.embl.schwab.crosshair.points.PointStore;
+import de.embl.schwab.crosshair.utils.PrimitiveSorting;
+import net.imglib2.realtransform.AffineTransform3D;
+
+import java.util.Arrays;
+
+import static java.lang.Math.*;
+
+// Points sorted by their depth along the view direction, so the points near the current view plane can be found with
+// a binary search rather than transforming every point.
+// Zooming and panning in bdv scale / shift the depth of all points equally, so points are only re-sorted when the
+// view direction itself changes (i.e. the view is rotated) or the points are changed.
+// Points are read from a PointStore snapshot, and sorted as an array of their indices in it - so there is no object
+// per point.
+class DepthSortedPoints {
+
+    private PointStore.Snapshot<?> points;
+    private int[] order; // indices of the points, sorted by depth
+    private double[] pointDepths; // depth of each point, by index
+    private double[] depths; // depths in sorted order, for binary search
+    private final double[] sortDirection; // unit view direction the points are currently sorted along
+
+    DepthSortedPoints() {
+        this.points = new PointStore<>().snapshot();
+        this.order = new int[0];
+        this.pointDepths = new double[0];
+        this.depths = new double[0];
+        this.sortDirection = new double[3];
+    }
+
+    void setPoints( PointStore.Snapshot<?> points ) {
+        this.points = points;
+        int size = points.size();
+        if ( order.length != size ) {
+            order = new int[size];
+            pointDepths = new double[size];
+            depths = new double[size];
+        }
+        // force a re-sort on the next query
+        Arrays.fill( sortDirection, 0 );
+    }
+
+    PointStore.Snapshot<?> getPoints() {
+        return points;
+    }
+
+    // Indices (in getPoints()) of the points less than maxViewerDistance from the current view plane (in viewer
+    // coordinates), in order of depth
+    int[] getIndicesNearViewPlane( AffineTransform3D viewerTransform, double maxViewerDistance ) {
+        // viewer z is (row 2 of the transform) . position + translation
+        double[] direction = new double[]{
+                viewerTransform.get( 2, 0 ), viewerTransform.get( 2, 1 ), viewerTransform.get( 2, 2 ) };
+        double scale = sqrt( direction[0] * direction[0] + direction[1] * direction[1] + direction[2] * direction[2] );
+        for ( int d = 0; d < 3; d++ ) {
+            direction[d] /= scale;
+        }
+
+        if ( !Arrays.equals( direction, sortDirection ) ) {
+            sortAlong( direction );
+        }
+
+        double translation = viewerTransform.get( 2, 3 );
+        double minDepth = ( -maxViewerDistance - translation ) / scale;
+        double maxDepth = ( maxViewerDistance - translation ) / scale;
+
+        int first = findFirstDeeperThan( minDepth );
+        int end = first;
+        while ( end < order.length && depths[end] < maxDepth ) {
+            end++;
+        }
+        return Arrays.copyOfRange( order, first, end );
+    }
+
+    private void sortAlong( double[] direction ) {
+        for ( int index = 0; index < order.length; index++ ) {
+            order[index] = index;
+            pointDepths[index] = direction[0] * points.getDoublePosition( index, 0 ) +
+                    direction[1] * points.getDoublePosition( index, 1 ) +
+                    direction[2] * points.getDoublePosition( index, 2 );
+        }
+        PrimitiveSorting.sortByKey( order, 0, order.length, pointDepths, 1, 0 );
+        for ( int i = 0; i < order.length; i++ ) {
+            depths[i] = pointDepths[ order[i] ];
+        }
+        System.arraycopy( direction, 0, sortDirection, 0, 3 );
+    }
+
+    // Index in the sorted order of the first point with depth > minDepth
+    private int findFirstDeeperThan( double minDepth ) {
+        int low = 0;
+        int high = depths.length;
+        while ( low < high ) {
+            int middle = ( low + high ) >>> 1;
+            if ( depths[ middle ] <= minDepth ) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -1,54 +1,250 @@
 package de.embl.schwab.crosshair.points.overlays;
 
+import de.embl.schwab.crosshair.points.PointStore;
+import ij.Prefs;
 import ij3d.Content;
+import ij3d.Image3DUniverse;
+import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
+import org.scijava.java3d.Transform3D;
+import org.scijava.vecmath.Color3f;
 import vib.BenesNamedPoint;
 import vib.PointList;
 
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
 
-// TODO - all 3D points / vertices for all planes are currently in the same point list. This means that overlapping
-// points are not allowed (while this is allowed in the 2D viewer, as each plane gets its own 2D overlay).
-// This is a limitation of ImageJ 3D Viewer. All point lists must be assocated with an imagecontent, and only one per
-// imageContent. Swapping to SciView at some point would be a good plan
-// (this can be done with point meshes in the 3d viewer, but points can't be named, and are harder to remove)
+// Points are shown in the 3D viewer in one of two ways:
+// - Point meshes (the default): each point set (e.g. the points to fit one plane) gets its own point mesh, so points
+//   in different sets can overlap, and adding / removing points doesn't depend on how many there are.
+// - The image content's point list: all 3D points / vertices for all planes are in the same point list. This means
+//   that overlapping points are not allowed (while this is allowed in the 2D viewer, as each plane gets its own 2D
+//   overlay). This is a limitation of ImageJ 3D Viewer. All point lists must be assocated with an imagecontent, and
+//   only one per imageContent.
+// Point meshes can't be named, so named points (e.g. assigned vertices) are always shown in the point list.
 public class Point3dOverlay {
 
+    public static final String USE_POINT_MESHES_PREFERENCE = "crosshair.points.usePointMeshes";
+
+    // distance used to find points in the pending list, before there is any image content to take a point size from
+    private static final double PENDING_POINT_SIZE = 1E-6;
+
+    private final Image3DUniverse universe;
+    private final boolean isUsingPointMeshes;
+    private final Map<String, PointMesh3d> setNameToPointMesh;
+    private boolean arePointMeshesVisible;
+    private final Transform3D transform;
+    private int batchDepth;
+    private boolean isRefreshPending; // point list changed during a batch, so needs refreshing when it ends
+
     private Content imageContent;
+    // points added before the image content was loaded - these are moved to the content's point list once it's set
+    private final PointList pendingPointList;
 
-    public Point3dOverlay( Content imageContent ) {
+    public Point3dOverlay( Image3DUniverse universe, Content imageContent ) {
+        this.universe = universe;
+        this.isUsingPointMeshes = isUsingPointMeshesByDefault();
+        this.setNameToPointMesh = new HashMap<>();
+        this.arePointMeshesVisible = true;
+        this.transform = new Transform3D();
+        this.batchDepth = 0;
+        this.isRefreshPending = false;
         this.imageContent = imageContent;
+        this.pendingPointList = new PointList();
+    }
+
+    public static boolean isUsingPointMeshesByDefault() {
+        return Prefs.get( USE_POINT_MESHES_PREFERENCE, true );
+    }
+
+    // Only affects point overlays created afterwards
+    public static void setUsingPointMeshesByDefault( boolean usePointMeshes ) {
+        Prefs.set( USE_POINT_MESHES_PREFERENCE, usePointMeshes );
+    }
+
+    public boolean isUsingPointMeshes() {
+        return isUsingPointMeshes;
+    }
+
+    public void setImageContent( Content imageContent ) {
+        this.imageContent = imageContent;
+        for (Iterator<BenesNamedPoint> it = pendingPointList.iterator(); it.hasNext(); ) {
+            imageContent.getPointList().add( it.next() );
+        }
+        pendingPointList.clear();
+    }
+
+    private PointList getPointList() {
+        return imageContent != null ? imageContent.getPointList() : pendingPointList;
+    }
+
+    private double getPointSize() {
+        return imageContent != null ? imageContent.getLandmarkPointSize() : PENDING_POINT_SIZE;
+    }
+
+    // Creates the named point set, or changes its colour if it already exists
+    public void addPointSet( String setName, Color3f color ) {
+        if ( !isUsingPointMeshes ) {
+            return;
+        }
+
+        PointMesh3d pointMesh = setNameToPointMesh.get( setName );
+        if ( pointMesh == null ) {
+            pointMesh = new PointMesh3d( universe, setName, color );
+            pointMesh.setVisible( arePointMeshesVisible );
+            pointMesh.setTransform( transform );
+            // join any batch that's already in progress
+            for ( int i = 0; i < batchDepth; i++ ) {
+                pointMesh.beginBatch();
+            }
+            setNameToPointMesh.put( setName, pointMesh );
+        } else {
+            pointMesh.setColor( color );
+        }
+    }
+
+    // Removes the point set and all its points from the 3D viewer
+    public void removePointSet( String setName ) {
+        PointMesh3d pointMesh = setNameToPointMesh.remove( setName );
+        if ( pointMesh != null ) {
+            pointMesh.removeFromUniverse();
+        }
+    }
+
+    private PointMesh3d getPointMesh( String setName ) {
+        PointMesh3d pointMesh = setNameToPointMesh.get( setName );
+        if ( pointMesh == null ) {
+            throw new UnsupportedOperationException( "No point set named " + setName );
+        }
+        return pointMesh;
+    }
+
+    // id identifies the point within its set (e.g. its id in a PointStore), and is used to remove it again
+    public void addPoint( String setName, int id, RealLocalizable point ) {
+        addPoint( setName, id, point.getDoublePosition(0), point.getDoublePosition(1), point.getDoublePosition(2) );
+    }
+
+    public void addPoint( String setName, int id, double x, double y, double z ) {
+        if ( isUsingPointMeshes ) {
+            getPointMesh( setName ).addPoint( id, x, y, z );
+        } else {
+            getPointList().add("", x, y, z);
+        }
     }
 
-    public void addPoint( RealPoint point ) {
+    // Removes every point in the set - points must be all of its points, so they can be removed from the point list
+    public void removeAllPoints( String setName, PointStore.Snapshot<?> points ) {
+        if ( isUsingPointMeshes ) {
+            getPointMesh( setName ).clear();
+            removeNamedPointsFromPointList( points );
+        } else {
+            double[] position = new double[3];
+            for ( int index = 0; index < points.size(); index++ ) {
+                points.localize( index, position );
+                removePointFromPointList( position );
+            }
+            refreshPoints();
+        }
+    }
+
+    public void removePoint( String setName, int id, RealLocalizable point ) {
         double[] position = new double[3];
         point.localize(position);
-        imageContent.getPointList().add("", position[0], position[1], position[2]);
+        if ( isUsingPointMeshes ) {
+            getPointMesh( setName ).removePoint( id );
+            if ( removeNamedPointFromPointList( position ) ) {
+                refreshPoints();
+            }
+        } else {
+            removePointFromPointList( position );
+            refreshPoints();
+        }
+    }
+
+    // Defer updating point meshes, and refreshing the point list, until the matching endBatch e.g. while loading many
+    // points. Batches can be nested.
+    public void beginBatch() {
+        batchDepth++;
+        for ( PointMesh3d pointMesh: setNameToPointMesh.values() ) {
+            pointMesh.beginBatch();
+        }
+    }
+
+    public void endBatch() {
+        if ( batchDepth == 0 ) {
+            throw new UnsupportedOperationException( "endBatch called without beginBatch" );
+        }
+
+        batchDepth--;
+        for ( PointMesh3d pointMesh: setNameToPointMesh.values() ) {
+            pointMesh.endBatch();
+        }
+        if ( batchDepth == 0 && isRefreshPending ) {
+            isRefreshPending = false;
+            refreshPoints();
+        }
     }
 
-    public void removePoints( List<RealPoint> points ) {
-        for( RealPoint point: points ) {
-            removePointFromPointList( point );
+    public void setPointMeshesVisible( boolean visible ) {
+        arePointMeshesVisible = visible;
+        for ( PointMesh3d pointMesh: setNameToPointMesh.values() ) {
+            pointMesh.setVisible( visible );
         }
+    }
 
-        refreshPoints();
+    // Point meshes are separate contents in the 3D viewer, so must be given the same transform as the image content
+    public void setTransform( Transform3D transform ) {
+        this.transform.set( transform );
+        for ( PointMesh3d pointMesh: setNameToPointMesh.values() ) {
+            pointMesh.setTransform( transform );
+        }
     }
 
-    public void removePoint( RealPoint point ) {
-        removePointFromPointList( point );
-        refreshPoints();
+    private void removePointFromPointList( double[] position ) {
+        int pointIndex = getPointList().indexOfPointAt(position[0], position[1], position[2], getPointSize());
+        getPointList().remove(pointIndex);
     }
 
-    private void removePointFromPointList( RealPoint point ) {
-        double[] chosenPointCoord = new double[3];
-        point.localize(chosenPointCoord);
+    // With point meshes, the point list only holds named points - remove any at the position of the given points
+    private void removeNamedPointsFromPointList( PointStore.Snapshot<?> points ) {
+        if ( getPointList().size() == 0 ) {
+            return;
+        }
+
+        boolean isPointRemoved = false;
+        double[] position = new double[3];
+        for ( int index = 0; index < points.size(); index++ ) {
+            points.localize( index, position );
+            isPointRemoved |= removeNamedPointFromPointList( position );
+        }
+
+        if ( isPointRemoved ) {
+            refreshPoints();
+        }
+    }
 
-        int pointIndex = imageContent.getPointList().indexOfPointAt(chosenPointCoord[0], chosenPointCoord[1], chosenPointCoord[2], imageContent.getLandmarkPointSize());
-        imageContent.getPointList().remove(pointIndex);
+    // Returns whether there was a named point to remove. The point list must be refreshed after.
+    private boolean removeNamedPointFromPointList( double[] position ) {
+        int pointIndex = getPointList().indexOfPointAt( position[0], position[1], position[2], getPointSize() );
+        if ( pointIndex == -1 ) {
+            return false;
+        }
+        getPointList().remove( pointIndex );
+        return true;
     }
 
     private void refreshPoints() {
+        if ( imageContent == null ) {
+            // nothing drawn yet
+            return;
+        }
+        if ( batchDepth > 0 ) {
+            // re-adding every point is slow, so only do it once at the end of the batch
+            isRefreshPending = true;
+            return;
+        }
+
         //		There's a bug in how the 3D viewer displays points after one is removed. Currently, it just stops
         //		displaying the first point added (rather than the one you actually removed).
         //		Therefore here I remove all points and re-add them, to get the viewer to reset how it draws
@@ -62,16 +258,27 @@ public class Point3dOverlay {
     }
 
     public void renamePoint3D( RealPoint point, String name ) {
+        double[] pointCoord = new double[3];
+        point.localize(pointCoord);
+
         // rename any points with that name to "" to enforce only one point with each name
-        BenesNamedPoint existingPointWithName = imageContent.getPointList().get(name);
+        BenesNamedPoint existingPointWithName = getPointList().get(name);
         if (existingPointWithName != null) {
-            imageContent.getPointList().rename(existingPointWithName, "");
+            if ( isUsingPointMeshes ) {
+                // unnamed points are already shown by the point meshes
+                getPointList().remove( getPointList().indexOf( existingPointWithName ) );
+                refreshPoints();
+            } else {
+                getPointList().rename(existingPointWithName, "");
+            }
         }
 
-        double[] pointCoord = new double[3];
-        point.localize(pointCoord);
-        int pointIndex = imageContent.getPointList().indexOfPointAt(
-                pointCoord[0], pointCoord[1], pointCoord[2], imageContent.getLandmarkPointSize());
-        imageContent.getPointList().rename(imageContent.getPointList().get(pointIndex), name);
+        int pointIndex = getPointList().indexOfPointAt(
+                pointCoord[0], pointCoord[1], pointCoord[2], getPointSize());
+        if ( pointIndex == -1 && isUsingPointMeshes ) {
+            getPointList().add(name, pointCoord[0], pointCoord[1], pointCoord[2]);
+        } else {
+            getPointList().rename(getPointList().get(pointIndex), name);
+        }
     }
 }
@@ -0,0 +1,246 @@
+package de.embl.schwab.crosshair.points.overlays;
+
+import customnode.CustomPointMesh;
+import ij3d.Content;
+import ij3d.Image3DUniverse;
+import org.scijava.java3d.GeometryArray;
+import org.scijava.java3d.Transform3D;
+import org.scijava.vecmath.Color3f;
+import org.scijava.vecmath.Point3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Math.max;
+
+// One set of points (e.g. the points to fit one plane) drawn in the 3D viewer as its own point mesh, rather than as
+// named points in the image content's point list. Sets are independent, so points in different sets can overlap.
+// Points are added with an id chosen by the caller (e.g. their id in a PointStore), and stored packed - removed points
+// are replaced by the last point. The mesh geometry is changed the same way in place, so adding or removing a point
+// is O(1). Between beginBatch and endBatch the geometry is only rebuilt once, at the end.
+public class PointMesh3d {
+
+    public static final float POINT_SIZE = 6;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Image3DUniverse universe;
+    private final String name;
+    private Color3f color;
+    private boolean isVisible;
+    private final Transform3D transform;
+
+    private float[] coordinates; // x, y, z of each point, in index order
+    private int[] indexToId;
+    private int[] idToIndex; // -1 for ids not in the mesh
+    private int size;
+
+    private Content content; // created when there are first points to show
+    private CustomPointMesh mesh;
+    private int batchDepth;
+    private boolean isMeshOutdated; // points changed during a batch, so the geometry must be rebuilt when it ends
+
+    public PointMesh3d( Image3DUniverse universe, String name, Color3f color ) {
+        this.universe = universe;
+        this.name = name;
+        this.color = new Color3f( color );
+        this.isVisible = true;
+        this.transform = new Transform3D();
+
+        this.coordinates = new float[ 3 * INITIAL_CAPACITY ];
+        this.indexToId = new int[ INITIAL_CAPACITY ];
+        this.idToIndex = new int[ INITIAL_CAPACITY ];
+        Arrays.fill( idToIndex, -1 );
+        this.size = 0;
+        this.batchDepth = 0;
+        this.isMeshOutdated = false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Ids must be non-negative, and not already in the mesh
+    public synchronized void addPoint( int id, double x, double y, double z ) {
+        if ( id < 0 ) {
+            throw new UnsupportedOperationException( "Point ids must be non-negative" );
+        }
+        if ( containsPoint( id ) ) {
+            throw new UnsupportedOperationException( "There is already a point with id " + id );
+        }
+
+        if ( id >= idToIndex.length ) {
+            int oldLength = idToIndex.length;
+            idToIndex = Arrays.copyOf( idToIndex, max( 2 * oldLength, id + 1 ) );
+            Arrays.fill( idToIndex, oldLength, idToIndex.length, -1 );
+        }
+        if ( size == indexToId.length ) {
+            indexToId = Arrays.copyOf( indexToId, 2 * size );
+            coordinates = Arrays.copyOf( coordinates, 6 * size );
+        }
+
+        int index = size++;
+        coordinates[ 3 * index ] = (float) x;
+        coordinates[ 3 * index + 1 ] = (float) y;
+        coordinates[ 3 * index + 2 ] = (float) z;
+        indexToId[index] = id;
+        idToIndex[id] = index;
+
+        if ( isUpdatingInPlace() ) {
+            mesh.addPoint( getPoint3f( index ) );
+        } else {
+            updateMesh();
+        }
+    }
+
+    // Returns false if there is no point with that id
+    public synchronized boolean removePoint( int id ) {
+        if ( !containsPoint( id ) ) {
+            return false;
+        }
+
+        // move the last point into the removed point's place
+        int index = idToIndex[id];
+        int lastIndex = size - 1;
+        int lastId = indexToId[ lastIndex ];
+        System.arraycopy( coordinates, 3 * lastIndex, coordinates, 3 * index, 3 );
+        indexToId[index] = lastId;
+        idToIndex[lastId] = index;
+        idToIndex[id] = -1;
+        size--;
+
+        if ( !isUpdatingInPlace() || !removeFromGeometry( index, lastIndex ) ) {
+            updateMesh();
+        }
+        return true;
+    }
+
+    public synchronized boolean containsPoint( int id ) {
+        return id >= 0 && id < idToIndex.length && idToIndex[id] != -1;
+    }
+
+    public synchronized float[] getPosition( int id ) {
+        if ( !containsPoint( id ) ) {
+            throw new UnsupportedOperationException( "No point with id " + id );
+        }
+        int index = idToIndex[id];
+        return Arrays.copyOfRange( coordinates, 3 * index, 3 * index + 3 );
+    }
+
+    public synchronized void clear() {
+        for ( int index = 0; index < size; index++ ) {
+            idToIndex[ indexToId[index] ] = -1;
+        }
+        size = 0;
+        updateMesh();
+    }
+
+    // Defer mesh updates until the matching endBatch. Batches can be nested.
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    public synchronized void endBatch() {
+        if ( batchDepth == 0 ) {
+            throw new UnsupportedOperationException( "endBatch called without beginBatch" );
+        }
+
+        batchDepth--;
+        if ( batchDepth == 0 && isMeshOutdated ) {
+            updateMesh();
+        }
+    }
+
+    public synchronized void setVisible( boolean visible ) {
+        isVisible = visible;
+        if ( content != null ) {
+            content.setVisible( visible );
+        }
+    }
+
+    public synchronized void setColor( Color3f color ) {
+        this.color = new Color3f( color );
+        if ( mesh != null ) {
+            mesh.setColor( this.color );
+        }
+    }
+
+    // Same transform as the image content, so points stay in place on the image e.g. in microtome mode
+    public synchronized void setTransform( Transform3D transform ) {
+        this.transform.set( transform );
+        if ( content != null ) {
+            content.setTransform( transform );
+        }
+    }
+
+    // Removes the mesh from the 3D viewer
+    public synchronized void removeFromUniverse() {
+        if ( content != null ) {
+            universe.removeContent( name );
+            content = null;
+            mesh = null;
+        }
+    }
+
+    private Point3f getPoint3f( int index ) {
+        return new Point3f( coordinates[ 3 * index ], coordinates[ 3 * index + 1 ], coordinates[ 3 * index + 2 ] );
+    }
+
+    // Whether a single change can be written straight to the existing mesh, rather than rebuilding it
+    private boolean isUpdatingInPlace() {
+        return batchDepth == 0 && !isMeshOutdated && mesh != null && mesh.getGeometry() != null;
+    }
+
+    // Mirrors a removal in the mesh: the point at lastIndex has been moved to index. Returns false if the geometry
+    // can't be changed in place, so must be rebuilt.
+    private boolean removeFromGeometry( int index, int lastIndex ) {
+        GeometryArray geometry = (GeometryArray) mesh.getGeometry();
+        if ( geometry == null || geometry.getValidVertexCount() != lastIndex + 1 ||
+                !geometry.getCapability( GeometryArray.ALLOW_COUNT_WRITE ) ) {
+            return false;
+        }
+
+        if ( index != lastIndex ) {
+            mesh.setCoordinate( index, getPoint3f( index ) );
+        }
+        // dropping the last vertex leaves the rest of the geometry untouched
+        mesh.getMesh().remove( lastIndex );
+        geometry.setValidVertexCount( lastIndex );
+        return true;
+    }
+
+    // Rebuilds the whole mesh geometry from the points
+    private void updateMesh() {
+        if ( batchDepth > 0 ) {
+            isMeshOutdated = true;
+            return;
+        }
+        isMeshOutdated = false;
+
+        if ( content == null && size == 0 ) {
+            return;
+        }
+
+        // the mesh keeps the list it is given, and changes its points in place
+        List<Point3f> meshPoints = new ArrayList<>( size );
+        for ( int index = 0; index < size; index++ ) {
+            meshPoints.add( getPoint3f( index ) );
+        }
+
+        if ( content == null ) {
+            mesh = new CustomPointMesh( meshPoints, color, 0 );
+            mesh.setPointSize( POINT_SIZE );
+            content = universe.addCustomMesh( mesh, name );
+            content.setLocked( true );
+            content.setVisible( isVisible );
+            content.setTransform( transform );
+        } else {
+            mesh.setMesh( meshPoints );
+        }
+    }
+}
@@ -1,19 +1,35 @@
 package de.embl.schwab.crosshair.points.overlays;
 
 import bdv.util.BdvOverlay;
+import de.embl.schwab.crosshair.points.PointStore;
 import net.imglib2.RealLocalizable;
 import net.imglib2.realtransform.AffineTransform3D;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntFunction;
 
 public abstract class PointOverlay2d extends BdvOverlay {
     // same as https://github.com/bigdataviewer/bigdataviewer-vistools/blob/master/src/main/java/bdv/util/PointsOverlay.java
     // but sets size to zero after certain distance
     // could make it nicer like in the bdv workshop, where they make the size taper off in a sphere
 
-    private boolean showPoints = true;
+    // points are only drawn within this distance (in viewer coordinates) of the current view plane
+    protected static final double VISIBLE_DISTANCE = 5;
+    private static final int POINT_SIZE = 5;
+    private static final Font LABEL_FONT = new Font( "Monospaced", Font.PLAIN, 12 );
+
+    private volatile boolean showPoints = true;
+
+    // The rendered overlay is cached, and re-used until the viewer transform, canvas size or points change. bdv
+    // repaints overlays far more often than that e.g. while image blocks are still loading.
+    private BufferedImage cachedLayer;
+    private final AffineTransform3D cachedTransform = new AffineTransform3D();
+    private long cachedModificationCount = -1;
+    private volatile int canvasWidth;
+    private volatile int canvasHeight;
 
     public boolean checkPointsVisible () {
         return showPoints;
@@ -27,14 +43,83 @@ public abstract class PointOverlay2d extends BdvOverlay {
         }
     }
 
-    protected void drawPoints( List< ? extends RealLocalizable> points, Color color, final Graphics2D graphics ) {
+    @Override
+    public void setCanvasSize( int width, int height ) {
+        canvasWidth = width;
+        canvasHeight = height;
+    }
 
+    @Override
+    protected void draw( Graphics2D graphics ) {
         if ( !showPoints ) {
             return;
         }
 
         final AffineTransform3D transform = new AffineTransform3D();
         getCurrentTransform3D( transform );
+
+        int width = canvasWidth;
+        int height = canvasHeight;
+        if ( width <= 0 || height <= 0 ) {
+            // canvas size not known yet, so nothing to cache into
+            drawLayer( graphics, transform );
+            return;
+        }
+
+        if ( cachedLayer == null || cachedLayer.getWidth() != width || cachedLayer.getHeight() != height ) {
+            cachedLayer = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+            cachedModificationCount = -1;
+        }
+
+        long modificationCount = getModificationCount();
+        if ( modificationCount != cachedModificationCount || !isSameTransform( transform, cachedTransform ) ) {
+            Graphics2D layerGraphics = cachedLayer.createGraphics();
+            layerGraphics.setComposite( AlphaComposite.Clear );
+            layerGraphics.fillRect( 0, 0, width, height );
+            layerGraphics.setComposite( AlphaComposite.SrcOver );
+            layerGraphics.setRenderingHints( graphics.getRenderingHints() );
+            drawLayer( layerGraphics, transform );
+            layerGraphics.dispose();
+
+            cachedTransform.set( transform );
+            cachedModificationCount = modificationCount;
+        }
+
+        graphics.drawImage( cachedLayer, 0, 0, null );
+    }
+
+    // Draw the points visible under the given viewer transform
+    protected abstract void drawLayer( Graphics2D graphics, AffineTransform3D viewerTransform );
+
+    // Must change whenever anything drawn by drawLayer changes (other than the viewer transform)
+    protected abstract long getModificationCount();
+
+    // Draws the visible points, in the colour given for each point's id. Points whose colour is null aren't drawn.
+    protected void drawPoints( DepthSortedPoints points, IntFunction<Color> idToColor, Graphics2D graphics,
+                               AffineTransform3D viewerTransform ) {
+        PointStore.Snapshot<?> snapshot = points.getPoints();
+        final double[] lPos = new double[ 3 ];
+        final double[] gPos = new double[ 3 ];
+        Color currentColor = null;
+        for ( int index: points.getIndicesNearViewPlane( viewerTransform, VISIBLE_DISTANCE ) ) {
+            Color color = idToColor.apply( snapshot.getId( index ) );
+            if ( color == null ) {
+                continue;
+            }
+            if ( color != currentColor ) {
+                graphics.setColor( color );
+                currentColor = color;
+            }
+
+            snapshot.localize( index, lPos );
+            viewerTransform.apply( lPos, gPos );
+            drawPoint( graphics, gPos );
+        }
+    }
+
+    protected void drawPoints( List< ? extends RealLocalizable> points, Color color, final Graphics2D graphics,
+                               AffineTransform3D viewerTransform ) {
+        graphics.setColor( color );
         final double[] lPos = new double[ 3 ];
         final double[] gPos = new double[ 3 ];
         for ( final RealLocalizable p : points)
@@ -43,47 +128,46 @@ public abstract class PointOverlay2d extends BdvOverlay {
             p.localize( lPos );
             // get point position in viewer (I guess in pixel units?), so gpos[2] is the distance in pixels
             // from the current view plane
-            transform.apply( lPos, gPos );
-            final double size = getPointSize( gPos );
-            final int x = ( int ) ( gPos[ 0 ] - 0.5 * size );
-            final int y = ( int ) ( gPos[ 1 ] - 0.5 * size );
-            final int w = ( int ) size;
-            graphics.setColor( color );
-            graphics.fillOval( x, y, w, w );
+            viewerTransform.apply( lPos, gPos );
+            drawPoint( graphics, gPos );
         }
     }
 
-    protected void drawTextOnPoints( Map< String,  ? extends RealLocalizable> pointLabelToPoint,
-                                     Color color, final Graphics2D graphics ) {
-
-        if ( !showPoints ) {
-            return;
+    // gPos is the point's position in viewer coordinates
+    private void drawPoint( Graphics2D graphics, double[] gPos ) {
+        if ( Math.abs( gPos[ 2 ] ) < VISIBLE_DISTANCE ) {
+            final int x = ( int ) ( gPos[ 0 ] - 0.5 * POINT_SIZE );
+            final int y = ( int ) ( gPos[ 1 ] - 0.5 * POINT_SIZE );
+            graphics.fillOval( x, y, POINT_SIZE, POINT_SIZE );
         }
+    }
 
-        graphics.setFont( new Font( "Monospaced", Font.PLAIN, 12 ) );
+    protected void drawTextOnPoints( Map< String,  ? extends RealLocalizable> pointLabelToPoint,
+                                     Color color, final Graphics2D graphics, AffineTransform3D viewerTransform ) {
+        graphics.setFont( LABEL_FONT );
+        graphics.setColor( color );
         // add text for labelled vertices
-        final AffineTransform3D transform = new AffineTransform3D();
-        getCurrentTransform3D( transform );
         final double[] lPos = new double[ 3 ];
         final double[] gPos = new double[ 3 ];
 
         for ( String label : pointLabelToPoint.keySet() ) {
             RealLocalizable point = pointLabelToPoint.get( label );
             point.localize(lPos);
-            transform.apply( lPos, gPos );
-            graphics.setColor( color );
-            if (Math.abs(gPos[2]) < 5) {
+            viewerTransform.apply( lPos, gPos );
+            if (Math.abs(gPos[2]) < VISIBLE_DISTANCE) {
                 graphics.drawString(label, (int) gPos[0], (int) gPos[1]);
             }
         }
     }
 
-    private double getPointSize (final double[] gPos)
-    {
-        if ( Math.abs( gPos[ 2 ] ) < 5 )
-            return 5.0;
-        else
-            return 0.0;
+    private static boolean isSameTransform( AffineTransform3D a, AffineTransform3D b ) {
+        for ( int row = 0; row < 3; row++ ) {
+            for ( int column = 0; column < 4; column++ ) {
+                if ( a.get( row, column ) != b.get( row, column ) ) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
-
 }
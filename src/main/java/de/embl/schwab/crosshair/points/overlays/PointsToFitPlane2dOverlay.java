@@ -1,20 +1,43 @@
 package de.embl.schwab.crosshair.points.overlays;
 
 import de.embl.schwab.crosshair.points.PointsToFitPlaneDisplay;
+import net.imglib2.realtransform.AffineTransform3D;
 
 import java.awt.*;
+import java.util.BitSet;
 
 public class PointsToFitPlane2dOverlay extends PointOverlay2d {
 
     private final PointsToFitPlaneDisplay pointsToFitPlaneDisplay;
     private final Color colPoint = new Color( 51, 255, 51);;
+    private final Color colOutlier = new Color( 255, 51, 51 );
+
+    private final DepthSortedPoints sortedPoints = new DepthSortedPoints();
+    private BitSet outlierIds = new BitSet();
+    private long sortedModificationCount = -1;
 
     public PointsToFitPlane2dOverlay( PointsToFitPlaneDisplay pointsToFitPlaneDisplay ) {
         this.pointsToFitPlaneDisplay = pointsToFitPlaneDisplay;
     }
 
     @Override
-    protected void draw( Graphics2D g ) {
-        drawPoints( pointsToFitPlaneDisplay.getPointsToFitPlane(), colPoint, g );
+    protected long getModificationCount() {
+        return pointsToFitPlaneDisplay.getModificationCount();
+    }
+
+    @Override
+    protected void drawLayer( Graphics2D g, AffineTransform3D viewerTransform ) {
+        long modificationCount = pointsToFitPlaneDisplay.getModificationCount();
+        if ( modificationCount != sortedModificationCount ) {
+            sortedPoints.setPoints( pointsToFitPlaneDisplay.getPointsToFitPlaneSnapshot() );
+            outlierIds = pointsToFitPlaneDisplay.getOutlierIds();
+            sortedModificationCount = modificationCount;
+        }
+
+        drawPoints( sortedPoints, id -> outlierIds.get( id ) ? null : colPoint, g, viewerTransform );
+        // outliers of the last robust fit are drawn over the top in a different colour
+        if ( !outlierIds.isEmpty() ) {
+            drawPoints( sortedPoints, id -> outlierIds.get( id ) ? colOutlier : null, g, viewerTransform );
+        }
     }
 }
@@ -1,11 +1,12 @@
 package de.embl.schwab.crosshair.points.overlays;
 
+import de.embl.schwab.crosshair.points.PointStore;
 import de.embl.schwab.crosshair.points.VertexDisplay;
 import de.embl.schwab.crosshair.points.VertexPoint;
 import net.imglib2.RealPoint;
+import net.imglib2.realtransform.AffineTransform3D;
 
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -16,24 +17,35 @@ public class VertexPoints2dOverlay extends PointOverlay2d {
     private final Color colVertex = new Color(0, 255, 255);
     private final Color colSelected = new Color(153, 0, 76);
 
+    private final DepthSortedPoints sortedVertices = new DepthSortedPoints();
+    private PointStore.Snapshot<VertexPoint> vertices; // the points of sortedVertices
+    private long sortedModificationCount = -1;
+
     public VertexPoints2dOverlay( VertexDisplay vertexDisplay ) {
         this.vertexDisplay = vertexDisplay;
     }
 
     @Override
-    protected void draw(Graphics2D g) {
-        if ( vertexDisplay.isVertexSelected() ) {
-            ArrayList<RealPoint> selectedVertices = new ArrayList<>();
-            selectedVertices.add( vertexDisplay.getSelectedVertex() );
-            drawPoints( selectedVertices, colSelected, g );
+    protected long getModificationCount() {
+        return vertexDisplay.getModificationCount();
+    }
+
+    @Override
+    protected void drawLayer( Graphics2D g, AffineTransform3D viewerTransform ) {
+        long modificationCount = vertexDisplay.getModificationCount();
+        if ( modificationCount != sortedModificationCount ) {
+            vertices = vertexDisplay.getVerticesSnapshot();
+            sortedVertices.setPoints( vertices );
+            sortedModificationCount = modificationCount;
         }
 
-        drawPoints( vertexDisplay.getVerticesExceptForSelected(), colVertex, g );
+        int selectedVertexId = vertexDisplay.getSelectedVertexId();
+        drawPoints( sortedVertices, id -> id == selectedVertexId ? colSelected : colVertex, g, viewerTransform );
 
         Map<String, RealPoint> pointLabelToPoint = new HashMap<>();
-        for ( VertexPoint vertexPoint: vertexDisplay.getAssignedVertices().keySet() ) {
-            pointLabelToPoint.put( vertexPoint.toString(), vertexDisplay.getAssignedVertices().get( vertexPoint ) );
+        for ( Map.Entry<VertexPoint, RealPoint> entry: vertices.getLabelledPoints().entrySet() ) {
+            pointLabelToPoint.put( entry.getKey().toString(), entry.getValue() );
         }
-        drawTextOnPoints( pointLabelToPoint, colVertex, g );
+        drawTextOnPoints( pointLabelToPoint, colVertex, g, viewerTransform );
     }
 }
@@ -1,6 +1,7 @@
 package de.embl.schwab.crosshair.settings;
 
 import de.embl.schwab.crosshair.plane.BlockPlane;
+import de.embl.schwab.crosshair.points.PointStore;
 import de.embl.schwab.crosshair.points.VertexPoint;
 import de.embl.schwab.crosshair.settings.PlaneSettings;
 import net.imglib2.RealPoint;
@@ -22,9 +23,11 @@ public class BlockPlaneSettings extends PlaneSettings {
         this.assignedVertices = new HashMap<>();
     }
 
+    // Copies everything from the block plane, so the settings don't change with later edits to it
     public BlockPlaneSettings( BlockPlane blockPlane ) {
         super( blockPlane );
-        this.vertices = blockPlane.getVertexDisplay().getVertices();
-        this.assignedVertices = blockPlane.getVertexDisplay().getAssignedVertices();
+        PointStore.Snapshot<VertexPoint> verticesSnapshot = blockPlane.getVertexDisplay().getVerticesSnapshot();
+        this.vertices = verticesSnapshot.toRealPoints();
+        this.assignedVertices = verticesSnapshot.getLabelledPoints();
     }
 }
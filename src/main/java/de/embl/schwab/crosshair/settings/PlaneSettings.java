@@ -28,14 +28,19 @@ public class PlaneSettings {
         this.distanceBetweenPlanesThreshold = 1E-10;
     }
 
+    // Copies everything from the plane, so the settings don't change with later edits to it
     public PlaneSettings( Plane plane ) {
         this.name = plane.getName();
-        this.normal = plane.getNormal();
-        this.point = plane.getPoint();
-        this.color = plane.getColor();
+        this.normal = copy( plane.getNormal() );
+        this.point = copy( plane.getPoint() );
+        this.color = plane.getColor() != null ? new Color3f( plane.getColor() ) : null;
         this.transparency = plane.getTransparency();
         this.isVisible = plane.isVisible();
-        this.pointsToFitPlane = plane.getPointsToFitPlaneDisplay().getPointsToFitPlane();
+        this.pointsToFitPlane = plane.getPointsToFitPlaneDisplay().getPointsToFitPlaneSnapshot().toRealPoints();
         this.distanceBetweenPlanesThreshold = plane.getDistanceBetweenPlanesThreshold();
     }
+
+    static Vector3d copy( Vector3d vector ) {
+        return vector != null ? new Vector3d( vector ) : null;
+    }
 }
@@ -0,0 +1,595 @@
+package de.embl.schwab.crosshair.settings;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import de.embl.schwab.crosshair.io.IoHelper;
+import de.embl.schwab.crosshair.io.serialise.CrosshairGson;
+import de.embl.schwab.crosshair.plane.Plane;
+import de.embl.schwab.crosshair.plane.PlaneManager;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.ui.swing.OtherPanel;
+import ij.IJ;
+import ij3d.Content;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import org.scijava.vecmath.Color3f;
+import org.scijava.vecmath.Vector3d;
+
+import javax.swing.*;
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Append-only journal of edits to the session (points, vertices, vertex assignments, plane orientation and
+// appearance), so work isn't lost if Fiji crashes.
+// Recording an edit only adds it to an in-memory buffer. A background thread appends buffered edits to the journal
+// file (one json object per line) every FLUSH_INTERVAL_MILLIS.
+// Every COMPACT_AFTER_EDITS edits, the whole session is written as a normal settings json (the snapshot) via a
+// temporary file and atomic rename, and the journal is trimmed to only the edits after it. Each edit has a sequence
+// number, and the snapshot records the last one it includes - so a crash part way through compaction never replays
+// an edit twice.
+// After a crash, the session is recovered by loading the snapshot, then replaying the journal on top of it.
+public class SessionJournal {
+
+    public static final long FLUSH_INTERVAL_MILLIS = 1000;
+    public static final int COMPACT_AFTER_EDITS = 10000;
+
+    private enum EditType {
+        ADD_PLANE,
+        REMOVE_PLANE,
+        PLANE_ORIENTATION,
+        PLANE_COLOR,
+        PLANE_TRANSPARENCY,
+        PLANE_VISIBLE,
+        ADD_POINT,
+        REMOVE_POINT,
+        REMOVE_ALL_POINTS,
+        ADD_VERTEX,
+        REMOVE_VERTEX,
+        REMOVE_ALL_VERTICES,
+        ASSIGN_VERTEX
+    }
+
+    private static class Edit {
+        private final long sequence;
+        private final EditType type;
+        private final String planeName;
+        private final double[] values; // e.g. the point position, or plane normal and point
+        private final Object value; // plane settings json for ADD_PLANE, vertex point for ASSIGN_VERTEX
+
+        private Edit( long sequence, EditType type, String planeName, double[] values, Object value ) {
+            this.sequence = sequence;
+            this.type = type;
+            this.planeName = planeName;
+            this.values = values;
+            this.value = value;
+        }
+    }
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final Supplier<SessionSnapshot> snapshotSupplier; // snapshot of the current session, called on the EDT
+    private final ScheduledExecutorService executor;
+
+    private final List<Edit> pendingEdits; // recorded, but not yet written to the journal. Guarded by this
+    private long lastSequence; // guarded by this
+    private int editsSinceCompaction; // guarded by this
+    private boolean isCompactionScheduled; // guarded by this
+    private boolean isClosed; // guarded by this
+
+    private Writer journalWriter; // only used on the executor thread
+
+    public SessionJournal( File snapshotFile, Supplier<SessionSnapshot> snapshotSupplier ) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = getJournalFile( snapshotFile );
+        this.snapshotSupplier = snapshotSupplier;
+        this.pendingEdits = new ArrayList<>();
+        this.lastSequence = readLastSequence( snapshotFile, journalFile );
+        this.editsSinceCompaction = 0;
+        this.isCompactionScheduled = false;
+        this.isClosed = false;
+
+        File directory = snapshotFile.getAbsoluteFile().getParentFile();
+        if ( directory != null && !directory.exists() && !directory.mkdirs() ) {
+            IJ.log( "Crosshair: couldn't create autosave directory " + directory );
+        }
+
+        this.executor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "Crosshair session journal" );
+            // don't stop the JVM exiting when Fiji closes
+            thread.setDaemon( true );
+            return thread;
+        });
+        executor.scheduleWithFixedDelay( this::writePendingEdits, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS );
+    }
+
+    // Autosave snapshot for sessions on the image with the given name, in ~/.crosshair/autosave
+    public static File getAutosaveFile( String imageName ) {
+        File directory = new File( System.getProperty( "user.home" ), ".crosshair" + File.separator + "autosave" );
+        return new File( directory, imageName.replaceAll( "[^A-Za-z0-9._-]", "_" ) + ".json" );
+    }
+
+    public static File getJournalFile( File snapshotFile ) {
+        return new File( snapshotFile.getPath() + ".journal" );
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    // Planes are journalled without their points, as there may be very many of them (e.g. when loading settings).
+    // Adding a plane with points schedules a compaction instead, so they're in the next snapshot.
+    public void recordAddPlane( PlaneSettings planeSettings ) {
+        // written straight away, as the settings may be changed later
+        JsonElement settingsJson = CrosshairGson.getGson().toJsonTree( withoutPoints( planeSettings ),
+                PlaneSettings.class );
+        record( EditType.ADD_PLANE, planeSettings.name, null, settingsJson );
+        if ( hasPoints( planeSettings ) ) {
+            scheduleCompaction();
+        }
+    }
+
+    private static PlaneSettings withoutPoints( PlaneSettings planeSettings ) {
+        // new settings have empty point lists
+        PlaneSettings settingsWithoutPoints = planeSettings instanceof BlockPlaneSettings ?
+                new BlockPlaneSettings() : new PlaneSettings();
+        settingsWithoutPoints.name = planeSettings.name;
+        settingsWithoutPoints.normal = planeSettings.normal;
+        settingsWithoutPoints.point = planeSettings.point;
+        settingsWithoutPoints.color = planeSettings.color;
+        settingsWithoutPoints.transparency = planeSettings.transparency;
+        settingsWithoutPoints.isVisible = planeSettings.isVisible;
+        settingsWithoutPoints.distanceBetweenPlanesThreshold = planeSettings.distanceBetweenPlanesThreshold;
+        return settingsWithoutPoints;
+    }
+
+    private static boolean hasPoints( PlaneSettings planeSettings ) {
+        if ( planeSettings.pointsToFitPlane != null && !planeSettings.pointsToFitPlane.isEmpty() ) {
+            return true;
+        }
+        if ( planeSettings instanceof BlockPlaneSettings ) {
+            BlockPlaneSettings blockPlaneSettings = (BlockPlaneSettings) planeSettings;
+            return blockPlaneSettings.vertices != null && !blockPlaneSettings.vertices.isEmpty();
+        }
+        return false;
+    }
+
+    public void recordRemovePlane( String planeName ) {
+        record( EditType.REMOVE_PLANE, planeName, null, null );
+    }
+
+    public void recordPlaneOrientation( String planeName, Vector3d normal, Vector3d point ) {
+        record( EditType.PLANE_ORIENTATION, planeName,
+                new double[]{ normal.x, normal.y, normal.z, point.x, point.y, point.z }, null );
+    }
+
+    public void recordPlaneColor( String planeName, Color3f color ) {
+        record( EditType.PLANE_COLOR, planeName, new double[]{ color.x, color.y, color.z }, null );
+    }
+
+    public void recordPlaneTransparency( String planeName, float transparency ) {
+        record( EditType.PLANE_TRANSPARENCY, planeName, new double[]{ transparency }, null );
+    }
+
+    public void recordPlaneVisible( String planeName, boolean isVisible ) {
+        record( EditType.PLANE_VISIBLE, planeName, new double[]{ isVisible ? 1 : 0 }, null );
+    }
+
+    public void recordAddPoint( String planeName, RealLocalizable point ) {
+        record( EditType.ADD_POINT, planeName, getPosition( point ), null );
+    }
+
+    public void recordRemovePoint( String planeName, RealLocalizable point ) {
+        record( EditType.REMOVE_POINT, planeName, getPosition( point ), null );
+    }
+
+    public void recordRemoveAllPoints( String planeName ) {
+        record( EditType.REMOVE_ALL_POINTS, planeName, null, null );
+    }
+
+    public void recordAddVertex( String planeName, RealLocalizable vertex ) {
+        record( EditType.ADD_VERTEX, planeName, getPosition( vertex ), null );
+    }
+
+    public void recordRemoveVertex( String planeName, RealLocalizable vertex ) {
+        record( EditType.REMOVE_VERTEX, planeName, getPosition( vertex ), null );
+    }
+
+    public void recordRemoveAllVertices( String planeName ) {
+        record( EditType.REMOVE_ALL_VERTICES, planeName, null, null );
+    }
+
+    public void recordAssignVertex( String planeName, VertexPoint vertexPoint, RealLocalizable vertex ) {
+        record( EditType.ASSIGN_VERTEX, planeName, getPosition( vertex ), vertexPoint );
+    }
+
+    private double[] getPosition( RealLocalizable point ) {
+        return new double[]{ point.getDoublePosition(0), point.getDoublePosition(1), point.getDoublePosition(2) };
+    }
+
+    private synchronized void record( EditType type, String planeName, double[] values, Object value ) {
+        if ( isClosed ) {
+            return;
+        }
+
+        Edit edit = new Edit( ++lastSequence, type, planeName, values, value );
+        int lastIndex = pendingEdits.size() - 1;
+        if ( type == EditType.PLANE_ORIENTATION && lastIndex >= 0 &&
+                pendingEdits.get( lastIndex ).type == EditType.PLANE_ORIENTATION &&
+                pendingEdits.get( lastIndex ).planeName.equals( planeName ) ) {
+            // e.g. while tracking a plane, only the latest orientation needs writing
+            pendingEdits.set( lastIndex, edit );
+        } else {
+            pendingEdits.add( edit );
+            editsSinceCompaction++;
+        }
+
+        if ( editsSinceCompaction >= COMPACT_AFTER_EDITS ) {
+            scheduleCompaction();
+        }
+    }
+
+    // Compacts on the EDT, once the current edits are done. Any number of requests before then compact only once.
+    private synchronized void scheduleCompaction() {
+        if ( !isCompactionScheduled && !isClosed ) {
+            isCompactionScheduled = true;
+            SwingUtilities.invokeLater( this::compactIfScheduled );
+        }
+    }
+
+    private void compactIfScheduled() {
+        synchronized ( this ) {
+            // e.g. compact was called directly in the meantime
+            if ( !isCompactionScheduled ) {
+                return;
+            }
+        }
+        compact();
+    }
+
+    // Blocks until all edits recorded so far are written to the journal
+    public void flush() {
+        try {
+            executor.submit( this::writePendingEdits ).get();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( ExecutionException e ) {
+            IJ.handleException( e.getCause() );
+        }
+    }
+
+    // Writes the current session as the snapshot, and trims the journal to only the edits after it.
+    // Call on the EDT, where points and planes are edited.
+    public void compact() {
+        long sequence;
+        synchronized ( this ) {
+            if ( isClosed ) {
+                return;
+            }
+            sequence = lastSequence;
+            editsSinceCompaction = 0;
+            isCompactionScheduled = false;
+        }
+
+        // any edit recorded while the snapshot is taken has a later sequence number, so is replayed on top of it
+        SessionSnapshot snapshot = snapshotSupplier.get();
+        executor.execute( () -> writeSnapshot( snapshot, sequence ) );
+    }
+
+    // Stops journalling. Deleting the files means there will be nothing to recover next time.
+    public void close( boolean isDeletingFiles ) {
+        synchronized ( this ) {
+            isClosed = true;
+        }
+
+        executor.execute( () -> {
+            writePendingEdits();
+            closeJournalWriter();
+            if ( isDeletingFiles ) {
+                deleteFile( snapshotFile );
+                deleteFile( journalFile );
+            }
+        });
+        executor.shutdown();
+    }
+
+    private void writePendingEdits() {
+        List<Edit> edits;
+        synchronized ( this ) {
+            if ( pendingEdits.isEmpty() ) {
+                return;
+            }
+            edits = new ArrayList<>( pendingEdits );
+            pendingEdits.clear();
+        }
+
+        try {
+            if ( journalWriter == null ) {
+                journalWriter = new BufferedWriter( new OutputStreamWriter(
+                        new FileOutputStream( journalFile, true ), StandardCharsets.UTF_8 ) );
+            }
+            for ( Edit edit: edits ) {
+                journalWriter.write( toJson( edit ).toString() );
+                journalWriter.write( '\n' );
+            }
+            journalWriter.flush();
+        } catch ( IOException e ) {
+            IJ.log( "Crosshair: couldn't write to session journal " + journalFile + ": " + e.getMessage() );
+        }
+    }
+
+    private JsonObject toJson( Edit edit ) {
+        JsonObject json = new JsonObject();
+        json.addProperty( "seq", edit.sequence );
+        json.addProperty( "type", edit.type.name() );
+        json.addProperty( "plane", edit.planeName );
+        if ( edit.values != null ) {
+            JsonArray values = new JsonArray();
+            for ( double value: edit.values ) {
+                values.add( value );
+            }
+            json.add( "values", values );
+        }
+        if ( edit.value instanceof JsonElement ) {
+            json.add( "settings", (JsonElement) edit.value );
+        } else if ( edit.value instanceof VertexPoint ) {
+            json.addProperty( "vertexPoint", edit.value.toString() );
+        }
+        return json;
+    }
+
+    private void writeSnapshot( SessionSnapshot snapshot, long sequence ) {
+        // edits up to the snapshot must be in the journal before it's trimmed
+        writePendingEdits();
+
+        Settings settings = snapshot.toSettings();
+        settings.journalSequence = sequence;
+        try {
+            IoHelper.writeAtomically( snapshotFile, file -> {
+                try ( Writer writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8 ) ) {
+                    CrosshairGson.getGson().toJson( settings, writer );
+                }
+            });
+            trimJournal( sequence );
+        } catch ( IOException e ) {
+            IJ.log( "Crosshair: couldn't write session snapshot " + snapshotFile + ": " + e.getMessage() );
+        }
+    }
+
+    // Keep only edits after the given sequence number. Only edits recorded during compaction are kept, so this is
+    // quick.
+    private void trimJournal( long sequence ) throws IOException {
+        closeJournalWriter();
+        List<JsonObject> edits = readEdits( journalFile, sequence );
+
+        IoHelper.writeAtomically( journalFile, file -> {
+            try ( Writer writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8 ) ) {
+                for ( JsonObject edit: edits ) {
+                    writer.write( edit.toString() );
+                    writer.write( '\n' );
+                }
+            }
+        });
+    }
+
+    private void closeJournalWriter() {
+        if ( journalWriter != null ) {
+            try {
+                journalWriter.close();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+            journalWriter = null;
+        }
+    }
+
+    private static void deleteFile( File file ) {
+        if ( file.exists() && !file.delete() ) {
+            IJ.log( "Crosshair: couldn't delete " + file );
+        }
+    }
+
+    // Edits in the journal with a sequence number after the given one, in order. Lines that can't be read
+    // (e.g. a line only half written when Fiji crashed) are skipped.
+    static List<JsonObject> readEdits( File journalFile, long afterSequence ) throws IOException {
+        List<JsonObject> edits = new ArrayList<>();
+        if ( !journalFile.exists() ) {
+            return edits;
+        }
+
+        try ( BufferedReader reader = Files.newBufferedReader( journalFile.toPath(), StandardCharsets.UTF_8 ) ) {
+            String line;
+            while ( ( line = reader.readLine() ) != null ) {
+                try {
+                    JsonObject edit = JsonParser.parseString( line ).getAsJsonObject();
+                    if ( edit.get( "seq" ).getAsLong() > afterSequence ) {
+                        edits.add( edit );
+                    }
+                } catch ( JsonParseException | IllegalStateException | NullPointerException e ) {
+                    // skip unreadable lines
+                }
+            }
+        }
+        return edits;
+    }
+
+    private static Settings readSnapshot( File snapshotFile ) {
+        return snapshotFile.exists() ? new SettingsReader().readSettings( snapshotFile.getAbsolutePath() ) : null;
+    }
+
+    // Sequence numbers carry on from any previous journal, so old edits are never mistaken for new ones
+    private static long readLastSequence( File snapshotFile, File journalFile ) {
+        long lastSequence = 0;
+        Settings snapshot = readSnapshot( snapshotFile );
+        if ( snapshot != null && snapshot.journalSequence != null ) {
+            lastSequence = snapshot.journalSequence;
+        }
+
+        try {
+            for ( JsonObject edit: readEdits( journalFile, lastSequence ) ) {
+                lastSequence = Math.max( lastSequence, edit.get( "seq" ).getAsLong() );
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+        return lastSequence;
+    }
+
+    // Whether a previous session (e.g. one open when Fiji crashed) left anything to recover
+    public static boolean hasRecoverableSession( File snapshotFile ) {
+        return snapshotFile.exists() || getJournalFile( snapshotFile ).length() > 0;
+    }
+
+    // Where a session that wasn't recovered is moved to, so it isn't replaced by the next session's snapshot
+    public static File getPreviousSessionFile( File snapshotFile ) {
+        return new File( snapshotFile.getPath() + ".previous" );
+    }
+
+    // Moves the snapshot and journal of a session that wasn't recovered aside, replacing any moved there before.
+    // Renaming the snapshot back (and its journal, to the snapshot name + ".journal") recovers it next time.
+    public static void movePreviousSession( File snapshotFile ) {
+        File previousSnapshotFile = getPreviousSessionFile( snapshotFile );
+        try {
+            Files.deleteIfExists( previousSnapshotFile.toPath() );
+            Files.deleteIfExists( getJournalFile( previousSnapshotFile ).toPath() );
+            if ( snapshotFile.exists() ) {
+                Files.move( snapshotFile.toPath(), previousSnapshotFile.toPath() );
+            }
+            File journalFile = getJournalFile( snapshotFile );
+            if ( journalFile.exists() ) {
+                Files.move( journalFile.toPath(), getJournalFile( previousSnapshotFile ).toPath() );
+            }
+            IJ.log( "Crosshair: previous unsaved session moved to " + previousSnapshotFile );
+        } catch ( IOException e ) {
+            IJ.log( "Crosshair: couldn't move previous unsaved session aside: " + e.getMessage() );
+        }
+    }
+
+    // Loads the snapshot (if any), then replays the journal edits after it. Replayed edits are applied straight to
+    // the plane manager, so set its session journal afterwards, or they'll be recorded again.
+    public static void recoverSession( File snapshotFile, PlaneManager planeManager,
+                                       Map<String, Content> imageNameToContent, OtherPanel otherPanel ) {
+        long snapshotSequence = 0;
+        Settings snapshot = readSnapshot( snapshotFile );
+        if ( snapshot != null ) {
+            new SettingsReader().loadSettings( snapshot, planeManager, imageNameToContent, otherPanel );
+            if ( snapshot.journalSequence != null ) {
+                snapshotSequence = snapshot.journalSequence;
+            }
+        }
+
+        List<JsonObject> edits;
+        try {
+            edits = readEdits( getJournalFile( snapshotFile ), snapshotSequence );
+        } catch ( IOException e ) {
+            IJ.log( "Crosshair: couldn't read session journal: " + e.getMessage() );
+            return;
+        }
+
+        int nSkippedEdits = 0;
+        planeManager.beginBatch();
+        try {
+            for ( JsonObject edit : edits ) {
+                try {
+                    replayEdit( edit, planeManager );
+                } catch ( RuntimeException e ) {
+                    // e.g. an edit to a plane that no longer exists
+                    nSkippedEdits++;
+                }
+            }
+        } finally {
+            planeManager.endBatch();
+        }
+
+        IJ.log( "Crosshair: recovered session with " + ( edits.size() - nSkippedEdits ) + " edits since the " +
+                "last autosave" );
+        if ( nSkippedEdits > 0 ) {
+            IJ.log( "Crosshair: skipped " + nSkippedEdits + " edits that couldn't be replayed" );
+        }
+    }
+
+    private static void replayEdit( JsonObject edit, PlaneManager planeManager ) {
+        EditType type = EditType.valueOf( edit.get( "type" ).getAsString() );
+        String planeName = edit.get( "plane" ).getAsString();
+        double[] values = null;
+        if ( edit.has( "values" ) ) {
+            JsonArray valuesJson = edit.getAsJsonArray( "values" );
+            values = new double[ valuesJson.size() ];
+            for ( int i = 0; i < values.length; i++ ) {
+                values[i] = valuesJson.get(i).getAsDouble();
+            }
+        }
+
+        switch ( type ) {
+            case ADD_PLANE:
+                Gson gson = CrosshairGson.getGson();
+                PlaneSettings planeSettings = gson.fromJson( edit.get( "settings" ), PlaneSettings.class );
+                planeManager.removeNamedPlane( planeName );
+                if ( planeSettings instanceof BlockPlaneSettings ) {
+                    planeManager.addBlockPlane( (BlockPlaneSettings) planeSettings );
+                } else {
+                    planeManager.addPlane( planeSettings );
+                }
+                break;
+            case REMOVE_PLANE:
+                planeManager.removeNamedPlane( planeName );
+                break;
+            case PLANE_ORIENTATION:
+                planeManager.updatePlane( new Vector3d( values[0], values[1], values[2] ),
+                        new Vector3d( values[3], values[4], values[5] ), planeName );
+                break;
+            case PLANE_COLOR:
+                Plane plane = planeManager.getPlane( planeName );
+                plane.setColor( new Color( (float) values[0], (float) values[1], (float) values[2] ) );
+                break;
+            case PLANE_TRANSPARENCY:
+                planeManager.getPlane( planeName ).setTransparency( (float) values[0] );
+                break;
+            case PLANE_VISIBLE:
+                planeManager.getPlane( planeName ).setVisible( values[0] != 0 );
+                break;
+            case ADD_POINT:
+                planeManager.getPointsToFitPlaneDisplay( planeName ).addPointToFitPlane( new RealPoint( values ) );
+                break;
+            case REMOVE_POINT:
+                planeManager.getPointsToFitPlaneDisplay( planeName ).removePointToFitPlane( new RealPoint( values ) );
+                break;
+            case REMOVE_ALL_POINTS:
+                planeManager.getPointsToFitPlaneDisplay( planeName ).removeAllPointsToFitPlane();
+                break;
+            case ADD_VERTEX:
+                planeManager.getVertexDisplay( planeName ).addVertex( new RealPoint( values ) );
+                break;
+            case REMOVE_VERTEX:
+                planeManager.getVertexDisplay( planeName ).removeVertex( new RealPoint( values ) );
+                break;
+            case REMOVE_ALL_VERTICES:
+                planeManager.getVertexDisplay( planeName ).removeAllVertices();
+                break;
+            case ASSIGN_VERTEX:
+                VertexPoint vertexPoint = VertexPoint.fromString( edit.get( "vertexPoint" ).getAsString() );
+                planeManager.getVertexDisplay( planeName ).assignVertex( vertexPoint, new RealPoint( values ) );
+                break;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.embl.schwab.crosshair.settings;
+
+import de.embl.schwab.crosshair.plane.BlockPlane;
+import de.embl.schwab.crosshair.plane.Plane;
+import de.embl.schwab.crosshair.plane.PlaneManager;
+import de.embl.schwab.crosshair.points.PointStore;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import ij3d.Content;
+import org.scijava.vecmath.Color3f;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable copy of the session state - planes, their points and the image display settings - for saving in the
+// background while the session carries on being edited.
+// Taking a snapshot is cheap enough for the EDT whatever the number of points: point lists are copy-on-write
+// snapshots of each plane's point store, and are only turned into settings (in toSettings) on the saving thread.
+public class SessionSnapshot {
+
+    private static class PlaneSnapshot {
+        private final String name;
+        private final Vector3d normal;
+        private final Vector3d point;
+        private final Color3f color;
+        private final float transparency;
+        private final boolean isVisible;
+        private final double distanceBetweenPlanesThreshold;
+        private final PointStore.Snapshot<Void> pointsToFitPlane;
+        private final PointStore.Snapshot<VertexPoint> vertices; // null for planes that aren't block planes
+
+        private PlaneSnapshot( Plane plane ) {
+            this.name = plane.getName();
+            this.normal = PlaneSettings.copy( plane.getNormal() );
+            this.point = PlaneSettings.copy( plane.getPoint() );
+            this.color = plane.getColor() != null ? new Color3f( plane.getColor() ) : null;
+            this.transparency = plane.getTransparency();
+            this.isVisible = plane.isVisible();
+            this.distanceBetweenPlanesThreshold = plane.getDistanceBetweenPlanesThreshold();
+            this.pointsToFitPlane = plane.getPointsToFitPlaneDisplay().getPointsToFitPlaneSnapshot();
+            if ( plane instanceof BlockPlane ) {
+                this.vertices = ( (BlockPlane) plane ).getVertexDisplay().getVerticesSnapshot();
+            } else {
+                this.vertices = null;
+            }
+        }
+
+        private PlaneSettings toPlaneSettings() {
+            PlaneSettings planeSettings;
+            if ( vertices != null ) {
+                BlockPlaneSettings blockPlaneSettings = new BlockPlaneSettings();
+                blockPlaneSettings.vertices = vertices.toRealPoints();
+                blockPlaneSettings.assignedVertices = vertices.getLabelledPoints();
+                planeSettings = blockPlaneSettings;
+            } else {
+                planeSettings = new PlaneSettings();
+            }
+
+            // settings are a new copy each time, so they can be changed without affecting the snapshot
+            planeSettings.name = name;
+            planeSettings.normal = PlaneSettings.copy( normal );
+            planeSettings.point = PlaneSettings.copy( point );
+            planeSettings.color = color != null ? new Color3f( color ) : null;
+            planeSettings.transparency = transparency;
+            planeSettings.isVisible = isVisible;
+            planeSettings.pointsToFitPlane = pointsToFitPlane.toRealPoints();
+            planeSettings.distanceBetweenPlanesThreshold = distanceBetweenPlanesThreshold;
+            return planeSettings;
+        }
+    }
+
+    private final List<PlaneSnapshot> planeSnapshots;
+    private final List<ImageContentSettings> imageSettings;
+
+    private SessionSnapshot( List<PlaneSnapshot> planeSnapshots, List<ImageContentSettings> imageSettings ) {
+        this.planeSnapshots = planeSnapshots;
+        this.imageSettings = imageSettings;
+    }
+
+    // Call on the EDT, where planes and points are edited
+    public static SessionSnapshot take( PlaneManager planeManager, Map<String, Content> imageNameToContent ) {
+        List<PlaneSnapshot> planeSnapshots = new ArrayList<>();
+        for ( Plane plane: planeManager.getPlanes() ) {
+            planeSnapshots.add( new PlaneSnapshot( plane ) );
+        }
+
+        List<ImageContentSettings> imageSettings = new ArrayList<>();
+        for ( String imageName: imageNameToContent.keySet() ) {
+            imageSettings.add( createImageSettings( imageName, imageNameToContent.get( imageName ) ) );
+        }
+
+        return new SessionSnapshot( planeSnapshots, imageSettings );
+    }
+
+    // Snapshot of a session with no planes or images
+    public static SessionSnapshot empty() {
+        return new SessionSnapshot( new ArrayList<>(), new ArrayList<>() );
+    }
+
+    private static ImageContentSettings createImageSettings( String imageName, Content imageContent ) {
+        // transfer function settings
+        int[] redLut = new int[256];
+        int[] greenLut = new int[256];
+        int[] blueLut = new int[256];
+        int[] alphaLut = new int[256];
+
+        imageContent.getRedLUT(redLut);
+        imageContent.getGreenLUT(greenLut);
+        imageContent.getBlueLUT(blueLut);
+        imageContent.getAlphaLUT(alphaLut);
+
+        Color3f imageColour = imageContent.getColor() != null ? new Color3f( imageContent.getColor() ) : null;
+        return new ImageContentSettings( imageName, imageContent.getTransparency(), imageColour,
+                redLut, greenLut, blueLut, alphaLut );
+    }
+
+    // New settings from the snapshot. This copies every point, so call it on the thread doing the saving.
+    public Settings toSettings() {
+        Settings settings = new Settings();
+
+        Map<String, PlaneSettings> planeSettingsMap = new HashMap<>();
+        for ( PlaneSnapshot planeSnapshot: planeSnapshots ) {
+            planeSettingsMap.put( planeSnapshot.name, planeSnapshot.toPlaneSettings() );
+        }
+        settings.planeNameToSettings = planeSettingsMap;
+
+        Map<String, ImageContentSettings> imageSettingsMap = new HashMap<>();
+        for ( ImageContentSettings image: imageSettings ) {
+            imageSettingsMap.put( image.name, new ImageContentSettings( image.name, image.imageTransparency,
+                    image.imageColour != null ? new Color3f( image.imageColour ) : null, image.redLut.clone(),
+                    image.greenLut.clone(), image.blueLut.clone(), image.alphaLut.clone() ) );
+        }
+        settings.imageNameToSettings = imageSettingsMap;
+
+        return settings;
+    }
+}
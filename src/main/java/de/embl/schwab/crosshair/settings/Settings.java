@@ -5,4 +5,6 @@ import java.util.Map;
 public class Settings {
     public Map<String, PlaneSettings> planeNameToSettings;
     public Map< String, ImageContentSettings> imageNameToSettings;
+    public String pointsSidecar; // name of the file next to the settings json holding large point lists, if any
+    public Long journalSequence; // for autosave snapshots, the last session journal edit they include
 }
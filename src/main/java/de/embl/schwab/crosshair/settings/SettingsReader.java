@@ -1,20 +1,19 @@
 package de.embl.schwab.crosshair.settings;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import de.embl.schwab.crosshair.io.serialise.PlaneSettingsMapDeserializer;
-import de.embl.schwab.crosshair.io.serialise.VertexPointDeserializer;
+import de.embl.schwab.crosshair.io.serialise.CrosshairGson;
+import de.embl.schwab.crosshair.io.serialise.PointsSidecar;
 import de.embl.schwab.crosshair.microtome.MicrotomeManager;
 import de.embl.schwab.crosshair.plane.PlaneManager;
-import de.embl.schwab.crosshair.points.VertexPoint;
 import de.embl.schwab.crosshair.ui.swing.MicrotomePanel;
 import de.embl.schwab.crosshair.ui.swing.OtherPanel;
 import ij.IJ;
 import ij3d.Content;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
 import java.util.Map;
 
@@ -23,12 +22,12 @@ public class SettingsReader {
     public SettingsReader() {}
 
     public Settings readSettings(String filePath ) {
-        Gson gson = new GsonBuilder().
-                registerTypeAdapter( new TypeToken<Map<String, PlaneSettings>>(){}.getType(), new PlaneSettingsMapDeserializer()).
-                registerTypeAdapter( new TypeToken<VertexPoint>(){}.getType(), new VertexPointDeserializer() ).create();
-
-        try ( FileReader fileReader = new FileReader(filePath) ) {
-            return gson.fromJson(fileReader, Settings.class);
+        try ( BufferedReader reader = new BufferedReader( new FileReader( filePath ) ) ) {
+            Settings settings = CrosshairGson.getGson().fromJson( reader, Settings.class );
+            if ( settings != null && settings.planeNameToSettings != null ) {
+                readSidecarPoints( settings, filePath );
+            }
+            return settings;
         } catch (IOException e1) {
             e1.printStackTrace();
         }
@@ -36,6 +35,41 @@ public class SettingsReader {
         return null;
     }
 
+    // Replace references to points in the sidecar with the points themselves
+    private void readSidecarPoints( Settings settings, String filePath ) throws IOException {
+        DoubleBuffer coordinates = null;
+        for ( PlaneSettings planeSettings: settings.planeNameToSettings.values() ) {
+            if ( planeSettings.pointsToFitPlane instanceof PointsSidecar.Reference ) {
+                coordinates = readSidecarCoordinates( settings, filePath, coordinates );
+                planeSettings.pointsToFitPlane = PointsSidecar.readPoints( coordinates,
+                        (PointsSidecar.Reference) planeSettings.pointsToFitPlane );
+            }
+
+            if ( planeSettings instanceof BlockPlaneSettings ) {
+                BlockPlaneSettings blockPlaneSettings = (BlockPlaneSettings) planeSettings;
+                if ( blockPlaneSettings.vertices instanceof PointsSidecar.Reference ) {
+                    coordinates = readSidecarCoordinates( settings, filePath, coordinates );
+                    blockPlaneSettings.vertices = PointsSidecar.readPoints( coordinates,
+                            (PointsSidecar.Reference) blockPlaneSettings.vertices );
+                }
+            }
+        }
+        settings.pointsSidecar = null;
+    }
+
+    // Sidecar coordinates, read on first use. A reference without a sidecar would otherwise load as no points.
+    private DoubleBuffer readSidecarCoordinates( Settings settings, String filePath, DoubleBuffer coordinates )
+            throws IOException {
+        if ( coordinates != null ) {
+            return coordinates;
+        }
+        if ( settings.pointsSidecar == null ) {
+            throw new IOException( filePath + " refers to points in a sidecar, but doesn't name the sidecar file" );
+        }
+        return PointsSidecar.readCoordinates( new File( new File( filePath ).getAbsoluteFile().getParentFile(),
+                settings.pointsSidecar ) );
+    }
+
     private void loadImageSettings( Content imageContent, ImageContentSettings imageSettings ) {
         imageContent.setColor( imageSettings.imageColour );
         imageContent.setTransparency( imageSettings.imageTransparency );
@@ -63,25 +97,32 @@ public class SettingsReader {
 
         if ( !planeManager.isTrackingPlane() ) {
 
-            // setup plane settings
-            // make a copy, so not modifying as we loop
-            ArrayList<String> planeNames = new ArrayList<>( planeManager.getPlaneNames() );
-            for ( String planeName : planeNames ) {
-                planeManager.removeNamedPlane(planeName);
-            }
+            // one repaint, and plane meshes only created at the end - rather than for every plane and point
+            planeManager.beginBatch();
+            try {
+                // setup plane settings
+                // make a copy, so not modifying as we loop
+                ArrayList<String> planeNames = new ArrayList<>( planeManager.getPlaneNames() );
+                for ( String planeName : planeNames ) {
+                    planeManager.removeNamedPlane(planeName);
+                }
 
-            for ( PlaneSettings planeSettings: settings.planeNameToSettings.values() ) {
-                if ( planeSettings instanceof BlockPlaneSettings) {
-                    planeManager.addBlockPlane( (BlockPlaneSettings) planeSettings );
-                } else {
-                    planeManager.addPlane( planeSettings );
+                for ( PlaneSettings planeSettings: settings.planeNameToSettings.values() ) {
+                    if ( planeSettings instanceof BlockPlaneSettings) {
+                        planeManager.addBlockPlane( (BlockPlaneSettings) planeSettings );
+                    } else {
+                        planeManager.addPlane( planeSettings );
+                    }
                 }
-            }
 
-            // setup image settings
-            for ( ImageContentSettings imageSettings: settings.imageNameToSettings.values() ) {
-                loadImageSettings( imageNameToContent.get( imageSettings.name ), imageSettings );
+                // setup image settings
+                for ( ImageContentSettings imageSettings: settings.imageNameToSettings.values() ) {
+                    loadImageSettings( imageNameToContent.get( imageSettings.name ), imageSettings );
+                }
+            } finally {
+                planeManager.endBatch();
             }
+            planeManager.compactSessionJournal();
 
             if ( !otherPanel.check3DPointsVisible() ) {
                 otherPanel.toggleVisiblity3DPoints();
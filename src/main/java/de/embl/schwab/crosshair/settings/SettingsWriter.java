@@ -1,64 +1,142 @@
 package de.embl.schwab.crosshair.settings;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import de.embl.schwab.crosshair.plane.Plane;
+import de.embl.schwab.crosshair.io.IoHelper;
+import de.embl.schwab.crosshair.io.serialise.CrosshairGson;
+import de.embl.schwab.crosshair.io.serialise.PointsSidecar;
 import de.embl.schwab.crosshair.plane.PlaneManager;
+import ij.IJ;
+import ij.Prefs;
 import ij3d.Content;
+import net.imglib2.RealPoint;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 public class SettingsWriter {
 
+    // point lists with more points than this are written to the points sidecar, when writing compact settings
+    public static final int SIDECAR_THRESHOLD = 1000;
+    public static final String COMPACT_PREFERENCE = "crosshair.settings.saveCompact";
+
     public SettingsWriter() { }
 
+    // Whether settings saved from the Crosshair window are compact (see writeSettings)
+    public static boolean isSavingCompactSettings() {
+        return Prefs.get( COMPACT_PREFERENCE, false );
+    }
+
+    public static void setSavingCompactSettings( boolean saveCompact ) {
+        Prefs.set( COMPACT_PREFERENCE, saveCompact );
+    }
+
     public Settings createSettings(PlaneManager planeManager, Map<String, Content> imageNameToContent ) {
-        Settings settings = new Settings();
+        return SessionSnapshot.take( planeManager, imageNameToContent ).toSettings();
+    }
 
-        Map<String, PlaneSettings> planeSettingsMap = new HashMap<>();
-        for ( Plane plane: planeManager.getPlanes() ) {
-            planeSettingsMap.put( plane.getName(), plane.getSettings() );
+    public void writeSettings( Settings settings, String filePath ) {
+        writeSettings( settings, filePath, false );
+    }
+
+    // Compact settings have base64 LUTs, and large point lists in a binary sidecar next to the json
+    public void writeSettings( Settings settings, String filePath, boolean isCompact ) {
+        try {
+            saveSettings( settings, filePath, isCompact );
+        } catch (IOException e1) {
+            e1.printStackTrace();
         }
-        settings.planeNameToSettings = planeSettingsMap;
+    }
 
-        Map<String, ImageContentSettings> imageSettingsMap = new HashMap<>();
-        for ( String imageName: imageNameToContent.keySet() ) {
+    // As writeSettings, but throws on failure. Files are written atomically, and the json last, so a failed save
+    // leaves the previous json and the sidecar it refers to intact.
+    public void saveSettings( Settings settings, String filePath, boolean isCompact ) throws IOException {
+        File jsonFile = new File( filePath );
+        PointsSidecar sidecar = new PointsSidecar();
+        Settings settingsToWrite = isCompact ? moveLargePointListsToSidecar( settings, sidecar ) : settings;
+        Gson gson = isCompact ? CrosshairGson.getCompactGson() : CrosshairGson.getGson();
 
-            Content imageContent = imageNameToContent.get( imageName );
+        File sidecarFile = null;
+        if ( !sidecar.isEmpty() ) {
+            sidecarFile = PointsSidecar.getNewSidecarFile( jsonFile );
+            IoHelper.writeAtomically( sidecarFile, sidecar::write );
+            settingsToWrite.pointsSidecar = sidecarFile.getName();
+        }
 
-            // transfer function settings
-            int[] redLut = new int[256];
-            int[] greenLut = new int[256];
-            int[] blueLut = new int[256];
-            int[] alphaLut = new int[256];
+        try {
+            IoHelper.writeAtomically( jsonFile, file -> {
+                try ( BufferedWriter writer = new BufferedWriter( new FileWriter( file ) ) ) {
+                    gson.toJson( settingsToWrite, writer );
+                }
+            });
+        } catch ( IOException | RuntimeException e ) {
+            // nothing refers to the new sidecar
+            if ( sidecarFile != null ) {
+                Files.deleteIfExists( sidecarFile.toPath() );
+            }
+            throw e;
+        }
 
-            imageContent.getRedLUT(redLut);
-            imageContent.getGreenLUT(greenLut);
-            imageContent.getBlueLUT(blueLut);
-            imageContent.getAlphaLUT(alphaLut);
+        deleteUnusedSidecars( jsonFile, sidecarFile );
+    }
 
-            imageSettingsMap.put( imageName,
-                    new ImageContentSettings( imageName, imageContent.getTransparency(),
-                            imageContent.getColor(), redLut, greenLut, blueLut, alphaLut ) ) ;
+    // Once the new json is in place, sidecars from earlier saves (or saves that failed before writing their json) are
+    // no longer referred to. The save has succeeded either way, so failing to delete them is only logged.
+    private void deleteUnusedSidecars( File jsonFile, File sidecarFile ) {
+        for ( File file: PointsSidecar.findSidecarFiles( jsonFile ) ) {
+            if ( sidecarFile != null && file.getName().equals( sidecarFile.getName() ) ) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists( file.toPath() );
+            } catch ( IOException e ) {
+                IJ.log( "Couldn't delete unused points sidecar " + file + ": " + e.getMessage() );
+            }
         }
+    }
+
+    // Copy of the settings, with large point lists replaced by references to the sidecar
+    private Settings moveLargePointListsToSidecar( Settings settings, PointsSidecar sidecar ) {
+        Settings sidecarSettings = new Settings();
+        sidecarSettings.imageNameToSettings = settings.imageNameToSettings;
+        sidecarSettings.planeNameToSettings = new HashMap<>();
 
-        settings.imageNameToSettings = imageSettingsMap;
+        for ( Map.Entry<String, PlaneSettings> entry: settings.planeNameToSettings.entrySet() ) {
+            PlaneSettings planeSettings = entry.getValue();
+            PlaneSettings sidecarPlaneSettings;
+            if ( planeSettings instanceof BlockPlaneSettings ) {
+                BlockPlaneSettings blockPlaneSettings = (BlockPlaneSettings) planeSettings;
+                BlockPlaneSettings sidecarBlockPlaneSettings = new BlockPlaneSettings();
+                sidecarBlockPlaneSettings.vertices = moveToSidecar( blockPlaneSettings.vertices, sidecar );
+                sidecarBlockPlaneSettings.assignedVertices = blockPlaneSettings.assignedVertices;
+                sidecarPlaneSettings = sidecarBlockPlaneSettings;
+            } else {
+                sidecarPlaneSettings = new PlaneSettings();
+            }
 
-        return settings;
+            sidecarPlaneSettings.name = planeSettings.name;
+            sidecarPlaneSettings.normal = planeSettings.normal;
+            sidecarPlaneSettings.point = planeSettings.point;
+            sidecarPlaneSettings.color = planeSettings.color;
+            sidecarPlaneSettings.transparency = planeSettings.transparency;
+            sidecarPlaneSettings.isVisible = planeSettings.isVisible;
+            sidecarPlaneSettings.pointsToFitPlane = moveToSidecar( planeSettings.pointsToFitPlane, sidecar );
+            sidecarPlaneSettings.distanceBetweenPlanesThreshold = planeSettings.distanceBetweenPlanesThreshold;
+            sidecarSettings.planeNameToSettings.put( entry.getKey(), sidecarPlaneSettings );
+        }
+
+        return sidecarSettings;
     }
 
-    public void writeSettings( Settings settings, String filePath ) {
-        try {
-            FileWriter fileWriter = new FileWriter(filePath);
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson( settings, fileWriter);
-            fileWriter.flush();
-            fileWriter.close();
-        } catch (IOException e1) {
-            e1.printStackTrace();
+    private ArrayList<RealPoint> moveToSidecar( ArrayList<RealPoint> points, PointsSidecar sidecar ) {
+        if ( points == null || points.size() <= SIDECAR_THRESHOLD ) {
+            return points;
         }
+        return sidecar.addPoints( points );
     }
 }
@@ -0,0 +1,95 @@
+package de.embl.schwab.crosshair.solution;
+
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.utils.GeometryUtils;
+import de.embl.schwab.crosshair.utils.PrimitiveGeometryUtils;
+import net.imglib2.RealPoint;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.Map;
+
+// Finds the first vertex of the block face that the knife will touch, and its perpendicular distance to the
+// target plane. Neither depends on the solution rotation, only on the block vertices and target plane.
+class FirstTouchCalculator {
+
+    private VertexPoint firstTouchVertexPoint;
+    private final double[] firstTouchPoint;
+    private double perpendicularDistance;
+
+    // scratch arrays, re-used between calls so repeated calculations don't allocate
+    private final double[][] vertexPositions; // in order top left, top right, bottom left, bottom right
+    private final double[] normal;
+    private final double[] point;
+    private final double[] edgeVector;
+    private final double[] upVector;
+    private final double[] normalOutBlock;
+
+    private static final VertexPoint[] vertexOrder = new VertexPoint[] {
+            VertexPoint.TopLeft, VertexPoint.TopRight, VertexPoint.BottomLeft, VertexPoint.BottomRight };
+
+    FirstTouchCalculator() {
+        firstTouchPoint = new double[3];
+        vertexPositions = new double[4][3];
+        normal = new double[3];
+        point = new double[3];
+        edgeVector = new double[3];
+        upVector = new double[3];
+        normalOutBlock = new double[3];
+    }
+
+    VertexPoint getFirstTouchVertexPoint() {
+        return firstTouchVertexPoint;
+    }
+
+    double[] getFirstTouchPoint() {
+        return firstTouchPoint;
+    }
+
+    double getPerpendicularDistance() {
+        return perpendicularDistance;
+    }
+
+    // Compensate for offset between perpendicular distance and true N-S of microtome
+    // I believe this is just the angle of the knife in this scenario, as the knife was reset to true 0
+    static double calculateDistanceToCut( double perpendicularDistance, double knifeAngle ) {
+        return perpendicularDistance / Math.cos( GeometryUtils.convertToRadians( knifeAngle ) );
+    }
+
+    void calculate( Map<VertexPoint, RealPoint> assignedVertices, Vector3d targetNormal, Vector3d targetPoint ) {
+
+        for ( int i = 0; i < vertexOrder.length; i++ ) {
+            assignedVertices.get( vertexOrder[i] ).localize( vertexPositions[i] );
+        }
+        targetNormal.get( normal );
+        targetPoint.get( point );
+
+        // Calculate first point touched on block face
+        // Originally I did this by calculating perpendicular distance from target to each point (unsigned),
+        // and returning that with the largest. This fails for edge case where the target plane intersects the block
+        // plane within teh bounds of teh block face. e.g. you're chipping a corner off the block, or not going particularly deep
+        // so some of the block face remains. In this case, some vertices can be in front of the target plane and some behind,
+        // so absolute distance no longer works.
+        // To get around this, we calculate the signed distance (+ve in direction of normal pointing out of block face), and
+        // return the maximum.
+        PrimitiveGeometryUtils.normalize( normal );
+
+        // Normal pointing out of block face
+        double[] topLeft = vertexPositions[0];
+        double[] bottomLeft = vertexPositions[2];
+        double[] bottomRight = vertexPositions[3];
+        PrimitiveGeometryUtils.subtract( bottomRight, bottomLeft, edgeVector );
+        PrimitiveGeometryUtils.subtract( topLeft, bottomLeft, upVector );
+        PrimitiveGeometryUtils.cross( edgeVector, upVector, normalOutBlock );
+
+        // Signed distance
+        int maxDistanceIndex = PrimitiveGeometryUtils.indexSignedMinMaxPointsToPlane( point, normal,
+                vertexPositions, vertexPositions.length, normalOutBlock, true );
+
+        //  Assign first touch to point with maximum distance
+        firstTouchVertexPoint = vertexOrder[maxDistanceIndex];
+        System.arraycopy( vertexPositions[maxDistanceIndex], 0, firstTouchPoint, 0, 3 );
+
+        // Calculate perpendicular distance to target
+        perpendicularDistance = PrimitiveGeometryUtils.distanceFromPointToPlane( firstTouchPoint, normal, point );
+    }
+}
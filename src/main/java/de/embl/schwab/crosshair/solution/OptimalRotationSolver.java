@@ -0,0 +1,150 @@
+package de.embl.schwab.crosshair.solution;
+
+// Finds the solution rotation that minimises a chosen objective, while keeping tilt / knife within the
+// microtome limits. First evaluates a coarse grid over the full rotation range to find the best valid rotation,
+// then refines within the neighbouring grid cells: bisection to find any edge of the valid region, followed by a
+// golden section search of the objective.
+public class OptimalRotationSolver {
+
+    public static final double DEFAULT_GRID_STEP = 1;
+    public static final double DEFAULT_TOLERANCE = 1E-6;
+
+    private static final double GOLDEN_RATIO = (Math.sqrt(5) - 1) / 2;
+
+    private final SolutionSweeper sweeper;
+    private final double gridStep;
+    private final double tolerance;
+
+    private final double[] result;
+    private int numberOfEvaluations;
+
+    public OptimalRotationSolver( SolutionSweeper sweeper ) {
+        this( sweeper, DEFAULT_GRID_STEP, DEFAULT_TOLERANCE );
+    }
+
+    public OptimalRotationSolver( SolutionSweeper sweeper, double gridStep, double tolerance ) {
+        if ( gridStep <= 0 || tolerance <= 0 ) {
+            throw new UnsupportedOperationException( "Grid step and tolerance must be positive" );
+        }
+        this.sweeper = sweeper;
+        this.gridStep = gridStep;
+        this.tolerance = tolerance;
+        this.result = new double[3];
+    }
+
+    // number of rotations evaluated in the last call to findOptimalRotation
+    public int getNumberOfEvaluations() {
+        return numberOfEvaluations;
+    }
+
+    // Returns optimal rotation in degrees (-180 to 180), or NaN if no rotation gives a valid solution
+    public double findOptimalRotation( SolutionObjective objective ) {
+        numberOfEvaluations = 0;
+
+        // Coarse grid over the full rotation range
+        int nSteps = (int) Math.ceil( 360 / gridStep );
+        double bestRotation = Double.NaN;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for ( int i = 0; i < nSteps; i++ ) {
+            double rotation = -180 + i * gridStep;
+            double cost = evaluateCost( rotation, objective );
+            if ( cost < bestCost ) {
+                bestCost = cost;
+                bestRotation = rotation;
+            }
+        }
+
+        if ( Double.isNaN( bestRotation ) ) {
+            return Double.NaN;
+        }
+
+        // Bracket the optimum by the neighbouring grid points. If either neighbour is invalid, shrink the bracket
+        // to the edge of the valid region, so the objective is only searched where solutions are valid.
+        double lower = bestRotation - gridStep;
+        double upper = bestRotation + gridStep;
+        if ( !isValid( lower ) ) {
+            lower = findValidBoundary( lower, bestRotation );
+        }
+        if ( !isValid( upper ) ) {
+            upper = findValidBoundary( upper, bestRotation );
+        }
+
+        double refinedRotation = goldenSectionSearch( lower, upper, objective );
+
+        // Optimum can lie on the edge of the bracket, so keep whichever candidate is best
+        double[] candidates = new double[]{refinedRotation, lower, upper, bestRotation};
+        for ( double candidate: candidates ) {
+            double cost = evaluateCost( candidate, objective );
+            if ( cost < bestCost ) {
+                bestCost = cost;
+                bestRotation = candidate;
+            }
+        }
+
+        return wrapRotation( bestRotation );
+    }
+
+    // Cost of the given objective, or infinity if the solution is invalid
+    private double evaluateCost( double rotation, SolutionObjective objective ) {
+        sweeper.evaluate( rotation, result );
+        numberOfEvaluations++;
+        if ( !SolutionAngles.isValid( result[0], result[1] ) ) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return objective.calculateCost( result[0], result[1], result[2] );
+    }
+
+    private boolean isValid( double rotation ) {
+        sweeper.evaluate( rotation, result );
+        numberOfEvaluations++;
+        return SolutionAngles.isValid( result[0], result[1] );
+    }
+
+    // Bisection between an invalid and valid rotation, returning the valid rotation closest to the boundary
+    private double findValidBoundary( double invalidRotation, double validRotation ) {
+        while ( Math.abs( validRotation - invalidRotation ) > tolerance ) {
+            double middle = (validRotation + invalidRotation) / 2;
+            if ( isValid( middle ) ) {
+                validRotation = middle;
+            } else {
+                invalidRotation = middle;
+            }
+        }
+        return validRotation;
+    }
+
+    private double goldenSectionSearch( double lower, double upper, SolutionObjective objective ) {
+        double x1 = upper - GOLDEN_RATIO * (upper - lower);
+        double x2 = lower + GOLDEN_RATIO * (upper - lower);
+        double cost1 = evaluateCost( x1, objective );
+        double cost2 = evaluateCost( x2, objective );
+
+        while ( upper - lower > tolerance ) {
+            if ( cost1 <= cost2 ) {
+                upper = x2;
+                x2 = x1;
+                cost2 = cost1;
+                x1 = upper - GOLDEN_RATIO * (upper - lower);
+                cost1 = evaluateCost( x1, objective );
+            } else {
+                lower = x1;
+                x1 = x2;
+                cost1 = cost2;
+                x2 = lower + GOLDEN_RATIO * (upper - lower);
+                cost2 = evaluateCost( x2, objective );
+            }
+        }
+
+        return (lower + upper) / 2;
+    }
+
+    // bracket may extend past +-180, so map back to the same range as the solution rotation slider
+    private double wrapRotation( double rotation ) {
+        if ( rotation > 180 ) {
+            return rotation - 360;
+        } else if ( rotation < -180 ) {
+            return rotation + 360;
+        }
+        return rotation;
+    }
+}
@@ -0,0 +1,56 @@
+package de.embl.schwab.crosshair.solution;
+
+import de.embl.schwab.crosshair.utils.GeometryUtils;
+
+import static java.lang.Math.*;
+
+// Closed form solution for the microtome tilt and knife angles at a given solution rotation.
+// The coefficients only depend on the initial knife / tilt angles and the initial target offset / tilt,
+// so they are calculated once and can then be re-used for any number of rotations.
+class SolutionAngles {
+
+    // Limits of the microtome, solutions outside these are not valid
+    static final double MAX_ABSOLUTE_TILT = 20;
+    static final double MAX_ABSOLUTE_KNIFE = 30;
+
+    private final double A;
+    private final double E;
+    private final double F;
+    private final double G;
+    private final double H;
+    private final double I;
+
+    SolutionAngles( double initialTiltAngle, double initialKnifeAngle,
+                    double initialTargetOffset, double initialTargetTilt ) {
+        double iTilt = GeometryUtils.convertToRadians( initialTiltAngle );
+        double iKnife = GeometryUtils.convertToRadians( initialKnifeAngle );
+        double tOffset = GeometryUtils.convertToRadians( initialTargetOffset );
+        double tRotation = GeometryUtils.convertToRadians( initialTargetTilt );
+
+        A = cos(iKnife + tOffset);
+        E = cos(tRotation)*sin(iKnife + tOffset);
+        F = sin(iTilt)*cos(tRotation);
+        G = sin(tRotation)*cos(iTilt);
+        H = sin(iTilt)*sin(tRotation);
+        I = cos(iTilt)*cos(tRotation);
+    }
+
+    // solution tilt in degrees, for a rotation given as the sin / cos of the rotation angle in radians
+    double calculateTilt( double sinRot, double cosRot ) {
+        double solTilt = atan(((-A*F + G)/(-A*I -H))*cosRot + ((E/(-A*I - H))*sinRot));
+        return GeometryUtils.convertToDegrees(solTilt);
+    }
+
+    // solution knife in degrees, for a rotation given as the sin / cos of the rotation angle in radians
+    double calculateKnife( double sinRot, double cosRot ) {
+        double AIH = A*I + H;
+        double other = E*sinRot + (-A*F + G)*cosRot;
+        double solKnife = atan(AIH*(E*cosRot + (A*F - G)*sinRot)/(sqrt(AIH*AIH + other*other)*abs(AIH)));
+        return GeometryUtils.convertToDegrees(solKnife);
+    }
+
+    static boolean isValid( double tilt, double knife ) {
+        return !(tilt < -MAX_ABSOLUTE_TILT | tilt > MAX_ABSOLUTE_TILT |
+                knife < -MAX_ABSOLUTE_KNIFE | knife > MAX_ABSOLUTE_KNIFE);
+    }
+}
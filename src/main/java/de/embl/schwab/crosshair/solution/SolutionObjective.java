@@ -0,0 +1,41 @@
+package de.embl.schwab.crosshair.solution;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.min;
+
+// Objectives for choosing the best solution rotation. Each gives a cost to minimise for a given solution.
+public enum SolutionObjective {
+    MinDistanceToCut,
+    MinAbsoluteKnife,
+    MaxMarginFromLimits;
+
+    @Override
+    public String toString() {
+        switch(this) {
+            case MinDistanceToCut:
+                return "Min Distance To Cut";
+            case MinAbsoluteKnife:
+                return "Min Absolute Knife";
+            case MaxMarginFromLimits:
+                return "Max Margin From Limits";
+            default:
+                throw new UnsupportedOperationException("Unknown objective");
+        }
+    }
+
+    double calculateCost( double tilt, double knife, double distanceToCut ) {
+        switch(this) {
+            case MinDistanceToCut:
+                return distanceToCut;
+            case MinAbsoluteKnife:
+                return abs( knife );
+            case MaxMarginFromLimits:
+                // margin (in degrees) from the closest of the tilt / knife limits
+                double margin = min( SolutionAngles.MAX_ABSOLUTE_TILT - abs( tilt ),
+                        SolutionAngles.MAX_ABSOLUTE_KNIFE - abs( knife ) );
+                return -margin;
+            default:
+                throw new UnsupportedOperationException("Unknown objective");
+        }
+    }
+}
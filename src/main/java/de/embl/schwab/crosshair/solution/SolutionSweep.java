@@ -0,0 +1,86 @@
+package de.embl.schwab.crosshair.solution;
+
+import de.embl.schwab.crosshair.points.VertexPoint;
+
+// Table of solutions, one row per evaluated solution rotation. Values are kept in primitive arrays so large sweeps
+// (e.g. 0.01 degree steps over the full rotation range) stay compact.
+public class SolutionSweep {
+
+    private final double initialKnifeAngle;
+    private final double initialTiltAngle;
+    private final double[] rotations;
+    private final double[] tilts;
+    private final double[] knives;
+    private final double[] distancesToCut;
+    private final boolean[] valid;
+    // The first touch vertex doesn't depend on the rotation, so is the same for every row
+    private final VertexPoint firstTouch;
+
+    SolutionSweep( double initialKnifeAngle, double initialTiltAngle, double[] rotations, double[] tilts,
+                   double[] knives, double[] distancesToCut, boolean[] valid, VertexPoint firstTouch ) {
+        this.initialKnifeAngle = initialKnifeAngle;
+        this.initialTiltAngle = initialTiltAngle;
+        this.rotations = rotations;
+        this.tilts = tilts;
+        this.knives = knives;
+        this.distancesToCut = distancesToCut;
+        this.valid = valid;
+        this.firstTouch = firstTouch;
+    }
+
+    public int size() {
+        return rotations.length;
+    }
+
+    public double getInitialKnifeAngle() {
+        return initialKnifeAngle;
+    }
+
+    public double getInitialTiltAngle() {
+        return initialTiltAngle;
+    }
+
+    public double getRotation( int i ) {
+        return rotations[i];
+    }
+
+    public double getTilt( int i ) {
+        return tilts[i];
+    }
+
+    public double getKnife( int i ) {
+        return knives[i];
+    }
+
+    public double getDistanceToCut( int i ) {
+        return distancesToCut[i];
+    }
+
+    public boolean isValid( int i ) {
+        return valid[i];
+    }
+
+    public VertexPoint getFirstTouch( int i ) {
+        return firstTouch;
+    }
+
+    public VertexPoint getFirstTouch() {
+        return firstTouch;
+    }
+
+    public int getNumberOfValidSolutions() {
+        int count = 0;
+        for ( boolean isValid: valid ) {
+            if ( isValid ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // note this rounds values to 4dp for nicer formatting when saving, don't use these values directly for calculations
+    public Solution getSolution( int i, String unit ) {
+        return new Solution( initialKnifeAngle, initialTiltAngle, knives[i], tilts[i], rotations[i],
+                firstTouch, distancesToCut[i], unit );
+    }
+}
@@ -0,0 +1,146 @@
+package de.embl.schwab.crosshair.solution;
+
+import de.embl.schwab.crosshair.Crosshair;
+import de.embl.schwab.crosshair.microtome.TargetOffsetAndTilt;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.settings.BlockPlaneSettings;
+import de.embl.schwab.crosshair.settings.PlaneSettings;
+import de.embl.schwab.crosshair.settings.Settings;
+import de.embl.schwab.crosshair.utils.GeometryUtils;
+import net.imglib2.RealPoint;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.Map;
+
+// Headless version of the SolutionsCalculator - calculates solutions directly from the block / target settings,
+// without needing a microtome, 3D viewer or bdv. Everything that doesn't depend on the solution rotation
+// (target offset / tilt, first touch vertex, perpendicular distance to target) is calculated once on construction,
+// so evaluating many rotations is cheap.
+public class SolutionSweeper {
+
+    public static final double DEFAULT_MIN_ROTATION = -180;
+    public static final double DEFAULT_MAX_ROTATION = 180;
+    public static final double DEFAULT_ROTATION_STEP = 0.01;
+
+    private final double initialKnifeAngle;
+    private final double initialTiltAngle;
+
+    private final SolutionAngles solutionAngles;
+    private final VertexPoint firstTouch;
+    private final double perpendicularDistance;
+
+    public SolutionSweeper( Settings settings, double initialKnifeAngle, double initialTiltAngle ) {
+        this( getBlockSettings( settings ), getTargetSettings( settings ), initialKnifeAngle, initialTiltAngle );
+    }
+
+    private SolutionSweeper( BlockPlaneSettings blockSettings, PlaneSettings targetSettings,
+                            double initialKnifeAngle, double initialTiltAngle ) {
+        this( blockSettings.assignedVertices, blockSettings.normal, targetSettings.normal, targetSettings.point,
+                initialKnifeAngle, initialTiltAngle );
+    }
+
+    public SolutionSweeper( Map<VertexPoint, RealPoint> assignedVertices, Vector3d blockNormal,
+                            Vector3d targetNormal, Vector3d targetPoint,
+                            double initialKnifeAngle, double initialTiltAngle ) {
+        for ( VertexPoint vertexPoint: VertexPoint.values() ) {
+            if ( !assignedVertices.containsKey( vertexPoint ) ) {
+                throw new UnsupportedOperationException( "All block vertices must be assigned to calculate solutions" );
+            }
+        }
+
+        this.initialKnifeAngle = initialKnifeAngle;
+        this.initialTiltAngle = initialTiltAngle;
+
+        TargetOffsetAndTilt targetOffsetAndTilt = new TargetOffsetAndTilt( assignedVertices, blockNormal, targetNormal );
+        solutionAngles = new SolutionAngles( initialTiltAngle, initialKnifeAngle,
+                targetOffsetAndTilt.targetOffset, targetOffsetAndTilt.targetTilt );
+
+        FirstTouchCalculator firstTouchCalculator = new FirstTouchCalculator();
+        firstTouchCalculator.calculate( assignedVertices, targetNormal, targetPoint );
+        firstTouch = firstTouchCalculator.getFirstTouchVertexPoint();
+        perpendicularDistance = firstTouchCalculator.getPerpendicularDistance();
+    }
+
+    private static BlockPlaneSettings getBlockSettings( Settings settings ) {
+        PlaneSettings blockSettings = settings.planeNameToSettings.get( Crosshair.block );
+        if ( !(blockSettings instanceof BlockPlaneSettings) || blockSettings.normal == null ) {
+            throw new UnsupportedOperationException( "Settings contain no block plane" );
+        }
+        return (BlockPlaneSettings) blockSettings;
+    }
+
+    private static PlaneSettings getTargetSettings( Settings settings ) {
+        PlaneSettings targetSettings = settings.planeNameToSettings.get( Crosshair.target );
+        if ( targetSettings == null || targetSettings.normal == null || targetSettings.point == null ) {
+            throw new UnsupportedOperationException( "Settings contain no target plane" );
+        }
+        return targetSettings;
+    }
+
+    public double getInitialKnifeAngle() {
+        return initialKnifeAngle;
+    }
+
+    public double getInitialTiltAngle() {
+        return initialTiltAngle;
+    }
+
+    public VertexPoint getFirstTouch() {
+        return firstTouch;
+    }
+
+    // Evaluate a single rotation (degrees), writing tilt, knife and distance to cut into result
+    void evaluate( double rotation, double[] result ) {
+        double rot = GeometryUtils.convertToRadians( rotation );
+        double sinRot = Math.sin( rot );
+        double cosRot = Math.cos( rot );
+        result[0] = solutionAngles.calculateTilt( sinRot, cosRot );
+        result[1] = solutionAngles.calculateKnife( sinRot, cosRot );
+        result[2] = FirstTouchCalculator.calculateDistanceToCut( perpendicularDistance, result[1] );
+    }
+
+    // note this rounds values to 4dp for nicer formatting when saving, don't use these values directly for calculations
+    public Solution getSolution( double rotation, String unit ) {
+        double[] result = new double[3];
+        evaluate( rotation, result );
+        return new Solution( initialKnifeAngle, initialTiltAngle, result[1], result[0], rotation,
+                firstTouch, result[2], unit );
+    }
+
+    public SolutionSweep sweep() {
+        return sweep( DEFAULT_MIN_ROTATION, DEFAULT_MAX_ROTATION, DEFAULT_ROTATION_STEP );
+    }
+
+    // Evaluate all rotations from minRotation to maxRotation (inclusive) in steps of rotationStep, all in degrees
+    public SolutionSweep sweep( double minRotation, double maxRotation, double rotationStep ) {
+        if ( rotationStep <= 0 ) {
+            throw new UnsupportedOperationException( "Rotation step must be positive" );
+        }
+        if ( maxRotation < minRotation ) {
+            throw new UnsupportedOperationException( "Max rotation must not be smaller than min rotation" );
+        }
+
+        // small tolerance so e.g. 360/0.01 doesn't lose the last step to rounding error
+        int nRotations = (int) Math.floor( (maxRotation - minRotation) / rotationStep + 1E-9 ) + 1;
+        double[] rotations = new double[nRotations];
+        double[] tilts = new double[nRotations];
+        double[] knives = new double[nRotations];
+        double[] distancesToCut = new double[nRotations];
+        boolean[] valid = new boolean[nRotations];
+
+        double[] result = new double[3];
+        for ( int i = 0; i < nRotations; i++ ) {
+            // calculate from the index, rather than accumulating steps, to avoid drift
+            double rotation = minRotation + i * rotationStep;
+            evaluate( rotation, result );
+            rotations[i] = rotation;
+            tilts[i] = result[0];
+            knives[i] = result[1];
+            distancesToCut[i] = result[2];
+            valid[i] = SolutionAngles.isValid( result[0], result[1] );
+        }
+
+        return new SolutionSweep( initialKnifeAngle, initialTiltAngle, rotations, tilts, knives, distancesToCut,
+                valid, firstTouch );
+    }
+}
@@ -2,8 +2,9 @@ package de.embl.schwab.crosshair.solution;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import de.embl.schwab.crosshair.solution.Solution;
+import de.embl.schwab.crosshair.io.IoHelper;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 
@@ -19,14 +20,21 @@ public class SolutionWriter {
 
     public void writeSolution() {
         try {
-            FileWriter fileWriter = new FileWriter(filePath);
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson( solution, fileWriter);
-            fileWriter.flush();
-            fileWriter.close();
+            saveSolution();
         } catch (IOException e1) {
             e1.printStackTrace();
         }
     }
 
+    // As writeSolution, but throws on failure. The file is written atomically, so a failed save never leaves a
+    // half-written solution.
+    public void saveSolution() throws IOException {
+        IoHelper.writeAtomically( new File( filePath ), file -> {
+            try ( FileWriter fileWriter = new FileWriter( file ) ) {
+                Gson gson = new GsonBuilder().setPrettyPrinting().create();
+                gson.toJson( solution, fileWriter );
+            }
+        });
+    }
+
 }
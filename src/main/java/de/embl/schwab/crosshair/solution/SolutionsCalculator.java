@@ -9,7 +9,6 @@ import de.embl.schwab.crosshair.utils.GeometryUtils;
 import net.imglib2.RealPoint;
 import org.scijava.vecmath.Vector3d;
 
-import java.util.ArrayList;
 import java.util.Map;
 
 import static java.lang.Math.*;
@@ -29,10 +28,17 @@ public class SolutionsCalculator {
     private Vector3d solutionFirstTouchPoint;
     private double distanceToCut;
 
+    private final FirstTouchCalculator firstTouchCalculator;
+
+    // closed form coefficients, only re-calculated when the initial angles change
+    private SolutionAngles solutionAngles;
+    private double[] solutionAnglesInputs;
+
     public SolutionsCalculator( Microtome microtome ) {
         this.microtome = microtome;
         this.planeManager = microtome.getPlaneManager();
         solutionFirstTouchPoint = new Vector3d();
+        firstTouchCalculator = new FirstTouchCalculator();
         validSolution = false;
     }
 
@@ -75,108 +81,34 @@ public class SolutionsCalculator {
     }
 
     private void checkSolutionValid () {
-        if (solutionTilt < -20 | solutionTilt > 20 | solutionKnife < -30 | solutionKnife > 30) {
-            validSolution = false;
-        } else {
-            validSolution = true;
-        }
+        validSolution = SolutionAngles.isValid( solutionTilt, solutionKnife );
     }
 
     private void calculateRotations( double solutionRotation, double initialTiltAngle, double initialKnifeAngle,
                                      double initialTargetOffset, double initialTargetTilt ) {
         this.solutionRotation = solutionRotation;
         double rot = GeometryUtils.convertToRadians(solutionRotation);
-        double iTilt = GeometryUtils.convertToRadians( initialTiltAngle );
-        double iKnife = GeometryUtils.convertToRadians( initialKnifeAngle );
-        double tOffset = GeometryUtils.convertToRadians( initialTargetOffset );
-        double tRotation = GeometryUtils.convertToRadians( initialTargetTilt );
-
-        double A = cos(iKnife + tOffset);
-        double B =  sin(tRotation)*sin(iKnife + tOffset);
-        double C = sin(iTilt)*sin(iKnife+tOffset);
-        double D = cos(iTilt)*sin(iKnife+tOffset);
-        double E = cos(tRotation)*sin(iKnife+tOffset);
-        double F = sin(iTilt)*cos(tRotation);
-        double G = sin(tRotation)*cos(iTilt);
-        double H = sin(iTilt)*sin(tRotation);
-        double I = cos(iTilt)*cos(tRotation);
-
-        double solTilt = atan(((-A*F + G)/(-A*I -H))*cos(rot) + ((E/(-A*I - H))*sin(rot)));
-        this.solutionTilt = GeometryUtils.convertToDegrees(solTilt);
-
-        double solKnife = atan((A*I + H)*(E*cos(rot) + (A*F - G)*sin(rot))/(sqrt(pow(A*I + H, 2) + pow(E*sin(rot) + (-A*F + G)*cos(rot), 2))*abs(A*I + H)));
-        this.solutionKnife = GeometryUtils.convertToDegrees(solKnife);
+
+        if ( solutionAngles == null || solutionAnglesInputs[0] != initialTiltAngle ||
+                solutionAnglesInputs[1] != initialKnifeAngle || solutionAnglesInputs[2] != initialTargetOffset ||
+                solutionAnglesInputs[3] != initialTargetTilt ) {
+            solutionAngles = new SolutionAngles( initialTiltAngle, initialKnifeAngle,
+                    initialTargetOffset, initialTargetTilt );
+            solutionAnglesInputs = new double[] {initialTiltAngle, initialKnifeAngle,
+                    initialTargetOffset, initialTargetTilt};
+        }
+        double sinRot = sin(rot);
+        double cosRot = cos(rot);
+        this.solutionTilt = solutionAngles.calculateTilt( sinRot, cosRot );
+        this.solutionKnife = solutionAngles.calculateKnife( sinRot, cosRot );
     }
 
     private void calculateDistance( Map<VertexPoint, RealPoint> assignedVertices, Vector3d targetNormal,
                                    Vector3d targetPoint, double knifeAngle )  {
-
-        double[] topLeft = new double[3];
-        double[] topRight = new double[3];
-        double[] bottomLeft = new double[3];
-        double[] bottomRight = new double[3];
-        assignedVertices.get( VertexPoint.TopLeft ).localize(topLeft);
-        assignedVertices.get( VertexPoint.TopRight ).localize(topRight);
-        assignedVertices.get( VertexPoint.BottomLeft ).localize(bottomLeft);
-        assignedVertices.get( VertexPoint.BottomRight ).localize(bottomRight);
-
-        // Calculate first point touched on block face
-        // Originally I did this by calculating perpendicular distance from target to each point (unsigned),
-        // and returning that with the largest. This fails for edge case where the target plane intersects the block
-        // plane within teh bounds of teh block face. e.g. you're chipping a corner off the block, or not going particularly deep
-        // so some of the block face remains. In this case, some vertices can be in front of the target plane and some behind,
-        // so absolute distance no longer works.
-        // To get around this, we calculate the signed distance (+ve in direction of normal pointing out of block face), and
-        // return the maximum.
-
-        // all points as vectors
-        targetNormal.normalize();
-        Vector3d topLeftV = new Vector3d(topLeft);
-        Vector3d topRightV = new Vector3d(topRight);
-        Vector3d bottomLeftV = new Vector3d(bottomLeft);
-        Vector3d bottomRightV = new Vector3d(bottomRight);
-
-        // Normal pointing out of block face
-        Vector3d edgeVector = new Vector3d();
-        edgeVector.sub(bottomRightV, bottomLeftV);
-
-        Vector3d upVector = new Vector3d();
-        upVector.sub(topLeftV, bottomLeftV);
-
-        Vector3d normalOutBlock = new Vector3d();
-        normalOutBlock.cross(edgeVector, upVector);
-
-        // Signed distance
-        ArrayList<Vector3d> allVertices = new ArrayList<>();
-        allVertices.add(topLeftV);
-        allVertices.add(topRightV);
-        allVertices.add(bottomLeftV);
-        allVertices.add(bottomRightV);
-        int maxDistanceIndex = GeometryUtils.indexSignedMinMaxPointsToPlane(targetPoint, targetNormal, allVertices, normalOutBlock, "max");
-
-        //  Assign first touch to point with maximum distance
-        if (maxDistanceIndex == 0) {
-            solutionFirstTouchPoint.set(topLeft);
-            solutionFirstTouchVertexPoint = VertexPoint.TopLeft;
-        } else if (maxDistanceIndex == 1) {
-            solutionFirstTouchPoint.set(topRight);
-            solutionFirstTouchVertexPoint = VertexPoint.TopRight;
-        } else if (maxDistanceIndex == 2) {
-            solutionFirstTouchPoint.set(bottomLeft);
-            solutionFirstTouchVertexPoint = VertexPoint.BottomLeft;
-        } else if (maxDistanceIndex == 3) {
-            solutionFirstTouchPoint.set(bottomRight);
-            solutionFirstTouchVertexPoint = VertexPoint.BottomRight;
-        }
-
-        // Calculate perpendicular distance to target
-        Vector3d firstTouchToTarget = new Vector3d();
-        firstTouchToTarget.sub(targetPoint, solutionFirstTouchPoint);
-        double perpDist = abs(firstTouchToTarget.dot(targetNormal));
-
-        // Compensate for offset between perpendicular distance and true N-S of microtome
-        // I believe this is just the angle of the knife in this scenario, as the knife was reset to true 0
-        double NSDist = perpDist / cos( GeometryUtils.convertToRadians( knifeAngle ));
-        distanceToCut = NSDist;
+        firstTouchCalculator.calculate( assignedVertices, targetNormal, targetPoint );
+        solutionFirstTouchVertexPoint = firstTouchCalculator.getFirstTouchVertexPoint();
+        solutionFirstTouchPoint.set( firstTouchCalculator.getFirstTouchPoint() );
+        distanceToCut = FirstTouchCalculator.calculateDistanceToCut(
+                firstTouchCalculator.getPerpendicularDistance(), knifeAngle );
     }
 }
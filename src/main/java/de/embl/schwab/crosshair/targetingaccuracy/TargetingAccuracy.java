@@ -5,7 +5,6 @@ import bdv.spimdata.XmlIoSpimDataMinimal;
 import bdv.util.BdvFunctions;
 import bdv.util.BdvOptions;
 import bdv.util.BdvStackSource;
-import bdv.viewer.Source;
 import de.embl.cba.bdv.utils.sources.LazySpimSource;
 import de.embl.schwab.crosshair.Crosshair;
 import de.embl.schwab.crosshair.settings.Settings;
@@ -14,12 +13,13 @@ import de.embl.schwab.crosshair.plane.PlaneManager;
 import de.embl.schwab.crosshair.settings.PlaneSettings;
 import de.embl.schwab.crosshair.solution.Solution;
 import de.embl.schwab.crosshair.solution.SolutionReader;
+import de.embl.schwab.crosshair.volume.VolumeLevelOfDetail;
+import de.embl.schwab.crosshair.volume.VolumeUploader;
 import ij3d.Content;
 import ij3d.Image3DUniverse;
 import mpicbg.spim.data.SpimDataException;
 import mpicbg.spim.data.registration.ViewTransform;
 import net.imglib2.realtransform.AffineTransform3D;
-import net.imglib2.type.numeric.ARGBType;
 import org.scijava.java3d.Transform3D;
 
 import java.io.File;
@@ -27,7 +27,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static de.embl.cba.tables.ij3d.UniverseUtils.addSourceToUniverse;
 import static de.embl.schwab.crosshair.utils.Utils.spaceOutWindows;
 
 public class TargetingAccuracy {
@@ -52,22 +51,16 @@ public class TargetingAccuracy {
         } else {
 
             BdvStackSource beforeStackSource = BdvFunctions.show(beforeSource, 1);
-            beforeStackSource.setDisplayRange(0, 255);
             BdvStackSource afterStackSource = BdvFunctions.show(afterSource, 1, BdvOptions.options().addTo(beforeStackSource));
-            afterStackSource.setDisplayRange(0, 255);
 
             Image3DUniverse universe = new Image3DUniverse();
             universe.show();
 
             Map<String, Content> imageNameToContent = new HashMap<>();
-            Source[] sources = new Source[]{beforeSource, afterSource};
+            BdvStackSource[] stackSources = new BdvStackSource[]{beforeStackSource, afterStackSource};
             String[] sourceNames = new String[]{TargetingAccuracy.before, TargetingAccuracy.after};
-            for (int i = 0; i < sources.length; i++) {
-                // Set to arbitrary colour
-                ARGBType colour = new ARGBType(ARGBType.rgba(0, 0, 0, 0));
-                Content imageContent = addSourceToUniverse(universe, sources[i], 300 * 300 * 300, Content.VOLUME, colour, 0.7f, 0, 255);
-                // Reset colour to default for 3D viewer
-                imageContent.setColor(null);
+            for (int i = 0; i < stackSources.length; i++) {
+                Content imageContent = VolumeUploader.addToUniverseWithEstimatedDisplayRange( stackSources[i], universe, 0.7f );
                 imageContent.setLocked(true);
                 imageContent.showPointList(true);
                 universe.getPointListDialog().setVisible(false);
@@ -80,6 +73,11 @@ public class TargetingAccuracy {
             // we use the before image content to define the extent of the planes. The before x-ray should be the largest,
             // and so give an extent that covers both comfortably
             PlaneManager planeManager = new PlaneManager(beforeStackSource, universe, imageNameToContent.get( TargetingAccuracy.before ));
+            VolumeLevelOfDetail volumeLevelOfDetail = new VolumeLevelOfDetail( universe );
+            for ( Content imageContent: imageNameToContent.values() ) {
+                volumeLevelOfDetail.addContent( imageContent );
+            }
+            planeManager.setVolumeLevelOfDetail( volumeLevelOfDetail );
             new AccuracyBdvBehaviours( beforeStackSource.getBdvHandle(), planeManager );
 
             Solution solution = new SolutionReader().readSolution( crosshairSolutionJson.getAbsolutePath() );
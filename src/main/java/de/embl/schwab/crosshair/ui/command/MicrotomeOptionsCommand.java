@@ -0,0 +1,19 @@
+package de.embl.schwab.crosshair.ui.command;
+
+import de.embl.schwab.crosshair.microtome.MicrotomeMeshCache;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+// Microtome models are otherwise loaded the first time microtome mode is entered
+@Plugin(type = Command.class, menuPath = "Plugins>Crosshair>Options>Microtome Options" )
+public class MicrotomeOptionsCommand implements Command {
+
+    @Parameter(label="Load microtome models in the background on opening Crosshair")
+    public boolean preloadModels = MicrotomeMeshCache.isPreloadingModels();
+
+    @Override
+    public void run() {
+        MicrotomeMeshCache.setPreloadingModels( preloadModels );
+    }
+}
@@ -4,14 +4,12 @@ import bdv.util.BdvFunctions;
 import bdv.util.BdvStackSource;
 import de.embl.cba.bdv.utils.sources.LazySpimSource;
 import de.embl.schwab.crosshair.Crosshair;
-import ij3d.Content;
+import de.embl.schwab.crosshair.volume.VolumeUploader;
 import ij3d.Image3DUniverse;
-import net.imglib2.type.numeric.ARGBType;
 import org.scijava.command.Command;
 import org.scijava.plugin.Plugin;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import static de.embl.cba.tables.ij3d.UniverseUtils.addSourceToUniverse;
 
 @Plugin(type = Command.class, menuPath = "Plugins>Crosshair>Open>Target Bdv File" )
 public class OpenCrosshairFromBdvXmlCommand implements Command {
@@ -37,20 +35,15 @@ public class OpenCrosshairFromBdvXmlCommand implements Command {
     public void openPathInCrosshair() {
         final LazySpimSource imageSource = new LazySpimSource("raw", bdvXmlFilePath);
         BdvStackSource bdvStackSource = BdvFunctions.show(imageSource, 1);
-        bdvStackSource.setDisplayRange(0, 255);
 
         Image3DUniverse universe = new Image3DUniverse();
         universe.show();
 
         String unit = imageSource.getVoxelDimensions().unit();
 
-        // Set to arbitrary colour
-        ARGBType colour =  new ARGBType( ARGBType.rgba( 0, 0, 0, 0 ) );
-        Content imageContent = addSourceToUniverse(universe, imageSource, 300 * 300 * 300, Content.VOLUME, colour, 0.7f, 0, 255 );
-        // Reset colour to default for 3D viewer
-        imageContent.setColor(null);
-
-        new Crosshair(bdvStackSource, universe, imageContent, unit);
+        // reading the source into the 3D viewer is slow for large images, so it's done in the background
+        new Crosshair(bdvStackSource, universe,
+                () -> VolumeUploader.addToUniverseWithEstimatedDisplayRange( bdvStackSource, universe, 0.7f ), unit);
     }
 
     public static void main( String[] args ) {
@@ -4,9 +4,9 @@ import bdv.util.Bdv;
 import bdv.util.BdvFunctions;
 import bdv.util.BdvStackSource;
 import de.embl.schwab.crosshair.Crosshair;
+import de.embl.schwab.crosshair.volume.VolumeUploader;
 import ij.IJ;
 import ij.ImagePlus;
-import ij3d.Content;
 import ij3d.Image3DUniverse;
 import net.imglib2.img.Img;
 import net.imglib2.img.display.imagej.ImageJFunctions;
@@ -23,11 +23,11 @@ public class OpenCrosshairFromCurrentImageCommand implements Command
     @Override
     public void run()
     {
-        Image3DUniverse universe = new Image3DUniverse();
-        Content imageContent = universe.addContent(imagePlus, Content.VOLUME);
-        imageContent.setTransparency(0.7F);
-        universe.show();
+        openInCrosshair( imagePlus );
+    }
 
+    private static void openInCrosshair( ImagePlus imagePlus )
+    {
         final double pw = imagePlus.getCalibration().pixelWidth;
         final double ph = imagePlus.getCalibration().pixelHeight;
         final double pd = imagePlus.getCalibration().pixelDepth;
@@ -36,11 +36,14 @@ public class OpenCrosshairFromCurrentImageCommand implements Command
         final Img wrap = ImageJFunctions.wrap(imagePlus);
         BdvStackSource bdvStackSource = BdvFunctions.show(wrap, "raw", Bdv.options()
                 .sourceTransform(pw, ph, pd));
-        // TODO - make generic? Not just 8 bit
-        bdvStackSource.setDisplayRange(0, 255);
 
-        new Crosshair(bdvStackSource, universe, imageContent, unit);
+        Image3DUniverse universe = new Image3DUniverse();
+        universe.show();
 
+        // adding the volume to the 3D viewer is slow for large images, so it's done in the background.
+        // It's read through bdv, so images of any bit depth are converted to 8-bit on the fly
+        new Crosshair(bdvStackSource, universe,
+                () -> VolumeUploader.addToUniverseWithEstimatedDisplayRange( bdvStackSource, universe, 0.7f ), unit);
     }
 
     public static void main( String[] args )
@@ -48,23 +51,6 @@ public class OpenCrosshairFromCurrentImageCommand implements Command
         // final String INPUT_IMAGE = "C:\\Users\\meechan\\Documents\\test_3d_larger_anisotropic\\test_3d_larger_anisotropic.tif";
         final String INPUT_IMAGE = "C:\\Users\\meechan\\Documents\\test_images\\Flipped_images_before.tif";
         ImagePlus imagePlus = IJ.openImage(INPUT_IMAGE);
-        Image3DUniverse universe = new Image3DUniverse();
-        Content imageContent = universe.addContent(imagePlus, Content.VOLUME);
-        imageContent.setTransparency(0.7F);
-        universe.show();
-
-        final double pw = imagePlus.getCalibration().pixelWidth;
-        final double ph = imagePlus.getCalibration().pixelHeight;
-        final double pd = imagePlus.getCalibration().pixelDepth;
-        final String unit = imagePlus.getCalibration().getUnit();
-
-        final Img wrap = ImageJFunctions.wrap(imagePlus);
-        BdvStackSource bdvStackSource = BdvFunctions.show(wrap, "raw", Bdv.options()
-                .sourceTransform(pw, ph, pd));
-        // TODO - make generic? Not just 8 bit
-        bdvStackSource.setDisplayRange(0, 255);
-
-        new Crosshair(bdvStackSource, universe, imageContent, unit);
-
+        openInCrosshair( imagePlus );
     }
 }
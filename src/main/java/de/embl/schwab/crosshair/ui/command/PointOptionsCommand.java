@@ -0,0 +1,19 @@
+package de.embl.schwab.crosshair.ui.command;
+
+import de.embl.schwab.crosshair.points.overlays.Point3dOverlay;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+// Point meshes allow overlapping points and stay fast with many points - the point list is kept as a fallback
+@Plugin(type = Command.class, menuPath = "Plugins>Crosshair>Options>3D Point Options" )
+public class PointOptionsCommand implements Command {
+
+    @Parameter(label="Show 3D points as point meshes (applies to newly opened images)")
+    public boolean usePointMeshes = Point3dOverlay.isUsingPointMeshesByDefault();
+
+    @Override
+    public void run() {
+        Point3dOverlay.setUsingPointMeshesByDefault( usePointMeshes );
+    }
+}
@@ -0,0 +1,19 @@
+package de.embl.schwab.crosshair.ui.command;
+
+import de.embl.schwab.crosshair.settings.SettingsWriter;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+// Compact settings load faster with many points, but aren't all human-readable - both are always accepted on loading
+@Plugin(type = Command.class, menuPath = "Plugins>Crosshair>Options>Settings Options" )
+public class SettingsOptionsCommand implements Command {
+
+    @Parameter(label="Save compact settings (large point lists go in a binary .points file next to the json)")
+    public boolean saveCompact = SettingsWriter.isSavingCompactSettings();
+
+    @Override
+    public void run() {
+        SettingsWriter.setSavingCompactSettings( saveCompact );
+    }
+}
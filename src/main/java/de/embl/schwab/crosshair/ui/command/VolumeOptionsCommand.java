@@ -0,0 +1,31 @@
+package de.embl.schwab.crosshair.ui.command;
+
+import de.embl.schwab.crosshair.volume.VolumeLevelOfDetail;
+import de.embl.schwab.crosshair.volume.VolumeUploader;
+import ij.IJ;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+// The 3D viewer volume is held in graphics memory, so the largest size that stays responsive depends on the machine
+@Plugin(type = Command.class, menuPath = "Plugins>Crosshair>Options>3D Volume Options" )
+public class VolumeOptionsCommand implements Command {
+
+    @Parameter(label="Maximum voxels in 3D viewer (millions)")
+    public double voxelBudgetMillions = VolumeUploader.getDefaultVoxelBudget() / 1E6;
+
+    @Parameter(label="Show full detail after interaction stops for (ms)")
+    public int levelOfDetailIdleMillis = VolumeLevelOfDetail.getIdleDelayMillis();
+
+    @Override
+    public void run() {
+        if ( !( voxelBudgetMillions > 0 ) ) {
+            IJ.log("Maximum voxels must be greater than 0");
+        } else if ( levelOfDetailIdleMillis < 0 ) {
+            IJ.log("Time after interaction can't be negative");
+        } else {
+            VolumeUploader.setDefaultVoxelBudget( Math.round( voxelBudgetMillions * 1E6 ) );
+            VolumeLevelOfDetail.setIdleDelayMillis( levelOfDetailIdleMillis );
+        }
+    }
+}
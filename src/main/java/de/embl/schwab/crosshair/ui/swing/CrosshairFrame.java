@@ -1,12 +1,19 @@
 package de.embl.schwab.crosshair.ui.swing;
 
 import bdv.util.BdvHandle;
+import de.embl.schwab.crosshair.bdv.BdvBehaviours;
 import de.embl.schwab.crosshair.plane.PlaneManager;
 import de.embl.schwab.crosshair.microtome.MicrotomeManager;
+import de.embl.schwab.crosshair.settings.SessionJournal;
+import de.embl.schwab.crosshair.settings.SessionSnapshot;
+import ij.IJ;
 import ij3d.Content;
 import ij3d.Image3DUniverse;
 
 import javax.swing.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
 import java.util.ArrayList;
 
 public class CrosshairFrame extends JFrame {
@@ -15,6 +22,7 @@ public class CrosshairFrame extends JFrame {
     private Content imageContent;
     private PlaneManager planeManager;
     private MicrotomeManager microtomeManager;
+    private BdvBehaviours bdvBehaviours;
     private BdvHandle bdvHandle;
 
     private ImagesPanel imagesPanel;
@@ -24,16 +32,18 @@ public class CrosshairFrame extends JFrame {
     private MicrotomePanel microtomePanel;
     private SavePanel savePanel;
     private ArrayList<CrosshairPanel> allPanels;
+    private SessionJournal sessionJournal;
 
     private String unit;
 
     public CrosshairFrame(Image3DUniverse universe, Content imageContent, PlaneManager planeManager, MicrotomeManager microtomeManager,
-                          BdvHandle bdvHandle, String unit) {
+                          BdvBehaviours bdvBehaviours, BdvHandle bdvHandle, String unit) {
 
         this.universe = universe;
         this.imageContent = imageContent;
         this.planeManager = planeManager;
         this.microtomeManager = microtomeManager;
+        this.bdvBehaviours = bdvBehaviours;
         this.bdvHandle = bdvHandle;
         this.unit = unit;
 
@@ -80,6 +90,42 @@ public class CrosshairFrame extends JFrame {
         this.pack();
         this.setVisible( true );
 
+        sessionJournal = openSessionJournal();
+        this.addWindowListener( new WindowAdapter() {
+            @Override
+            public void windowClosed( WindowEvent e ) {
+                microtomeManager.shutdown();
+                bdvBehaviours.shutdown();
+                // closing Crosshair ends the session cleanly, so there's nothing to recover next time
+                sessionJournal.close( true );
+            }
+        });
+    }
+
+    // Offers to recover a session on the same image that wasn't closed cleanly (e.g. Fiji crashed), then journals
+    // all edits from now on
+    private SessionJournal openSessionJournal() {
+        File autosaveFile = SessionJournal.getAutosaveFile( imageContent.getName() );
+        if ( SessionJournal.hasRecoverableSession( autosaveFile ) ) {
+            if ( IJ.showMessageWithCancel( "Crosshair",
+                    "Crosshair wasn't closed properly the last time this image was open.\n" +
+                            "Recover the unsaved session?\n \n" +
+                            "If not, it's moved to " + SessionJournal.getPreviousSessionFile( autosaveFile ) +
+                            "\n(replacing any older session there), and a new session is started." ) ) {
+                SessionJournal.recoverSession( autosaveFile, planeManager, imagesPanel.getImageNameToContent(),
+                        otherPanel );
+            } else {
+                // the first snapshot below would otherwise replace it
+                SessionJournal.movePreviousSession( autosaveFile );
+            }
+        }
+
+        SessionJournal journal = new SessionJournal( autosaveFile,
+                () -> SessionSnapshot.take( planeManager, imagesPanel.getImageNameToContent() ) );
+        planeManager.setSessionJournal( journal );
+        // start from a snapshot of the current session
+        journal.compact();
+        return journal;
     }
 
     public ImagesPanel getImagesPanel() {
@@ -3,6 +3,7 @@ package de.embl.schwab.crosshair.ui.swing;
 import bdv.tools.brightness.SliderPanelDouble;
 import bdv.util.BoundedValueDouble;
 import de.embl.schwab.crosshair.Crosshair;
+import de.embl.schwab.crosshair.volume.VolumeLevelOfDetail;
 import ij3d.Content;
 import ij3d.Image3DUniverse;
 import org.scijava.vecmath.Color3f;
@@ -21,6 +22,7 @@ public class ImagesPanel extends CrosshairPanel {
     private Map<String, Content> imageNameToContent;
     private Image3DUniverse universe;
     private OtherPanel otherPanel;
+    private VolumeLevelOfDetail volumeLevelOfDetail; // null if no images have coarse copies
 
     public ImagesPanel() {}
 
@@ -43,9 +45,26 @@ public class ImagesPanel extends CrosshairPanel {
         Map<String, Content> imageNameToContent = new HashMap<>();
         imageNameToContent.put( Crosshair.image, crosshairFrame.getImageContent() );
 
+        volumeLevelOfDetail = crosshairFrame.getPlaneManager().getVolumeLevelOfDetail();
         initialisePanel( imageNameToContent, crosshairFrame.getPointsPanel(), crosshairFrame.getUniverse() );
     }
 
+    // coarse copies are swapped in while interacting, so check / change visibility through the level of detail
+    private boolean isImageVisible( Content imageContent ) {
+        if ( volumeLevelOfDetail != null ) {
+            return volumeLevelOfDetail.isVisible( imageContent );
+        }
+        return imageContent.isVisible();
+    }
+
+    private void setImageVisible( Content imageContent, boolean visible ) {
+        if ( volumeLevelOfDetail != null ) {
+            volumeLevelOfDetail.setVisible( imageContent, visible );
+        } else {
+            imageContent.setVisible( visible );
+        }
+    }
+
     public Map<String, Content> getImageNameToContent() {
         return imageNameToContent;
     }
@@ -77,15 +96,15 @@ public class ImagesPanel extends CrosshairPanel {
 
         visbilityButton.addActionListener(e -> {
             Content imageContent = imageNameToContent.get( imageName );
-            if ( imageContent.isVisible() ) {
-               imageContent.setVisible(false);
+            if ( isImageVisible( imageContent ) ) {
+                setImageVisible( imageContent, false );
                 // Making image content invisible, also makes 3d points invisible > reverse this
                 if ( otherPanel.check3DPointsVisible() ) {
                     imageContent.showPointList(true);
                     universe.getPointListDialog().setVisible(false);
                 }
             } else {
-                imageContent.setVisible(true);
+                setImageVisible( imageContent, true );
             }
         });
 
@@ -6,6 +6,7 @@ import de.embl.schwab.crosshair.Crosshair;
 import de.embl.schwab.crosshair.microtome.MicrotomeManager;
 import de.embl.schwab.crosshair.plane.PlaneManager;
 import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.solution.SolutionObjective;
 import ij.IJ;
 import net.imglib2.RealPoint;
 import org.apache.commons.math3.util.Precision;
@@ -45,6 +46,7 @@ public class MicrotomePanel extends CrosshairPanel {
     private JButton exitMicrotomeModeButton;
     private JButton enterCuttingModeButton;
     private JButton exitCuttingModeButton;
+    private JComboBox<SolutionObjective> solutionObjectiveComboBox;
 
     private JPanel cuttingControlsPanel;
     private JPanel cuttingUnitsPanel;
@@ -193,9 +195,29 @@ public class MicrotomePanel extends CrosshairPanel {
         rotationSolution =
                 addSliderToPanel(microtomeControls, "Solution Rotation", -180, 180, 0, solutionListener);
 
+        addOptimalSolutionPanel(microtomeControls);
+
         panel.add(microtomeControls);
     }
 
+    private void addOptimalSolutionPanel (JPanel panel) {
+        JPanel optimalSolutionPanel = new JPanel();
+        optimalSolutionPanel.setLayout(new GridLayout(1, 2));
+
+        solutionObjectiveComboBox = new JComboBox<>(SolutionObjective.values());
+        optimalSolutionPanel.add(solutionObjectiveComboBox);
+
+        JButton findOptimalSolutionButton = new JButton("Find Optimal Rotation");
+        findOptimalSolutionButton.addActionListener(e -> microtomeManager.setOptimalSolution(
+                (SolutionObjective) solutionObjectiveComboBox.getSelectedItem()));
+        optimalSolutionPanel.add(findOptimalSolutionButton);
+
+        panel.add(optimalSolutionPanel);
+
+        // shown / hidden along with the microtome sliders
+        sliderPanels.put("Optimal Solution", optimalSolutionPanel);
+    }
+
     private void addCuttingControlsPanel (JPanel panel) {
         cuttingControlsPanel = new JPanel();
         cuttingControlsPanel.setLayout(new BoxLayout(cuttingControlsPanel, BoxLayout.PAGE_AXIS));
@@ -372,13 +394,15 @@ public class MicrotomePanel extends CrosshairPanel {
 
     private void enterMicrotomeMode () {
         if ( checkAllCrosshairPlanesPointsDefined() ) {
+            double initialKnifeAngle = this.initialKnifeAngle.getCurrentValue();
+            double initialTiltAngle = this.initialTiltAngle.getCurrentValue();
+            if ( !microtomeManager.enterMicrotomeMode(initialKnifeAngle, initialTiltAngle) ) {
+                return;
+            }
             enterMicrotomeModeButton.setEnabled(false);
             exitMicrotomeModeButton.setEnabled(true);
             enterCuttingModeButton.setVisible(true);
             exitCuttingModeButton.setVisible(true);
-            double initialKnifeAngle = this.initialKnifeAngle.getCurrentValue();
-            double initialTiltAngle = this.initialTiltAngle.getCurrentValue();
-            microtomeManager.enterMicrotomeMode(initialKnifeAngle, initialTiltAngle);
             enableSliders();
             knifeAngle.setCurrentValue(initialKnifeAngle);
             tiltAngle.setCurrentValue(initialTiltAngle);
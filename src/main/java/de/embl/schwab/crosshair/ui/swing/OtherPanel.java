@@ -83,12 +83,14 @@ public class OtherPanel extends CrosshairPanel {
             for ( Content imageContent: imageContents ) {
                 imageContent.showPointList(false);
             }
+            planeManager.getPoint3dOverlay().setPointMeshesVisible(false);
             threeDPointsVisible = false;
         } else {
             for ( Content imageContent: imageContents ) {
                 imageContent.showPointList(true);
             }
             universe.getPointListDialog().setVisible(false);
+            planeManager.getPoint3dOverlay().setPointMeshesVisible(true);
             threeDPointsVisible = true;
         }
     }
@@ -135,7 +135,7 @@ import java.util.Map;
 
                     // check if there are already vertex points
                     Plane plane = planeManager.getPlane(planeName);
-                    if (plane instanceof BlockPlane && ((BlockPlane) plane).getVertexDisplay().getVertices().size() > 0) {
+                    if (plane instanceof BlockPlane && ((BlockPlane) plane).getVertexDisplay().getNumberOfVertices() > 0) {
                         int result = JOptionPane.showConfirmDialog(null, "If you track a block plane, you will lose all current vertex points. Continue?", "Are you sure?",
                                 JOptionPane.YES_NO_OPTION,
                                 JOptionPane.QUESTION_MESSAGE);
@@ -1,13 +1,15 @@
 package de.embl.schwab.crosshair.ui.swing;
 
 import de.embl.schwab.crosshair.Crosshair;
+import de.embl.schwab.crosshair.io.BackgroundIo;
 import de.embl.schwab.crosshair.microtome.MicrotomeManager;
 import de.embl.schwab.crosshair.plane.PlaneManager;
-import de.embl.schwab.crosshair.settings.Settings;
+import de.embl.schwab.crosshair.settings.SessionSnapshot;
 import de.embl.schwab.crosshair.settings.SettingsReader;
 import de.embl.schwab.crosshair.settings.SettingsWriter;
 import de.embl.schwab.crosshair.solution.Solution;
 import de.embl.schwab.crosshair.solution.SolutionWriter;
+import ij.IJ;
 import ij3d.Content;
 
 import javax.swing.*;
@@ -80,25 +82,48 @@ public class SavePanel extends CrosshairPanel {
         saveSolution.setEnabled(false);
     }
 
+    private void showSaveResult( String filePath, Throwable error ) {
+        if ( error != null ) {
+            IJ.showStatus( "" );
+            IJ.log( "Crosshair: couldn't save " + filePath + ": " + error.getMessage() );
+        } else {
+            IJ.showStatus( "Crosshair: saved " + filePath );
+        }
+    }
+
     class saveLoadListener implements ActionListener {
         public void actionPerformed(ActionEvent e) {
             if (e.getActionCommand().equals("save_settings")) {
 
                 String filePath = chooseSaveFilePath();
                 if ( filePath != null ) {
-                    SettingsWriter writer = new SettingsWriter();
-                    Settings settings = writer.createSettings( planeManager, imagesPanel.getImageNameToContent() );
-                    writer.writeSettings( settings, filePath );
+                    // edits made while saving don't affect the snapshot, so aren't saved
+                    SessionSnapshot snapshot = SessionSnapshot.take( planeManager,
+                            imagesPanel.getImageNameToContent() );
+                    boolean isCompact = SettingsWriter.isSavingCompactSettings();
+                    IJ.showStatus( "Crosshair: saving settings..." );
+                    BackgroundIo.submit( () -> {
+                        new SettingsWriter().saveSettings( snapshot.toSettings(), filePath, isCompact );
+                        return null;
+                    }, ( result, error ) -> showSaveResult( filePath, error ) );
                 }
 
             } else if (e.getActionCommand().equals("load_settings")) {
 
                 String filePath = chooseOpenFilePath();
                 if ( filePath != null ) {
+                    // read in the background, but only change the session on the EDT
                     SettingsReader reader = new SettingsReader();
-                    Settings settings = reader.readSettings( filePath );
-                    reader.loadSettings( settings, microtomeManager, microtomePanel, planeManager,
-                            imagesPanel.getImageNameToContent(), otherPanel );
+                    IJ.showStatus( "Crosshair: loading settings..." );
+                    BackgroundIo.submit( () -> reader.readSettings( filePath ), ( settings, error ) -> {
+                        IJ.showStatus( "" );
+                        if ( settings == null ) {
+                            IJ.log( "Crosshair: couldn't read settings from " + filePath );
+                        } else {
+                            reader.loadSettings( settings, microtomeManager, microtomePanel, planeManager,
+                                    imagesPanel.getImageNameToContent(), otherPanel );
+                        }
+                    });
                 }
 
             } else if (e.getActionCommand().equals("save_solution")) {
@@ -112,7 +137,11 @@ public class SavePanel extends CrosshairPanel {
                         microtomePanel.getRotationSolutionAngle().setCurrentValue(currentSolutionRot);
 
                         Solution solution = microtomeManager.getCurrentSolution();
-                        new SolutionWriter( solution, filePath ).writeSolution();
+                        IJ.showStatus( "Crosshair: saving solution..." );
+                        BackgroundIo.submit( () -> {
+                            new SolutionWriter( solution, filePath ).saveSolution();
+                            return null;
+                        }, ( result, error ) -> showSaveResult( filePath, error ) );
                     }
                 } else {
                     JOptionPane.showMessageDialog(null,
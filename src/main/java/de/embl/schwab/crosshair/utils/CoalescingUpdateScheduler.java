@@ -0,0 +1,209 @@
+package de.embl.schwab.crosshair.utils;
+
+import ij.IJ;
+
+import javax.swing.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Runs updates (e.g. redrawing the 3D viewer after a bdv transform change or slider move) at most once per display
+// frame.
+// Updates are scheduled with a key - if a new update arrives for a key before the previous one has run, the previous
+// one is dropped, so a burst of events only ever applies the latest state. Updates with different keys all run, in the
+// order they were first scheduled.
+// Each update is in two parts. Compute runs on a worker thread and does the slow part (e.g. calculating a plane's mesh)
+// from its own copy of the state it needs. Apply then runs on the EDT with compute's result, and only swaps it into
+// the planes, microtome and bdv / 3D viewer - these are also read and changed on the EDT, so it never sees a half
+// applied update, but it isn't blocked by computing one either.
+public class CoalescingUpdateScheduler {
+
+    public static final long DEFAULT_FRAME_INTERVAL_MILLIS = 16; // ~60 fps
+
+    private static final Object DEFAULT_KEY = new Object();
+
+    private final long frameIntervalNanos;
+    private final ScheduledExecutorService worker;
+    private volatile Thread workerThread;
+
+    private final Map<Object, Update<?>> pendingUpdates; // guarded by this, waiting to be computed
+    private final Map<Object, Runnable> computedUpdates; // guarded by this, waiting to be applied
+    private boolean isRunScheduled; // guarded by this
+    private boolean isApplyScheduled; // guarded by this
+    private boolean isShutdown; // guarded by this
+    private long generation; // guarded by this, changes whenever updates are dropped
+    private volatile long lastRunNanos;
+
+    private static class Update<T> {
+        private final Supplier<T> compute;
+        private final Consumer<T> apply;
+
+        Update( Supplier<T> compute, Consumer<T> apply ) {
+            this.compute = compute;
+            this.apply = apply;
+        }
+
+        // Computes the result, and returns what applies it
+        Runnable compute() {
+            T result = compute.get();
+            return () -> apply.accept( result );
+        }
+    }
+
+    public CoalescingUpdateScheduler() {
+        this( DEFAULT_FRAME_INTERVAL_MILLIS );
+    }
+
+    public CoalescingUpdateScheduler( long frameIntervalMillis ) {
+        this.frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos( frameIntervalMillis );
+        this.pendingUpdates = new LinkedHashMap<>();
+        this.computedUpdates = new LinkedHashMap<>();
+        this.isRunScheduled = false;
+        this.isApplyScheduled = false;
+        this.isShutdown = false;
+        this.generation = 0;
+        this.lastRunNanos = System.nanoTime() - frameIntervalNanos;
+        this.worker = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            workerThread = new Thread( runnable, "Crosshair update worker" );
+            // don't stop the JVM exiting when Fiji closes
+            workerThread.setDaemon( true );
+            return workerThread;
+        });
+    }
+
+    // Schedules an update with nothing to compute - it only applies on the EDT
+    public void schedule( Runnable update ) {
+        schedule( DEFAULT_KEY, update );
+    }
+
+    public void schedule( Object key, Runnable update ) {
+        schedule( key, () -> null, result -> update.run() );
+    }
+
+    public <T> void schedule( Supplier<T> compute, Consumer<T> apply ) {
+        schedule( DEFAULT_KEY, compute, apply );
+    }
+
+    // compute must only read state it was given a copy of (or that's safe to read from any thread), and must not wait
+    // on the EDT
+    public synchronized <T> void schedule( Object key, Supplier<T> compute, Consumer<T> apply ) {
+        if ( isShutdown ) {
+            return;
+        }
+
+        pendingUpdates.put( key, new Update<>( compute, apply ) );
+        if ( !isRunScheduled ) {
+            isRunScheduled = true;
+            long delayNanos = Math.max( 0, lastRunNanos + frameIntervalNanos - System.nanoTime() );
+            worker.schedule( this::computePendingUpdates, delayNanos, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    // Drops any updates that haven't been applied yet
+    public synchronized void cancelPending() {
+        generation++;
+        pendingUpdates.clear();
+        computedUpdates.clear();
+    }
+
+    // Computes and applies all updates scheduled so far now, e.g. before reading or changing state that updates also
+    // touch. Blocks until they're done. Mustn't be called from an update's compute.
+    public void flush() {
+        Future<?> computed;
+        synchronized ( this ) {
+            if ( isShutdown ) {
+                return;
+            }
+            if ( Thread.currentThread() == workerThread ) {
+                throw new UnsupportedOperationException( "Can't flush updates from an update's compute" );
+            }
+            computed = worker.submit( this::computePendingUpdates );
+        }
+
+        try {
+            // computes never wait on the EDT, so this is safe from there too
+            computed.get();
+            if ( SwingUtilities.isEventDispatchThread() ) {
+                applyComputedUpdates();
+            } else {
+                SwingUtilities.invokeAndWait( this::applyComputedUpdates );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( ExecutionException | InvocationTargetException e ) {
+            IJ.handleException( e.getCause() );
+        }
+    }
+
+    // Drops pending updates, and ignores any scheduled afterwards
+    public synchronized void shutdown() {
+        isShutdown = true;
+        generation++;
+        pendingUpdates.clear();
+        computedUpdates.clear();
+        worker.shutdownNow();
+    }
+
+    // Runs on the worker
+    private void computePendingUpdates() {
+        Map<Object, Update<?>> updates;
+        long computeGeneration;
+        synchronized ( this ) {
+            updates = new LinkedHashMap<>( pendingUpdates );
+            pendingUpdates.clear();
+            isRunScheduled = false;
+            computeGeneration = generation;
+        }
+
+        lastRunNanos = System.nanoTime();
+        Map<Object, Runnable> applies = new LinkedHashMap<>();
+        for ( Map.Entry<Object, Update<?>> update: updates.entrySet() ) {
+            try {
+                applies.put( update.getKey(), update.getValue().compute() );
+            } catch ( RuntimeException e ) {
+                // keep computing later updates
+                IJ.handleException( e );
+            }
+        }
+
+        synchronized ( this ) {
+            // updates cancelled while computing are dropped
+            if ( computeGeneration != generation || applies.isEmpty() ) {
+                return;
+            }
+            computedUpdates.putAll( applies );
+            if ( !isApplyScheduled ) {
+                isApplyScheduled = true;
+                SwingUtilities.invokeLater( this::applyComputedUpdates );
+            }
+        }
+    }
+
+    // Runs on the EDT
+    private void applyComputedUpdates() {
+        List<Runnable> applies;
+        synchronized ( this ) {
+            applies = new ArrayList<>( computedUpdates.values() );
+            computedUpdates.clear();
+            isApplyScheduled = false;
+        }
+
+        for ( Runnable apply: applies ) {
+            try {
+                apply.run();
+            } catch ( RuntimeException e ) {
+                // keep applying later updates
+                IJ.handleException( e );
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package de.embl.schwab.crosshair.utils;
 
 import bdv.util.Affine3DHelpers;
 import bdv.util.Bdv;
+import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.util.LinAlgHelpers;
@@ -86,6 +87,39 @@ public final class GeometryUtils {
 
     }
 
+    // Same plane as fitPlaneToPoints, but fit in a single streaming pass in constant memory (see StreamingPlaneFitter)
+    // so it scales to very large point sets
+    public static ArrayList<Vector3d> fitPlaneToPointsStreaming(Iterable<? extends RealLocalizable> points) {
+        StreamingPlaneFitter planeFitter = new StreamingPlaneFitter();
+        for (RealLocalizable point: points) {
+            planeFitter.add(point);
+        }
+        return getPlaneDefinition(planeFitter);
+    }
+
+    // Streaming fit of points given as interleaved x, y, z coordinates
+    public static ArrayList<Vector3d> fitPlaneToPointsStreaming(double[] coordinates) {
+        StreamingPlaneFitter planeFitter = new StreamingPlaneFitter();
+        planeFitter.add(coordinates);
+        return getPlaneDefinition(planeFitter);
+    }
+
+    private static ArrayList<Vector3d> getPlaneDefinition(StreamingPlaneFitter planeFitter) {
+        if (!planeFitter.fit()) {
+            throw new UnsupportedOperationException("Need at least 3 points to fit plane");
+        }
+
+        double[] normal = new double[3];
+        double[] centroid = new double[3];
+        planeFitter.getNormal(normal);
+        planeFitter.getCentroid(centroid);
+
+        ArrayList<Vector3d> result = new ArrayList<>();
+        result.add(new Vector3d(normal));
+        result.add(new Vector3d(centroid));
+        return result;
+    }
+
     public static Vector3d getCentroid(ArrayList<Vector3d> points) {
         Vector3d centroid = new Vector3d(new double[] {0,0,0});
         for (Vector3d v : points) {
@@ -0,0 +1,56 @@
+package de.embl.schwab.crosshair.utils;
+
+import org.scijava.vecmath.Vector3d;
+
+// Result of a robust plane fit - the plane, plus which of the fitted points were inliers
+public class PlaneFit {
+
+    private final Vector3d normal;
+    private final Vector3d point;
+    private final boolean[] inliers; // same order as the points given to the fit
+    private final int numberOfInliers;
+    private final double residualRMS; // root mean squared distance of inliers from the plane
+
+    public PlaneFit( Vector3d normal, Vector3d point, boolean[] inliers, double residualRMS ) {
+        this.normal = normal;
+        this.point = point;
+        this.inliers = inliers;
+        this.residualRMS = residualRMS;
+
+        int count = 0;
+        for ( boolean inlier: inliers ) {
+            if ( inlier ) {
+                count++;
+            }
+        }
+        this.numberOfInliers = count;
+    }
+
+    public Vector3d getNormal() {
+        return normal;
+    }
+
+    public Vector3d getPoint() {
+        return point;
+    }
+
+    public boolean isInlier( int index ) {
+        return inliers[index];
+    }
+
+    public int getNumberOfPoints() {
+        return inliers.length;
+    }
+
+    public int getNumberOfInliers() {
+        return numberOfInliers;
+    }
+
+    public int getNumberOfOutliers() {
+        return inliers.length - numberOfInliers;
+    }
+
+    public double getResidualRMS() {
+        return residualRMS;
+    }
+}
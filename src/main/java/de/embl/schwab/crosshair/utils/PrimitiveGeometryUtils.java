@@ -0,0 +1,349 @@
+package de.embl.schwab.crosshair.utils;
+
+import static java.lang.Math.*;
+
+// Primitive double[] versions of the GeometryUtils calculations. These allocate nothing - results are either
+// returned as scalars, or written into caller supplied arrays - so they are safe to call on every frame
+// e.g. while dragging the microtome sliders. All vectors / points are double[3].
+public final class PrimitiveGeometryUtils {
+
+    // maximum number of distinct points where a plane can intersect the edges of a bounding box
+    public static final int MAX_BOX_INTERSECTIONS = 12;
+
+    // bounding box edges, as pairs of corner indices. Corner i has min or max in x, y, z given by bits 2, 1, 0 of i
+    // (0 = min, 1 = max) - same corner / edge order as GeometryUtils.calculateIntersections
+    private static final int[][] BOX_EDGES = new int[][] {
+            {0, 1}, {0, 4}, {1, 5}, {4, 5}, {7, 5}, {3, 7}, {7, 6}, {6, 4}, {2, 0}, {2, 6}, {2, 3}, {1, 3}
+    };
+
+    private PrimitiveGeometryUtils() {}
+
+    public static double dot( double[] vector1, double[] vector2 ) {
+        return vector1[0]*vector2[0] + vector1[1]*vector2[1] + vector1[2]*vector2[2];
+    }
+
+    // result can't be the same array as either input
+    public static void cross( double[] vector1, double[] vector2, double[] result ) {
+        result[0] = vector1[1]*vector2[2] - vector1[2]*vector2[1];
+        result[1] = vector1[2]*vector2[0] - vector1[0]*vector2[2];
+        result[2] = vector1[0]*vector2[1] - vector1[1]*vector2[0];
+    }
+
+    public static void subtract( double[] vector1, double[] vector2, double[] result ) {
+        for ( int i = 0; i < 3; i++ ) {
+            result[i] = vector1[i] - vector2[i];
+        }
+    }
+
+    public static double length( double[] vector ) {
+        return sqrt( dot( vector, vector ) );
+    }
+
+    // normalises vector in place
+    public static void normalize( double[] vector ) {
+        double length = length( vector );
+        for ( int i = 0; i < 3; i++ ) {
+            vector[i] /= length;
+        }
+    }
+
+    // unsigned angle between vectors in radians, calculated the same way as Vector3d.angle
+    public static double angle( double[] vector1, double[] vector2 ) {
+        double vDot = dot( vector1, vector2 ) / ( length( vector1 ) * length( vector2 ) );
+        if ( vDot < -1.0 ) {
+            vDot = -1.0;
+        }
+        if ( vDot > 1.0 ) {
+            vDot = 1.0;
+        }
+        return acos( vDot );
+    }
+
+    public static boolean checkVectorsParallel( double[] vector1, double[] vector2 ) {
+        double unsignedAngle = angle( vector1, vector2 );
+        return unsignedAngle == 0 | unsignedAngle == PI;
+    }
+
+    // signed distance along the unit plane normal (planeNormal doesn't need to be normalised)
+    private static double signedDistanceAlongNormal( double[] point, double[] planeNormal, double[] planePoint ) {
+        double distance = 0;
+        for ( int i = 0; i < 3; i++ ) {
+            distance += ( point[i] - planePoint[i] ) * planeNormal[i];
+        }
+        return distance / length( planeNormal );
+    }
+
+    public static double distanceFromPointToPlane( double[] point, double[] planeNormal, double[] planePoint ) {
+        return abs( signedDistanceAlongNormal( point, planeNormal, planePoint ) );
+    }
+
+    // Signed distance, +ve when the point is on the side of the plane that positiveDirection points to
+    public static double signedDistanceFromPointToPlane( double[] point, double[] planeNormal, double[] planePoint,
+                                                         double[] positiveDirection ) {
+        double distance = signedDistanceAlongNormal( point, planeNormal, planePoint );
+        if ( dot( planeNormal, positiveDirection ) < 0 ) {
+            distance = -distance;
+        }
+        return distance;
+    }
+
+    // Index of point with the max (or min) signed distance to the plane. First index is returned for ties.
+    public static int indexSignedMinMaxPointsToPlane( double[] planePoint, double[] planeNormal, double[][] points,
+                                                      int nPoints, double[] positiveDirection, boolean max ) {
+        int chosenIndex = 0;
+        double chosenDistance = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        for ( int i = 0; i < nPoints; i++ ) {
+            double distance = signedDistanceFromPointToPlane( points[i], planeNormal, planePoint, positiveDirection );
+            if ( max ? distance > chosenDistance : distance < chosenDistance ) {
+                chosenDistance = distance;
+                chosenIndex = i;
+            }
+        }
+        return chosenIndex;
+    }
+
+    // Index of point with the max (or min) unsigned distance to the plane. First index is returned for ties.
+    public static int indexMinMaxPointsToPlane( double[] planePoint, double[] planeNormal, double[][] points,
+                                                int nPoints, boolean max ) {
+        int chosenIndex = 0;
+        double chosenDistance = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        for ( int i = 0; i < nPoints; i++ ) {
+            double distance = distanceFromPointToPlane( points[i], planeNormal, planePoint );
+            if ( max ? distance > chosenDistance : distance < chosenDistance ) {
+                chosenDistance = distance;
+                chosenIndex = i;
+            }
+        }
+        return chosenIndex;
+    }
+
+    // Projection of point onto the plane. result can be the same array as point.
+    public static void findClosestPointOnPlane( double[] planeNormal, double[] planePoint, double[] point,
+                                                double[] result ) {
+        double normalLength = length( planeNormal );
+        double distance = signedDistanceAlongNormal( point, planeNormal, planePoint );
+        for ( int i = 0; i < 3; i++ ) {
+            result[i] = point[i] - distance * planeNormal[i] / normalLength;
+        }
+    }
+
+    //	https://stackoverflow.com/questions/5666222/3d-line-plane-intersection
+    // Intersection of the line segment point1 -> point2 with the plane. Returns false (and leaves result unchanged)
+    // if the segment doesn't reach the plane, or is parallel to it.
+    public static boolean calculateVectorPlaneIntersection( double[] point1, double[] point2, double[] planeNormal,
+                                                            double[] planePoint, double[] result ) {
+        double dotProductVectorPlaneNormal = 0;
+        double dotProductPlaneToPointPlaneNormal = 0;
+        for ( int i = 0; i < 3; i++ ) {
+            dotProductVectorPlaneNormal += ( point2[i] - point1[i] ) * planeNormal[i];
+            dotProductPlaneToPointPlaneNormal += ( point1[i] - planePoint[i] ) * planeNormal[i];
+        }
+
+        if ( dotProductVectorPlaneNormal == 0 ) {
+            return false;
+        }
+
+        double factor = -dotProductPlaneToPointPlaneNormal / dotProductVectorPlaneNormal;
+        if ( factor < 0 || factor > 1 ) {
+            return false;
+        }
+
+        for ( int i = 0; i < 3; i++ ) {
+            result[i] = point1[i] + ( point2[i] - point1[i] ) * factor;
+        }
+        return true;
+    }
+
+    // Unit normal of plane through the three points, written into result
+    public static void calculateNormalFromPoints( double[] pointA, double[] pointB, double[] pointC,
+                                                  double[] result ) {
+        double v1x = pointA[0] - pointB[0];
+        double v1y = pointA[1] - pointB[1];
+        double v1z = pointA[2] - pointB[2];
+        double v2x = pointC[0] - pointB[0];
+        double v2y = pointC[1] - pointB[1];
+        double v2z = pointC[2] - pointB[2];
+
+        result[0] = v1y*v2z - v1z*v2y;
+        result[1] = v1z*v2x - v1x*v2z;
+        result[2] = v1x*v2y - v1y*v2x;
+        normalize( result );
+    }
+
+    // Intersections of the plane with the edges of the bounding box (globalMin -> globalMax), with duplicates removed.
+    // Edges lying in the plane contribute both their end points.
+    // Intersections are written into the first rows of intersections (which needs at least MAX_BOX_INTERSECTIONS
+    // rows of length 3), and the number of intersections is returned.
+    public static int calculateIntersections( double[] globalMin, double[] globalMax, double[] planeNormal,
+                                              double[] planePoint, double[][] intersections ) {
+        int nIntersections = 0;
+
+        for ( int[] edge: BOX_EDGES ) {
+            double x1 = cornerCoordinate( edge[0], 0, globalMin, globalMax );
+            double y1 = cornerCoordinate( edge[0], 1, globalMin, globalMax );
+            double z1 = cornerCoordinate( edge[0], 2, globalMin, globalMax );
+            double x2 = cornerCoordinate( edge[1], 0, globalMin, globalMax );
+            double y2 = cornerCoordinate( edge[1], 1, globalMin, globalMax );
+            double z2 = cornerCoordinate( edge[1], 2, globalMin, globalMax );
+
+            // dot products of each corner (relative to the plane point) with the plane normal
+            double dot1 = (x1 - planePoint[0])*planeNormal[0] + (y1 - planePoint[1])*planeNormal[1] +
+                    (z1 - planePoint[2])*planeNormal[2];
+            double dot2 = (x2 - planePoint[0])*planeNormal[0] + (y2 - planePoint[1])*planeNormal[1] +
+                    (z2 - planePoint[2])*planeNormal[2];
+
+            if ( dot1 == dot2 ) {
+                // parallel to plane - only intersects if the whole edge lies in the plane
+                if ( dot1 == 0 ) {
+                    nIntersections = addIfNew( x1, y1, z1, intersections, nIntersections );
+                    nIntersections = addIfNew( x2, y2, z2, intersections, nIntersections );
+                }
+            } else {
+                double factor = -dot1 / ( dot2 - dot1 );
+                if ( factor >= 0 && factor <= 1 ) {
+                    nIntersections = addIfNew( x1 + (x2 - x1)*factor, y1 + (y2 - y1)*factor,
+                            z1 + (z2 - z1)*factor, intersections, nIntersections );
+                }
+            }
+        }
+
+        return nIntersections;
+    }
+
+    private static double cornerCoordinate( int corner, int dimension, double[] globalMin, double[] globalMax ) {
+        return ( ( corner >> ( 2 - dimension ) ) & 1 ) == 0 ? globalMin[dimension] : globalMax[dimension];
+    }
+
+    private static int addIfNew( double x, double y, double z, double[][] points, int nPoints ) {
+        for ( int i = 0; i < nPoints; i++ ) {
+            double[] point = points[i];
+            if ( point[0] == x && point[1] == y && point[2] == z ) {
+                return nPoints;
+            }
+        }
+        points[nPoints][0] = x;
+        points[nPoints][1] = y;
+        points[nPoints][2] = z;
+        return nPoints + 1;
+    }
+
+    public static void calculateCentroid( double[][] points, int nPoints, double[] result ) {
+        result[0] = 0;
+        result[1] = 0;
+        result[2] = 0;
+        for ( int i = 0; i < nPoints; i++ ) {
+            for ( int j = 0; j < 3; j++ ) {
+                result[j] += points[i][j];
+            }
+        }
+        for ( int j = 0; j < 3; j++ ) {
+            result[j] /= nPoints;
+        }
+    }
+
+    // Sorts the points of a convex planar polygon in place, by signed angle about the centroid (relative to the first
+    // point, anticlockwise positive when looking down planeNormal). Consecutive points then form the polygon outline,
+    // as used by GeometryUtils.calculateTrianglesFromPoints. angles needs at least nPoints entries.
+    public static void sortPointsByAngle( double[][] points, int nPoints, double[] planeNormal, double[] angles ) {
+        double cx = 0, cy = 0, cz = 0;
+        for ( int i = 0; i < nPoints; i++ ) {
+            cx += points[i][0];
+            cy += points[i][1];
+            cz += points[i][2];
+        }
+        cx /= nPoints;
+        cy /= nPoints;
+        cz /= nPoints;
+
+        double ax = points[0][0] - cx;
+        double ay = points[0][1] - cy;
+        double az = points[0][2] - cz;
+
+        // angle of point to itself is zero
+        angles[0] = 0;
+        for ( int i = 1; i < nPoints; i++ ) {
+            double bx = points[i][0] - cx;
+            double by = points[i][1] - cy;
+            double bz = points[i][2] - cz;
+
+            double crossX = ay*bz - az*by;
+            double crossY = az*bx - ax*bz;
+            double crossZ = ax*by - ay*bx;
+            double crossLength = sqrt( crossX*crossX + crossY*crossY + crossZ*crossZ );
+            double unsignedAngle = atan2( crossLength, ax*bx + ay*by + az*bz );
+
+            double sign = crossX*planeNormal[0] + crossY*planeNormal[1] + crossZ*planeNormal[2];
+            angles[i] = sign < 0 ? -unsignedAngle : unsignedAngle;
+        }
+
+        // insertion sort - only ever a handful of points
+        for ( int i = 1; i < nPoints; i++ ) {
+            double angle = angles[i];
+            double[] point = points[i];
+            int j = i - 1;
+            while ( j >= 0 && angles[j] > angle ) {
+                angles[j + 1] = angles[j];
+                points[j + 1] = points[j];
+                j--;
+            }
+            angles[j + 1] = angle;
+            points[j + 1] = point;
+        }
+    }
+
+    // Eigen decomposition of a symmetric 3x3 matrix by cyclic Jacobi rotations.
+    // matrix is row-major (9 entries) and is overwritten - on return its diagonal holds the eigenvalues.
+    // eigenvectors (row-major, 9 entries) gets the matching unit eigenvectors as its columns.
+    public static void symmetricEigenDecomposition3x3( double[] matrix, double[] eigenvectors ) {
+        for ( int i = 0; i < 9; i++ ) {
+            eigenvectors[i] = ( i % 4 == 0 ) ? 1 : 0;
+        }
+
+        for ( int sweep = 0; sweep < 50; sweep++ ) {
+            double offDiagonal = abs( matrix[1] ) + abs( matrix[2] ) + abs( matrix[5] );
+            double diagonal = abs( matrix[0] ) + abs( matrix[4] ) + abs( matrix[8] );
+            if ( offDiagonal == 0 || offDiagonal <= 1E-15 * diagonal ) {
+                return;
+            }
+
+            for ( int p = 0; p < 2; p++ ) {
+                for ( int q = p + 1; q < 3; q++ ) {
+                    double apq = matrix[3*p + q];
+                    if ( apq == 0 ) {
+                        continue;
+                    }
+
+                    // rotation angle that zeroes element (p, q)
+                    double app = matrix[3*p + p];
+                    double aqq = matrix[3*q + q];
+                    double theta = ( aqq - app ) / ( 2 * apq );
+                    double t = signum( theta ) / ( abs( theta ) + sqrt( theta*theta + 1 ) );
+                    if ( theta == 0 ) {
+                        t = 1;
+                    }
+                    double c = 1 / sqrt( t*t + 1 );
+                    double sn = t * c;
+
+                    for ( int k = 0; k < 3; k++ ) {
+                        double akp = matrix[3*k + p];
+                        double akq = matrix[3*k + q];
+                        matrix[3*k + p] = c*akp - sn*akq;
+                        matrix[3*k + q] = sn*akp + c*akq;
+                    }
+                    for ( int k = 0; k < 3; k++ ) {
+                        double apk = matrix[3*p + k];
+                        double aqk = matrix[3*q + k];
+                        matrix[3*p + k] = c*apk - sn*aqk;
+                        matrix[3*q + k] = sn*apk + c*aqk;
+                    }
+                    for ( int k = 0; k < 3; k++ ) {
+                        double vkp = eigenvectors[3*k + p];
+                        double vkq = eigenvectors[3*k + q];
+                        eigenvectors[3*k + p] = c*vkp - sn*vkq;
+                        eigenvectors[3*k + q] = sn*vkp + c*vkq;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.embl.schwab.crosshair.utils;
+
+// Sorts arrays of indices by a key stored in a primitive double[], e.g. point ids by one of their packed x, y, z
+// coordinates. Nothing is boxed or allocated, so points can be sorted without an object per point.
+public final class PrimitiveSorting {
+
+    // ranges this small are insertion sorted
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private PrimitiveSorting() {}
+
+    // Sorts indices[from, to) so that keys[stride * index + offset] is ascending. Not stable.
+    public static void sortByKey( int[] indices, int from, int to, double[] keys, int stride, int offset ) {
+        while ( to - from > INSERTION_SORT_THRESHOLD ) {
+            // median of three pivot, so already sorted ranges don't hit the worst case
+            int middle = ( from + to ) >>> 1;
+            double pivot = median( key( indices[from], keys, stride, offset ),
+                    key( indices[middle], keys, stride, offset ), key( indices[to - 1], keys, stride, offset ) );
+
+            // Hoare partition into [from, j] <= pivot and [j + 1, to) >= pivot
+            int i = from - 1;
+            int j = to;
+            while ( true ) {
+                do {
+                    i++;
+                } while ( key( indices[i], keys, stride, offset ) < pivot );
+                do {
+                    j--;
+                } while ( key( indices[j], keys, stride, offset ) > pivot );
+                if ( i >= j ) {
+                    break;
+                }
+                swap( indices, i, j );
+            }
+
+            // recurse into the smaller side, and loop on the larger, to bound the stack depth
+            if ( j + 1 - from < to - j - 1 ) {
+                sortByKey( indices, from, j + 1, keys, stride, offset );
+                from = j + 1;
+            } else {
+                sortByKey( indices, j + 1, to, keys, stride, offset );
+                to = j + 1;
+            }
+        }
+
+        for ( int i = from + 1; i < to; i++ ) {
+            int index = indices[i];
+            double key = key( index, keys, stride, offset );
+            int j = i - 1;
+            while ( j >= from && key( indices[j], keys, stride, offset ) > key ) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = index;
+        }
+    }
+
+    private static double key( int index, double[] keys, int stride, int offset ) {
+        return keys[ stride * index + offset ];
+    }
+
+    private static double median( double a, double b, double c ) {
+        return Math.max( Math.min( a, b ), Math.min( Math.max( a, b ), c ) );
+    }
+
+    private static void swap( int[] indices, int i, int j ) {
+        int temp = indices[i];
+        indices[i] = indices[j];
+        indices[j] = temp;
+    }
+}
@@ -0,0 +1,272 @@
+package de.embl.schwab.crosshair.utils;
+
+import net.imglib2.RealLocalizable;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.*;
+
+// Plane fit that is robust to outliers (e.g. a mis-clicked point), using RANSAC with an MSAC (truncated
+// squared distance) score. Planes through random triplets of points are evaluated in parallel batches, until enough
+// hypotheses have been tried to find an outlier free sample with the given confidence. The best plane is then
+// refined with a least squares fit to its inliers.
+// Sampling is seeded, so the same points always give the same fit.
+public class RobustPlaneFitter {
+
+    public static final int DEFAULT_MAX_ITERATIONS = 1000;
+    public static final double DEFAULT_CONFIDENCE = 0.999;
+
+    private static final int BATCH_SIZE = 64; // hypotheses evaluated in parallel per batch
+    private static final int MIN_POINTS_FOR_PARALLEL = 500; // below this, threading costs more than it saves
+    private static final int MAX_REFINEMENT_ITERATIONS = 5;
+
+    private final double inlierThreshold; // max distance of an inlier from the plane, in image units
+    private int maxIterations;
+    private double confidence;
+    private long seed;
+
+    private int numberOfHypotheses; // number evaluated in last fit
+
+    public RobustPlaneFitter( double inlierThreshold ) {
+        if ( !( inlierThreshold > 0 ) ) {
+            throw new UnsupportedOperationException( "Inlier threshold must be greater than 0" );
+        }
+        this.inlierThreshold = inlierThreshold;
+        this.maxIterations = DEFAULT_MAX_ITERATIONS;
+        this.confidence = DEFAULT_CONFIDENCE;
+        this.seed = 0;
+    }
+
+    public double getInlierThreshold() {
+        return inlierThreshold;
+    }
+
+    public void setMaxIterations( int maxIterations ) {
+        this.maxIterations = maxIterations;
+    }
+
+    public void setConfidence( double confidence ) {
+        this.confidence = confidence;
+    }
+
+    public void setSeed( long seed ) {
+        this.seed = seed;
+    }
+
+    public int getNumberOfHypotheses() {
+        return numberOfHypotheses;
+    }
+
+    public PlaneFit fit( List<? extends RealLocalizable> points ) {
+        double[] coordinates = new double[3 * points.size()];
+        for ( int i = 0; i < points.size(); i++ ) {
+            RealLocalizable point = points.get(i);
+            coordinates[3*i] = point.getDoublePosition(0);
+            coordinates[3*i + 1] = point.getDoublePosition(1);
+            coordinates[3*i + 2] = point.getDoublePosition(2);
+        }
+        return fit( coordinates );
+    }
+
+    // Fit to points given as interleaved x, y, z coordinates
+    public PlaneFit fit( double[] coordinates ) {
+        int nPoints = coordinates.length / 3;
+        if ( nPoints < 3 ) {
+            throw new UnsupportedOperationException( "Need at least 3 points to fit plane" );
+        }
+
+        double[] bestPlane = findBestHypothesis( coordinates, nPoints );
+        if ( bestPlane == null ) {
+            throw new UnsupportedOperationException( "Points are collinear - can't fit plane" );
+        }
+
+        return refine( coordinates, nPoints, bestPlane );
+    }
+
+    // Returns best plane as {nx, ny, nz, d} where n.x + d = 0, or null if all samples were degenerate
+    private double[] findBestHypothesis( double[] coordinates, int nPoints ) {
+        Random random = new Random( seed );
+        double thresholdSquared = inlierThreshold * inlierThreshold;
+
+        double[][] planes = new double[BATCH_SIZE][4];
+        double[] costs = new double[BATCH_SIZE];
+        int[] inlierCounts = new int[BATCH_SIZE];
+        int[] sample = new int[3];
+
+        double[] bestPlane = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestInlierCount = 0;
+        int requiredIterations = maxIterations;
+
+        numberOfHypotheses = 0;
+        while ( numberOfHypotheses < requiredIterations ) {
+            int batchSize = min( BATCH_SIZE, requiredIterations - numberOfHypotheses );
+
+            // sampling is done serially, so results don't depend on thread scheduling
+            for ( int h = 0; h < batchSize; h++ ) {
+                drawSample( random, nPoints, sample );
+                if ( !planeFromPoints( coordinates, sample, planes[h] ) ) {
+                    // degenerate sample, skipped when scoring
+                    planes[h][3] = Double.NaN;
+                }
+            }
+
+            IntStream hypotheses = IntStream.range( 0, batchSize );
+            if ( nPoints >= MIN_POINTS_FOR_PARALLEL ) {
+                hypotheses = hypotheses.parallel();
+            }
+            hypotheses.forEach( h -> scoreHypothesis( coordinates, nPoints, planes[h], thresholdSquared,
+                    costs, inlierCounts, h ) );
+
+            for ( int h = 0; h < batchSize; h++ ) {
+                if ( costs[h] < bestCost ) {
+                    bestCost = costs[h];
+                    bestInlierCount = inlierCounts[h];
+                    bestPlane = planes[h].clone();
+                }
+            }
+            numberOfHypotheses += batchSize;
+
+            if ( bestPlane != null ) {
+                requiredIterations = min( maxIterations,
+                        calculateRequiredIterations( (double) bestInlierCount / nPoints ) );
+            }
+        }
+
+        return bestPlane;
+    }
+
+    private void drawSample( Random random, int nPoints, int[] sample ) {
+        sample[0] = random.nextInt( nPoints );
+        do {
+            sample[1] = random.nextInt( nPoints );
+        } while ( sample[1] == sample[0] );
+        do {
+            sample[2] = random.nextInt( nPoints );
+        } while ( sample[2] == sample[0] || sample[2] == sample[1] );
+    }
+
+    // Writes plane through the three sampled points into plane, returns false if they're (near) collinear
+    private boolean planeFromPoints( double[] coordinates, int[] sample, double[] plane ) {
+        int a = 3 * sample[0];
+        int b = 3 * sample[1];
+        int c = 3 * sample[2];
+        double abx = coordinates[b] - coordinates[a];
+        double aby = coordinates[b + 1] - coordinates[a + 1];
+        double abz = coordinates[b + 2] - coordinates[a + 2];
+        double acx = coordinates[c] - coordinates[a];
+        double acy = coordinates[c + 1] - coordinates[a + 1];
+        double acz = coordinates[c + 2] - coordinates[a + 2];
+
+        double nx = aby * acz - abz * acy;
+        double ny = abz * acx - abx * acz;
+        double nz = abx * acy - aby * acx;
+        double length = sqrt( nx * nx + ny * ny + nz * nz );
+        double abLength = sqrt( abx * abx + aby * aby + abz * abz );
+        double acLength = sqrt( acx * acx + acy * acy + acz * acz );
+
+        if ( length <= 1E-10 * abLength * acLength ) {
+            return false;
+        }
+
+        plane[0] = nx / length;
+        plane[1] = ny / length;
+        plane[2] = nz / length;
+        plane[3] = -( plane[0] * coordinates[a] + plane[1] * coordinates[a + 1] + plane[2] * coordinates[a + 2] );
+        return true;
+    }
+
+    // MSAC score - sum of squared distances, truncated at the inlier threshold
+    private void scoreHypothesis( double[] coordinates, int nPoints, double[] plane, double thresholdSquared,
+                                  double[] costs, int[] inlierCounts, int index ) {
+        if ( Double.isNaN( plane[3] ) ) {
+            costs[index] = Double.POSITIVE_INFINITY;
+            inlierCounts[index] = 0;
+            return;
+        }
+
+        double cost = 0;
+        int inliers = 0;
+        for ( int i = 0; i < nPoints; i++ ) {
+            double distance = plane[0] * coordinates[3*i] + plane[1] * coordinates[3*i + 1] +
+                    plane[2] * coordinates[3*i + 2] + plane[3];
+            double distanceSquared = distance * distance;
+            if ( distanceSquared <= thresholdSquared ) {
+                cost += distanceSquared;
+                inliers++;
+            } else {
+                cost += thresholdSquared;
+            }
+        }
+        costs[index] = cost;
+        inlierCounts[index] = inliers;
+    }
+
+    // number of samples needed to draw at least one all-inlier triplet with the given confidence
+    private int calculateRequiredIterations( double inlierRatio ) {
+        double probabilityGoodSample = pow( inlierRatio, 3 );
+        if ( probabilityGoodSample >= 1 ) {
+            return 1;
+        } else if ( probabilityGoodSample <= 0 ) {
+            return maxIterations;
+        }
+
+        double iterations = ceil( log( 1 - confidence ) / log( 1 - probabilityGoodSample ) );
+        return iterations > maxIterations ? maxIterations : (int) iterations;
+    }
+
+    // Least squares fit to the inliers, repeated until the set of inliers stops changing
+    private PlaneFit refine( double[] coordinates, int nPoints, double[] plane ) {
+        boolean[] inliers = new boolean[nPoints];
+        classifyInliers( coordinates, nPoints, plane, inliers );
+
+        StreamingPlaneFitter planeFitter = new StreamingPlaneFitter();
+        double[] normal = new double[3];
+        double[] centroid = new double[3];
+        boolean[] newInliers = new boolean[nPoints];
+
+        for ( int iteration = 0; iteration < MAX_REFINEMENT_ITERATIONS; iteration++ ) {
+            planeFitter.reset();
+            for ( int i = 0; i < nPoints; i++ ) {
+                if ( inliers[i] ) {
+                    planeFitter.add( coordinates[3*i], coordinates[3*i + 1], coordinates[3*i + 2] );
+                }
+            }
+            planeFitter.fit();
+            planeFitter.getNormal( normal );
+            planeFitter.getCentroid( centroid );
+
+            plane[0] = normal[0];
+            plane[1] = normal[1];
+            plane[2] = normal[2];
+            plane[3] = -PrimitiveGeometryUtils.dot( normal, centroid );
+            int nInliers = classifyInliers( coordinates, nPoints, plane, newInliers );
+
+            // stop before the last iteration swaps the inliers, so they always match the fitted plane
+            if ( nInliers < 3 || Arrays.equals( inliers, newInliers ) || iteration == MAX_REFINEMENT_ITERATIONS - 1 ) {
+                break;
+            }
+            System.arraycopy( newInliers, 0, inliers, 0, nPoints );
+        }
+
+        return new PlaneFit( new Vector3d( normal ), new Vector3d( centroid ), inliers,
+                planeFitter.getResidualRMS() );
+    }
+
+    private int classifyInliers( double[] coordinates, int nPoints, double[] plane, boolean[] inliers ) {
+        int nInliers = 0;
+        for ( int i = 0; i < nPoints; i++ ) {
+            double distance = plane[0] * coordinates[3*i] + plane[1] * coordinates[3*i + 1] +
+                    plane[2] * coordinates[3*i + 2] + plane[3];
+            inliers[i] = abs( distance ) <= inlierThreshold;
+            if ( inliers[i] ) {
+                nInliers++;
+            }
+        }
+        return nInliers;
+    }
+}
@@ -0,0 +1,150 @@
+package de.embl.schwab.crosshair.utils;
+
+import net.imglib2.RealLocalizable;
+
+import static java.lang.Math.sqrt;
+
+// Least squares plane fit in a single streaming pass, using constant memory.
+// Points are accumulated into a running centroid and 3x3 co-moment (covariance * n) matrix with Welford style
+// updates, so large coordinates / many points don't lose precision. The plane normal is then the eigenvector of the
+// covariance with the smallest eigenvalue - the same plane as the SVD in GeometryUtils.fitPlaneToPoints, without
+// needing all points in memory at once.
+public class StreamingPlaneFitter {
+
+    private long count;
+    private final double[] mean;
+    // upper triangle of co-moment matrix: xx, xy, xz, yy, yz, zz
+    private double cxx, cxy, cxz, cyy, cyz, czz;
+
+    // results of last fit
+    private final double[] normal;
+    private double smallestEigenvalue;
+
+    // scratch for eigen decomposition
+    private final double[] matrix;
+    private final double[] eigenvectors;
+
+    public StreamingPlaneFitter() {
+        mean = new double[3];
+        normal = new double[3];
+        matrix = new double[9];
+        eigenvectors = new double[9];
+    }
+
+    public void reset() {
+        count = 0;
+        mean[0] = 0;
+        mean[1] = 0;
+        mean[2] = 0;
+        cxx = cxy = cxz = cyy = cyz = czz = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void add( double x, double y, double z ) {
+        count++;
+        double dx = x - mean[0];
+        double dy = y - mean[1];
+        double dz = z - mean[2];
+        mean[0] += dx / count;
+        mean[1] += dy / count;
+        mean[2] += dz / count;
+        // deviation from the old mean times deviation from the new mean
+        double ex = x - mean[0];
+        double ey = y - mean[1];
+        double ez = z - mean[2];
+        cxx += dx * ex;
+        cxy += dx * ey;
+        cxz += dx * ez;
+        cyy += dy * ey;
+        cyz += dy * ez;
+        czz += dz * ez;
+    }
+
+    public void add( RealLocalizable point ) {
+        add( point.getDoublePosition(0), point.getDoublePosition(1), point.getDoublePosition(2) );
+    }
+
+    // Add nPoints points from interleaved x, y, z coordinates, starting at offset (the index of the first x)
+    public void add( double[] coordinates, int offset, int nPoints ) {
+        int end = offset + 3 * nPoints;
+        for ( int i = offset; i < end; i += 3 ) {
+            add( coordinates[i], coordinates[i + 1], coordinates[i + 2] );
+        }
+    }
+
+    // Add all points from interleaved x, y, z coordinates
+    public void add( double[] coordinates ) {
+        add( coordinates, 0, coordinates.length / 3 );
+    }
+
+    // Combine the points accumulated by another fitter into this one, e.g. to merge results calculated on
+    // separate threads
+    public void merge( StreamingPlaneFitter other ) {
+        if ( other.count == 0 ) {
+            return;
+        }
+        long combinedCount = count + other.count;
+        double dx = other.mean[0] - mean[0];
+        double dy = other.mean[1] - mean[1];
+        double dz = other.mean[2] - mean[2];
+        double factor = (double) count * other.count / combinedCount;
+
+        cxx += other.cxx + dx * dx * factor;
+        cxy += other.cxy + dx * dy * factor;
+        cxz += other.cxz + dx * dz * factor;
+        cyy += other.cyy + dy * dy * factor;
+        cyz += other.cyz + dy * dz * factor;
+        czz += other.czz + dz * dz * factor;
+
+        double otherWeight = (double) other.count / combinedCount;
+        mean[0] += dx * otherWeight;
+        mean[1] += dy * otherWeight;
+        mean[2] += dz * otherWeight;
+        count = combinedCount;
+    }
+
+    public void getCentroid( double[] centroid ) {
+        System.arraycopy( mean, 0, centroid, 0, 3 );
+    }
+
+    // Fits plane to all points added so far. Returns false if there are too few points to define a plane.
+    public boolean fit() {
+        if ( count < 3 ) {
+            return false;
+        }
+
+        matrix[0] = cxx; matrix[1] = cxy; matrix[2] = cxz;
+        matrix[3] = cxy; matrix[4] = cyy; matrix[5] = cyz;
+        matrix[6] = cxz; matrix[7] = cyz; matrix[8] = czz;
+        PrimitiveGeometryUtils.symmetricEigenDecomposition3x3( matrix, eigenvectors );
+
+        // normal is the eigenvector of the smallest eigenvalue i.e. direction of least variance
+        int minIndex = 0;
+        for ( int i = 1; i < 3; i++ ) {
+            if ( matrix[4*i] < matrix[4*minIndex] ) {
+                minIndex = i;
+            }
+        }
+        smallestEigenvalue = Math.max( matrix[4*minIndex], 0 );
+        for ( int i = 0; i < 3; i++ ) {
+            normal[i] = eigenvectors[3*i + minIndex];
+        }
+        // normalise just in case
+        PrimitiveGeometryUtils.normalize( normal );
+
+        return true;
+    }
+
+    // unit normal of last fit
+    public void getNormal( double[] result ) {
+        System.arraycopy( normal, 0, result, 0, 3 );
+    }
+
+    // root mean squared distance of the points from the last fitted plane
+    public double getResidualRMS() {
+        return count == 0 ? 0 : sqrt( smallestEigenvalue / count );
+    }
+}
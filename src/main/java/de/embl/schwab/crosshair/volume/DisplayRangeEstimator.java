@@ -0,0 +1,215 @@
+package de.embl.schwab.crosshair.volume;
+
+import bdv.viewer.Source;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.Math.*;
+
+// Estimates a display range for a source from a histogram of its intensities, so 16-bit and float images get sensible
+// contrast rather than a fixed 0-255. 8-bit images keep their full 0-255 range.
+// Only a sample of the image is read: the coarsest mipmap level with at least SAMPLE_BUDGET voxels, with a stride
+// along each axis so that around SAMPLE_BUDGET voxels are read from it. The sampled z planes are split into chunks on
+// a fixed thread pool - a first pass finds the min and max intensity, a second fills a histogram between them.
+// The display range runs between the LOWER_PERCENTILE and UPPER_PERCENTILE of that histogram.
+public class DisplayRangeEstimator<T extends RealType<T>> {
+
+    public static final long SAMPLE_BUDGET = 128L * 128 * 128;
+    public static final int NUMBER_OF_BINS = 4096;
+    public static final double LOWER_PERCENTILE = 0.1;
+    public static final double UPPER_PERCENTILE = 99.9;
+
+    private static final int PLANES_PER_TASK = 4;
+
+    private final Source<T> source;
+    private int numberOfThreads;
+
+    public DisplayRangeEstimator( Source<T> source ) {
+        this.source = source;
+        this.numberOfThreads = VolumeUploader.getDefaultNumberOfThreads();
+    }
+
+    public static DisplayRangeEstimator<?> createFromSource( Source<?> source ) {
+        if ( !( source.getType() instanceof RealType ) ) {
+            throw new UnsupportedOperationException( "Only greyscale images are supported" );
+        }
+        return new DisplayRangeEstimator<>( (Source) source );
+    }
+
+    public void setNumberOfThreads( int numberOfThreads ) {
+        this.numberOfThreads = max( 1, numberOfThreads );
+    }
+
+    // { min, max } intensity to display
+    public double[] estimate() {
+        if ( source.getType() instanceof UnsignedByteType ) {
+            return new double[]{ 0, 255 };
+        }
+
+        long[] levelVoxelCounts = new long[ source.getNumMipmapLevels() ];
+        for ( int level = 0; level < levelVoxelCounts.length; level++ ) {
+            levelVoxelCounts[level] = countVoxels( source.getSource( 0, level ) );
+        }
+        int level = VolumeUploader.chooseMipmapLevel( levelVoxelCounts, SAMPLE_BUDGET );
+        return estimate( source.getSource( 0, level ), SAMPLE_BUDGET, numberOfThreads );
+    }
+
+    static <T extends RealType<T>> double[] estimate( RandomAccessibleInterval<T> image, long sampleBudget,
+                                                      int numberOfThreads ) {
+        if ( image.numDimensions() != 3 ) {
+            throw new UnsupportedOperationException( "Only 3D images are supported" );
+        }
+
+        int stride = (int) max( 1, ceil( cbrt( (double) countVoxels( image ) / sampleBudget ) ) );
+        List<long[]> planeChunks = new ArrayList<>();
+        for ( long zStart = 0; zStart < image.dimension(2); zStart += (long) stride * PLANES_PER_TASK ) {
+            planeChunks.add( new long[]{ zStart, min( image.dimension(2), zStart + (long) stride * PLANES_PER_TASK ) } );
+        }
+
+        List<Callable<double[]>> minMaxTasks = new ArrayList<>();
+        for ( long[] chunk: planeChunks ) {
+            minMaxTasks.add( () -> findMinMax( image, chunk[0], chunk[1], stride ) );
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for ( double[] chunkMinMax: runInParallel( minMaxTasks, numberOfThreads ) ) {
+            min = min( min, chunkMinMax[0] );
+            max = max( max, chunkMinMax[1] );
+        }
+
+        if ( min > max ) {
+            // nothing but NaN
+            return new double[]{ 0, 1 };
+        } else if ( min == max ) {
+            return new double[]{ min, min + 1 };
+        }
+
+        final double histogramMin = min;
+        final double histogramMax = max;
+        List<Callable<long[]>> histogramTasks = new ArrayList<>();
+        for ( long[] chunk: planeChunks ) {
+            histogramTasks.add( () -> fillHistogram( image, chunk[0], chunk[1], stride, histogramMin, histogramMax ) );
+        }
+        long[] histogram = new long[ NUMBER_OF_BINS ];
+        for ( long[] chunkHistogram: runInParallel( histogramTasks, numberOfThreads ) ) {
+            for ( int i = 0; i < histogram.length; i++ ) {
+                histogram[i] += chunkHistogram[i];
+            }
+        }
+
+        return calculateDisplayRange( histogram, min, max, LOWER_PERCENTILE, UPPER_PERCENTILE );
+    }
+
+    // Range from the start of the bin containing the lower percentile, to the end of the bin containing the upper
+    static double[] calculateDisplayRange( long[] histogram, double histogramMin, double histogramMax,
+                                           double lowerPercentile, double upperPercentile ) {
+        long total = 0;
+        for ( long count: histogram ) {
+            total += count;
+        }
+
+        double binWidth = ( histogramMax - histogramMin ) / histogram.length;
+        double lowerCount = total * lowerPercentile / 100;
+        double upperCount = total * upperPercentile / 100;
+
+        int lowerBin = 0;
+        int upperBin = histogram.length - 1;
+        long cumulativeCount = 0;
+        boolean isLowerBinFound = false;
+        for ( int i = 0; i < histogram.length; i++ ) {
+            cumulativeCount += histogram[i];
+            if ( !isLowerBinFound && cumulativeCount > lowerCount ) {
+                lowerBin = i;
+                isLowerBinFound = true;
+            }
+            if ( cumulativeCount >= upperCount ) {
+                upperBin = i;
+                break;
+            }
+        }
+
+        return new double[]{ histogramMin + lowerBin * binWidth, histogramMin + ( upperBin + 1 ) * binWidth };
+    }
+
+    private static <T extends RealType<T>> double[] findMinMax( RandomAccessibleInterval<T> image, long zStart,
+                                                                long zEnd, int stride ) {
+        double[] minMax = new double[]{ Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        RandomAccess<T> access = image.randomAccess();
+        for ( long z = zStart; z < zEnd; z += stride ) {
+            access.setPosition( image.min(2) + z, 2 );
+            for ( long y = 0; y < image.dimension(1); y += stride ) {
+                access.setPosition( image.min(1) + y, 1 );
+                for ( long x = 0; x < image.dimension(0); x += stride ) {
+                    access.setPosition( image.min(0) + x, 0 );
+                    double value = access.get().getRealDouble();
+                    // comparisons with NaN are always false, so NaN voxels are skipped
+                    if ( value < minMax[0] ) {
+                        minMax[0] = value;
+                    }
+                    if ( value > minMax[1] ) {
+                        minMax[1] = value;
+                    }
+                }
+            }
+        }
+        return minMax;
+    }
+
+    private static <T extends RealType<T>> long[] fillHistogram( RandomAccessibleInterval<T> image, long zStart,
+                                                                 long zEnd, int stride, double histogramMin,
+                                                                 double histogramMax ) {
+        long[] histogram = new long[ NUMBER_OF_BINS ];
+        double scale = NUMBER_OF_BINS / ( histogramMax - histogramMin );
+        RandomAccess<T> access = image.randomAccess();
+        for ( long z = zStart; z < zEnd; z += stride ) {
+            access.setPosition( image.min(2) + z, 2 );
+            for ( long y = 0; y < image.dimension(1); y += stride ) {
+                access.setPosition( image.min(1) + y, 1 );
+                for ( long x = 0; x < image.dimension(0); x += stride ) {
+                    access.setPosition( image.min(0) + x, 0 );
+                    double value = access.get().getRealDouble();
+                    if ( !Double.isNaN( value ) ) {
+                        histogram[ (int) min( NUMBER_OF_BINS - 1, ( value - histogramMin ) * scale ) ]++;
+                    }
+                }
+            }
+        }
+        return histogram;
+    }
+
+    private static <R> List<R> runInParallel( List<Callable<R>> tasks, int numberOfThreads ) {
+        ExecutorService executorService = Executors.newFixedThreadPool( numberOfThreads );
+        try {
+            List<R> results = new ArrayList<>();
+            for ( Future<R> future: executorService.invokeAll( tasks ) ) {
+                results.add( future.get() );
+            }
+            return results;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new UnsupportedOperationException( "Estimating the display range was interrupted" );
+        } catch ( ExecutionException e ) {
+            throw new RuntimeException( e.getCause() );
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static long countVoxels( RandomAccessibleInterval<?> image ) {
+        long nVoxels = 1;
+        for ( int d = 0; d < image.numDimensions(); d++ ) {
+            nVoxels *= image.dimension(d);
+        }
+        return nVoxels;
+    }
+}
@@ -0,0 +1,178 @@
+package de.embl.schwab.crosshair.volume;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij3d.Content;
+import ij3d.Image3DUniverse;
+import org.scijava.java3d.Transform3D;
+
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.Math.*;
+
+// Swaps volume contents in the 3D viewer for coarser copies while the user is interacting (tracking a plane, or moving
+// the microtome sliders), and back to full detail once interaction has been idle for a while.
+// Rendering the full volume every frame is slow without a good graphics card - the coarse copies have
+// DOWNSAMPLING^3 fewer voxels. They're created once in the background, and until they're ready the full volume is
+// always shown.
+// Show / hide volumes with setVisible here rather than on the content directly, so changes made while the coarse copy
+// is shown aren't overridden when full detail comes back.
+public class VolumeLevelOfDetail {
+
+    public static final String IDLE_DELAY_PREFERENCE = "crosshair.volume.levelOfDetailIdleMillis";
+    public static final int DEFAULT_IDLE_DELAY_MILLIS = 300;
+    public static final int DOWNSAMPLING = 4; // per axis
+
+    private final Image3DUniverse universe;
+    private final Map<Content, Content> fullToCoarseContent;
+    // full contents currently swapped for their coarse copy, to the visibility to restore once full detail is shown
+    private final Map<Content, Boolean> coarseContentShown;
+    private final Timer idleTimer;
+    private final Transform3D transform;
+
+    public VolumeLevelOfDetail( Image3DUniverse universe ) {
+        this.universe = universe;
+        this.fullToCoarseContent = new ConcurrentHashMap<>();
+        this.coarseContentShown = new HashMap<>();
+        this.idleTimer = new Timer( getIdleDelayMillis(), e -> showFullDetail() );
+        this.idleTimer.setRepeats( false );
+        this.transform = new Transform3D();
+    }
+
+    public static int getIdleDelayMillis() {
+        return (int) Prefs.get( IDLE_DELAY_PREFERENCE, DEFAULT_IDLE_DELAY_MILLIS );
+    }
+
+    public static void setIdleDelayMillis( int idleDelayMillis ) {
+        if ( idleDelayMillis < 0 ) {
+            throw new UnsupportedOperationException( "Idle delay can't be negative" );
+        }
+        Prefs.set( IDLE_DELAY_PREFERENCE, idleDelayMillis );
+    }
+
+    // Creates the coarse copy of the given volume content on a background thread
+    public void addContent( Content fullContent ) {
+        new Thread( () -> {
+            ImagePlus image = fullContent.getImage();
+            if ( image == null ) {
+                // 3D viewer didn't keep the image - nothing to downsample, so always show full detail
+                return;
+            }
+
+            ImagePlus coarseImage = downsample( image, DOWNSAMPLING );
+            Content coarseContent = universe.addContent( coarseImage, fullContent.getColor(),
+                    fullContent.getName() + "_coarse", 0, new boolean[]{ true, true, true }, 1, Content.VOLUME );
+            coarseContent.setVisible( false );
+            coarseContent.setLocked( true );
+            coarseContent.setTransparency( fullContent.getTransparency() );
+            fullToCoarseContent.put( fullContent, coarseContent );
+        }, "Crosshair coarse volume" ).start();
+    }
+
+    // Call on every interaction update - shows coarse volumes until interaction stops
+    public synchronized void interactionUpdated() {
+        for ( Map.Entry<Content, Content> entry: fullToCoarseContent.entrySet() ) {
+            Content fullContent = entry.getKey();
+            Content coarseContent = entry.getValue();
+
+            boolean isCoarseShown = coarseContentShown.containsKey( fullContent );
+            if ( !isCoarseShown && !fullContent.isVisible() ) {
+                // hidden by the user
+                continue;
+            }
+
+            // follow any transform of the full volume e.g. from the microtome
+            fullContent.getLocalRotate( transform );
+            coarseContent.getLocalRotate().setTransform( transform );
+            fullContent.getLocalTranslate( transform );
+            coarseContent.getLocalTranslate().setTransform( transform );
+
+            if ( !isCoarseShown ) {
+                coarseContent.setTransparency( fullContent.getTransparency() );
+                coarseContentShown.put( fullContent, fullContent.isVisible() );
+                coarseContent.setVisible( true );
+                fullContent.setVisible( false );
+            }
+        }
+
+        if ( !coarseContentShown.isEmpty() ) {
+            idleTimer.restart();
+        }
+    }
+
+    public synchronized void showFullDetail() {
+        idleTimer.stop();
+        for ( Map.Entry<Content, Boolean> entry: coarseContentShown.entrySet() ) {
+            Content fullContent = entry.getKey();
+            fullToCoarseContent.get( fullContent ).setVisible( false );
+            fullContent.setVisible( entry.getValue() );
+        }
+        coarseContentShown.clear();
+    }
+
+    public synchronized boolean isShowingCoarseVolume() {
+        return !coarseContentShown.isEmpty();
+    }
+
+    // Whether the content is shown, or would be once full detail is shown again
+    public synchronized boolean isVisible( Content content ) {
+        Boolean visibility = coarseContentShown.get( content );
+        return visibility != null ? visibility : content.isVisible();
+    }
+
+    public synchronized void setVisible( Content content, boolean visible ) {
+        if ( coarseContentShown.containsKey( content ) ) {
+            coarseContentShown.put( content, visible );
+            fullToCoarseContent.get( content ).setVisible( visible );
+        } else {
+            content.setVisible( visible );
+        }
+    }
+
+    // Averages factor^3 blocks of voxels into an 8-bit image
+    static ImagePlus downsample( ImagePlus image, int factor ) {
+        ImageStack stack = image.getStack();
+        int width = max( 1, stack.getWidth() / factor );
+        int height = max( 1, stack.getHeight() / factor );
+        int depth = max( 1, stack.getSize() / factor );
+
+        ImageStack coarseStack = new ImageStack( width, height );
+        for ( int z = 0; z < depth; z++ ) {
+            float[] sums = new float[ width * height ];
+            int[] counts = new int[ width * height ];
+            int zEnd = z == depth - 1 ? stack.getSize() : ( z + 1 ) * factor;
+            for ( int inputZ = z * factor; inputZ < zEnd; inputZ++ ) {
+                ImageProcessor processor = stack.getProcessor( inputZ + 1 );
+                for ( int y = 0; y < stack.getHeight(); y++ ) {
+                    int rowOffset = min( height - 1, y / factor ) * width;
+                    for ( int x = 0; x < stack.getWidth(); x++ ) {
+                        int index = rowOffset + min( width - 1, x / factor );
+                        sums[index] += processor.getf( x, y );
+                        counts[index]++;
+                    }
+                }
+            }
+
+            byte[] pixels = new byte[ sums.length ];
+            for ( int i = 0; i < pixels.length; i++ ) {
+                pixels[i] = (byte) max( 0, min( 255, round( sums[i] / counts[i] ) ) );
+            }
+            coarseStack.addSlice( "", new ByteProcessor( width, height, pixels ) );
+        }
+
+        ImagePlus coarseImage = new ImagePlus( image.getTitle() + "_coarse", coarseStack );
+        Calibration calibration = image.getCalibration();
+        Calibration coarseCalibration = coarseImage.getCalibration();
+        coarseCalibration.pixelWidth = calibration.pixelWidth * stack.getWidth() / width;
+        coarseCalibration.pixelHeight = calibration.pixelHeight * stack.getHeight() / height;
+        coarseCalibration.pixelDepth = calibration.pixelDepth * stack.getSize() / depth;
+        return coarseImage;
+    }
+}
@@ -0,0 +1,268 @@
+package de.embl.schwab.crosshair.volume;
+
+import bdv.viewer.Source;
+import ij.IJ;
+import ij.ImagePlus;
+import ij3d.Content;
+import ij3d.Image3DUniverse;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealPoint;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import org.scijava.java3d.Transform3D;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.List;
+
+import static java.lang.Math.*;
+
+// Shows only the region between the block face and the target plane in the 3D viewer - the only part that matters for
+// targeting. Under the same voxel budget as the full volume, this region can be shown at much higher resolution.
+// The region is the bounding box of the block face vertices and their projections onto the target plane, plus a
+// margin. While it is shown, the full volume is hidden (its points stay visible), and the region follows any transform
+// applied to the full volume e.g. by the microtome.
+public class VolumeRegionOfInterest<T extends RealType<T>> {
+
+    public static final double MARGIN_FRACTION = 0.1; // of the longest side of the region, added on each side
+
+    private final Image3DUniverse universe;
+    private final Source<T> source;
+    private final Content fullContent;
+    private long voxelBudget;
+    private VolumeLevelOfDetail volumeLevelOfDetail; // null if the full volume has no coarse copy
+
+    private Content regionContent;
+    // from the region's own coordinates (starting at 0) to its position in the full volume
+    private final Transform3D regionOffset;
+    // incremented on each show / hide, so regions that finish loading after they're no longer wanted are discarded
+    private int requestNumber;
+
+    public VolumeRegionOfInterest( Image3DUniverse universe, Source<T> source, Content fullContent ) {
+        this.universe = universe;
+        this.source = source;
+        this.fullContent = fullContent;
+        this.voxelBudget = VolumeUploader.getDefaultVoxelBudget();
+        this.regionOffset = new Transform3D();
+        this.requestNumber = 0;
+    }
+
+    public static VolumeRegionOfInterest<?> createFromSource( Image3DUniverse universe, Source<?> source,
+                                                              Content fullContent ) {
+        if ( !( source.getType() instanceof RealType ) ) {
+            throw new UnsupportedOperationException( "Only greyscale images can be shown in the 3D viewer" );
+        }
+        return new VolumeRegionOfInterest<>( universe, (Source) source, fullContent );
+    }
+
+    public void setVoxelBudget( long voxelBudget ) {
+        if ( voxelBudget <= 0 ) {
+            throw new UnsupportedOperationException( "Voxel budget must be greater than 0" );
+        }
+        this.voxelBudget = voxelBudget;
+    }
+
+    // Shows / hides the full volume through the level of detail, so it stays hidden while the region is shown
+    public synchronized void setVolumeLevelOfDetail( VolumeLevelOfDetail volumeLevelOfDetail ) {
+        this.volumeLevelOfDetail = volumeLevelOfDetail;
+    }
+
+    private void setFullContentVisible( boolean visible ) {
+        if ( volumeLevelOfDetail != null ) {
+            volumeLevelOfDetail.setVisible( fullContent, visible );
+        } else {
+            fullContent.setVisible( visible );
+        }
+    }
+
+    public synchronized boolean isShown() {
+        return regionContent != null;
+    }
+
+    // Reads the region on a background thread, then swaps it for the full volume
+    public void show( List<RealPoint> blockVertices, Vector3d targetNormal, Vector3d targetPoint ) {
+        if ( blockVertices.isEmpty() ) {
+            throw new UnsupportedOperationException( "Block face vertices must be set to show a region of interest" );
+        }
+
+        double[][] region = calculateRegion( blockVertices, targetNormal, targetPoint, MARGIN_FRACTION );
+        final int request;
+        synchronized ( this ) {
+            request = ++requestNumber;
+        }
+
+        IJ.log( "Loading 3D region of interest..." );
+        new Thread( () -> {
+            try {
+                addRegionContent( region, request );
+            } catch ( UnsupportedOperationException e ) {
+                IJ.log( e.getMessage() );
+            }
+        }, "Crosshair 3D region of interest" ).start();
+    }
+
+    public synchronized void hide() {
+        requestNumber++;
+        if ( regionContent != null ) {
+            universe.removeContent( regionContent.getName() );
+            regionContent = null;
+            setFullContentVisible( true );
+        }
+    }
+
+    // Call whenever the transform of the full volume changes, to keep the region in the same place relative to it
+    public synchronized void updateTransform() {
+        if ( regionContent == null ) {
+            return;
+        }
+
+        Transform3D transform = new Transform3D();
+        Transform3D rotate = new Transform3D();
+        fullContent.getLocalTranslate( transform );
+        fullContent.getLocalRotate( rotate );
+        transform.mul( rotate );
+        transform.mul( regionOffset );
+        regionContent.setTransform( transform );
+    }
+
+    private void addRegionContent( double[][] region, int request ) {
+        long[] levelVoxelCounts = new long[ source.getNumMipmapLevels() ];
+        long[][][] levelVoxelRanges = new long[ levelVoxelCounts.length ][][];
+        for ( int level = 0; level < levelVoxelCounts.length; level++ ) {
+            AffineTransform3D levelTransform = new AffineTransform3D();
+            source.getSourceTransform( 0, level, levelTransform );
+            RandomAccessibleInterval<T> levelImage = source.getSource( 0, level );
+            long[] dimensions = new long[3];
+            levelImage.dimensions( dimensions );
+            levelVoxelRanges[level] = calculateVoxelRange( region, levelTransform, dimensions );
+            if ( levelVoxelRanges[level] == null ) {
+                throw new UnsupportedOperationException( "Region of interest is outside the image" );
+            }
+
+            levelVoxelCounts[level] = 1;
+            for ( int d = 0; d < 3; d++ ) {
+                levelVoxelCounts[level] *= levelVoxelRanges[level][1][d] - levelVoxelRanges[level][0][d] + 1;
+            }
+        }
+
+        int level = VolumeUploader.chooseMipmapLevel( levelVoxelCounts, voxelBudget );
+        long[][] voxelRange = levelVoxelRanges[level];
+        AffineTransform3D levelTransform = new AffineTransform3D();
+        source.getSourceTransform( 0, level, levelTransform );
+        double[] voxelSize = VolumeUploader.getVoxelSize( levelTransform );
+
+        RandomAccessibleInterval<T> levelImage = source.getSource( 0, level );
+        // crop relative to the image's own min, in case it doesn't start at 0
+        long[] cropMin = new long[3];
+        long[] cropMax = new long[3];
+        for ( int d = 0; d < 3; d++ ) {
+            cropMin[d] = levelImage.min(d) + voxelRange[0][d];
+            cropMax[d] = levelImage.min(d) + voxelRange[1][d];
+        }
+        // same contrast as the full volume
+        double[] displayRange = new DisplayRangeEstimator<>( source ).estimate();
+        ImagePlus imagePlus = VolumeUploader.resample( Views.interval( levelImage, cropMin, cropMax ), voxelSize,
+                voxelBudget, displayRange[0], displayRange[1], VolumeUploader.getDefaultNumberOfThreads(),
+                source.getName() + "_region" );
+
+        // same placement as the full volume, which puts voxel 0 at the origin
+        double[] offset = new double[3];
+        for ( int d = 0; d < 3; d++ ) {
+            offset[d] = voxelRange[0][d] * voxelSize[d];
+        }
+
+        synchronized ( this ) {
+            if ( request != requestNumber ) {
+                // hidden, or a newer region was requested, while this one was loading
+                return;
+            }
+
+            if ( regionContent != null ) {
+                universe.removeContent( regionContent.getName() );
+            }
+            regionContent = universe.addContent( imagePlus, fullContent.getColor(), imagePlus.getTitle(), 0,
+                    new boolean[]{ true, true, true }, 1, Content.VOLUME );
+            regionContent.setLocked( true );
+            regionContent.setTransparency( fullContent.getTransparency() );
+            regionOffset.setIdentity();
+            regionOffset.setTranslation( new Vector3d( offset ) );
+            updateTransform();
+
+            // hiding the full volume also hides its points, so show them again
+            setFullContentVisible( false );
+            fullContent.showPointList( true );
+        }
+        IJ.log( "Loaded 3D region of interest" );
+    }
+
+    // Min and max corners of the region's bounding box, in physical coordinates
+    static double[][] calculateRegion( List<RealPoint> blockVertices, Vector3d targetNormal, Vector3d targetPoint,
+                                       double marginFraction ) {
+        double[][] region = new double[][]{
+                { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE },
+                { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE } };
+
+        Vector3d unitNormal = new Vector3d( targetNormal );
+        unitNormal.normalize();
+        for ( RealPoint vertex: blockVertices ) {
+            Vector3d position = new Vector3d( vertex.getDoublePosition(0), vertex.getDoublePosition(1),
+                    vertex.getDoublePosition(2) );
+
+            Vector3d toTarget = new Vector3d( targetPoint );
+            toTarget.sub( position );
+            Vector3d projection = new Vector3d( unitNormal );
+            projection.scale( unitNormal.dot( toTarget ) );
+            projection.add( position );
+
+            for ( Vector3d corner: new Vector3d[]{ position, projection } ) {
+                double[] coordinates = new double[3];
+                corner.get( coordinates );
+                for ( int d = 0; d < 3; d++ ) {
+                    region[0][d] = min( region[0][d], coordinates[d] );
+                    region[1][d] = max( region[1][d], coordinates[d] );
+                }
+            }
+        }
+
+        double longestSide = 0;
+        for ( int d = 0; d < 3; d++ ) {
+            longestSide = max( longestSide, region[1][d] - region[0][d] );
+        }
+        for ( int d = 0; d < 3; d++ ) {
+            region[0][d] -= marginFraction * longestSide;
+            region[1][d] += marginFraction * longestSide;
+        }
+        return region;
+    }
+
+    // Min and max voxel (inclusive) covering the region, clipped to the image dimensions. Null if the region is
+    // entirely outside the image.
+    static long[][] calculateVoxelRange( double[][] region, AffineTransform3D levelTransform, long[] dimensions ) {
+        long[][] voxelRange = new long[][]{
+                { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE },
+                { Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE } };
+
+        AffineTransform3D physicalToVoxel = levelTransform.inverse();
+        double[] corner = new double[3];
+        double[] voxel = new double[3];
+        for ( int i = 0; i < 8; i++ ) {
+            for ( int d = 0; d < 3; d++ ) {
+                corner[d] = ( ( i >> d ) & 1 ) == 0 ? region[0][d] : region[1][d];
+            }
+            physicalToVoxel.apply( corner, voxel );
+            for ( int d = 0; d < 3; d++ ) {
+                voxelRange[0][d] = min( voxelRange[0][d], (long) floor( voxel[d] ) );
+                voxelRange[1][d] = max( voxelRange[1][d], (long) ceil( voxel[d] ) );
+            }
+        }
+
+        for ( int d = 0; d < 3; d++ ) {
+            voxelRange[0][d] = max( 0, voxelRange[0][d] );
+            voxelRange[1][d] = min( dimensions[d] - 1, voxelRange[1][d] );
+            if ( voxelRange[0][d] > voxelRange[1][d] ) {
+                return null;
+            }
+        }
+        return voxelRange;
+    }
+}
@@ -0,0 +1,272 @@
+package de.embl.schwab.crosshair.volume;
+
+import bdv.util.BdvStackSource;
+import bdv.viewer.Source;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij3d.Content;
+import ij3d.Image3DUniverse;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.Math.*;
+
+// Adds a bdv source of any bit depth to the 3D viewer as an 8-bit volume, with at most voxelBudget voxels.
+// Intensities are mapped from the display range to 0-255 as each chunk is binned.
+// Rather than resampling from full resolution, the coarsest level of the source's mipmap pyramid that still has at
+// least voxelBudget voxels is read - so no detail is lost compared to full resolution, but far less data is read for
+// large images. That level is read in chunks of z planes on a fixed thread pool, and each chunk is binned down to the
+// budget as it is read, so the full level is never held in memory.
+public class VolumeUploader<T extends RealType<T>> {
+
+    // the budget is stored in the ImageJ preferences, so it can be tuned to the graphics memory of each machine
+    public static final String VOXEL_BUDGET_PREFERENCE = "crosshair.volume.voxelBudget";
+    public static final long DEFAULT_VOXEL_BUDGET = 300L * 300 * 300;
+
+    private static final int MAX_THREADS = 8;
+    private static final int OUTPUT_PLANES_PER_TASK = 4;
+
+    private final Source<T> source;
+    private long voxelBudget;
+    private double displayMin;
+    private double displayMax;
+    private int numberOfThreads;
+
+    public VolumeUploader( Source<T> source ) {
+        this.source = source;
+        this.voxelBudget = getDefaultVoxelBudget();
+        this.displayMin = 0;
+        this.displayMax = 255;
+        this.numberOfThreads = getDefaultNumberOfThreads();
+    }
+
+    public static VolumeUploader<?> createFromSource( Source<?> source ) {
+        if ( !( source.getType() instanceof RealType ) ) {
+            throw new UnsupportedOperationException( "Only greyscale images can be shown in the 3D viewer" );
+        }
+        return new VolumeUploader<>( (Source) source );
+    }
+
+    static int getDefaultNumberOfThreads() {
+        return min( MAX_THREADS, Runtime.getRuntime().availableProcessors() );
+    }
+
+    public static long getDefaultVoxelBudget() {
+        return (long) Prefs.get( VOXEL_BUDGET_PREFERENCE, DEFAULT_VOXEL_BUDGET );
+    }
+
+    public static void setDefaultVoxelBudget( long voxelBudget ) {
+        if ( voxelBudget <= 0 ) {
+            throw new UnsupportedOperationException( "Voxel budget must be greater than 0" );
+        }
+        Prefs.set( VOXEL_BUDGET_PREFERENCE, voxelBudget );
+    }
+
+    public void setVoxelBudget( long voxelBudget ) {
+        if ( voxelBudget <= 0 ) {
+            throw new UnsupportedOperationException( "Voxel budget must be greater than 0" );
+        }
+        this.voxelBudget = voxelBudget;
+    }
+
+    // Intensities mapped to 0 and 255 in the 8-bit volume
+    public void setDisplayRange( double displayMin, double displayMax ) {
+        this.displayMin = displayMin;
+        this.displayMax = displayMax;
+    }
+
+    public void setNumberOfThreads( int numberOfThreads ) {
+        this.numberOfThreads = max( 1, numberOfThreads );
+    }
+
+    public int chooseMipmapLevel() {
+        long[] levelVoxelCounts = new long[ source.getNumMipmapLevels() ];
+        for ( int level = 0; level < levelVoxelCounts.length; level++ ) {
+            levelVoxelCounts[level] = countVoxels( source.getSource( 0, level ) );
+        }
+        return chooseMipmapLevel( levelVoxelCounts, voxelBudget );
+    }
+
+    // Coarsest level with at least voxelBudget voxels, or full resolution if the image is smaller than the budget.
+    // Levels are ordered from full resolution (0) to coarsest.
+    static int chooseMipmapLevel( long[] levelVoxelCounts, long voxelBudget ) {
+        int chosenLevel = 0;
+        for ( int level = 0; level < levelVoxelCounts.length; level++ ) {
+            if ( levelVoxelCounts[level] >= voxelBudget ) {
+                chosenLevel = level;
+            }
+        }
+        return chosenLevel;
+    }
+
+    public ImagePlus createImagePlus() {
+        int level = chooseMipmapLevel();
+        AffineTransform3D levelTransform = new AffineTransform3D();
+        source.getSourceTransform( 0, level, levelTransform );
+
+        return resample( source.getSource( 0, level ), getVoxelSize( levelTransform ), voxelBudget, displayMin,
+                displayMax, numberOfThreads, source.getName() );
+    }
+
+    public Content addToUniverse( Image3DUniverse universe, float transparency ) {
+        ImagePlus imagePlus = createImagePlus();
+        // resampling factor of 1, as the image is already within budget
+        Content content = universe.addContent( imagePlus, null, imagePlus.getTitle(), 0,
+                new boolean[]{ true, true, true }, 1, Content.VOLUME );
+        content.setTransparency( transparency );
+        return content;
+    }
+
+    // Uploads the image shown in bdv, with a display range estimated from its histogram. The same range is set in bdv,
+    // so both viewers show the same contrast.
+    public static Content addToUniverseWithEstimatedDisplayRange( BdvStackSource<?> bdvStackSource,
+                                                                  Image3DUniverse universe, float transparency ) {
+        Source<?> source = bdvStackSource.getSources().get(0).getSpimSource();
+        double[] displayRange = DisplayRangeEstimator.createFromSource( source ).estimate();
+        SwingUtilities.invokeLater( () -> bdvStackSource.setDisplayRange( displayRange[0], displayRange[1] ) );
+
+        VolumeUploader<?> volumeUploader = createFromSource( source );
+        volumeUploader.setDisplayRange( displayRange[0], displayRange[1] );
+        return volumeUploader.addToUniverse( universe, transparency );
+    }
+
+    static <T extends RealType<T>> ImagePlus resample( RandomAccessibleInterval<T> image, double[] voxelSize,
+                                                       long voxelBudget, double displayMin, double displayMax,
+                                                       int numberOfThreads, String title ) {
+        if ( image.numDimensions() != 3 ) {
+            throw new UnsupportedOperationException( "Only 3D images can be shown in the 3D viewer" );
+        }
+
+        int[] outputDimensions = calculateOutputDimensions( image, voxelBudget );
+        byte[][] planes = new byte[ outputDimensions[2] ][];
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for ( int zStart = 0; zStart < outputDimensions[2]; zStart += OUTPUT_PLANES_PER_TASK ) {
+            final int taskZStart = zStart;
+            final int taskZEnd = min( outputDimensions[2], zStart + OUTPUT_PLANES_PER_TASK );
+            tasks.add( () -> {
+                for ( int z = taskZStart; z < taskZEnd; z++ ) {
+                    planes[z] = binPlane( image, outputDimensions, z, displayMin, displayMax );
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool( numberOfThreads );
+        try {
+            for ( Future<Void> future: executorService.invokeAll( tasks ) ) {
+                future.get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new UnsupportedOperationException( "Loading the 3D volume was interrupted" );
+        } catch ( ExecutionException e ) {
+            throw new RuntimeException( e.getCause() );
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        ImageStack stack = new ImageStack( outputDimensions[0], outputDimensions[1] );
+        for ( byte[] plane: planes ) {
+            stack.addSlice( "", new ByteProcessor( outputDimensions[0], outputDimensions[1], plane ) );
+        }
+        ImagePlus imagePlus = new ImagePlus( title, stack );
+
+        Calibration calibration = imagePlus.getCalibration();
+        calibration.pixelWidth = voxelSize[0] * image.dimension(0) / outputDimensions[0];
+        calibration.pixelHeight = voxelSize[1] * image.dimension(1) / outputDimensions[1];
+        calibration.pixelDepth = voxelSize[2] * image.dimension(2) / outputDimensions[2];
+        return imagePlus;
+    }
+
+    // Same aspect ratio as the image, scaled down (never up) to fit in the voxel budget
+    static int[] calculateOutputDimensions( RandomAccessibleInterval<?> image, long voxelBudget ) {
+        double scale = min( 1, cbrt( (double) voxelBudget / countVoxels( image ) ) );
+        int[] outputDimensions = new int[3];
+        for ( int d = 0; d < 3; d++ ) {
+            outputDimensions[d] = (int) max( 1, floor( image.dimension(d) * scale ) );
+        }
+        return outputDimensions;
+    }
+
+    // Averages all input voxels that fall inside each output voxel of plane outputZ
+    private static <T extends RealType<T>> byte[] binPlane( RandomAccessibleInterval<T> image, int[] outputDimensions,
+                                                            int outputZ, double displayMin, double displayMax ) {
+        int outputWidth = outputDimensions[0];
+        int outputHeight = outputDimensions[1];
+        double[] sums = new double[ outputWidth * outputHeight ];
+        int[] counts = new int[ outputWidth * outputHeight ];
+
+        // input voxel ranges covered by each output voxel, along x and y
+        int[] xBin = calculateBinIndices( image.dimension(0), outputWidth );
+        int[] yBin = calculateBinIndices( image.dimension(1), outputHeight );
+        long zStart = ceilDivide( image.dimension(2) * outputZ, outputDimensions[2] );
+        long zEnd = ceilDivide( image.dimension(2) * ( outputZ + 1 ), outputDimensions[2] );
+
+        RandomAccess<T> access = image.randomAccess();
+        for ( long z = zStart; z < zEnd; z++ ) {
+            access.setPosition( image.min(2) + z, 2 );
+            for ( int y = 0; y < image.dimension(1); y++ ) {
+                access.setPosition( image.min(1) + y, 1 );
+                int rowOffset = yBin[y] * outputWidth;
+                for ( int x = 0; x < image.dimension(0); x++ ) {
+                    access.setPosition( image.min(0) + x, 0 );
+                    sums[ rowOffset + xBin[x] ] += access.get().getRealDouble();
+                    counts[ rowOffset + xBin[x] ]++;
+                }
+            }
+        }
+
+        byte[] plane = new byte[ sums.length ];
+        double scale = 255 / ( displayMax - displayMin );
+        for ( int i = 0; i < plane.length; i++ ) {
+            double value = ( sums[i] / counts[i] - displayMin ) * scale;
+            plane[i] = (byte) max( 0, min( 255, round( value ) ) );
+        }
+        return plane;
+    }
+
+    // For each input index along one axis, the output index it is binned into (matching the z ranges in binPlane)
+    private static int[] calculateBinIndices( long inputSize, int outputSize ) {
+        int[] binIndices = new int[ (int) inputSize ];
+        for ( int i = 0; i < inputSize; i++ ) {
+            binIndices[i] = (int) ( (long) i * outputSize / inputSize );
+        }
+        return binIndices;
+    }
+
+    private static long ceilDivide( long numerator, long denominator ) {
+        return ( numerator + denominator - 1 ) / denominator;
+    }
+
+    static double[] getVoxelSize( AffineTransform3D transform ) {
+        double[] voxelSize = new double[3];
+        for ( int d = 0; d < 3; d++ ) {
+            voxelSize[d] = sqrt( pow( transform.get(0, d), 2 ) + pow( transform.get(1, d), 2 ) +
+                    pow( transform.get(2, d), 2 ) );
+        }
+        return voxelSize;
+    }
+
+    private static long countVoxels( RandomAccessibleInterval<?> image ) {
+        long nVoxels = 1;
+        for ( int d = 0; d < image.numDimensions(); d++ ) {
+            nVoxels *= image.dimension(d);
+        }
+        return nVoxels;
+    }
+}
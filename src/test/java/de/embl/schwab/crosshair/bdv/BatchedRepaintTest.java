@@ -0,0 +1,85 @@
+package de.embl.schwab.crosshair.bdv;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchedRepaintTest {
+
+    @Test
+    void repaintsStraightAwayOutsideABatch() {
+        AtomicInteger repaints = new AtomicInteger();
+        BatchedRepaint repaint = new BatchedRepaint( repaints::incrementAndGet );
+
+        repaint.requestRepaint();
+        repaint.requestRepaint();
+        assertEquals( 2, repaints.get() );
+    }
+
+    @Test
+    void nestedBatchesRepaintOnceAtTheEnd() {
+        AtomicInteger repaints = new AtomicInteger();
+        BatchedRepaint repaint = new BatchedRepaint( repaints::incrementAndGet );
+
+        repaint.beginBatch();
+        repaint.requestRepaint();
+        repaint.beginBatch();
+        repaint.requestRepaint();
+        repaint.endBatch();
+        // inner batch ended, but the outer one is still in progress
+        assertEquals( 0, repaints.get() );
+        repaint.requestRepaint();
+        repaint.endBatch();
+        assertEquals( 1, repaints.get() );
+
+        // nothing left pending
+        repaint.beginBatch();
+        repaint.endBatch();
+        assertEquals( 1, repaints.get() );
+    }
+
+    @Test
+    void batchWithoutRequestsDoesNotRepaint() {
+        AtomicInteger repaints = new AtomicInteger();
+        BatchedRepaint repaint = new BatchedRepaint( repaints::incrementAndGet );
+
+        repaint.beginBatch();
+        repaint.endBatch();
+        assertEquals( 0, repaints.get() );
+    }
+
+    @Test
+    void endBatchWithoutBeginThrows() {
+        BatchedRepaint repaint = new BatchedRepaint( () -> {} );
+        assertThrows( UnsupportedOperationException.class, repaint::endBatch );
+    }
+
+    @Test
+    void requestsFromOtherThreadsRepaintOnceAtTheEnd() throws InterruptedException {
+        AtomicInteger repaints = new AtomicInteger();
+        BatchedRepaint repaint = new BatchedRepaint( repaints::incrementAndGet );
+
+        repaint.beginBatch();
+        List<Thread> threads = new ArrayList<>();
+        for ( int i = 0; i < 4; i++ ) {
+            Thread thread = new Thread( () -> {
+                for ( int j = 0; j < 1000; j++ ) {
+                    repaint.requestRepaint();
+                }
+            });
+            threads.add( thread );
+            thread.start();
+        }
+        for ( Thread thread: threads ) {
+            thread.join();
+        }
+        assertEquals( 0, repaints.get() );
+
+        repaint.endBatch();
+        assertEquals( 1, repaints.get() );
+    }
+}
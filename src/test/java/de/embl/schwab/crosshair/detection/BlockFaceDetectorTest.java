@@ -0,0 +1,100 @@
+package de.embl.schwab.crosshair.detection;
+
+import de.embl.schwab.crosshair.utils.PlaneFit;
+import de.embl.schwab.crosshair.utils.PrimitiveGeometryUtils;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.ByteArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockFaceDetectorTest {
+
+    // Noisy volume of air, with resin above a tilted block face (towards +z) inside a box
+    private ArrayImg<UnsignedByteType, ByteArray> createBlockVolume( int size, double[] normal, double[] facePoint ) {
+        ArrayImg<UnsignedByteType, ByteArray> image = ArrayImgs.unsignedBytes( size, size, size );
+        RandomAccess<UnsignedByteType> access = image.randomAccess();
+        Random random = new Random( 0 );
+        double faceOffset = PrimitiveGeometryUtils.dot( normal, facePoint );
+
+        for ( int z = 0; z < size; z++ ) {
+            for ( int y = 0; y < size; y++ ) {
+                for ( int x = 0; x < size; x++ ) {
+                    double signedDistance = normal[0] * x + normal[1] * y + normal[2] * z - faceOffset;
+                    boolean inBlock = x > size * 0.1 && x < size * 0.9 && y > size * 0.1 && y < size * 0.9;
+                    double value = inBlock ? 30 + 150 / ( 1 + Math.exp( -signedDistance ) ) : 30;
+                    value += random.nextGaussian() * 10;
+                    // occasional bright specks, that shouldn't be taken as the block face
+                    if ( random.nextDouble() < 0.0005 ) {
+                        value = 250;
+                    }
+                    access.setPosition( new long[]{ x, y, z } );
+                    access.get().set( (int) Math.max( 0, Math.min( 255, value ) ) );
+                }
+            }
+        }
+        return image;
+    }
+
+    @Test
+    void detectTiltedBlockFace() {
+        double[] normal = new double[]{ 0.1, -0.15, 1 };
+        PrimitiveGeometryUtils.normalize( normal );
+        double[] facePoint = new double[]{ 64, 64, 50 };
+        ArrayImg<UnsignedByteType, ByteArray> image = createBlockVolume( 128, normal, facePoint );
+
+        // 0.5 voxel size, shifted along x
+        AffineTransform3D sourceTransform = new AffineTransform3D();
+        sourceTransform.set( 0.5, 0, 0, 10,
+                0, 0.5, 0, 0,
+                0, 0, 0.5, 0 );
+
+        BlockFaceDetector<UnsignedByteType> detector = new BlockFaceDetector<>( image, sourceTransform );
+        detector.setNumberOfThreads( 2 );
+        detector.setRayDirection( new double[]{ 0, 0, 1 } );
+        PlaneFit planeFit = detector.detect();
+
+        assertTrue( detector.getUsedThreshold() > 30 && detector.getUsedThreshold() < 180 );
+        double[] fitNormal = new double[]{ planeFit.getNormal().getX(), planeFit.getNormal().getY(),
+                planeFit.getNormal().getZ() };
+        assertEquals( 1, Math.abs( PrimitiveGeometryUtils.dot( normal, fitNormal ) ), 1E-4 );
+
+        // fitted point should lie on the face, in global coordinates
+        double[] expectedPoint = new double[3];
+        sourceTransform.apply( facePoint, expectedPoint );
+        double[] fitPoint = new double[]{ planeFit.getPoint().getX(), planeFit.getPoint().getY(),
+                planeFit.getPoint().getZ() };
+        assertEquals( 0, PrimitiveGeometryUtils.distanceFromPointToPlane( fitPoint, normal, expectedPoint ), 0.1 );
+    }
+
+    @Test
+    void raysStartingInResinAreIgnored() {
+        double[] normal = new double[]{ 0, 0, 1 };
+        ArrayImg<UnsignedByteType, ByteArray> image = createBlockVolume( 32, normal, new double[]{ 16, 16, 16 } );
+
+        BlockFaceDetector<UnsignedByteType> detector = new BlockFaceDetector<>( image, new AffineTransform3D() );
+        // looking from the resin side, every ray in the block starts inside resin
+        detector.setRayDirection( new double[]{ 0, 0, -1 } );
+        assertThrows( UnsupportedOperationException.class, detector::detect );
+    }
+
+    @Test
+    void otsuSplitsBimodalHistogram() {
+        long[] histogram = new long[256];
+        for ( int i = 20; i < 40; i++ ) {
+            histogram[i] = 100;
+        }
+        for ( int i = 150; i < 200; i++ ) {
+            histogram[i] = 50;
+        }
+
+        int thresholdBin = BlockFaceDetector.calculateOtsuBin( histogram );
+        assertTrue( thresholdBin >= 39 && thresholdBin < 150 );
+    }
+}
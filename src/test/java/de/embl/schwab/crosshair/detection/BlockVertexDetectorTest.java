@@ -0,0 +1,110 @@
+package de.embl.schwab.crosshair.detection;
+
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.utils.PrimitiveGeometryUtils;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.ByteArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockVertexDetectorTest {
+
+    // Noisy volume with a rectangular block of resin, whose face is at z = faceZ (air below, resin above)
+    private ArrayImg<UnsignedByteType, ByteArray> createBlockVolume( int size, int faceZ, int blockMin, int blockMax ) {
+        ArrayImg<UnsignedByteType, ByteArray> image = ArrayImgs.unsignedBytes( size, size, size );
+        RandomAccess<UnsignedByteType> access = image.randomAccess();
+        Random random = new Random( 0 );
+
+        for ( int z = 0; z < size; z++ ) {
+            for ( int y = 0; y < size; y++ ) {
+                for ( int x = 0; x < size; x++ ) {
+                    boolean inBlock = z >= faceZ && x >= blockMin && x <= blockMax && y >= blockMin && y <= blockMax;
+                    double value = ( inBlock ? 180 : 30 ) + random.nextGaussian() * 10;
+                    access.setPosition( new long[]{ x, y, z } );
+                    access.get().set( (int) Math.max( 0, Math.min( 255, value ) ) );
+                }
+            }
+        }
+        return image;
+    }
+
+    @Test
+    void detectAndAssignCorners() {
+        ArrayImg<UnsignedByteType, ByteArray> image = createBlockVolume( 96, 40, 20, 70 );
+        BlockVertexDetector<UnsignedByteType> detector = new BlockVertexDetector<>( image, new AffineTransform3D() );
+        detector.setNumberOfThreads( 2 );
+
+        // viewed from below the block face (outside the block), with y up on the screen
+        Map<VertexPoint, double[]> vertices = detector.detect( new double[]{ 0, 0, 1 }, new double[]{ 0, 0, 39.5 },
+                new double[]{ 0, 0, -1 }, new double[]{ 0, 1, 0 } );
+
+        assertEquals( 4, vertices.size() );
+        // looking along +z with y up, +x is to the left
+        assertArrayEquals( new double[]{ 70, 70, 39.5 }, vertices.get( VertexPoint.TopLeft ), 1.5 );
+        assertArrayEquals( new double[]{ 20, 70, 39.5 }, vertices.get( VertexPoint.TopRight ), 1.5 );
+        assertArrayEquals( new double[]{ 70, 20, 39.5 }, vertices.get( VertexPoint.BottomLeft ), 1.5 );
+        assertArrayEquals( new double[]{ 20, 20, 39.5 }, vertices.get( VertexPoint.BottomRight ), 1.5 );
+
+        // bottom edge x up points out of the block
+        double[] bottomEdge = new double[3];
+        double[] leftEdge = new double[3];
+        double[] outward = new double[3];
+        PrimitiveGeometryUtils.subtract( vertices.get( VertexPoint.BottomRight ), vertices.get( VertexPoint.BottomLeft ), bottomEdge );
+        PrimitiveGeometryUtils.subtract( vertices.get( VertexPoint.TopLeft ), vertices.get( VertexPoint.BottomLeft ), leftEdge );
+        PrimitiveGeometryUtils.cross( bottomEdge, leftEdge, outward );
+        assertTrue( outward[2] < 0 );
+    }
+
+    @Test
+    void largestRegionIgnoresSpecks() {
+        int width = 10;
+        int height = 10;
+        float[] values = new float[ width * height ];
+        // 3x3 square, plus a single separate bright pixel
+        for ( int y = 2; y < 5; y++ ) {
+            for ( int x = 2; x < 5; x++ ) {
+                values[ y * width + x ] = 1;
+            }
+        }
+        values[ 8 * width + 8 ] = 1;
+
+        boolean[] mask = BlockVertexDetector.findLargestRegion( values, width, height, 0.5 );
+        assertTrue( mask[ 3 * width + 3 ] );
+        assertFalse( mask[ 8 * width + 8 ] );
+    }
+
+    @Test
+    void simplifyHullToQuadrilateral() {
+        // square with slightly cut corners
+        List<double[]> polygon = new ArrayList<>();
+        polygon.add( new double[]{ 1, 0 } );
+        polygon.add( new double[]{ 9, 0 } );
+        polygon.add( new double[]{ 10, 1 } );
+        polygon.add( new double[]{ 10, 9 } );
+        polygon.add( new double[]{ 9, 10 } );
+        polygon.add( new double[]{ 1, 10 } );
+        polygon.add( new double[]{ 0, 9 } );
+        polygon.add( new double[]{ 0, 1 } );
+
+        BlockVertexDetector.simplifyToQuadrilateral( polygon );
+        assertEquals( 4, polygon.size() );
+    }
+
+    @Test
+    void assignVertices() {
+        double[][] corners = new double[][]{ {5, -4}, {-5, 4}, {-6, -5}, {6, 5} };
+        VertexPoint[] assignment = BlockVertexDetector.assignVertices( corners );
+        assertArrayEquals( new VertexPoint[]{ VertexPoint.BottomRight, VertexPoint.TopLeft, VertexPoint.BottomLeft,
+                VertexPoint.TopRight }, assignment );
+    }
+}
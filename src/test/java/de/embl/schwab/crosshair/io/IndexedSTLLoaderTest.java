@@ -0,0 +1,99 @@
+package de.embl.schwab.crosshair.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexedSTLLoaderTest {
+
+    // Tetrahedron - 4 triangles sharing 4 vertices
+    private static final float[][] TETRAHEDRON = {
+            {0, 0, 0}, {1, 0, 0}, {0, 1, 0},
+            {0, 0, 0}, {0, 0, 1}, {1, 0, 0},
+            {0, 0, 0}, {0, 1, 0}, {0, 0, 1},
+            {1, 0, 0}, {0, 0, 1}, {0, 1, 0}
+    };
+
+    private ByteBuffer createBinarySTL( String header, float[][] triangleVertices ) {
+        int numberOfTriangles = triangleVertices.length / 3;
+        ByteBuffer buffer = ByteBuffer.allocate( 84 + 50 * numberOfTriangles ).order( ByteOrder.LITTLE_ENDIAN );
+        byte[] headerBytes = Arrays.copyOf( header.getBytes( StandardCharsets.US_ASCII ), 80 );
+        buffer.put( headerBytes );
+        buffer.putInt( numberOfTriangles );
+        for ( int t = 0; t < numberOfTriangles; t++ ) {
+            // normal
+            buffer.putFloat( 0 ).putFloat( 0 ).putFloat( 0 );
+            for ( int i = 0; i < 3; i++ ) {
+                float[] vertex = triangleVertices[ 3 * t + i ];
+                buffer.putFloat( vertex[0] ).putFloat( vertex[1] ).putFloat( vertex[2] );
+            }
+            buffer.putShort( (short) 0 );
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer createAsciiSTL( float[][] triangleVertices ) {
+        StringBuilder text = new StringBuilder( "solid tetrahedron\n" );
+        for ( int t = 0; t < triangleVertices.length / 3; t++ ) {
+            text.append( "  facet normal 0 0 0\n    outer loop\n" );
+            for ( int i = 0; i < 3; i++ ) {
+                float[] vertex = triangleVertices[ 3 * t + i ];
+                text.append( "      vertex " ).append( vertex[0] ).append( " " ).append( vertex[1] ).append( " " )
+                        .append( vertex[2] ).append( "\n" );
+            }
+            text.append( "    endloop\n  endfacet\n" );
+        }
+        text.append( "endsolid tetrahedron\n" );
+        return ByteBuffer.wrap( text.toString().getBytes( StandardCharsets.US_ASCII ) );
+    }
+
+    private void assertTetrahedron( IndexedMesh mesh ) {
+        assertEquals( 4, mesh.getNumberOfVertices() );
+        assertEquals( 4, mesh.getNumberOfTriangles() );
+
+        // every triangle corner should point to the original coordinates
+        float[] vertices = mesh.getVertices();
+        int[] triangles = mesh.getTriangles();
+        for ( int i = 0; i < triangles.length; i++ ) {
+            float[] expected = TETRAHEDRON[i];
+            assertArrayEquals( expected, Arrays.copyOfRange( vertices, 3 * triangles[i], 3 * triangles[i] + 3 ) );
+        }
+    }
+
+    @Test
+    void loadBinaryAndWeldVertices() throws IOException {
+        assertTetrahedron( IndexedSTLLoader.parse( createBinarySTL( "binary", TETRAHEDRON ) ) );
+    }
+
+    @Test
+    void loadBinaryWithSolidHeader() throws IOException {
+        assertTetrahedron( IndexedSTLLoader.parse( createBinarySTL( "solid exported from blender", TETRAHEDRON ) ) );
+    }
+
+    @Test
+    void loadAscii() throws IOException {
+        assertTetrahedron( IndexedSTLLoader.parse( createAsciiSTL( TETRAHEDRON ) ) );
+    }
+
+    @Test
+    void truncatedBinaryThrows() {
+        ByteBuffer buffer = createBinarySTL( "binary", TETRAHEDRON );
+        buffer.limit( buffer.limit() - 20 );
+        assertThrows( IOException.class, () -> IndexedSTLLoader.parse( buffer ) );
+    }
+
+    @Test
+    void loadMicrotomeResource() throws IOException {
+        IndexedMesh mesh = IndexedSTLLoader.loadResource( "/knife.stl" );
+        assertTrue( mesh.getNumberOfTriangles() > 0 );
+        // shared vertices are only stored once
+        assertTrue( mesh.getNumberOfVertices() < 3 * mesh.getNumberOfTriangles() );
+    }
+}
@@ -0,0 +1,52 @@
+package de.embl.schwab.crosshair.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IoHelperTest {
+
+    private void writeText( File file, String text ) throws IOException {
+        try ( FileWriter writer = new FileWriter( file ) ) {
+            writer.write( text );
+        }
+    }
+
+    private String readText( File file ) throws IOException {
+        return new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+    }
+
+    @Test
+    void writeAtomicallyReplacesFile( @TempDir Path tempDir ) throws IOException {
+        File file = tempDir.resolve( "settings.json" ).toFile();
+        writeText( file, "old" );
+
+        IoHelper.writeAtomically( file, tempFile -> writeText( tempFile, "new" ) );
+
+        assertEquals( "new", readText( file ) );
+        assertEquals( 1, tempDir.toFile().listFiles().length );
+    }
+
+    @Test
+    void failedWriteKeepsOriginalFile( @TempDir Path tempDir ) throws IOException {
+        File file = tempDir.resolve( "settings.json" ).toFile();
+        writeText( file, "old" );
+
+        assertThrows( IOException.class, () -> IoHelper.writeAtomically( file, tempFile -> {
+            writeText( tempFile, "half written" );
+            throw new IOException( "disk full" );
+        }));
+
+        // no temporary files are left behind
+        assertEquals( "old", readText( file ) );
+        assertEquals( 1, tempDir.toFile().listFiles().length );
+    }
+}
@@ -0,0 +1,113 @@
+package de.embl.schwab.crosshair.plane;
+
+import customnode.CustomMesh;
+import customnode.CustomMeshNode;
+import de.embl.schwab.crosshair.bdv.BatchedRepaint;
+import de.embl.schwab.crosshair.settings.PlaneSettings;
+import de.embl.schwab.crosshair.utils.PrimitiveGeometryUtils;
+import ij3d.Content;
+import ij3d.Image3DUniverse;
+import org.junit.jupiter.api.Test;
+import org.scijava.java3d.GeometryArray;
+import org.scijava.java3d.TriangleArray;
+import org.scijava.vecmath.Color3f;
+import org.scijava.vecmath.Point3d;
+import org.scijava.vecmath.Point3f;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PlaneCreatorTest {
+
+    // image from (0, 0, 0) to (100, 100, 100), without any transform
+    private Content mockImageContent() {
+        Content imageContent = mock( Content.class );
+        doAnswer( invocation -> {
+            invocation.<Point3d>getArgument( 0 ).set( 0, 0, 0 );
+            return null;
+        }).when( imageContent ).getMin( any( Point3d.class ) );
+        doAnswer( invocation -> {
+            invocation.<Point3d>getArgument( 0 ).set( 100, 100, 100 );
+            return null;
+        }).when( imageContent ).getMax( any( Point3d.class ) );
+        return imageContent;
+    }
+
+    private void assertGeometryAtZ( GeometryArray geometry, List<Point3f> vertices, double z ) {
+        float[] coordinates = new float[ 3 * vertices.size() ];
+        geometry.getCoordinates( 0, coordinates );
+        for ( int i = 0; i < vertices.size(); i++ ) {
+            assertEquals( z, coordinates[ 3 * i + 2 ], 1E-6 );
+            assertEquals( z, vertices.get(i).z, 1E-6 );
+        }
+    }
+
+    @Test
+    void deferredMeshReusesMeshOfTheSameName() {
+        // mesh left in the universe by a plane of the same name, e.g. one removed while loading settings
+        int numberOfVertices = 3 * ( PrimitiveGeometryUtils.MAX_BOX_INTERSECTIONS - 2 );
+        List<Point3f> vertices = new ArrayList<>();
+        for ( int i = 0; i < numberOfVertices; i++ ) {
+            vertices.add( new Point3f() );
+        }
+        TriangleArray geometry = new TriangleArray( numberOfVertices,
+                GeometryArray.COORDINATES | GeometryArray.NORMALS );
+        geometry.setCapability( GeometryArray.ALLOW_COORDINATE_WRITE );
+        geometry.setCapability( GeometryArray.ALLOW_NORMAL_WRITE );
+        CustomMesh customMesh = mock( CustomMesh.class );
+        when( customMesh.getMesh() ).thenReturn( vertices );
+        when( customMesh.getGeometry() ).thenReturn( geometry );
+        CustomMeshNode meshNode = mock( CustomMeshNode.class );
+        when( meshNode.getMesh() ).thenReturn( customMesh );
+        Content oldMesh = mock( Content.class );
+        when( oldMesh.getContent() ).thenReturn( meshNode );
+
+        Image3DUniverse universe = mock( Image3DUniverse.class );
+        when( universe.contains( "target" ) ).thenReturn( true );
+        when( universe.getContent( "target" ) ).thenReturn( oldMesh );
+
+        PlaneCreator planeCreator = new PlaneCreator( universe, mockImageContent(), null, null,
+                new BatchedRepaint( () -> {} ) );
+
+        PlaneSettings planeSettings = new PlaneSettings();
+        planeSettings.name = "target";
+        planeSettings.color = new Color3f( 0, 0, 1 );
+        planeSettings.transparency = 0.3f;
+        planeSettings.isVisible = false;
+        Plane plane = new Plane( planeSettings, null, null, null );
+
+        // while deferring, only the orientation is stored
+        planeCreator.setDeferringMeshes( true );
+        planeCreator.updatePlaneOrientation( plane, new Vector3d( 0, 0, 1 ), new Vector3d( 50, 50, 50 ) );
+        assertNull( plane.getMesh() );
+        assertEquals( new Vector3d( 0, 0, 1 ), plane.getNormal() );
+        verify( universe, never() ).addCustomMesh( any( CustomMesh.class ), anyString() );
+
+        planeCreator.setDeferringMeshes( false );
+        planeCreator.createDeferredMesh( plane );
+
+        // the old mesh is updated in place, rather than removed and a new one added - and its geometry is written
+        // to, rather than rebuilt
+        assertSame( oldMesh, plane.getMesh() );
+        verify( universe, never() ).removeContent( anyString() );
+        verify( universe, never() ).addCustomMesh( any( CustomMesh.class ), anyString() );
+        assertGeometryAtZ( geometry, vertices, 50 );
+
+        // with this plane's display settings, not the old one's
+        verify( oldMesh ).setColor( new Color3f( 0, 0, 1 ) );
+        verify( oldMesh ).setTransparency( 0.3f );
+        verify( oldMesh ).setVisible( false );
+
+        // as are later updates, e.g. while tracking
+        planeCreator.updatePlaneOrientation( plane, new Vector3d( 0, 0, 1 ), new Vector3d( 20, 20, 20 ) );
+        assertSame( oldMesh, plane.getMesh() );
+        assertGeometryAtZ( geometry, vertices, 20 );
+        verify( customMesh, never() ).update();
+        verify( meshNode, never() ).update();
+        verify( universe, never() ).addCustomMesh( any( CustomMesh.class ), anyString() );
+    }
+}
@@ -0,0 +1,132 @@
+package de.embl.schwab.crosshair.points;
+
+import net.imglib2.RealPoint;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointIndexTest {
+
+    // Id of the nearest point within maxDistance in the viewer, by checking every point
+    private int findNearestByScan( Map<Integer, RealPoint> points, RealPoint point, AffineTransform3D transform,
+                                   double maxDistance ) {
+        double[] viewerPosition = new double[3];
+        double[] position = new double[3];
+        point.localize( position );
+        transform.apply( position, viewerPosition );
+
+        int nearestId = -1;
+        double nearestDistance = maxDistance;
+        for ( Map.Entry<Integer, RealPoint> entry: points.entrySet() ) {
+            double[] currentViewerPosition = new double[3];
+            entry.getValue().localize( position );
+            transform.apply( position, currentViewerPosition );
+            double distance = Math.sqrt( Math.pow( viewerPosition[0] - currentViewerPosition[0], 2 ) +
+                    Math.pow( viewerPosition[1] - currentViewerPosition[1], 2 ) +
+                    Math.pow( viewerPosition[2] - currentViewerPosition[2], 2 ) );
+            if ( distance < nearestDistance ) {
+                nearestDistance = distance;
+                nearestId = entry.getKey();
+            }
+        }
+        return nearestId;
+    }
+
+    @Test
+    void nearestPointMatchesLinearScan() {
+        Random random = new Random( 42 );
+        Map<Integer, RealPoint> points = new HashMap<>();
+        List<Integer> ids = new ArrayList<>();
+        PointIndex pointIndex = new PointIndex();
+        for ( int id = 0; id < 2000; id++ ) {
+            RealPoint point = new RealPoint( random.nextDouble() * 100, random.nextDouble() * 100,
+                    random.nextDouble() * 100 );
+            points.put( id, point );
+            ids.add( id );
+            pointIndex.add( id, point );
+        }
+
+        // remove some, to check removed points are never matched
+        for ( int i = 0; i < 500; i++ ) {
+            int id = ids.remove( random.nextInt( ids.size() ) );
+            assertTrue( pointIndex.remove( id, points.remove( id ) ) );
+        }
+        assertEquals( points.size(), pointIndex.size() );
+
+        // zoomed in and rotated view
+        AffineTransform3D viewerTransform = new AffineTransform3D();
+        viewerTransform.set( 0, -4, 0, 10, 4, 0, 0, -20, 0, 0, 4, 5 );
+
+        for ( int i = 0; i < 200; i++ ) {
+            RealPoint click = new RealPoint( random.nextDouble() * 100, random.nextDouble() * 100,
+                    random.nextDouble() * 100 );
+            assertEquals( findNearestByScan( points, click, viewerTransform, 5 ),
+                    pointIndex.getNearestIdInViewer( click, viewerTransform, 5 ) );
+        }
+    }
+
+    @Test
+    void sortedInsertionsStayBalanced() {
+        PointIndex pointIndex = new PointIndex();
+        for ( int i = 0; i < 10000; i++ ) {
+            pointIndex.add( i, i, i, i );
+        }
+
+        assertEquals( 5000, pointIndex.getNearestIdInViewer( new RealPoint( 5000.1, 5000, 5000 ),
+                new AffineTransform3D(), 1 ) );
+        assertEquals( 10000, pointIndex.size() );
+        // scapegoat depth bound: log base 1/0.7 of the number of nodes, plus the root
+        assertTrue( pointIndex.getDepth() <= Math.log( 10000 ) / Math.log( 1 / 0.7 ) + 1 );
+    }
+
+    @Test
+    void sortedInsertionsWithRemovalsMatchLinearScan() {
+        Map<Integer, RealPoint> points = new HashMap<>();
+        PointIndex pointIndex = new PointIndex();
+        for ( int id = 0; id < 3000; id++ ) {
+            // points clicked along a line, with some removed again straight away
+            RealPoint point = new RealPoint( id * 0.5, 10, 20 - id * 0.1 );
+            pointIndex.add( id, point );
+            if ( id % 3 == 0 ) {
+                assertTrue( pointIndex.remove( id, point ) );
+            } else {
+                points.put( id, point );
+            }
+        }
+        assertEquals( points.size(), pointIndex.size() );
+
+        AffineTransform3D viewerTransform = new AffineTransform3D();
+        for ( int i = 0; i < 3000; i += 7 ) {
+            RealPoint click = new RealPoint( i * 0.5 + 0.1, 10, 20 - i * 0.1 );
+            assertEquals( findNearestByScan( points, click, viewerTransform, 1 ),
+                    pointIndex.getNearestIdInViewer( click, viewerTransform, 1 ) );
+        }
+    }
+
+    @Test
+    void removeByIdAndClear() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        int firstId = pointStore.add( 1, 2, 3 );
+        int secondId = pointStore.add( 1, 2, 3 );
+        PointIndex pointIndex = new PointIndex( pointStore.snapshot() );
+
+        // overlapping points are told apart by their id
+        assertTrue( pointIndex.remove( secondId, new RealPoint( 1, 2, 3 ) ) );
+        assertEquals( 1, pointIndex.size() );
+        assertEquals( firstId, pointIndex.findId( new RealPoint( 1, 2, 3 ) ) );
+        assertFalse( pointIndex.remove( secondId, new RealPoint( 1, 2, 3 ) ) );
+        assertFalse( pointIndex.remove( firstId, new RealPoint( 4, 5, 6 ) ) );
+
+        pointIndex.clear();
+        assertEquals( 0, pointIndex.size() );
+        assertEquals( -1, pointIndex.findId( new RealPoint( 1, 2, 3 ) ) );
+        assertEquals( -1, pointIndex.getNearestIdInViewer( new RealPoint( 1, 2, 3 ), new AffineTransform3D(), 5 ) );
+    }
+}
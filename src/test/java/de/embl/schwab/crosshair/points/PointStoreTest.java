@@ -0,0 +1,206 @@
+package de.embl.schwab.crosshair.points;
+
+import net.imglib2.RealPoint;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointStoreTest {
+
+    private double[] getPosition( PointStore<?> pointStore, int id ) {
+        double[] position = new double[3];
+        pointStore.getPoint( id ).localize( position );
+        return position;
+    }
+
+    @Test
+    void idsStayValidAfterRemovals() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        int[] ids = new int[100];
+        for ( int i = 0; i < ids.length; i++ ) {
+            ids[i] = pointStore.add( i, 2 * i, 3 * i );
+        }
+
+        // removing from the middle moves the last point into its place
+        for ( int i = 0; i < ids.length; i += 3 ) {
+            assertTrue( pointStore.remove( ids[i] ) );
+        }
+
+        for ( int i = 0; i < ids.length; i++ ) {
+            if ( i % 3 == 0 ) {
+                assertFalse( pointStore.contains( ids[i] ) );
+            } else {
+                assertArrayEquals( new double[]{ i, 2 * i, 3 * i }, getPosition( pointStore, ids[i] ) );
+            }
+        }
+        assertEquals( 66, pointStore.size() );
+        assertFalse( pointStore.remove( ids[0] ) );
+    }
+
+    @Test
+    void findId() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        pointStore.add( 1, 2, 3 );
+        int id = pointStore.add( 4, 5, 6 );
+
+        assertEquals( id, pointStore.findId( new RealPoint( 4, 5, 6 ) ) );
+        assertEquals( id, pointStore.findId( pointStore.getPoint( id ) ) );
+        assertEquals( -1, pointStore.findId( new RealPoint( 4, 5, 7 ) ) );
+    }
+
+    @Test
+    void labelsAreUnique() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        int firstId = pointStore.add( 1, 2, 3 );
+        int secondId = pointStore.add( 4, 5, 6 );
+
+        pointStore.setLabel( firstId, VertexPoint.TopLeft );
+        pointStore.setLabel( secondId, VertexPoint.TopLeft );
+        assertNull( pointStore.getLabel( firstId ) );
+        assertEquals( secondId, pointStore.getIdWithLabel( VertexPoint.TopLeft ) );
+
+        // a new label replaces the point's old one
+        pointStore.setLabel( secondId, VertexPoint.BottomRight );
+        assertEquals( -1, pointStore.getIdWithLabel( VertexPoint.TopLeft ) );
+        assertEquals( VertexPoint.BottomRight, pointStore.getLabel( secondId ) );
+    }
+
+    @Test
+    void labelsMoveWithSwappedPoints() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        int firstId = pointStore.add( 1, 2, 3 );
+        int secondId = pointStore.add( 4, 5, 6 );
+        int lastId = pointStore.add( 7, 8, 9 );
+        pointStore.setLabel( secondId, VertexPoint.TopRight );
+        pointStore.setLabel( lastId, VertexPoint.BottomLeft );
+
+        pointStore.remove( firstId );
+        pointStore.remove( secondId );
+
+        assertEquals( -1, pointStore.getIdWithLabel( VertexPoint.TopRight ) );
+        assertEquals( lastId, pointStore.getIdWithLabel( VertexPoint.BottomLeft ) );
+        assertEquals( VertexPoint.BottomLeft, pointStore.getLabel( lastId ) );
+
+        Map<VertexPoint, RealPoint> labelledPoints = pointStore.getLabelledPoints();
+        assertEquals( 1, labelledPoints.size() );
+        assertArrayEquals( new double[]{ 7, 8, 9 }, labelledPoints.get( VertexPoint.BottomLeft ).positionAsDoubleArray() );
+    }
+
+    @Test
+    void snapshotsMatchStoredPoints() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        List<Integer> ids = new ArrayList<>();
+        for ( int i = 0; i < 5; i++ ) {
+            ids.add( pointStore.add( i, i, i ) );
+        }
+        pointStore.remove( ids.get(1) );
+        pointStore.setLabel( ids.get(3), VertexPoint.TopLeft );
+
+        PointStore.Snapshot<VertexPoint> snapshot = pointStore.snapshot();
+        ArrayList<RealPoint> copy = snapshot.toRealPoints();
+        double[] coordinates = snapshot.copyCoordinates();
+        assertEquals( 4, snapshot.size() );
+        assertEquals( 4, copy.size() );
+        assertEquals( 12, coordinates.length );
+        double[] position = new double[3];
+        for ( int index = 0; index < snapshot.size(); index++ ) {
+            int id = snapshot.getId( index );
+            snapshot.localize( index, position );
+            assertArrayEquals( getPosition( pointStore, id ), position );
+            assertArrayEquals( getPosition( pointStore, id ), copy.get( index ).positionAsDoubleArray() );
+            assertEquals( pointStore.getLabel( id ), snapshot.getLabel( index ) );
+            for ( int d = 0; d < 3; d++ ) {
+                assertEquals( position[d], snapshot.getDoublePosition( index, d ) );
+                assertEquals( position[d], coordinates[3 * index + d] );
+            }
+        }
+        assertThrows( IndexOutOfBoundsException.class, () -> snapshot.getId( 4 ) );
+    }
+
+    @Test
+    void snapshotsDontChangeWithStore() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        int firstId = pointStore.add( 1, 2, 3 );
+        int secondId = pointStore.add( 4, 5, 6 );
+        pointStore.setLabel( secondId, VertexPoint.TopLeft );
+
+        PointStore.Snapshot<VertexPoint> snapshot = pointStore.snapshot();
+        pointStore.remove( firstId );
+        pointStore.setLabel( secondId, VertexPoint.BottomRight );
+        pointStore.add( 7, 8, 9 );
+
+        assertEquals( 2, snapshot.size() );
+        ArrayList<RealPoint> points = snapshot.toRealPoints();
+        assertArrayEquals( new double[]{ 1, 2, 3 }, points.get(0).positionAsDoubleArray() );
+        assertArrayEquals( new double[]{ 4, 5, 6 }, points.get(1).positionAsDoubleArray() );
+        Map<VertexPoint, RealPoint> labelledPoints = snapshot.getLabelledPoints();
+        assertEquals( 1, labelledPoints.size() );
+        assertArrayEquals( new double[]{ 4, 5, 6 }, labelledPoints.get( VertexPoint.TopLeft ).positionAsDoubleArray() );
+
+        // the store itself has all the changes
+        assertEquals( 2, pointStore.size() );
+        assertEquals( VertexPoint.BottomRight, pointStore.getLabel( secondId ) );
+    }
+
+    @Test
+    void changesAfterSnapshotOnlyCopyTheChunksTheyTouch() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        int numberOfPoints = 10 * PointStore.CHUNK_SIZE;
+        int[] ids = new int[numberOfPoints];
+        for ( int i = 0; i < numberOfPoints; i++ ) {
+            ids[i] = pointStore.add( i, i, i );
+        }
+
+        // e.g. a redraw, then removing a point from the first chunk (the last point moves into its place) and
+        // labelling one in the middle
+        PointStore.Snapshot<VertexPoint> before = pointStore.snapshot();
+        pointStore.remove( ids[5] );
+        pointStore.setLabel( ids[ 4 * PointStore.CHUNK_SIZE ], VertexPoint.TopLeft );
+        PointStore.Snapshot<VertexPoint> after = pointStore.snapshot();
+
+        int lastChunkIndex = numberOfPoints - PointStore.CHUNK_SIZE;
+        int labelChunkIndex = 4 * PointStore.CHUNK_SIZE;
+        assertNotSame( before.getCoordinateChunk( 0 ), after.getCoordinateChunk( 0 ) );
+        assertNotSame( before.getCoordinateChunk( lastChunkIndex ), after.getCoordinateChunk( lastChunkIndex ) );
+        assertNotSame( before.getCoordinateChunk( labelChunkIndex ), after.getCoordinateChunk( labelChunkIndex ) );
+        for ( int chunk = 1; chunk < 9; chunk++ ) {
+            if ( chunk != 4 ) {
+                int index = chunk * PointStore.CHUNK_SIZE;
+                assertSame( before.getCoordinateChunk( index ), after.getCoordinateChunk( index ) );
+            }
+        }
+
+        // and neither snapshot sees the other's changes
+        assertEquals( numberOfPoints, before.size() );
+        assertEquals( 5, before.getDoublePosition( 5, 0 ) );
+        assertNull( before.getLabel( labelChunkIndex ) );
+        assertEquals( numberOfPoints - 1, after.size() );
+        assertEquals( numberOfPoints - 1, after.getDoublePosition( 5, 0 ) );
+        assertEquals( VertexPoint.TopLeft, after.getLabel( labelChunkIndex ) );
+    }
+
+    @Test
+    void snapshotsSpanningChunksMatchStoredPoints() {
+        PointStore<VertexPoint> pointStore = new PointStore<>();
+        int numberOfPoints = 3 * PointStore.CHUNK_SIZE + 7;
+        for ( int i = 0; i < numberOfPoints; i++ ) {
+            pointStore.add( i, 2 * i, 3 * i );
+        }
+
+        double[] coordinates = pointStore.snapshot().copyCoordinates();
+        assertEquals( 3 * numberOfPoints, coordinates.length );
+        for ( int i = 0; i < numberOfPoints; i++ ) {
+            assertArrayEquals( new double[]{ i, 2 * i, 3 * i }, Arrays.copyOfRange( coordinates, 3 * i, 3 * i + 3 ) );
+        }
+
+        pointStore.clear();
+        assertTrue( pointStore.snapshot().isEmpty() );
+        int id = pointStore.add( 1, 2, 3 );
+        assertArrayEquals( new double[]{ 1, 2, 3 }, getPosition( pointStore, id ) );
+    }
+}
@@ -0,0 +1,79 @@
+package de.embl.schwab.crosshair.points.overlays;
+
+import de.embl.schwab.crosshair.points.PointStore;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DepthSortedPointsTest {
+
+    private Set<Integer> findNearViewPlaneByScan( PointStore.Snapshot<?> points, AffineTransform3D viewerTransform,
+                                                  double maxViewerDistance ) {
+        Set<Integer> nearIds = new HashSet<>();
+        double[] position = new double[3];
+        double[] viewerPosition = new double[3];
+        for ( int index = 0; index < points.size(); index++ ) {
+            points.localize( index, position );
+            viewerTransform.apply( position, viewerPosition );
+            if ( Math.abs( viewerPosition[2] ) < maxViewerDistance ) {
+                nearIds.add( points.getId( index ) );
+            }
+        }
+        return nearIds;
+    }
+
+    private Set<Integer> getIdsNearViewPlane( DepthSortedPoints sortedPoints, AffineTransform3D viewerTransform,
+                                              double maxViewerDistance ) {
+        Set<Integer> nearIds = new HashSet<>();
+        for ( int index: sortedPoints.getIndicesNearViewPlane( viewerTransform, maxViewerDistance ) ) {
+            nearIds.add( sortedPoints.getPoints().getId( index ) );
+        }
+        return nearIds;
+    }
+
+    @Test
+    void pointsNearViewPlaneMatchScan() {
+        Random random = new Random( 7 );
+        PointStore<Void> pointStore = new PointStore<>();
+        for ( int i = 0; i < 5000; i++ ) {
+            pointStore.add( random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble() * 100 );
+        }
+        PointStore.Snapshot<Void> points = pointStore.snapshot();
+        DepthSortedPoints sortedPoints = new DepthSortedPoints();
+        sortedPoints.setPoints( points );
+
+        // straight on, then zoomed and panned (same direction, so no re-sort), then rotated
+        AffineTransform3D viewerTransform = new AffineTransform3D();
+        viewerTransform.set( 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, -50 );
+        assertEquals( findNearViewPlaneByScan( points, viewerTransform, 5 ),
+                getIdsNearViewPlane( sortedPoints, viewerTransform, 5 ) );
+
+        viewerTransform.set( 3, 0, 0, 10, 0, 3, 0, 20, 0, 0, 3, -120 );
+        assertEquals( findNearViewPlaneByScan( points, viewerTransform, 5 ),
+                getIdsNearViewPlane( sortedPoints, viewerTransform, 5 ) );
+
+        viewerTransform.set( 0.6, 0, -0.8, 0, 0, 1, 0, 0, 0.8, 0, 0.6, -70 );
+        assertEquals( findNearViewPlaneByScan( points, viewerTransform, 5 ),
+                getIdsNearViewPlane( sortedPoints, viewerTransform, 5 ) );
+    }
+
+    @Test
+    void updatedPointsAreUsed() {
+        DepthSortedPoints sortedPoints = new DepthSortedPoints();
+        AffineTransform3D viewerTransform = new AffineTransform3D();
+        assertEquals( 0, sortedPoints.getIndicesNearViewPlane( viewerTransform, 5 ).length );
+
+        PointStore<Void> pointStore = new PointStore<>();
+        int nearId = pointStore.add( 0, 0, 1 );
+        pointStore.add( 0, 0, 10 );
+        sortedPoints.setPoints( pointStore.snapshot() );
+        int[] nearIndices = sortedPoints.getIndicesNearViewPlane( viewerTransform, 5 );
+        assertEquals( 1, nearIndices.length );
+        assertEquals( nearId, sortedPoints.getPoints().getId( nearIndices[0] ) );
+    }
+}
@@ -0,0 +1,87 @@
+package de.embl.schwab.crosshair.points.overlays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scijava.vecmath.Color3f;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointMesh3dTest {
+
+    private PointMesh3d pointMesh;
+
+    @BeforeEach
+    void setUp() {
+        // kept in a batch, so no mesh is ever added to the (missing) 3D viewer
+        pointMesh = new PointMesh3d( null, "points", new Color3f( 1, 1, 1 ) );
+        pointMesh.beginBatch();
+    }
+
+    @Test
+    void idsStayValidAfterRemovals() {
+        for ( int id = 0; id < 100; id++ ) {
+            pointMesh.addPoint( id, id, 2 * id, 3 * id );
+        }
+
+        // removing from the middle moves the last point into its place
+        for ( int id = 0; id < 100; id += 3 ) {
+            assertTrue( pointMesh.removePoint( id ) );
+        }
+
+        for ( int id = 0; id < 100; id++ ) {
+            if ( id % 3 == 0 ) {
+                assertFalse( pointMesh.containsPoint( id ) );
+            } else {
+                assertArrayEquals( new float[]{ id, 2 * id, 3 * id }, pointMesh.getPosition( id ) );
+            }
+        }
+        assertEquals( 66, pointMesh.size() );
+    }
+
+    @Test
+    void removeMissingIdReturnsFalse() {
+        pointMesh.addPoint( 7, 1, 2, 3 );
+
+        assertTrue( pointMesh.removePoint( 7 ) );
+        assertFalse( pointMesh.removePoint( 7 ) );
+        assertFalse( pointMesh.removePoint( 42 ) );
+        assertFalse( pointMesh.removePoint( -1 ) );
+        assertEquals( 0, pointMesh.size() );
+    }
+
+    @Test
+    void overlappingPointsAreRemovedById() {
+        pointMesh.addPoint( 0, 1, 2, 3 );
+        pointMesh.addPoint( 1, 1, 2, 3 );
+
+        assertTrue( pointMesh.removePoint( 0 ) );
+        assertTrue( pointMesh.containsPoint( 1 ) );
+        assertEquals( 1, pointMesh.size() );
+    }
+
+    @Test
+    void duplicateIdThrows() {
+        pointMesh.addPoint( 3, 1, 2, 3 );
+        assertThrows( UnsupportedOperationException.class, () -> pointMesh.addPoint( 3, 4, 5, 6 ) );
+        assertThrows( UnsupportedOperationException.class, () -> pointMesh.addPoint( -1, 4, 5, 6 ) );
+    }
+
+    @Test
+    void clearRemovesAllIds() {
+        pointMesh.addPoint( 1, 1, 2, 3 );
+        pointMesh.addPoint( 1000, 4, 5, 6 );
+        pointMesh.clear();
+
+        assertFalse( pointMesh.containsPoint( 1 ) );
+        assertFalse( pointMesh.containsPoint( 1000 ) );
+        pointMesh.addPoint( 1, 7, 8, 9 );
+        assertArrayEquals( new float[]{ 7, 8, 9 }, pointMesh.getPosition( 1 ) );
+        assertEquals( 1, pointMesh.size() );
+    }
+
+    @Test
+    void endBatchWithoutBeginBatchThrows() {
+        PointMesh3d otherPointMesh = new PointMesh3d( null, "other", new Color3f( 1, 1, 1 ) );
+        assertThrows( UnsupportedOperationException.class, otherPointMesh::endBatch );
+    }
+}
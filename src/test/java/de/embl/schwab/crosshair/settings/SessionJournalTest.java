@@ -0,0 +1,246 @@
+package de.embl.schwab.crosshair.settings;
+
+import com.google.gson.JsonObject;
+import de.embl.schwab.crosshair.plane.Plane;
+import de.embl.schwab.crosshair.plane.PlaneManager;
+import de.embl.schwab.crosshair.points.PointsToFitPlaneDisplay;
+import de.embl.schwab.crosshair.points.VertexDisplay;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.ui.swing.OtherPanel;
+import net.imglib2.RealPoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.scijava.vecmath.Vector3d;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SessionJournalTest {
+
+    private SessionJournal sessionJournal;
+
+    private SessionJournal createSessionJournal( File snapshotFile ) {
+        sessionJournal = new SessionJournal( snapshotFile, SessionSnapshot::empty );
+        return sessionJournal;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if ( sessionJournal != null ) {
+            sessionJournal.close( false );
+        }
+    }
+
+    @Test
+    void editsAreWrittenInOrder( @TempDir Path tempDir ) throws IOException {
+        File snapshotFile = tempDir.resolve( "session.json" ).toFile();
+        SessionJournal journal = createSessionJournal( snapshotFile );
+
+        journal.recordAddPoint( "target", new RealPoint( 1, 2, 3 ) );
+        journal.recordRemovePoint( "target", new RealPoint( 1, 2, 3 ) );
+        journal.recordPlaneVisible( "block", false );
+        journal.flush();
+
+        List<JsonObject> edits = SessionJournal.readEdits( SessionJournal.getJournalFile( snapshotFile ), 0 );
+        assertEquals( 3, edits.size() );
+        assertEquals( "ADD_POINT", edits.get(0).get( "type" ).getAsString() );
+        assertEquals( "REMOVE_POINT", edits.get(1).get( "type" ).getAsString() );
+        assertEquals( "block", edits.get(2).get( "plane" ).getAsString() );
+        for ( int i = 1; i < edits.size(); i++ ) {
+            assertTrue( edits.get(i).get( "seq" ).getAsLong() > edits.get(i - 1).get( "seq" ).getAsLong() );
+        }
+    }
+
+    @Test
+    void consecutiveOrientationsAreCoalesced( @TempDir Path tempDir ) throws IOException {
+        File snapshotFile = tempDir.resolve( "session.json" ).toFile();
+        SessionJournal journal = createSessionJournal( snapshotFile );
+
+        for ( int i = 0; i < 100; i++ ) {
+            journal.recordPlaneOrientation( "target", new Vector3d( 0, 0, 1 ), new Vector3d( 0, 0, i ) );
+        }
+        journal.flush();
+
+        List<JsonObject> edits = SessionJournal.readEdits( SessionJournal.getJournalFile( snapshotFile ), 0 );
+        assertEquals( 1, edits.size() );
+        assertEquals( 99, edits.get(0).getAsJsonArray( "values" ).get(5).getAsDouble() );
+    }
+
+    @Test
+    void compactionTrimsJournal( @TempDir Path tempDir ) throws IOException {
+        File snapshotFile = tempDir.resolve( "session.json" ).toFile();
+        SessionJournal journal = createSessionJournal( snapshotFile );
+
+        for ( int i = 0; i < 10; i++ ) {
+            journal.recordAddVertex( "block", new RealPoint( i, i, i ) );
+        }
+        journal.compact();
+        journal.recordRemoveAllVertices( "block" );
+        journal.flush();
+
+        assertTrue( snapshotFile.exists() );
+        Settings snapshot = new SettingsReader().readSettings( snapshotFile.getAbsolutePath() );
+        assertEquals( 10, (long) snapshot.journalSequence );
+
+        // only the edit after the snapshot is left
+        List<JsonObject> edits = SessionJournal.readEdits( SessionJournal.getJournalFile( snapshotFile ), 0 );
+        assertEquals( 1, edits.size() );
+        assertEquals( 11, edits.get(0).get( "seq" ).getAsLong() );
+    }
+
+    @Test
+    void sequenceCarriesOnAfterRestart( @TempDir Path tempDir ) throws IOException {
+        File snapshotFile = tempDir.resolve( "session.json" ).toFile();
+        SessionJournal journal = createSessionJournal( snapshotFile );
+        journal.recordAddPoint( "target", new RealPoint( 1, 2, 3 ) );
+        journal.recordAddPoint( "target", new RealPoint( 4, 5, 6 ) );
+        journal.flush();
+        journal.close( false );
+
+        assertTrue( SessionJournal.hasRecoverableSession( snapshotFile ) );
+        SessionJournal restartedJournal = createSessionJournal( snapshotFile );
+        restartedJournal.recordAddPoint( "target", new RealPoint( 7, 8, 9 ) );
+        restartedJournal.flush();
+
+        List<JsonObject> edits = SessionJournal.readEdits( SessionJournal.getJournalFile( snapshotFile ), 2 );
+        assertEquals( 1, edits.size() );
+        assertEquals( 3, edits.get(0).get( "seq" ).getAsLong() );
+    }
+
+    @Test
+    void unreadableLinesAreSkipped( @TempDir Path tempDir ) throws IOException {
+        File journalFile = tempDir.resolve( "session.json.journal" ).toFile();
+        try ( FileWriter writer = new FileWriter( journalFile ) ) {
+            writer.write( "{\"seq\":1,\"type\":\"REMOVE_ALL_POINTS\",\"plane\":\"target\"}\n" );
+            // e.g. a line half written when Fiji crashed
+            writer.write( "{\"seq\":2,\"type\":\"ADD_POI" );
+        }
+
+        assertEquals( 1, SessionJournal.readEdits( journalFile, 0 ).size() );
+    }
+
+    @Test
+    void planesAreJournalledWithoutPoints( @TempDir Path tempDir )
+            throws IOException, InterruptedException, InvocationTargetException {
+        File snapshotFile = tempDir.resolve( "session.json" ).toFile();
+        File journalFile = SessionJournal.getJournalFile( snapshotFile );
+        SessionJournal journal = createSessionJournal( snapshotFile );
+
+        BlockPlaneSettings blockPlaneSettings = new BlockPlaneSettings();
+        blockPlaneSettings.name = "block";
+        for ( int i = 0; i < 100; i++ ) {
+            blockPlaneSettings.pointsToFitPlane.add( new RealPoint( i, i, i ) );
+            blockPlaneSettings.vertices.add( new RealPoint( i, 0, 0 ) );
+        }
+
+        List<JsonObject> edits = new ArrayList<>();
+        SwingUtilities.invokeAndWait( () -> {
+            journal.recordAddPlane( blockPlaneSettings );
+            // the compaction this schedules runs on the EDT afterwards, so the edit is still in the journal here
+            journal.flush();
+            try {
+                edits.addAll( SessionJournal.readEdits( journalFile, 0 ) );
+            } catch ( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        });
+        assertEquals( 1, edits.size() );
+        JsonObject settingsJson = edits.get(0).getAsJsonObject( "settings" );
+        assertEquals( 0, settingsJson.getAsJsonArray( "pointsToFitPlane" ).size() );
+        assertEquals( 0, settingsJson.getAsJsonArray( "vertices" ).size() );
+        assertEquals( 100, blockPlaneSettings.pointsToFitPlane.size() );
+
+        // the points are in the snapshot instead
+        SwingUtilities.invokeAndWait( () -> {} );
+        journal.flush();
+        assertTrue( snapshotFile.exists() );
+        assertTrue( SessionJournal.readEdits( journalFile, 0 ).isEmpty() );
+    }
+
+    private static RealPoint pointAt( double... position ) {
+        return argThat( point -> point != null && Arrays.equals( position, point.positionAsDoubleArray() ) );
+    }
+
+    @Test
+    void recoveryReplaysEditsAfterSnapshot( @TempDir Path tempDir ) {
+        File snapshotFile = tempDir.resolve( "session.json" ).toFile();
+        SessionJournal journal = createSessionJournal( snapshotFile );
+        journal.recordAddPoint( "target", new RealPoint( 0, 0, 0 ) );
+        journal.compact();
+
+        PlaneSettings planeSettings = new PlaneSettings();
+        planeSettings.name = "other";
+        journal.recordAddPlane( planeSettings );
+        journal.recordAddPoint( "target", new RealPoint( 1, 2, 3 ) );
+        journal.recordRemovePoint( "target", new RealPoint( 1, 2, 3 ) );
+        // the block plane no longer exists, so this is skipped
+        journal.recordPlaneVisible( "block", false );
+        journal.recordAddVertex( "block", new RealPoint( 4, 5, 6 ) );
+        journal.recordAddPoint( "target", new RealPoint( 7, 8, 9 ) );
+        journal.flush();
+        journal.close( false );
+
+        PointsToFitPlaneDisplay pointsDisplay = mock( PointsToFitPlaneDisplay.class );
+        VertexDisplay vertexDisplay = mock( VertexDisplay.class );
+        PlaneManager planeManager = mock( PlaneManager.class );
+        when( planeManager.getPointsToFitPlaneDisplay( "target" ) ).thenReturn( pointsDisplay );
+        when( planeManager.getVertexDisplay( "block" ) ).thenReturn( vertexDisplay );
+
+        SessionJournal.recoverSession( snapshotFile, planeManager, new HashMap<>(), mock( OtherPanel.class ) );
+
+        InOrder inOrder = inOrder( planeManager, pointsDisplay, vertexDisplay );
+        inOrder.verify( planeManager ).beginBatch();
+        inOrder.verify( planeManager ).addPlane(
+                argThat( ( PlaneSettings settings ) -> settings.name.equals( "other" ) ) );
+        inOrder.verify( pointsDisplay ).addPointToFitPlane( pointAt( 1, 2, 3 ) );
+        inOrder.verify( pointsDisplay ).removePointToFitPlane( pointAt( 1, 2, 3 ) );
+        inOrder.verify( vertexDisplay ).addVertex( pointAt( 4, 5, 6 ) );
+        inOrder.verify( pointsDisplay ).addPointToFitPlane( pointAt( 7, 8, 9 ) );
+        inOrder.verify( planeManager ).endBatch();
+        // the edit before the snapshot is in the snapshot, so isn't replayed
+        verify( pointsDisplay, never() ).addPointToFitPlane( pointAt( 0, 0, 0 ) );
+    }
+
+    @Test
+    void replayedVertexAssignmentsAndAppearance( @TempDir Path tempDir ) {
+        File snapshotFile = tempDir.resolve( "session.json" ).toFile();
+        SessionJournal journal = createSessionJournal( snapshotFile );
+        journal.recordAssignVertex( "block", VertexPoint.TopLeft, new RealPoint( 1, 1, 1 ) );
+        journal.recordPlaneTransparency( "block", 0.5f );
+        journal.recordPlaneVisible( "block", false );
+        journal.recordPlaneOrientation( "target", new Vector3d( 0, 0, 1 ), new Vector3d( 2, 3, 4 ) );
+        journal.recordRemoveAllVertices( "block" );
+        journal.flush();
+        journal.close( false );
+
+        Plane blockPlane = mock( Plane.class );
+        VertexDisplay vertexDisplay = mock( VertexDisplay.class );
+        PlaneManager planeManager = mock( PlaneManager.class );
+        when( planeManager.getPlane( "block" ) ).thenReturn( blockPlane );
+        when( planeManager.getVertexDisplay( "block" ) ).thenReturn( vertexDisplay );
+
+        // no snapshot, so only the journal is replayed
+        assertFalse( snapshotFile.exists() );
+        SessionJournal.recoverSession( snapshotFile, planeManager, new HashMap<>(), mock( OtherPanel.class ) );
+
+        verify( vertexDisplay ).assignVertex( eq( VertexPoint.TopLeft ), pointAt( 1, 1, 1 ) );
+        verify( blockPlane ).setTransparency( 0.5f );
+        verify( blockPlane ).setVisible( false );
+        verify( planeManager ).updatePlane( new Vector3d( 0, 0, 1 ), new Vector3d( 2, 3, 4 ), "target" );
+        verify( vertexDisplay ).removeAllVertices();
+    }
+}
@@ -1,9 +1,18 @@
 package de.embl.schwab.crosshair.settings;
 
+import com.google.gson.JsonParseException;
+import de.embl.schwab.crosshair.points.VertexPoint;
+import net.imglib2.RealPoint;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -23,4 +32,54 @@ class SettingsReaderTest {
         File json = new File(classLoader.getResource("exampleBlock.json").getFile());
         settingsReader.readSettings( json.getAbsolutePath() );
     }
-}
\ No newline at end of file
+
+    @Test
+    void readBlockPlaneSettings() {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File json = new File(classLoader.getResource("exampleBlock.json").getFile());
+        Settings settings = settingsReader.readSettings( json.getAbsolutePath() );
+
+        PlaneSettings blockSettings = settings.planeNameToSettings.get( "block" );
+        assertTrue( blockSettings instanceof BlockPlaneSettings );
+        BlockPlaneSettings blockPlaneSettings = (BlockPlaneSettings) blockSettings;
+        assertEquals( 4, blockPlaneSettings.assignedVertices.size() );
+        assertTrue( blockPlaneSettings.assignedVertices.containsKey( VertexPoint.TopLeft ) );
+        assertFalse( settings.planeNameToSettings.get( "target" ) instanceof BlockPlaneSettings );
+    }
+
+    // Compact settings, with the target's points in a sidecar
+    private String writeCompactSettings( File json ) throws IOException {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File exampleJson = new File(classLoader.getResource("exampleBlock.json").getFile());
+        Settings settings = settingsReader.readSettings( exampleJson.getAbsolutePath() );
+        ArrayList<RealPoint> points = new ArrayList<>();
+        for ( int i = 0; i <= SettingsWriter.SIDECAR_THRESHOLD; i++ ) {
+            points.add( new RealPoint( i, i, i ) );
+        }
+        settings.planeNameToSettings.get( "target" ).pointsToFitPlane = points;
+
+        new SettingsWriter().saveSettings( settings, json.getAbsolutePath(), true );
+        return new String( Files.readAllBytes( json.toPath() ), StandardCharsets.UTF_8 );
+    }
+
+    @Test
+    void sidecarReferenceWithoutSidecarIsNotRead( @TempDir Path tempDir ) throws IOException {
+        File json = tempDir.resolve( "compact.json" ).toFile();
+        String content = writeCompactSettings( json );
+
+        // the points would otherwise be silently dropped
+        content = content.replaceAll( ",\\s*\"pointsSidecar\"\\s*:\\s*\"[^\"]*\"", "" );
+        Files.write( json.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+        assertNull( settingsReader.readSettings( json.getAbsolutePath() ) );
+    }
+
+    @Test
+    void sidecarReferenceWithoutOffsetThrows( @TempDir Path tempDir ) throws IOException {
+        File json = tempDir.resolve( "compact.json" ).toFile();
+        String content = writeCompactSettings( json );
+
+        content = content.replace( "\"sidecarOffset\"", "\"offset\"" );
+        Files.write( json.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+        assertThrows( JsonParseException.class, () -> settingsReader.readSettings( json.getAbsolutePath() ) );
+    }
+}
@@ -1,12 +1,19 @@
 package de.embl.schwab.crosshair.settings;
 
+import de.embl.schwab.crosshair.io.serialise.PointsSidecar;
 import de.embl.schwab.crosshair.legacy.OldFormatSettingsReader;
+import net.imglib2.RealPoint;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -44,4 +51,114 @@ class SettingsWriterTest {
         // TODO - properly test if all the fields are equal, not just that they contain the same
         // images and planes
     }
-}
\ No newline at end of file
+
+    @Test
+    void writeCompactSettings( @TempDir Path tempDir ) {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File settingsJson = new File(classLoader.getResource("exampleBlock.json").getFile());
+        File compactJson = tempDir.resolve( "compactBlock.json" ).toFile();
+
+        // enough points on one plane to go in the sidecar
+        Settings settings = new SettingsReader().readSettings( settingsJson.getAbsolutePath() );
+        PlaneSettings planeSettings = settings.planeNameToSettings.values().iterator().next();
+        ArrayList<RealPoint> points = new ArrayList<>();
+        for ( int i = 0; i < 5000; i++ ) {
+            points.add( new RealPoint( i, 0.5 * i, -i ) );
+        }
+        planeSettings.pointsToFitPlane = points;
+
+        settingsWriter.writeSettings( settings, compactJson.getAbsolutePath(), true );
+
+        assertTrue( compactJson.exists() );
+        assertEquals( 1, PointsSidecar.findSidecarFiles( compactJson ).size() );
+        // written settings are unchanged
+        assertSame( points, planeSettings.pointsToFitPlane );
+        assertNull( settings.pointsSidecar );
+
+        Settings newSettings = new SettingsReader().readSettings( compactJson.getAbsolutePath() );
+        ArrayList<RealPoint> newPoints = newSettings.planeNameToSettings.get( planeSettings.name ).pointsToFitPlane;
+        assertEquals( points.size(), newPoints.size() );
+        for ( int i = 0; i < points.size(); i++ ) {
+            assertArrayEquals( points.get(i).positionAsDoubleArray(), newPoints.get(i).positionAsDoubleArray() );
+        }
+
+        for( String imageName: settings.imageNameToSettings.keySet() ) {
+            ImageContentSettings imageSettings = settings.imageNameToSettings.get( imageName );
+            ImageContentSettings newImageSettings = newSettings.imageNameToSettings.get( imageName );
+            assertArrayEquals( imageSettings.redLut, newImageSettings.redLut );
+            assertArrayEquals( imageSettings.greenLut, newImageSettings.greenLut );
+            assertArrayEquals( imageSettings.blueLut, newImageSettings.blueLut );
+            assertArrayEquals( imageSettings.alphaLut, newImageSettings.alphaLut );
+        }
+    }
+
+    private Settings readExampleSettings() {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File settingsJson = new File(classLoader.getResource("exampleBlock.json").getFile());
+        return new SettingsReader().readSettings( settingsJson.getAbsolutePath() );
+    }
+
+    private ArrayList<RealPoint> createPoints( int size, double offset ) {
+        ArrayList<RealPoint> points = new ArrayList<>();
+        for ( int i = 0; i < size; i++ ) {
+            points.add( new RealPoint( i + offset, i, i ) );
+        }
+        return points;
+    }
+
+    // Point list that fails part way through being written to the json
+    private static class FailingPointList extends ArrayList<RealPoint> {
+        @Override
+        public Iterator<RealPoint> iterator() {
+            throw new UncheckedIOException( new IOException( "disk full" ) );
+        }
+    }
+
+    @Test
+    void failedCompactSaveLeavesPreviousSave( @TempDir Path tempDir ) throws IOException {
+        File compactJson = tempDir.resolve( "compactBlock.json" ).toFile();
+        Settings settings = readExampleSettings();
+        settings.planeNameToSettings.get( "target" ).pointsToFitPlane = createPoints( 5000, 0 );
+        settingsWriter.saveSettings( settings, compactJson.getAbsolutePath(), true );
+        List<File> sidecarFiles = PointsSidecar.findSidecarFiles( compactJson );
+
+        // new points go in a new sidecar, then writing the json fails
+        Settings newSettings = readExampleSettings();
+        newSettings.planeNameToSettings.get( "target" ).pointsToFitPlane = createPoints( 3000, 0.5 );
+        newSettings.planeNameToSettings.get( "block" ).pointsToFitPlane = new FailingPointList();
+        assertThrows( UncheckedIOException.class,
+                () -> settingsWriter.saveSettings( newSettings, compactJson.getAbsolutePath(), true ) );
+
+        // the previous save still loads its own points, and the new sidecar is gone
+        assertEquals( sidecarFiles, PointsSidecar.findSidecarFiles( compactJson ) );
+        Settings readSettings = new SettingsReader().readSettings( compactJson.getAbsolutePath() );
+        ArrayList<RealPoint> points = readSettings.planeNameToSettings.get( "target" ).pointsToFitPlane;
+        assertEquals( 5000, points.size() );
+        assertEquals( 4999, points.get( 4999 ).getDoublePosition( 0 ) );
+    }
+
+    @Test
+    void compactSavesDeleteUnusedSidecars( @TempDir Path tempDir ) throws IOException {
+        File compactJson = tempDir.resolve( "compactBlock.json" ).toFile();
+        Settings settings = readExampleSettings();
+        settings.planeNameToSettings.get( "target" ).pointsToFitPlane = createPoints( 5000, 0 );
+        settingsWriter.saveSettings( settings, compactJson.getAbsolutePath(), true );
+        File firstSidecar = PointsSidecar.findSidecarFiles( compactJson ).get( 0 );
+
+        // saving again replaces the sidecar
+        settings.planeNameToSettings.get( "target" ).pointsToFitPlane = createPoints( 2000, 0 );
+        settingsWriter.saveSettings( settings, compactJson.getAbsolutePath(), true );
+        List<File> sidecarFiles = PointsSidecar.findSidecarFiles( compactJson );
+        assertEquals( 1, sidecarFiles.size() );
+        assertFalse( firstSidecar.exists() );
+        assertEquals( 2000, new SettingsReader().readSettings( compactJson.getAbsolutePath() ).
+                planeNameToSettings.get( "target" ).pointsToFitPlane.size() );
+
+        // without any large point lists, there's no sidecar
+        settings.planeNameToSettings.get( "target" ).pointsToFitPlane = createPoints( 10, 0 );
+        settingsWriter.saveSettings( settings, compactJson.getAbsolutePath(), true );
+        assertTrue( PointsSidecar.findSidecarFiles( compactJson ).isEmpty() );
+        assertEquals( 10, new SettingsReader().readSettings( compactJson.getAbsolutePath() ).
+                planeNameToSettings.get( "target" ).pointsToFitPlane.size() );
+    }
+}
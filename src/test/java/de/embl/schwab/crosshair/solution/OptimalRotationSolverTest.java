@@ -0,0 +1,68 @@
+package de.embl.schwab.crosshair.solution;
+
+import de.embl.schwab.crosshair.settings.Settings;
+import de.embl.schwab.crosshair.settings.SettingsReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptimalRotationSolverTest {
+
+    private Settings crosshairSettings;
+
+    @BeforeEach
+    public void setUp() {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File exampleJson = new File(classLoader.getResource("exampleBlock.json").getFile());
+
+        SettingsReader settingsReader = new SettingsReader();
+        crosshairSettings = settingsReader.readSettings( exampleJson.getAbsolutePath() );
+    }
+
+    private double bruteForceCost( SolutionSweep sweep, SolutionObjective objective ) {
+        double bestCost = Double.POSITIVE_INFINITY;
+        for ( int i = 0; i < sweep.size(); i++ ) {
+            if ( sweep.isValid(i) ) {
+                double cost = objective.calculateCost( sweep.getTilt(i), sweep.getKnife(i), sweep.getDistanceToCut(i) );
+                bestCost = Math.min( bestCost, cost );
+            }
+        }
+        return bestCost;
+    }
+
+    private void checkMatchesBruteForce( double initialKnifeAngle, double initialTiltAngle ) {
+        SolutionSweeper sweeper = new SolutionSweeper( crosshairSettings, initialKnifeAngle, initialTiltAngle );
+        SolutionSweep sweep = sweeper.sweep( -180, 180, 0.001 );
+        double[] result = new double[3];
+
+        for ( SolutionObjective objective: SolutionObjective.values() ) {
+            OptimalRotationSolver solver = new OptimalRotationSolver( sweeper );
+            double rotation = solver.findOptimalRotation( objective );
+            assertTrue( solver.getNumberOfEvaluations() < 500 );
+
+            sweeper.evaluate( rotation, result );
+            assertTrue( SolutionAngles.isValid( result[0], result[1] ) );
+            double cost = objective.calculateCost( result[0], result[1], result[2] );
+            // solver should be at least as good as the fine grid (to within the grid's own resolution)
+            assertTrue( cost <= bruteForceCost( sweep, objective ) + 1E-4 );
+        }
+    }
+
+    @Test
+    void findOptimalRotation() {
+        // all rotations valid
+        checkMatchesBruteForce( 10.0, 5.0 );
+        // optimum lies on the edge of the valid region
+        checkMatchesBruteForce( 25.0, 15.0 );
+    }
+
+    @Test
+    void noValidRotation() {
+        SolutionSweeper sweeper = new SolutionSweeper( crosshairSettings, 29.0, -19.0 );
+        OptimalRotationSolver solver = new OptimalRotationSolver( sweeper );
+        assertTrue( Double.isNaN( solver.findOptimalRotation( SolutionObjective.MinDistanceToCut ) ) );
+    }
+}
@@ -0,0 +1,70 @@
+package de.embl.schwab.crosshair.solution;
+
+import de.embl.schwab.crosshair.points.VertexPoint;
+import de.embl.schwab.crosshair.settings.Settings;
+import de.embl.schwab.crosshair.settings.SettingsReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SolutionSweeperTest {
+
+    private Settings crosshairSettings;
+
+    @BeforeEach
+    public void setUp() {
+        ClassLoader classLoader = this.getClass().getClassLoader();
+        File exampleJson = new File(classLoader.getResource("exampleBlock.json").getFile());
+
+        SettingsReader settingsReader = new SettingsReader();
+        crosshairSettings = settingsReader.readSettings( exampleJson.getAbsolutePath() );
+    }
+
+    private int indexOfRotation( SolutionSweep sweep, double rotation ) {
+        for ( int i = 0; i < sweep.size(); i++ ) {
+            if ( Math.abs( sweep.getRotation(i) - rotation ) < 1E-9 ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    void sweepMatchesSolutionsCalculator() {
+        // same values as SolutionsCalculatorTest
+        SolutionSweeper sweeper = new SolutionSweeper( crosshairSettings, 10.0, 5.0 );
+        SolutionSweep sweep = sweeper.sweep( -180, 180, 5 );
+
+        int index = indexOfRotation( sweep, 15.0 );
+        assertTrue( index >= 0 );
+        assertEquals( sweep.getTilt(index), -9.8089, 0.00005 );
+        assertEquals( sweep.getKnife(index), 14.9449, 0.00005 );
+        assertEquals( sweep.getDistanceToCut(index), 210.8122, 0.00005 );
+        assertEquals( sweep.getFirstTouch(index), VertexPoint.BottomRight );
+        assertTrue( sweep.isValid(index) );
+
+        sweeper = new SolutionSweeper( crosshairSettings, -5.0, 5.0 );
+        Solution solution = sweeper.getSolution( -100.0, "microns" );
+        assertEquals( solution.getTilt(), 3.0567, 0.00005 );
+        assertEquals( solution.getKnife(), 4.6144, 0.00005 );
+        assertEquals( solution.getDistanceToCut(), 204.3437, 0.00005 );
+        assertEquals( solution.getFirstTouch(), VertexPoint.BottomRight );
+    }
+
+    @Test
+    void sweepCoversFullRange() {
+        SolutionSweeper sweeper = new SolutionSweeper( crosshairSettings, 10.0, 5.0 );
+        SolutionSweep sweep = sweeper.sweep();
+
+        assertEquals( sweep.size(), 36001 );
+        assertEquals( sweep.getRotation(0), -180.0 );
+        assertEquals( sweep.getRotation(sweep.size() - 1), 180.0, 1E-9 );
+        for ( int i = 0; i < sweep.size(); i++ ) {
+            boolean inLimits = Math.abs( sweep.getTilt(i) ) <= 20 && Math.abs( sweep.getKnife(i) ) <= 30;
+            assertEquals( sweep.isValid(i), inLimits );
+        }
+    }
+}
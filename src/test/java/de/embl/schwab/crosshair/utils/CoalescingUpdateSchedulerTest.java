@@ -0,0 +1,132 @@
+package de.embl.schwab.crosshair.utils;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoalescingUpdateSchedulerTest {
+
+    // Schedules an update whose compute blocks the worker until release is counted down
+    private void blockWorker( CoalescingUpdateScheduler scheduler, CountDownLatch release, Runnable apply )
+            throws InterruptedException {
+        CountDownLatch computing = new CountDownLatch( 1 );
+        scheduler.schedule( "block", () -> {
+            computing.countDown();
+            try {
+                release.await();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }, result -> apply.run() );
+        computing.await();
+    }
+
+    @Test
+    void onlyLatestUpdatePerKeyRuns() throws InterruptedException {
+        CoalescingUpdateScheduler scheduler = new CoalescingUpdateScheduler( 16 );
+        List<String> ran = Collections.synchronizedList( new ArrayList<>() );
+
+        // the worker is busy, so none of these can be computed until all are scheduled
+        CountDownLatch release = new CountDownLatch( 1 );
+        blockWorker( scheduler, release, () -> {} );
+        for ( int i = 0; i < 10; i++ ) {
+            final int value = i;
+            scheduler.schedule( "knife", () -> "knife" + value, ran::add );
+            scheduler.schedule( "tilt", () -> ran.add( "tilt" + value ) );
+        }
+        release.countDown();
+        scheduler.flush();
+
+        assertEquals( 2, ran.size() );
+        assertEquals( "knife9", ran.get( 0 ) );
+        assertEquals( "tilt9", ran.get( 1 ) );
+        scheduler.shutdown();
+    }
+
+    @Test
+    void updatesRunOnTheEDT() {
+        CoalescingUpdateScheduler scheduler = new CoalescingUpdateScheduler();
+        List<Boolean> ranOnEDT = Collections.synchronizedList( new ArrayList<>() );
+
+        scheduler.schedule( () -> ranOnEDT.add( SwingUtilities.isEventDispatchThread() ) );
+        scheduler.flush();
+
+        assertEquals( Collections.singletonList( true ), ranOnEDT );
+        scheduler.shutdown();
+    }
+
+    @Test
+    void computeRunsOnWorkerAndApplyOnTheEDT() {
+        CoalescingUpdateScheduler scheduler = new CoalescingUpdateScheduler();
+        List<String> ran = Collections.synchronizedList( new ArrayList<>() );
+
+        scheduler.schedule( () -> {
+            ran.add( "compute on EDT: " + SwingUtilities.isEventDispatchThread() );
+            return Thread.currentThread().getName();
+        }, computeThread -> {
+            ran.add( "computed on " + computeThread );
+            ran.add( "apply on EDT: " + SwingUtilities.isEventDispatchThread() );
+        });
+        scheduler.flush();
+
+        assertEquals( 3, ran.size() );
+        assertEquals( "compute on EDT: false", ran.get( 0 ) );
+        assertEquals( "computed on Crosshair update worker", ran.get( 1 ) );
+        assertEquals( "apply on EDT: true", ran.get( 2 ) );
+        scheduler.shutdown();
+    }
+
+    @Test
+    void failingUpdateDoesNotStopLaterUpdates() {
+        CoalescingUpdateScheduler scheduler = new CoalescingUpdateScheduler();
+        List<String> ran = Collections.synchronizedList( new ArrayList<>() );
+
+        scheduler.schedule( "a", () -> { throw new IllegalStateException( "expected" ); } );
+        scheduler.schedule( "b", () -> ran.add( "b" ) );
+        scheduler.flush();
+        scheduler.schedule( "a", () -> ran.add( "a" ) );
+        scheduler.flush();
+
+        scheduler.schedule( "a", () -> { throw new IllegalStateException( "expected" ); }, result -> ran.add( "a" ) );
+        scheduler.schedule( "b", () -> "b", ran::add );
+        scheduler.flush();
+
+        assertEquals( 3, ran.size() );
+        scheduler.shutdown();
+    }
+
+    @Test
+    void cancelledUpdatesDontRun() throws InterruptedException, InvocationTargetException {
+        CoalescingUpdateScheduler scheduler = new CoalescingUpdateScheduler();
+        List<String> ran = Collections.synchronizedList( new ArrayList<>() );
+
+        // scheduled and cancelled in one go on the EDT, so the update can't run in between
+        SwingUtilities.invokeAndWait( () -> {
+            scheduler.schedule( () -> ran.add( "cancelled" ) );
+            scheduler.cancelPending();
+        });
+        scheduler.flush();
+        assertTrue( ran.isEmpty() );
+
+        // cancelled while it's being computed
+        CountDownLatch release = new CountDownLatch( 1 );
+        blockWorker( scheduler, release, () -> ran.add( "cancelled while computing" ) );
+        scheduler.cancelPending();
+        release.countDown();
+        scheduler.flush();
+        assertTrue( ran.isEmpty() );
+
+        scheduler.shutdown();
+        scheduler.schedule( () -> ran.add( "after shutdown" ) );
+        scheduler.flush();
+        assertTrue( ran.isEmpty() );
+    }
+}
@@ -0,0 +1,76 @@
+package de.embl.schwab.crosshair.utils;
+
+import org.junit.jupiter.api.Test;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrimitiveGeometryUtilsTest {
+
+    private double[] toArray( Vector3d vector ) {
+        return new double[]{vector.getX(), vector.getY(), vector.getZ()};
+    }
+
+    @Test
+    void distancesMatchGeometryUtils() {
+        Random random = new Random(0);
+        for ( int i = 0; i < 100; i++ ) {
+            Vector3d normal = new Vector3d( random.nextGaussian(), random.nextGaussian(), random.nextGaussian() );
+            Vector3d planePoint = new Vector3d( random.nextDouble(), random.nextDouble(), random.nextDouble() );
+            Vector3d point = new Vector3d( random.nextDouble(), random.nextDouble(), random.nextDouble() );
+            Vector3d positiveDirection = new Vector3d( random.nextGaussian(), random.nextGaussian(), random.nextGaussian() );
+
+            assertEquals( GeometryUtils.distanceFromPointToPlane( point, normal, planePoint ),
+                    PrimitiveGeometryUtils.distanceFromPointToPlane( toArray(point), toArray(normal), toArray(planePoint) ),
+                    1E-12 );
+            assertEquals( GeometryUtils.signedDistanceFromPointToPlane( point, normal, planePoint, positiveDirection ),
+                    PrimitiveGeometryUtils.signedDistanceFromPointToPlane( toArray(point), toArray(normal),
+                            toArray(planePoint), toArray(positiveDirection) ), 1E-12 );
+
+            double[] closestPoint = new double[3];
+            PrimitiveGeometryUtils.findClosestPointOnPlane( toArray(normal), toArray(planePoint), toArray(point), closestPoint );
+            assertArrayEquals( toArray( GeometryUtils.findClosestPointOnPlane( normal, planePoint, point ) ),
+                    closestPoint, 1E-12 );
+        }
+    }
+
+    @Test
+    void calculateIntersections() {
+        double[] min = new double[]{0, 0, 0};
+        double[] max = new double[]{100, 80, 120};
+        Vector3d normal = new Vector3d( 0.2, -0.5, 1 );
+        Vector3d planePoint = new Vector3d( 50, 40, 60 );
+
+        double[][] intersections = new double[PrimitiveGeometryUtils.MAX_BOX_INTERSECTIONS][3];
+        int nIntersections = PrimitiveGeometryUtils.calculateIntersections( min, max, toArray(normal),
+                toArray(planePoint), intersections );
+        ArrayList<Vector3d> expected = GeometryUtils.calculateIntersections( min, max, normal, planePoint );
+
+        assertEquals( expected.size(), nIntersections );
+        for ( Vector3d expectedPoint: expected ) {
+            boolean found = false;
+            for ( int i = 0; i < nIntersections; i++ ) {
+                if ( GeometryUtils.distanceBetweenPoints( toArray(expectedPoint), intersections[i] ) < 1E-9 ) {
+                    found = true;
+                }
+            }
+            assertTrue( found );
+        }
+    }
+
+    @Test
+    void calculateIntersectionsPlaneOnBoxFace() {
+        double[] min = new double[]{0, 0, 0};
+        double[] max = new double[]{100, 80, 120};
+
+        double[][] intersections = new double[PrimitiveGeometryUtils.MAX_BOX_INTERSECTIONS][3];
+        int nIntersections = PrimitiveGeometryUtils.calculateIntersections( min, max, new double[]{0, 0, 1},
+                new double[]{10, 10, 0}, intersections );
+
+        // the four corners of the face, including the origin
+        assertEquals( 4, nIntersections );
+    }
+}
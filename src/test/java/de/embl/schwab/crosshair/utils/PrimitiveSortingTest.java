@@ -0,0 +1,65 @@
+package de.embl.schwab.crosshair.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrimitiveSortingTest {
+
+    private void assertSortedByKey( int[] indices, int from, int to, double[] keys, int stride, int offset ) {
+        for ( int i = from + 1; i < to; i++ ) {
+            assertTrue( keys[ stride * indices[i - 1] + offset ] <= keys[ stride * indices[i] + offset ] );
+        }
+    }
+
+    private int[] range( int size ) {
+        int[] indices = new int[size];
+        for ( int i = 0; i < size; i++ ) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    @Test
+    void sortsPackedCoordinatesByAxis() {
+        Random random = new Random( 3 );
+        int size = 1000;
+        double[] coordinates = new double[3 * size];
+        for ( int i = 0; i < coordinates.length; i++ ) {
+            // few distinct values, so there are many equal keys
+            coordinates[i] = random.nextInt( 20 );
+        }
+
+        for ( int axis = 0; axis < 3; axis++ ) {
+            int[] indices = range( size );
+            PrimitiveSorting.sortByKey( indices, 0, size, coordinates, 3, axis );
+            assertSortedByKey( indices, 0, size, coordinates, 3, axis );
+
+            // still a permutation of the indices
+            boolean[] seen = new boolean[size];
+            for ( int index: indices ) {
+                assertFalse( seen[index] );
+                seen[index] = true;
+            }
+        }
+    }
+
+    @Test
+    void sortsOnlyTheGivenRange() {
+        int size = 100;
+        double[] keys = new double[size];
+        for ( int i = 0; i < size; i++ ) {
+            keys[i] = size - i;
+        }
+        int[] indices = range( size );
+
+        PrimitiveSorting.sortByKey( indices, 10, 90, keys, 1, 0 );
+        assertSortedByKey( indices, 10, 90, keys, 1, 0 );
+        for ( int i = 0; i < 10; i++ ) {
+            assertEquals( i, indices[i] );
+            assertEquals( size - 1 - i, indices[size - 1 - i] );
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package de.embl.schwab.crosshair.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RobustPlaneFitterTest {
+
+    private final double[] normal;
+    private final double[] u;
+    private final double[] v;
+
+    RobustPlaneFitterTest() {
+        normal = new double[]{-0.125, 0.174, 0.977};
+        PrimitiveGeometryUtils.normalize( normal );
+        u = new double[3];
+        v = new double[3];
+        PrimitiveGeometryUtils.cross( normal, new double[]{1, 0, 0}, u );
+        PrimitiveGeometryUtils.normalize( u );
+        PrimitiveGeometryUtils.cross( normal, u, v );
+    }
+
+    // noisy points on a known plane, with the given fraction moved far off the plane. Outliers are marked in
+    // isOutlier.
+    private double[] createPoints( int nPoints, double outlierFraction, boolean[] isOutlier, long seed ) {
+        Random random = new Random( seed );
+        double[] coordinates = new double[3 * nPoints];
+        for ( int i = 0; i < nPoints; i++ ) {
+            double a = random.nextDouble() * 800 - 400;
+            double b = random.nextDouble() * 800 - 400;
+            double offset = random.nextGaussian() * 0.3;
+            if ( random.nextDouble() < outlierFraction ) {
+                offset = ( random.nextBoolean() ? 1 : -1 ) * ( 5 + random.nextDouble() * 100 );
+                isOutlier[i] = true;
+            }
+            for ( int d = 0; d < 3; d++ ) {
+                coordinates[3*i + d] = 500 + a * u[d] + b * v[d] + offset * normal[d];
+            }
+        }
+        return coordinates;
+    }
+
+    private double[] toArray( PlaneFit planeFit ) {
+        return new double[]{ planeFit.getNormal().getX(), planeFit.getNormal().getY(), planeFit.getNormal().getZ() };
+    }
+
+    @Test
+    void ignoresOutliers() {
+        int nPoints = 10000;
+        boolean[] isOutlier = new boolean[nPoints];
+        double[] coordinates = createPoints( nPoints, 0.3, isOutlier, 0 );
+
+        PlaneFit planeFit = new RobustPlaneFitter( 1.5 ).fit( coordinates );
+
+        assertEquals( 1, Math.abs( PrimitiveGeometryUtils.dot( normal, toArray( planeFit ) ) ), 1E-6 );
+        assertEquals( 0.3, planeFit.getResidualRMS(), 0.02 );
+        for ( int i = 0; i < nPoints; i++ ) {
+            assertEquals( !isOutlier[i], planeFit.isInlier(i) );
+        }
+    }
+
+    @Test
+    void singleMisclickedPoint() {
+        int nPoints = 8;
+        double[] coordinates = createPoints( nPoints, 0, new boolean[nPoints], 1 );
+        // move one point 20 units off the plane
+        for ( int d = 0; d < 3; d++ ) {
+            coordinates[d] += 20 * normal[d];
+        }
+
+        PlaneFit planeFit = new RobustPlaneFitter( 2 ).fit( coordinates );
+
+        assertEquals( 1, planeFit.getNumberOfOutliers() );
+        assertFalse( planeFit.isInlier(0) );
+        assertEquals( 1, Math.abs( PrimitiveGeometryUtils.dot( normal, toArray( planeFit ) ) ), 1E-4 );
+    }
+
+    @Test
+    void sameSeedGivesSameFit() {
+        int nPoints = 2000;
+        double[] coordinates = createPoints( nPoints, 0.4, new boolean[nPoints], 2 );
+
+        PlaneFit first = new RobustPlaneFitter( 1 ).fit( coordinates );
+        PlaneFit second = new RobustPlaneFitter( 1 ).fit( coordinates );
+
+        assertArrayEquals( toArray( first ), toArray( second ), 0 );
+        assertEquals( first.getResidualRMS(), second.getResidualRMS(), 0 );
+    }
+
+    @Test
+    void invalidInput() {
+        assertThrows( UnsupportedOperationException.class, () -> new RobustPlaneFitter( 0 ) );
+        RobustPlaneFitter planeFitter = new RobustPlaneFitter( 1 );
+        assertThrows( UnsupportedOperationException.class, () -> planeFitter.fit( new double[]{0, 0, 0, 1, 1, 1} ) );
+        assertThrows( UnsupportedOperationException.class,
+                () -> planeFitter.fit( new double[]{0, 0, 0, 1, 1, 1, 2, 2, 2, 3, 3, 3} ) );
+    }
+}
@@ -0,0 +1,115 @@
+package de.embl.schwab.crosshair.utils;
+
+import net.imglib2.RealPoint;
+import org.junit.jupiter.api.Test;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingPlaneFitterTest {
+
+    // noisy points on the plane through (500, 500, 500) + offset with the given normal
+    private ArrayList<RealPoint> createPlanePoints( double[] normal, double offset, int nPoints, long seed ) {
+        Random random = new Random( seed );
+        double[] u = new double[3];
+        double[] v = new double[3];
+        PrimitiveGeometryUtils.cross( normal, new double[]{1, 0, 0}, u );
+        PrimitiveGeometryUtils.normalize( u );
+        PrimitiveGeometryUtils.cross( normal, u, v );
+
+        ArrayList<RealPoint> points = new ArrayList<>();
+        for ( int i = 0; i < nPoints; i++ ) {
+            double a = random.nextDouble() * 800 - 400;
+            double b = random.nextDouble() * 800 - 400;
+            double noise = random.nextGaussian() * 0.5;
+            double[] point = new double[3];
+            for ( int d = 0; d < 3; d++ ) {
+                point[d] = offset + 500 + a * u[d] + b * v[d] + noise * normal[d];
+            }
+            points.add( new RealPoint( point ) );
+        }
+        return points;
+    }
+
+    private double[] getNormal() {
+        double[] normal = new double[]{-0.125, 0.174, 0.977};
+        PrimitiveGeometryUtils.normalize( normal );
+        return normal;
+    }
+
+    @Test
+    void matchesSvdPlaneFit() {
+        ArrayList<RealPoint> points = createPlanePoints( getNormal(), 0, 1000, 0 );
+
+        ArrayList<Vector3d> expected = GeometryUtils.fitPlaneToPoints( points );
+        ArrayList<Vector3d> actual = GeometryUtils.fitPlaneToPointsStreaming( points );
+
+        assertEquals( 1, Math.abs( expected.get(0).dot( actual.get(0) ) ), 1E-9 );
+        assertEquals( 0, GeometryUtils.distanceFromPointToPlane( actual.get(1), expected.get(0), expected.get(1) ), 1E-6 );
+    }
+
+    @Test
+    void fitWithLargeCoordinates() {
+        double[] normal = getNormal();
+        StreamingPlaneFitter planeFitter = new StreamingPlaneFitter();
+        for ( RealPoint point: createPlanePoints( normal, 1E6, 10000, 1 ) ) {
+            planeFitter.add( point );
+        }
+
+        assertTrue( planeFitter.fit() );
+        double[] fitNormal = new double[3];
+        planeFitter.getNormal( fitNormal );
+        assertEquals( 1, Math.abs( PrimitiveGeometryUtils.dot( normal, fitNormal ) ), 1E-6 );
+        assertEquals( 0.5, planeFitter.getResidualRMS(), 0.02 );
+    }
+
+    @Test
+    void mergeMatchesSinglePass() {
+        ArrayList<RealPoint> points = createPlanePoints( getNormal(), 0, 1000, 2 );
+
+        StreamingPlaneFitter all = new StreamingPlaneFitter();
+        StreamingPlaneFitter firstHalf = new StreamingPlaneFitter();
+        StreamingPlaneFitter secondHalf = new StreamingPlaneFitter();
+        for ( int i = 0; i < points.size(); i++ ) {
+            all.add( points.get(i) );
+            if ( i < 300 ) {
+                firstHalf.add( points.get(i) );
+            } else {
+                secondHalf.add( points.get(i) );
+            }
+        }
+        firstHalf.merge( secondHalf );
+
+        assertEquals( all.getCount(), firstHalf.getCount() );
+        assertTrue( all.fit() );
+        assertTrue( firstHalf.fit() );
+
+        double[] allCentroid = new double[3];
+        double[] mergedCentroid = new double[3];
+        all.getCentroid( allCentroid );
+        firstHalf.getCentroid( mergedCentroid );
+        assertArrayEquals( allCentroid, mergedCentroid, 1E-9 );
+
+        double[] allNormal = new double[3];
+        double[] mergedNormal = new double[3];
+        all.getNormal( allNormal );
+        firstHalf.getNormal( mergedNormal );
+        assertEquals( 1, Math.abs( PrimitiveGeometryUtils.dot( allNormal, mergedNormal ) ), 1E-12 );
+        assertEquals( all.getResidualRMS(), firstHalf.getResidualRMS(), 1E-9 );
+    }
+
+    @Test
+    void fitNeedsThreePoints() {
+        StreamingPlaneFitter planeFitter = new StreamingPlaneFitter();
+        planeFitter.add( 0, 0, 0 );
+        planeFitter.add( 1, 0, 0 );
+        assertFalse( planeFitter.fit() );
+
+        ArrayList<RealPoint> points = new ArrayList<>();
+        points.add( new RealPoint( 0, 0, 0 ) );
+        assertThrows( UnsupportedOperationException.class, () -> GeometryUtils.fitPlaneToPointsStreaming( points ) );
+    }
+}
@@ -0,0 +1,55 @@
+package de.embl.schwab.crosshair.volume;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.ByteArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DisplayRangeEstimatorTest {
+
+    @Test
+    void rangeExcludesOutlierBins() {
+        long[] histogram = new long[100];
+        histogram[0] = 1;
+        histogram[99] = 1;
+        for ( int i = 10; i < 20; i++ ) {
+            histogram[i] = 1000;
+        }
+
+        double[] displayRange = DisplayRangeEstimator.calculateDisplayRange( histogram, 0, 1000, 0.1, 99.9 );
+        assertArrayEquals( new double[]{ 100, 200 }, displayRange, 1E-9 );
+
+        // all bins included
+        displayRange = DisplayRangeEstimator.calculateDisplayRange( histogram, 0, 1000, 0, 100 );
+        assertArrayEquals( new double[]{ 0, 1000 }, displayRange, 1E-9 );
+    }
+
+    @Test
+    void estimateFromSampledImage() {
+        ArrayImg<UnsignedByteType, ByteArray> image = ArrayImgs.unsignedBytes( 16, 16, 16 );
+        RandomAccess<UnsignedByteType> access = image.randomAccess();
+        for ( int z = 0; z < 16; z++ ) {
+            for ( int y = 0; y < 16; y++ ) {
+                for ( int x = 0; x < 16; x++ ) {
+                    access.setPosition( new long[]{ x, y, z } );
+                    access.get().set( x < 8 ? 50 : 150 );
+                }
+            }
+        }
+
+        // stride of 2 along each axis
+        double[] displayRange = DisplayRangeEstimator.estimate( image, 8 * 8 * 8, 3 );
+        assertEquals( 50, displayRange[0], 1E-9 );
+        assertEquals( 150, displayRange[1], 1E-9 );
+    }
+
+    @Test
+    void constantImageHasNonEmptyRange() {
+        ArrayImg<UnsignedByteType, ByteArray> image = ArrayImgs.unsignedBytes( 4, 4, 4 );
+        assertArrayEquals( new double[]{ 0, 1 }, DisplayRangeEstimator.estimate( image, 1000, 1 ), 1E-9 );
+    }
+}
@@ -0,0 +1,49 @@
+package de.embl.schwab.crosshair.volume;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VolumeLevelOfDetailTest {
+
+    @Test
+    void downsampleAveragesBlocks() {
+        ImageStack stack = new ImageStack( 8, 8 );
+        for ( int z = 0; z < 8; z++ ) {
+            byte[] pixels = new byte[ 8 * 8 ];
+            for ( int i = 0; i < pixels.length; i++ ) {
+                // first half of the stack 0, second half 200
+                pixels[i] = (byte) ( z < 4 ? 0 : 200 );
+            }
+            stack.addSlice( "", new ByteProcessor( 8, 8, pixels ) );
+        }
+        ImagePlus image = new ImagePlus( "test", stack );
+        image.getCalibration().pixelWidth = 0.5;
+        image.getCalibration().pixelDepth = 2;
+
+        ImagePlus coarseImage = VolumeLevelOfDetail.downsample( image, 4 );
+        ImageStack coarseStack = coarseImage.getStack();
+        assertEquals( 2, coarseStack.getWidth() );
+        assertEquals( 2, coarseStack.getHeight() );
+        assertEquals( 2, coarseStack.getSize() );
+        assertEquals( 0, coarseStack.getProcessor( 1 ).getf( 1, 1 ) );
+        assertEquals( 200, coarseStack.getProcessor( 2 ).getf( 0, 0 ) );
+
+        // same physical size as the full volume
+        assertEquals( 2, coarseImage.getCalibration().pixelWidth, 1E-9 );
+        assertEquals( 8, coarseImage.getCalibration().pixelDepth, 1E-9 );
+    }
+
+    @Test
+    void downsampleKeepsAtLeastOneVoxel() {
+        ImageStack stack = new ImageStack( 3, 3 );
+        stack.addSlice( "", new ByteProcessor( 3, 3, new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8, 9 } ) );
+        ImageStack coarseStack = VolumeLevelOfDetail.downsample( new ImagePlus( "test", stack ), 4 ).getStack();
+        assertEquals( 1, coarseStack.getWidth() );
+        assertEquals( 1, coarseStack.getSize() );
+        assertEquals( 5, coarseStack.getProcessor( 1 ).getf( 0, 0 ) );
+    }
+}
@@ -0,0 +1,52 @@
+package de.embl.schwab.crosshair.volume;
+
+import net.imglib2.RealPoint;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.junit.jupiter.api.Test;
+import org.scijava.vecmath.Vector3d;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VolumeRegionOfInterestTest {
+
+    @Test
+    void regionSpansBlockFaceAndTarget() {
+        // block face at z = 10, target plane at z = 2
+        ArrayList<RealPoint> blockVertices = new ArrayList<>();
+        blockVertices.add( new RealPoint( 0, 0, 10 ) );
+        blockVertices.add( new RealPoint( 20, 0, 10 ) );
+        blockVertices.add( new RealPoint( 20, 10, 10 ) );
+        blockVertices.add( new RealPoint( 0, 10, 10 ) );
+
+        double[][] region = VolumeRegionOfInterest.calculateRegion( blockVertices, new Vector3d( 0, 0, -3 ),
+                new Vector3d( 5, 5, 2 ), 0 );
+        assertArrayEquals( new double[]{ 0, 0, 2 }, region[0], 1E-9 );
+        assertArrayEquals( new double[]{ 20, 10, 10 }, region[1], 1E-9 );
+
+        // margin is relative to the longest side
+        double[][] regionWithMargin = VolumeRegionOfInterest.calculateRegion( blockVertices,
+                new Vector3d( 0, 0, 1 ), new Vector3d( 5, 5, 2 ), 0.1 );
+        assertArrayEquals( new double[]{ -2, -2, 0 }, regionWithMargin[0], 1E-9 );
+        assertArrayEquals( new double[]{ 22, 12, 12 }, regionWithMargin[1], 1E-9 );
+    }
+
+    @Test
+    void voxelRangeIsClippedToImage() {
+        AffineTransform3D levelTransform = new AffineTransform3D();
+        levelTransform.set( 2, 0, 0 );
+        levelTransform.set( 2, 1, 1 );
+        levelTransform.set( 2, 2, 2 );
+
+        double[][] region = new double[][]{ { -5, 3, 4 }, { 9, 7, 100 } };
+        long[][] voxelRange = VolumeRegionOfInterest.calculateVoxelRange( region, levelTransform,
+                new long[]{ 10, 10, 10 } );
+        assertArrayEquals( new long[]{ 0, 1, 2 }, voxelRange[0] );
+        assertArrayEquals( new long[]{ 5, 4, 9 }, voxelRange[1] );
+
+        double[][] outsideRegion = new double[][]{ { 50, 50, 50 }, { 60, 60, 60 } };
+        assertNull( VolumeRegionOfInterest.calculateVoxelRange( outsideRegion, levelTransform,
+                new long[]{ 10, 10, 10 } ) );
+    }
+}
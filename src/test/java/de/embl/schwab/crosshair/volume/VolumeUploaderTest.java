@@ -0,0 +1,63 @@
+package de.embl.schwab.crosshair.volume;
+
+import ij.ImagePlus;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.ByteArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VolumeUploaderTest {
+
+    @Test
+    void chooseCoarsestLevelWithinBudget() {
+        long[] levelVoxelCounts = new long[]{ 1000L * 1000 * 1000, 500L * 500 * 500, 250L * 250 * 250, 125L * 125 * 125 };
+        assertEquals( 2, VolumeUploader.chooseMipmapLevel( levelVoxelCounts, 200L * 200 * 200 ) );
+        assertEquals( 1, VolumeUploader.chooseMipmapLevel( levelVoxelCounts, 500L * 500 * 500 ) );
+        // all levels smaller than the budget - use full resolution
+        assertEquals( 0, VolumeUploader.chooseMipmapLevel( levelVoxelCounts, 2000L * 2000 * 2000 ) );
+    }
+
+    @Test
+    void outputKeepsAspectRatioWithinBudget() {
+        ArrayImg<UnsignedByteType, ByteArray> image = ArrayImgs.unsignedBytes( 200, 100, 50 );
+        int[] outputDimensions = VolumeUploader.calculateOutputDimensions( image, 100 * 50 * 25 );
+        assertArrayEquals( new int[]{ 100, 50, 25 }, outputDimensions );
+
+        // never upsampled
+        assertArrayEquals( new int[]{ 200, 100, 50 }, VolumeUploader.calculateOutputDimensions( image, Long.MAX_VALUE ) );
+    }
+
+    @Test
+    void resampleAveragesBins() {
+        ArrayImg<UnsignedByteType, ByteArray> image = ArrayImgs.unsignedBytes( 8, 8, 8 );
+        RandomAccess<UnsignedByteType> access = image.randomAccess();
+        for ( int z = 0; z < 8; z++ ) {
+            for ( int y = 0; y < 8; y++ ) {
+                for ( int x = 0; x < 8; x++ ) {
+                    access.setPosition( new long[]{ x, y, z } );
+                    // alternate 100 and 200 along x, so each 2x2x2 bin averages to 150
+                    access.get().set( x % 2 == 0 ? 100 : 200 );
+                }
+            }
+        }
+
+        ImagePlus imagePlus = VolumeUploader.resample( image, new double[]{ 0.5, 0.5, 1 }, 4 * 4 * 4, 0, 255, 2,
+                "test" );
+        assertEquals( 4, imagePlus.getWidth() );
+        assertEquals( 4, imagePlus.getHeight() );
+        assertEquals( 4, imagePlus.getStackSize() );
+        assertEquals( 1, imagePlus.getCalibration().pixelWidth, 1E-10 );
+        assertEquals( 2, imagePlus.getCalibration().pixelDepth, 1E-10 );
+
+        for ( int z = 1; z <= 4; z++ ) {
+            byte[] pixels = (byte[]) imagePlus.getStack().getPixels( z );
+            for ( byte pixel: pixels ) {
+                assertEquals( 150, pixel & 0xFF );
+            }
+        }
+    }
+}